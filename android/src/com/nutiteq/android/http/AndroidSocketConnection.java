@@ -0,0 +1,114 @@
+package com.nutiteq.android.http;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.microedition.io.SocketConnection;
+
+/**
+ * MIDP socket connection ("socket://host:port") on top of java.net socket.
+ */
+public class AndroidSocketConnection implements SocketConnection {
+  private static final int TIMEOUT = 20 * 1000;
+  private final Socket socket;
+
+  public AndroidSocketConnection(final String name, final boolean timeouts) throws IOException {
+    final String hostPort = name.substring("socket://".length());
+    final int portIndex = hostPort.lastIndexOf(':');
+    if (portIndex <= 0) {
+      throw new IllegalArgumentException("Port missing from " + name);
+    }
+
+    int portEnd = hostPort.indexOf(';', portIndex);
+    if (portEnd < 0) {
+      portEnd = hostPort.length();
+    }
+    final String host = hostPort.substring(0, portIndex);
+    final int port = Integer.parseInt(hostPort.substring(portIndex + 1, portEnd));
+    socket = new Socket();
+    if (timeouts) {
+      socket.setSoTimeout(TIMEOUT);
+    }
+    socket.connect(new InetSocketAddress(host, port), timeouts ? TIMEOUT : 0);
+  }
+
+  public void setSocketOption(final byte option, final int value) throws IOException {
+    switch (option) {
+    case DELAY:
+      socket.setTcpNoDelay(value == 0);
+      break;
+    case LINGER:
+      socket.setSoLinger(value > 0, value);
+      break;
+    case KEEPALIVE:
+      socket.setKeepAlive(value != 0);
+      break;
+    case RCVBUF:
+      socket.setReceiveBufferSize(value);
+      break;
+    case SNDBUF:
+      socket.setSendBufferSize(value);
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown socket option " + option);
+    }
+  }
+
+  public int getSocketOption(final byte option) throws IOException {
+    switch (option) {
+    case DELAY:
+      return socket.getTcpNoDelay() ? 0 : 1;
+    case LINGER:
+      return socket.getSoLinger();
+    case KEEPALIVE:
+      return socket.getKeepAlive() ? 1 : 0;
+    case RCVBUF:
+      return socket.getReceiveBufferSize();
+    case SNDBUF:
+      return socket.getSendBufferSize();
+    default:
+      throw new IllegalArgumentException("Unknown socket option " + option);
+    }
+  }
+
+  public String getLocalAddress() {
+    return socket.getLocalAddress().getHostAddress();
+  }
+
+  public int getLocalPort() {
+    return socket.getLocalPort();
+  }
+
+  public String getAddress() {
+    return socket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return socket.getPort();
+  }
+
+  public InputStream openInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  public DataInputStream openDataInputStream() throws IOException {
+    return new DataInputStream(openInputStream());
+  }
+
+  public OutputStream openOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  public DataOutputStream openDataOutputStream() throws IOException {
+    return new DataOutputStream(openOutputStream());
+  }
+
+  public void close() throws IOException {
+    socket.close();
+  }
+}
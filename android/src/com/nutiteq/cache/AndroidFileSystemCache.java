@@ -5,7 +5,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
@@ -13,12 +12,18 @@ import android.content.Context;
 import com.nutiteq.log.Log;
 import com.nutiteq.utils.IOUtils;
 
-public class AndroidFileSystemCache implements Cache {
+/**
+ * File system cache, every resource is written to separate file. Index of
+ * files and caching metadata is kept in SQLite database. Writing a file and
+ * registering it in index (and reading a file found from index) is done under
+ * cache lock, as several network workers use the cache at the same time.
+ */
+public class AndroidFileSystemCache implements ValidatingCache {
   private final String caheName;
   private final File cacheDir;
   private final int cacheSize;
   private final Context ctx;
-  private final CacheIndexDatabaseHelper database;
+  private final CacheIndex index;
 
   public AndroidFileSystemCache(final Context ctx, final String caheName, final File cacheDir,
       final int cacheSize) {
@@ -26,10 +31,28 @@ public class AndroidFileSystemCache implements Cache {
     this.caheName = caheName;
     this.cacheDir = cacheDir;
     this.cacheSize = cacheSize;
-    database = new CacheIndexDatabaseHelper(ctx, caheName);
+    index = new CacheIndex(new CacheIndexDatabaseHelper(ctx, caheName));
+  }
+
+  /**
+   * Cache with index kept in given storage, for example
+   * {@link InMemoryCacheIndexStorage}.
+   */
+  public AndroidFileSystemCache(final File cacheDir, final int cacheSize,
+      final CacheIndexStorage indexStorage) {
+    ctx = null;
+    caheName = null;
+    this.cacheDir = cacheDir;
+    this.cacheSize = cacheSize;
+    index = new CacheIndex(indexStorage);
   }
 
   public void cache(final String cacheKey, final byte[] data, final int cacheLevel) {
+    cache(cacheKey, data, null, cacheLevel);
+  }
+
+  public synchronized void cache(final String cacheKey, final byte[] data,
+      final CacheMetadata metadata, final int cacheLevel) {
     if ((cacheLevel & Cache.CACHE_LEVEL_PERSISTENT) == 0) {
       return;
     }
@@ -41,18 +64,26 @@ public class AndroidFileSystemCache implements Cache {
     cacheFile.getParentFile().mkdirs();
 
     FileOutputStream fos = null;
-    final List<String> deletedFiles = new ArrayList<String>();
     try {
       fos = new FileOutputStream(cacheFile);
       fos.write(data);
-      deletedFiles.addAll(database.addToIndex(cacheKey, cacheableKey, data.length, cacheSize));
-      deleteFilesFromFileSystem(deletedFiles);
     } catch (final IOException e) {
       Log.error("Error writing " + cacheableKey);
       Log.printStackTrace(e);
+      return;
     } finally {
       IOUtils.closeStream(fos);
     }
+    deleteFilesFromFileSystem(index.add(cacheKey, cacheableKey, data.length, metadata,
+        cacheSize));
+  }
+
+  public CacheMetadata getMetadata(final String cacheKey) {
+    return index.getMetadata(cacheKey);
+  }
+
+  public void updateMetadata(final String cacheKey, final CacheMetadata metadata) {
+    index.updateMetadata(cacheKey, metadata);
   }
 
   private void deleteFilesFromFileSystem(final List<String> deletedFiles) {
@@ -70,9 +101,7 @@ public class AndroidFileSystemCache implements Cache {
   }
 
   public boolean contains(final String cacheKey) {
-    final boolean containsKey = database.containsKey(cacheKey);
-    Log.debug("Contains 1 " + cacheKey + " : " + containsKey);
-    return containsKey;
+    return index.contains(cacheKey);
   }
 
   public boolean contains(final String cacheKey, final int cacheLevel) {
@@ -82,14 +111,12 @@ public class AndroidFileSystemCache implements Cache {
   }
 
   public void deinitialize() {
-    database.close();
+    index.close();
   }
 
-  public byte[] get(final String cacheKey) {
-    Log.debug("cache load " + cacheKey);
-    final String fileName = database.getRespourcePathForKey(cacheKey);
-
-    if ("".equals(fileName)) {
+  public synchronized byte[] get(final String cacheKey) {
+    final String fileName = index.use(cacheKey);
+    if (fileName == null) {
       return null;
     }
 
@@ -99,14 +126,23 @@ public class AndroidFileSystemCache implements Cache {
       fis = new FileInputStream(resource);
       return IOUtils.readFullyAndClose(fis);
     } catch (final FileNotFoundException e) {
-      Log.printStackTrace(e);
       Log.debug("Could not load " + cacheKey);
+      // file removed outside of cache
+      index.remove(cacheKey);
       return null;
     }
   }
 
+  public byte[][] getAll(final String[] cacheKeys) {
+    final byte[][] result = new byte[cacheKeys.length][];
+    for (int i = 0; i < cacheKeys.length; i++) {
+      result[i] = get(cacheKeys[i]);
+    }
+    return result;
+  }
+
   public void initialize() {
-    Log.debug("ZZZZZZZZZZZZZZZZZZZZZZZZZ Initialize fs cache");
-    database.open();
+    Log.debug("Initialize fs cache");
+    index.open();
   }
 }
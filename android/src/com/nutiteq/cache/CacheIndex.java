@@ -0,0 +1,252 @@
+package com.nutiteq.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Index of cached resources for {@link AndroidFileSystemCache}.
+ * </p>
+ *
+ * <p>
+ * All entries are kept in memory in LRU order with running total size, so
+ * lookups do not query persistent storage and eviction is LRU, not FIFO.
+ * Additions and removals are written to storage immediately, used times of
+ * read entries are collected and written in batches.
+ * </p>
+ */
+public class CacheIndex {
+  private static final int TOUCH_BATCH_SIZE = 32;
+  private static final long TOUCH_FLUSH_INTERVAL = 10000;
+
+  private final CacheIndexStorage storage;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64,
+      0.75f, true);
+  private final Map<String, Long> pendingTouches = new HashMap<String, Long>();
+  private long totalSize;
+  private long lastTouchFlush;
+
+  public CacheIndex(final CacheIndexStorage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Open storage and load entries.
+   */
+  public synchronized void open() {
+    storage.open();
+    entries.clear();
+    pendingTouches.clear();
+    totalSize = 0;
+    final List<Entry> loaded = storage.loadEntries();
+    for (final Entry entry : loaded) {
+      final Entry old = entries.put(entry.cacheKey, entry);
+      if (old != null) {
+        totalSize -= old.size;
+      }
+      totalSize += entry.size;
+    }
+    lastTouchFlush = System.currentTimeMillis();
+  }
+
+  /**
+   * Write pending changes and close storage.
+   */
+  public synchronized void close() {
+    flushTouches();
+    storage.close();
+    entries.clear();
+    totalSize = 0;
+  }
+
+  public synchronized boolean contains(final String cacheKey) {
+    return entries.containsKey(cacheKey);
+  }
+
+  /**
+   * Get resource path for key and mark entry used.
+   *
+   * @return resource path or null, if key is not in index
+   */
+  public synchronized String use(final String cacheKey) {
+    final Entry entry = entries.get(cacheKey);
+    if (entry == null) {
+      return null;
+    }
+
+    final long now = System.currentTimeMillis();
+    entry.used = now;
+    pendingTouches.put(cacheKey, Long.valueOf(now));
+    if (pendingTouches.size() >= TOUCH_BATCH_SIZE
+        || now - lastTouchFlush >= TOUCH_FLUSH_INTERVAL) {
+      flushTouches();
+    }
+    return entry.resourcePath;
+  }
+
+  /**
+   * Add resource to index and remove least recently used resources, until
+   * total size is within given limit. Added resource itself is not removed.
+   *
+   * @return paths of removed resources, not including path of added resource
+   */
+  public synchronized List<String> add(final String cacheKey, final String resourcePath,
+      final int resourceSize, final long maxSize) {
+    return add(cacheKey, resourcePath, resourceSize, null, maxSize);
+  }
+
+  /**
+   * Add resource with caching metadata to index, see
+   * {@link #add(String, String, int, long)}.
+   */
+  public synchronized List<String> add(final String cacheKey, final String resourcePath,
+      final int resourceSize, final CacheMetadata metadata, final long maxSize) {
+    final Entry entry = new Entry(cacheKey, resourcePath, resourceSize, System
+        .currentTimeMillis(), metadata);
+    final List<String> removedPaths = new ArrayList<String>();
+    final Entry old = entries.put(cacheKey, entry);
+    if (old != null) {
+      totalSize -= old.size;
+      pendingTouches.remove(cacheKey);
+      if (!old.resourcePath.equals(resourcePath)) {
+        removedPaths.add(old.resourcePath);
+      }
+    }
+    totalSize += resourceSize;
+    storage.put(entry);
+
+    final List<String> removedKeys = new ArrayList<String>();
+    final Iterator<Entry> i = entries.values().iterator();
+    while (totalSize > maxSize && i.hasNext()) {
+      final Entry eldest = i.next();
+      if (eldest == entry) {
+        continue;
+      }
+      i.remove();
+      totalSize -= eldest.size;
+      pendingTouches.remove(eldest.cacheKey);
+      removedKeys.add(eldest.cacheKey);
+      // normalized keys can share a file
+      if (!eldest.resourcePath.equals(resourcePath)) {
+        removedPaths.add(eldest.resourcePath);
+      }
+    }
+
+    if (!removedKeys.isEmpty()) {
+      storage.remove(removedKeys);
+    }
+    return removedPaths;
+  }
+
+  /**
+   * @return caching metadata or null, if key is not in index or has no
+   *         metadata
+   */
+  public synchronized CacheMetadata getMetadata(final String cacheKey) {
+    final Entry entry = entries.get(cacheKey);
+    return entry == null ? null : entry.metadata;
+  }
+
+  /**
+   * Replace caching metadata of indexed resource. Entry is marked used, as
+   * metadata is replaced when resource is revalidated for use.
+   */
+  public synchronized void updateMetadata(final String cacheKey, final CacheMetadata metadata) {
+    final Entry entry = entries.get(cacheKey);
+    if (entry == null) {
+      return;
+    }
+    entry.metadata = metadata;
+    entry.used = System.currentTimeMillis();
+    pendingTouches.remove(cacheKey);
+    storage.put(entry);
+  }
+
+  /**
+   * Remove resource from index, for example when resource file is missing.
+   *
+   * @return path of removed resource or null, if key was not in index
+   */
+  public synchronized String remove(final String cacheKey) {
+    final Entry removed = entries.remove(cacheKey);
+    if (removed == null) {
+      return null;
+    }
+
+    totalSize -= removed.size;
+    pendingTouches.remove(cacheKey);
+    final List<String> keys = new ArrayList<String>(1);
+    keys.add(cacheKey);
+    storage.remove(keys);
+    return removed.resourcePath;
+  }
+
+  /**
+   * Write collected used times to storage.
+   */
+  public synchronized void flushTouches() {
+    lastTouchFlush = System.currentTimeMillis();
+    if (pendingTouches.isEmpty()) {
+      return;
+    }
+    storage.touch(new HashMap<String, Long>(pendingTouches));
+    pendingTouches.clear();
+  }
+
+  public synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Indexed resource
+   */
+  public static class Entry {
+    private final String cacheKey;
+    private final String resourcePath;
+    private final int size;
+    private long used;
+    private CacheMetadata metadata;
+
+    public Entry(final String cacheKey, final String resourcePath, final int size,
+        final long used) {
+      this(cacheKey, resourcePath, size, used, null);
+    }
+
+    public Entry(final String cacheKey, final String resourcePath, final int size,
+        final long used, final CacheMetadata metadata) {
+      this.cacheKey = cacheKey;
+      this.resourcePath = resourcePath;
+      this.size = size;
+      this.used = used;
+      this.metadata = metadata;
+    }
+
+    public String getCacheKey() {
+      return cacheKey;
+    }
+
+    public String getResourcePath() {
+      return resourcePath;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public long getUsed() {
+      return used;
+    }
+
+    public CacheMetadata getMetadata() {
+      return metadata;
+    }
+  }
+}
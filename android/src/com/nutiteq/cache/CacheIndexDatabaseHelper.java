@@ -1,32 +1,46 @@
 package com.nutiteq.cache;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
-public class CacheIndexDatabaseHelper {
-  private static final int DATABASE_VERSION = 1;
+/**
+ * SQLite storage for {@link CacheIndex}.
+ */
+public class CacheIndexDatabaseHelper implements CacheIndexStorage {
+  private static final int DATABASE_VERSION = 3;
   public static final String CACHE_INDEX_TABLE = "cache_index";
   private static final String CREATE_CACHE_INDEX_TABLE = "CREATE TABLE "
       + CACHE_INDEX_TABLE
       + " (id INTEGER PRIMARY KEY AUTOINCREMENT, cache_key TEXT NOT NULL, "
-      + "resource_path TEXT_NOT_NULL, resource_size INTEGER NOT NULL, used_timestamp INTEGER NOT NULL)";
+      + "resource_path TEXT_NOT_NULL, resource_size INTEGER NOT NULL, "
+      + "used_timestamp INTEGER NOT NULL, metadata BLOB)";
+  private static final String CREATE_CACHE_KEY_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS "
+      + "cache_index_key ON " + CACHE_INDEX_TABLE + " (cache_key)";
+  // version 1 did not prevent duplicate keys, keep latest
+  private static final String DELETE_DUPLICATE_KEYS = "DELETE FROM " + CACHE_INDEX_TABLE
+      + " WHERE id NOT IN (SELECT MAX(id) FROM " + CACHE_INDEX_TABLE + " GROUP BY cache_key)";
+  private static final String ADD_METADATA_COLUMN = "ALTER TABLE " + CACHE_INDEX_TABLE
+      + " ADD COLUMN metadata BLOB";
   private final Context ctx;
   private DatabaseHelper databaseHelper;
   private final String databaseName;
-  public SQLiteDatabase database;
+  private SQLiteDatabase database;
 
-  private static final String KEY_ID = "id";
   private static final String KEY_CACHE_KEY = "cache_key";
   public static final String KEY_RESOURCE_PATH = "resource_path";
   public static final String KEY_RESOURCE_SIZE = "resource_size";
   private static final String KEY_USED_TIMESTAMP = "used_timestamp";
+  private static final String KEY_METADATA = "metadata";
 
   private static final String LOG_TAG = "CacheIndexDatabaseHelper";
 
@@ -38,11 +52,18 @@ public class CacheIndexDatabaseHelper {
     @Override
     public void onCreate(final SQLiteDatabase db) {
       db.execSQL(CREATE_CACHE_INDEX_TABLE);
+      db.execSQL(CREATE_CACHE_KEY_INDEX);
     }
 
     @Override
     public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-      onCreate(db);
+      if (oldVersion < 2) {
+        db.execSQL(DELETE_DUPLICATE_KEYS);
+        db.execSQL(CREATE_CACHE_KEY_INDEX);
+      }
+      if (oldVersion < 3) {
+        db.execSQL(ADD_METADATA_COLUMN);
+      }
     }
   }
 
@@ -60,84 +81,72 @@ public class CacheIndexDatabaseHelper {
     databaseHelper.close();
   }
 
-  public boolean containsKey(final String cacheKey) {
+  public List<CacheIndex.Entry> loadEntries() {
     final long start = System.currentTimeMillis();
-    final Cursor c = database.query(CACHE_INDEX_TABLE, new String[] { KEY_ID }, "cache_key = ?",
-        new String[] { cacheKey }, null, null, null);
-    final boolean hasKey = c.moveToFirst();
+    final Cursor c = database.query(CACHE_INDEX_TABLE, new String[] { KEY_CACHE_KEY,
+        KEY_RESOURCE_PATH, KEY_RESOURCE_SIZE, KEY_USED_TIMESTAMP, KEY_METADATA }, null, null,
+        null, null,
+        KEY_USED_TIMESTAMP + " ASC");
+    final List<CacheIndex.Entry> result = new ArrayList<CacheIndex.Entry>(c.getCount());
+    while (c.moveToNext()) {
+      final CacheMetadata metadata = c.isNull(4) ? null : CacheMetadata.fromBytes(c.getBlob(4));
+      result.add(new CacheIndex.Entry(c.getString(0), c.getString(1), c.getInt(2), c.getLong(3),
+          metadata));
+    }
     c.close();
-    Log.d(LOG_TAG, "execution time " + (System.currentTimeMillis() - start));
-    return hasKey;
+    Log.d(LOG_TAG, "Loaded " + result.size() + " entries in "
+        + (System.currentTimeMillis() - start));
+    return result;
   }
 
-  public List<String> addToIndex(final String cacheKey, final String resourcePath,
-      final int resourceSize, final int cacheSize) {
+  public void put(final CacheIndex.Entry entry) {
     final ContentValues values = new ContentValues();
-    values.put(KEY_CACHE_KEY, cacheKey);
-    values.put(KEY_RESOURCE_PATH, resourcePath);
-    values.put(KEY_RESOURCE_SIZE, resourceSize);
-    values.put(KEY_USED_TIMESTAMP, System.currentTimeMillis());
-    database.insert(CACHE_INDEX_TABLE, null, values);
-
-    final Cursor c = database.rawQuery("SELECT SUM(resource_size) FROM cache_index", null);
-    int totalSize = 0;
-    if (c.moveToFirst()) {
-      totalSize = c.getInt(0);
-    }
-    c.close();
-
-    Log.d(LOG_TAG, "maxSize = " + cacheSize + " currentSize = " + totalSize);
-    if (totalSize < cacheSize) {
-      return new ArrayList<String>();
+    values.put(KEY_CACHE_KEY, entry.getCacheKey());
+    values.put(KEY_RESOURCE_PATH, entry.getResourcePath());
+    values.put(KEY_RESOURCE_SIZE, entry.getSize());
+    values.put(KEY_USED_TIMESTAMP, entry.getUsed());
+    if (entry.getMetadata() != null) {
+      values.put(KEY_METADATA, entry.getMetadata().toBytes());
     } else {
-      return reduceCacheSize(totalSize - cacheSize);
-    }
-  }
-
-  private List<String> reduceCacheSize(final int bytesNeededToFree) {
-    final Cursor c = database.query(CACHE_INDEX_TABLE, new String[] { KEY_RESOURCE_PATH,
-        KEY_RESOURCE_SIZE }, null, null, null, null, "used_timestamp ASC");
-    final List<String> removedFiles = new ArrayList<String>();
-
-    int moreBytesNeeded = bytesNeededToFree;
-    while (c.moveToNext() && moreBytesNeeded > 0) {
-      removedFiles.add(c.getString(0));
-      moreBytesNeeded -= c.getInt(1);
+      values.putNull(KEY_METADATA);
     }
-    c.close();
-
-    deleteFilesFromIndex(removedFiles);
-
-    return removedFiles;
+    // unique key index turns this into update for existing key
+    database.replace(CACHE_INDEX_TABLE, null, values);
   }
 
-  public void deleteFilesFromIndex(final List<String> removedFiles) {
-    final String[] files = removedFiles.toArray(new String[removedFiles.size()]);
-    final StringBuffer whereClause = new StringBuffer();
-    for (int i = 0; i < files.length; i++) {
-      whereClause.append(KEY_RESOURCE_PATH).append(" = ?");
-      if (i != files.length - 1) {
-        whereClause.append(" OR ");
+  public void remove(final List<String> cacheKeys) {
+    final SQLiteStatement delete = database.compileStatement("DELETE FROM " + CACHE_INDEX_TABLE
+        + " WHERE " + KEY_CACHE_KEY + " = ?");
+    database.beginTransaction();
+    try {
+      for (final String key : cacheKeys) {
+        delete.bindString(1, key);
+        delete.execute();
       }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+      delete.close();
     }
-
-    database.beginTransaction();
-    final int affectedRows = database.delete(CACHE_INDEX_TABLE, whereClause.toString(), files);
-    database.setTransactionSuccessful();
-    database.endTransaction();
-    Log.d(LOG_TAG, "Needed to delete " + removedFiles.size() + ", deleted " + affectedRows);
+    Log.d(LOG_TAG, "Deleted " + cacheKeys.size());
   }
 
-  public String getRespourcePathForKey(final String cacheKey) {
-    final Cursor c = database.query(CACHE_INDEX_TABLE, new String[] { KEY_RESOURCE_PATH },
-        KEY_CACHE_KEY + " = ?", new String[] { cacheKey }, null, null, null);
-
-    String resourcePath = "";
-    if (c.moveToFirst()) {
-      resourcePath = c.getString(0);
+  public void touch(final Map<String, Long> usedTimes) {
+    final SQLiteStatement update = database.compileStatement("UPDATE " + CACHE_INDEX_TABLE
+        + " SET " + KEY_USED_TIMESTAMP + " = ? WHERE " + KEY_CACHE_KEY + " = ?");
+    database.beginTransaction();
+    try {
+      final Iterator<Map.Entry<String, Long>> i = usedTimes.entrySet().iterator();
+      while (i.hasNext()) {
+        final Map.Entry<String, Long> touched = i.next();
+        update.bindLong(1, touched.getValue().longValue());
+        update.bindString(2, touched.getKey());
+        update.execute();
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+      update.close();
     }
-    c.close();
-
-    return resourcePath;
   }
 }
@@ -0,0 +1,39 @@
+package com.nutiteq.cache;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent storage for {@link CacheIndex}. Index keeps all entries in memory
+ * and uses storage only for loading on start and for writing changes.
+ */
+public interface CacheIndexStorage {
+  void open();
+
+  void close();
+
+  /**
+   * Load all entries.
+   *
+   * @return entries, least recently used first
+   */
+  List<CacheIndex.Entry> loadEntries();
+
+  /**
+   * Add entry or replace existing entry with same key.
+   */
+  void put(CacheIndex.Entry entry);
+
+  /**
+   * Remove entries with given keys in one transaction.
+   */
+  void remove(List<String> cacheKeys);
+
+  /**
+   * Update used times in one transaction.
+   *
+   * @param usedTimes
+   *          cache key to used timestamp
+   */
+  void touch(Map<String, Long> usedTimes);
+}
@@ -0,0 +1,87 @@
+package com.nutiteq.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CacheIndexStorage} kept in memory. Index is lost with storage, so it
+ * suits caches that do not need to survive restart, and tests.
+ */
+public class InMemoryCacheIndexStorage implements CacheIndexStorage {
+  private final Map<String, CacheIndex.Entry> entries = new HashMap<String, CacheIndex.Entry>();
+  private int touchBatches;
+
+  public synchronized void open() {
+  }
+
+  public synchronized void close() {
+  }
+
+  public synchronized List<CacheIndex.Entry> loadEntries() {
+    final List<CacheIndex.Entry> result = new ArrayList<CacheIndex.Entry>(entries.size());
+    for (final CacheIndex.Entry entry : entries.values()) {
+      result.add(copy(entry, entry.getUsed()));
+    }
+    Collections.sort(result, new Comparator<CacheIndex.Entry>() {
+      public int compare(final CacheIndex.Entry e1, final CacheIndex.Entry e2) {
+        return e1.getUsed() < e2.getUsed() ? -1 : (e1.getUsed() == e2.getUsed() ? 0 : 1);
+      }
+    });
+    return result;
+  }
+
+  public synchronized void put(final CacheIndex.Entry entry) {
+    // index changes its entries, keep stored state apart
+    entries.put(entry.getCacheKey(), copy(entry, entry.getUsed()));
+  }
+
+  public synchronized void remove(final List<String> cacheKeys) {
+    for (final String key : cacheKeys) {
+      entries.remove(key);
+    }
+  }
+
+  public synchronized void touch(final Map<String, Long> usedTimes) {
+    touchBatches++;
+    final Iterator<Map.Entry<String, Long>> i = usedTimes.entrySet().iterator();
+    while (i.hasNext()) {
+      final Map.Entry<String, Long> touched = i.next();
+      final CacheIndex.Entry entry = entries.get(touched.getKey());
+      if (entry != null) {
+        entries.put(entry.getCacheKey(), copy(entry, touched.getValue().longValue()));
+      }
+    }
+  }
+
+  /**
+   * Number of stored entries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Stored used time of entry, -1 if entry is not stored
+   */
+  public synchronized long getUsed(final String cacheKey) {
+    final CacheIndex.Entry entry = entries.get(cacheKey);
+    return entry == null ? -1 : entry.getUsed();
+  }
+
+  /**
+   * Number of {@link #touch(Map)} calls
+   */
+  public synchronized int getTouchBatches() {
+    return touchBatches;
+  }
+
+  private static CacheIndex.Entry copy(final CacheIndex.Entry entry, final long used) {
+    return new CacheIndex.Entry(entry.getCacheKey(), entry.getResourcePath(), entry.getSize(),
+        used, entry.getMetadata());
+  }
+}
@@ -0,0 +1,604 @@
+package com.nutiteq.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.nutiteq.log.Log;
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * <p>
+ * Persistent cache storing cached data in a few large segment files instead of
+ * file per cached element.
+ * </p>
+ *
+ * <p>
+ * New data is appended to active segment, until it reaches segment size and
+ * new segment is started. Locations of cached data are kept in memory in LRU
+ * order and data is read with positional reads. Evicted data is only removed
+ * from index. Segments without live data are deleted and segments with mostly
+ * evicted data are compacted by copying their live data to active segment.
+ * </p>
+ *
+ * <p>
+ * Index is written to checkpoint file periodically, before segments are deleted
+ * and on {@link #deinitialize()}. On {@link #initialize()} checkpoint is loaded and
+ * data appended after it is found by scanning segments, so cache survives
+ * application being killed. Every record has a checksum and partially written
+ * records are cut off.
+ * </p>
+ */
+public class PackFileCache implements Cache {
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final int RECORD_MAGIC = 0x4E545043;
+  // magic, checksum, data length
+  private static final int RECORD_HEADER_SIZE = 12;
+  private static final int CHECKPOINT_VERSION = 2;
+  private static final int CHECKPOINT_INTERVAL = 256;
+  private static final String SEGMENT_PREFIX = "segment_";
+  private static final String SEGMENT_SUFFIX = ".pack";
+  private static final String CHECKPOINT_FILE = "index.chk";
+
+  private final File cacheDir;
+  private final long maxSize;
+  private final int segmentSize;
+
+  private final LinkedHashMap<String, Location> index = new LinkedHashMap<String, Location>(256,
+      0.75f, true);
+  private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+  private Segment active;
+  private int nextSegmentId;
+  private long liveBytes;
+  private int changesSinceCheckpoint;
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * @param cacheDir
+   *          directory for segment and checkpoint files
+   * @param maxSize
+   *          maximum size of cached data in bytes
+   */
+  public PackFileCache(final File cacheDir, final long maxSize) {
+    this(cacheDir, maxSize, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param cacheDir
+   *          directory for segment and checkpoint files
+   * @param maxSize
+   *          maximum size of cached data in bytes
+   * @param segmentSize
+   *          size of segment files
+   */
+  public PackFileCache(final File cacheDir, final long maxSize, final int segmentSize) {
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+  }
+
+  public synchronized void initialize() {
+    cacheDir.mkdirs();
+    index.clear();
+    segments.clear();
+    liveBytes = 0;
+    nextSegmentId = 0;
+    active = null;
+
+    try {
+      final int[] ids = listSegments();
+      for (int i = 0; i < ids.length; i++) {
+        final Segment segment = new Segment(ids[i], segmentFile(ids[i]));
+        segments.put(Integer.valueOf(ids[i]), segment);
+        nextSegmentId = Math.max(nextSegmentId, ids[i] + 1);
+      }
+
+      final Map<Integer, Long> checkpointed = readCheckpoint();
+      for (int i = 0; i < ids.length; i++) {
+        final Long scanFrom = checkpointed.get(Integer.valueOf(ids[i]));
+        scan(segments.get(Integer.valueOf(ids[i])), scanFrom == null ? 0 : scanFrom
+            .longValue());
+      }
+
+      // last segment continues as active, if there is room
+      if (ids.length > 0) {
+        final Segment last = segments.get(Integer.valueOf(ids[ids.length - 1]));
+        if (last.length < segmentSize) {
+          active = last;
+        }
+      }
+      evict();
+      deleteEmptySegments();
+      Log.debug("Pack cache: " + index.size() + " elements, " + liveBytes + " bytes in "
+          + segments.size() + " segments");
+    } catch (final IOException e) {
+      Log.error("Pack cache: initialize " + e.getMessage());
+      Log.printStackTrace(e);
+    }
+  }
+
+  public synchronized void deinitialize() {
+    try {
+      checkpoint();
+    } catch (final IOException e) {
+      Log.error("Pack cache: checkpoint " + e.getMessage());
+    }
+
+    final Iterator<Segment> i = segments.values().iterator();
+    while (i.hasNext()) {
+      i.next().close();
+    }
+    segments.clear();
+    index.clear();
+    active = null;
+  }
+
+  public synchronized byte[] get(final String cacheKey) {
+    final Location location = index.get(cacheKey);
+    if (location == null) {
+      return null;
+    }
+
+    try {
+      return read(location);
+    } catch (final IOException e) {
+      Log.error("Pack cache: read " + cacheKey + " " + e.getMessage());
+      remove(cacheKey);
+      return null;
+    }
+  }
+
+  public synchronized byte[][] getAll(final String[] cacheKeys) {
+    final byte[][] result = new byte[cacheKeys.length][];
+    for (int i = 0; i < cacheKeys.length; i++) {
+      result[i] = get(cacheKeys[i]);
+    }
+    return result;
+  }
+
+  public synchronized void cache(final String cacheKey, final byte[] data, final int cacheLevel) {
+    if ((cacheLevel & CACHE_LEVEL_PERSISTENT) != CACHE_LEVEL_PERSISTENT || data == null
+        || data.length == 0 || data.length > maxSize) {
+      return;
+    }
+
+    try {
+      final Location location = append(cacheKey, data);
+      final Location old = index.put(cacheKey, location);
+      if (old != null) {
+        release(old);
+      }
+      evict();
+      compact();
+      if (++changesSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+        checkpoint();
+      }
+    } catch (final IOException e) {
+      Log.error("Pack cache: write " + cacheKey + " " + e.getMessage());
+      Log.printStackTrace(e);
+    }
+  }
+
+  public synchronized boolean contains(final String cacheKey) {
+    return index.containsKey(cacheKey);
+  }
+
+  public boolean contains(final String cacheKey, final int cacheLevel) {
+    return (cacheLevel & CACHE_LEVEL_PERSISTENT) == CACHE_LEVEL_PERSISTENT && contains(cacheKey);
+  }
+
+  private void remove(final String cacheKey) {
+    final Location removed = index.remove(cacheKey);
+    if (removed != null) {
+      release(removed);
+    }
+  }
+
+  private void release(final Location location) {
+    final Segment segment = segments.get(Integer.valueOf(location.segment));
+    if (segment != null) {
+      segment.liveBytes -= location.recordLength;
+    }
+    liveBytes -= location.recordLength;
+  }
+
+  /**
+   * Remove least recently used elements from index, until cache is within
+   * limits.
+   */
+  private void evict() {
+    final Iterator<Location> i = index.values().iterator();
+    while (liveBytes > maxSize && i.hasNext()) {
+      final Location eldest = i.next();
+      i.remove();
+      release(eldest);
+    }
+  }
+
+  /**
+   * Delete segments without live data. When segment files take more space than
+   * cached data and one segment, live data of the most empty segment is moved
+   * to active segment.
+   */
+  private void compact() throws IOException {
+    deleteEmptySegments();
+
+    long fileBytes = 0;
+    Segment emptiest = null;
+    final Iterator<Segment> i = segments.values().iterator();
+    while (i.hasNext()) {
+      final Segment segment = i.next();
+      fileBytes += segment.length;
+      if (segment != active
+          && (emptiest == null || segment.liveBytes * emptiest.length < emptiest.liveBytes
+              * segment.length)) {
+        emptiest = segment;
+      }
+    }
+
+    if (emptiest == null || fileBytes <= liveBytes + segmentSize) {
+      return;
+    }
+
+    // locations are changed in place, so that LRU order is kept
+    final Iterator<Map.Entry<String, Location>> entries = index.entrySet().iterator();
+    while (entries.hasNext()) {
+      final Map.Entry<String, Location> entry = entries.next();
+      final Location location = entry.getValue();
+      if (location.segment != emptiest.id) {
+        continue;
+      }
+      final Location moved = append(entry.getKey(), read(location));
+      release(location);
+      location.segment = moved.segment;
+      location.offset = moved.offset;
+    }
+
+    // checkpoint must not point to deleted segment
+    checkpoint();
+    deleteSegment(emptiest);
+  }
+
+  private void deleteEmptySegments() throws IOException {
+    final List<Segment> empty = new ArrayList<Segment>();
+    final Iterator<Segment> i = segments.values().iterator();
+    while (i.hasNext()) {
+      final Segment segment = i.next();
+      if (segment != active && segment.liveBytes <= 0) {
+        empty.add(segment);
+      }
+    }
+    if (empty.isEmpty()) {
+      return;
+    }
+
+    // checkpoint keeps next segment id, so that deleted id is not reused and
+    // matched with old checkpointed length
+    checkpoint();
+    for (int j = 0; j < empty.size(); j++) {
+      deleteSegment(empty.get(j));
+    }
+  }
+
+  private void deleteSegment(final Segment segment) {
+    segment.close();
+    segments.remove(Integer.valueOf(segment.id));
+    if (!segment.file.delete()) {
+      Log.error("Pack cache: could not delete " + segment.file);
+    }
+  }
+
+  private Location append(final String cacheKey, final byte[] data) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + cacheKey.length()
+        + RECORD_HEADER_SIZE + 2);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    crc.reset();
+    crc.update(data);
+    out.writeInt(RECORD_MAGIC);
+    out.writeInt((int) crc.getValue());
+    out.writeInt(data.length);
+    out.writeUTF(cacheKey);
+    final int dataOffset = out.size();
+    out.write(data);
+    out.flush();
+    final byte[] record = bytes.toByteArray();
+
+    if (active == null || (active.length > 0 && active.length + record.length > segmentSize)) {
+      active = new Segment(nextSegmentId++, segmentFile(nextSegmentId - 1));
+      segments.put(Integer.valueOf(active.id), active);
+    }
+
+    final long offset = active.length;
+    active.write(record, offset);
+    active.length += record.length;
+    active.liveBytes += record.length;
+    liveBytes += record.length;
+    return new Location(active.id, offset + dataOffset, data.length, record.length);
+  }
+
+  private byte[] read(final Location location) throws IOException {
+    final Segment segment = segments.get(Integer.valueOf(location.segment));
+    if (segment == null) {
+      throw new IOException("Missing segment " + location.segment);
+    }
+    final byte[] result = new byte[location.length];
+    segment.read(result, location.offset);
+    return result;
+  }
+
+  /**
+   * Add records from given position to index. Scanning stops at first broken
+   * record and segment is cut there.
+   */
+  private void scan(final Segment segment, final long from) throws IOException {
+    long position = from;
+    final byte[] header = new byte[RECORD_HEADER_SIZE + 2];
+    while (position + header.length <= segment.length) {
+      segment.read(header, position);
+      final DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+      final int magic = in.readInt();
+      final int checksum = in.readInt();
+      final int dataLength = in.readInt();
+      final int keyLength = in.readUnsignedShort();
+      final long dataOffset = position + header.length + keyLength;
+      if (magic != RECORD_MAGIC || dataLength < 0 || dataOffset + dataLength > segment.length) {
+        break;
+      }
+
+      final byte[] keyAndData = new byte[keyLength + dataLength];
+      segment.read(keyAndData, position + header.length);
+      crc.reset();
+      crc.update(keyAndData, keyLength, dataLength);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+
+      final byte[] utf = new byte[keyLength + 2];
+      utf[0] = (byte) (keyLength >> 8);
+      utf[1] = (byte) keyLength;
+      System.arraycopy(keyAndData, 0, utf, 2, keyLength);
+      final String key = new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+
+      final int recordLength = (int) (dataOffset + dataLength - position);
+      final Location old = index.put(key, new Location(segment.id, dataOffset, dataLength,
+          recordLength));
+      if (old != null) {
+        release(old);
+      }
+      segment.liveBytes += recordLength;
+      liveBytes += recordLength;
+      position += recordLength;
+    }
+
+    if (position < segment.length) {
+      Log.debug("Pack cache: cutting " + segment.file + " at " + position);
+      segment.truncate(position);
+    }
+  }
+
+  /**
+   * Read checkpointed index.
+   *
+   * @return checkpointed length for every segment in checkpoint
+   */
+  private Map<Integer, Long> readCheckpoint() {
+    final Map<Integer, Long> lengths = new HashMap<Integer, Long>();
+    final File file = new File(cacheDir, CHECKPOINT_FILE);
+    if (!file.exists()) {
+      return lengths;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(file));
+      if (in.readInt() != CHECKPOINT_VERSION) {
+        return lengths;
+      }
+      nextSegmentId = Math.max(nextSegmentId, in.readInt());
+
+      final Map<Integer, Long> read = new HashMap<Integer, Long>();
+      final int segmentCount = in.readInt();
+      for (int i = 0; i < segmentCount; i++) {
+        final int id = in.readInt();
+        final long length = in.readLong();
+        final Segment segment = segments.get(Integer.valueOf(id));
+        // shorter segment than checkpointed is not trusted, it is scanned
+        if (segment != null && segment.length >= length) {
+          read.put(Integer.valueOf(id), Long.valueOf(length));
+        }
+      }
+
+      final int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        final String key = in.readUTF();
+        final Location location = new Location(in.readInt(), in.readLong(), in.readInt(), in
+            .readInt());
+        if (!read.containsKey(Integer.valueOf(location.segment))) {
+          continue;
+        }
+        final Location old = index.put(key, location);
+        if (old != null) {
+          release(old);
+        }
+        segments.get(Integer.valueOf(location.segment)).liveBytes += location.recordLength;
+        liveBytes += location.recordLength;
+      }
+      lengths.putAll(read);
+    } catch (final IOException e) {
+      // broken checkpoint, index is rebuilt from segments
+      Log.error("Pack cache: checkpoint " + e.getMessage());
+      index.clear();
+      liveBytes = 0;
+      final Iterator<Segment> i = segments.values().iterator();
+      while (i.hasNext()) {
+        i.next().liveBytes = 0;
+      }
+      lengths.clear();
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    return lengths;
+  }
+
+  /**
+   * Write index to checkpoint file. Segments are synced before, checkpoint is
+   * written to temporary file and renamed, so existing checkpoint stays valid
+   * until new one is complete.
+   */
+  private void checkpoint() throws IOException {
+    changesSinceCheckpoint = 0;
+    final Iterator<Segment> s = segments.values().iterator();
+    while (s.hasNext()) {
+      s.next().sync();
+    }
+
+    final File temp = new File(cacheDir, CHECKPOINT_FILE + ".tmp");
+    final FileOutputStream fos = new FileOutputStream(temp);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      out.writeInt(CHECKPOINT_VERSION);
+      out.writeInt(nextSegmentId);
+      out.writeInt(segments.size());
+      final Iterator<Segment> i = segments.values().iterator();
+      while (i.hasNext()) {
+        final Segment segment = i.next();
+        out.writeInt(segment.id);
+        out.writeLong(segment.length);
+      }
+
+      out.writeInt(index.size());
+      final Iterator<Map.Entry<String, Location>> entries = index.entrySet().iterator();
+      while (entries.hasNext()) {
+        final Map.Entry<String, Location> entry = entries.next();
+        final Location location = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeInt(location.segment);
+        out.writeLong(location.offset);
+        out.writeInt(location.length);
+        out.writeInt(location.recordLength);
+      }
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      IOUtils.closeStream(fos);
+    }
+
+    if (!temp.renameTo(new File(cacheDir, CHECKPOINT_FILE))) {
+      throw new IOException("Could not rename " + temp);
+    }
+  }
+
+  private int[] listSegments() {
+    final String[] names = cacheDir.list();
+    final List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; names != null && i < names.length; i++) {
+      if (names[i].startsWith(SEGMENT_PREFIX) && names[i].endsWith(SEGMENT_SUFFIX)) {
+        try {
+          ids.add(Integer.valueOf(names[i].substring(SEGMENT_PREFIX.length(), names[i].length()
+              - SEGMENT_SUFFIX.length())));
+        } catch (final NumberFormatException e) {
+          // not our file
+        }
+      }
+    }
+
+    final int[] result = new int[ids.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ids.get(i).intValue();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  private File segmentFile(final int id) {
+    return new File(cacheDir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+  }
+
+  /**
+   * Cached data location
+   */
+  private static class Location {
+    private int segment;
+    // data offset in segment
+    private long offset;
+    private final int length;
+    // whole record length, used for size accounting
+    private final int recordLength;
+
+    public Location(final int segment, final long offset, final int length,
+        final int recordLength) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.recordLength = recordLength;
+    }
+  }
+
+  private static class Segment {
+    private final int id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long length;
+    private long liveBytes;
+
+    public Segment(final int id, final File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      raf = new RandomAccessFile(file, "rw");
+      channel = raf.getChannel();
+      length = raf.length();
+    }
+
+    public void read(final byte[] buffer, final long position) throws IOException {
+      final ByteBuffer target = ByteBuffer.wrap(buffer);
+      while (target.hasRemaining()) {
+        if (channel.read(target, position + target.position()) < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+      }
+    }
+
+    public void write(final byte[] data, final long position) throws IOException {
+      final ByteBuffer source = ByteBuffer.wrap(data);
+      while (source.hasRemaining()) {
+        channel.write(source, position + source.position());
+      }
+    }
+
+    public void truncate(final long newLength) throws IOException {
+      channel.truncate(newLength);
+      length = newLength;
+    }
+
+    public void sync() throws IOException {
+      channel.force(false);
+    }
+
+    public void close() {
+      try {
+        raf.close();
+      } catch (final IOException e) {
+        Log.printStackTrace(e);
+      }
+    }
+  }
+}
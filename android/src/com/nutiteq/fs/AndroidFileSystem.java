@@ -5,7 +5,9 @@ package com.nutiteq.fs;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.Vector;
 
@@ -18,7 +20,7 @@ import com.nutiteq.utils.IOUtils;
  * 
  * @author JaakL
  */
-public class AndroidFileSystem implements FileSystem {
+public class AndroidFileSystem implements RandomAccessFileSystem {
 
   /**
    * Read a file using Java IO API.
@@ -38,6 +40,31 @@ public class AndroidFileSystem implements FileSystem {
     return IOUtils.readFullyAndClose(fis);
   }
 
+  public byte[] readFile(final String filename, final long offset, final int length)
+      throws IOException {
+    final RandomAccessFile file = new RandomAccessFile("/" + filename, "r");
+    try {
+      final byte[] result = new byte[length];
+      file.seek(offset);
+      file.readFully(result);
+      return result;
+    } finally {
+      file.close();
+    }
+  }
+
+  public long fileSize(final String filename) throws IOException {
+    final File file = new File("/" + filename);
+    if (!file.exists()) {
+      throw new FileNotFoundException("/" + filename);
+    }
+    return file.length();
+  }
+
+  public long lastModified(final String filename) {
+    return new File("/" + filename).lastModified();
+  }
+
   /**
    * List all roots in the filesystem
    * 
@@ -0,0 +1,53 @@
+package com.nutiteq.maps;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Converts MBTiles database to tile pack file for {@link TilePackMap}. Tiles
+ * are copied from <code>tiles</code> table as they are, tile pack uses same
+ * zoom, column and TMS row addressing.
+ */
+public class MBTilesConverter {
+  private MBTilesConverter() {
+
+  }
+
+  /**
+   * Write tiles of MBTiles database to tile pack file.
+   *
+   * @param mbtiles
+   *          MBTiles database file
+   * @param pack
+   *          tile pack file to write
+   * @return number of written tiles
+   */
+  public static int convert(final File mbtiles, final File pack) throws IOException {
+    final SQLiteDatabase database = SQLiteDatabase.openDatabase(mbtiles.getPath(), null,
+        SQLiteDatabase.OPEN_READONLY);
+    final TilePackWriter writer = new TilePackWriter(pack);
+    boolean written = false;
+    try {
+      final Cursor c = database.rawQuery(
+          "SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles", null);
+      try {
+        while (c.moveToNext()) {
+          writer.add(c.getInt(0), c.getInt(1), c.getInt(2), c.getBlob(3));
+        }
+      } finally {
+        c.close();
+      }
+      writer.close();
+      written = true;
+    } finally {
+      if (!written) {
+        writer.abort();
+      }
+      database.close();
+    }
+    return writer.size();
+  }
+}
@@ -0,0 +1,208 @@
+package com.nutiteq.maps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * <p>
+ * Writes tile pack file for {@link TilePackMap}. Tiles can be added in any
+ * order, they are addressed as in MBTiles <code>tiles</code> table (TMS rows).
+ * </p>
+ *
+ * <p>
+ * Tile data is written to temporary file next to pack file and only index
+ * entries are kept in memory. Pack file is assembled in {@link #close()}.
+ * </p>
+ */
+public class TilePackWriter {
+  /**
+   * Default number of tiles in index block, read with one lookup
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 128;
+
+  private static final int MAGIC = ('N' << 24) | ('T' << 16) | ('P' << 8) | 'K';
+  private static final int VERSION = 2;
+  private static final int HEADER_LENGTH = 16;
+  private static final int ZOOM_ENTRY_LENGTH = 16;
+  private static final int BLOCK_KEY_LENGTH = 8;
+  private static final int TILE_ENTRY_LENGTH = 20;
+
+  private final File file;
+  private final File dataFile;
+  private final int blockSize;
+  private final DataOutputStream data;
+  private final List<TileEntry> tiles = new ArrayList<TileEntry>();
+  private long dataLength;
+
+  public TilePackWriter(final File file) throws IOException {
+    this(file, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * @param file
+   *          tile pack file to write
+   * @param blockSize
+   *          number of tiles in index block
+   */
+  public TilePackWriter(final File file, final int blockSize) throws IOException {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Invalid block size " + blockSize);
+    }
+    this.file = file;
+    this.blockSize = blockSize;
+    dataFile = new File(file.getPath() + ".data");
+    data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+  }
+
+  /**
+   * Add tile to pack.
+   *
+   * @param zoom
+   *          zoom level
+   * @param column
+   *          tile column
+   * @param row
+   *          tile row, counted from south
+   * @param tileData
+   *          tile image data
+   */
+  public void add(final int zoom, final int column, final int row, final byte[] tileData)
+      throws IOException {
+    data.write(tileData);
+    tiles.add(new TileEntry(zoom, column, row, dataLength, tileData.length));
+    dataLength += tileData.length;
+  }
+
+  /**
+   * Number of added tiles
+   */
+  public int size() {
+    return tiles.size();
+  }
+
+  /**
+   * Write pack file and delete temporary data file.
+   *
+   * @throws IOException
+   *           if writing fails or same tile has been added twice
+   */
+  public void close() throws IOException {
+    data.close();
+    Collections.sort(tiles);
+
+    // zoom levels: first tile and tile count
+    final List<int[]> zooms = new ArrayList<int[]>();
+    for (int i = 0; i < tiles.size(); i++) {
+      final TileEntry tile = tiles.get(i);
+      if (i > 0 && tile.compareTo(tiles.get(i - 1)) == 0) {
+        abort();
+        throw new IOException("Duplicate tile " + tile.zoom + "/" + tile.column + "/" + tile.row);
+      }
+      if (zooms.isEmpty() || tiles.get(i - 1).zoom != tile.zoom) {
+        zooms.add(new int[] { i, 0 });
+      }
+      zooms.get(zooms.size() - 1)[1]++;
+    }
+
+    final long[] indexOffsets = new long[zooms.size()];
+    long position = HEADER_LENGTH + zooms.size() * ZOOM_ENTRY_LENGTH;
+    for (int i = 0; i < indexOffsets.length; i++) {
+      indexOffsets[i] = position;
+      final int count = zooms.get(i)[1];
+      position += blocks(count) * BLOCK_KEY_LENGTH + (long) count * TILE_ENTRY_LENGTH;
+    }
+    final long dataStart = position;
+
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    InputStream in = null;
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(zooms.size());
+      out.writeInt(blockSize);
+      for (int i = 0; i < indexOffsets.length; i++) {
+        out.writeInt(tiles.get(zooms.get(i)[0]).zoom);
+        out.writeInt(zooms.get(i)[1]);
+        out.writeLong(indexOffsets[i]);
+      }
+
+      for (int i = 0; i < indexOffsets.length; i++) {
+        final int first = zooms.get(i)[0];
+        final int count = zooms.get(i)[1];
+        for (int j = first; j < first + count; j += blockSize) {
+          out.writeInt(tiles.get(j).column);
+          out.writeInt(tiles.get(j).row);
+        }
+        for (int j = first; j < first + count; j++) {
+          final TileEntry tile = tiles.get(j);
+          out.writeInt(tile.column);
+          out.writeInt(tile.row);
+          out.writeLong(dataStart + tile.offset);
+          out.writeInt(tile.length);
+        }
+      }
+
+      in = new FileInputStream(dataFile);
+      final byte[] buffer = new byte[IOUtils.BUFSIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      IOUtils.closeStream(in);
+      out.close();
+      dataFile.delete();
+    }
+  }
+
+  /**
+   * Stop writing, delete temporary data file and pack file.
+   */
+  public void abort() {
+    IOUtils.closeStream(data);
+    dataFile.delete();
+    file.delete();
+  }
+
+  private int blocks(final int count) {
+    return (count + blockSize - 1) / blockSize;
+  }
+
+  private static class TileEntry implements Comparable<TileEntry> {
+    private final int zoom;
+    private final int column;
+    private final int row;
+    private final long offset;
+    private final int length;
+
+    public TileEntry(final int zoom, final int column, final int row, final long offset,
+        final int length) {
+      this.zoom = zoom;
+      this.column = column;
+      this.row = row;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    public int compareTo(final TileEntry other) {
+      if (zoom != other.zoom) {
+        return zoom < other.zoom ? -1 : 1;
+      }
+      if (column != other.column) {
+        return column < other.column ? -1 : 1;
+      }
+      return row < other.row ? -1 : (row == other.row ? 0 : 1);
+    }
+  }
+}
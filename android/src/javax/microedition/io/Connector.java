@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import com.nutiteq.android.http.AndroidHttpConnection;
+import com.nutiteq.android.http.AndroidSocketConnection;
 
 //TODO jaanus : actually android connection opener should be added
 public class Connector {
@@ -15,6 +16,7 @@ public class Connector {
   public static final int WRITE = 2;
 
   private static final String PROTOCOL_HTTP = "http:";
+  private static final String PROTOCOL_SOCKET = "socket:";
 
   private Connector() {
 
@@ -32,6 +34,8 @@ public class Connector {
       throws IOException {
     if (name.startsWith(PROTOCOL_HTTP)) {
       return new AndroidHttpConnection(name, mode, timeouts);
+    } else if (name.startsWith(PROTOCOL_SOCKET)) {
+      return new AndroidSocketConnection(name, timeouts);
     }
     return null;
   }
@@ -4,6 +4,7 @@ public interface HttpConnection extends Connection, ContentConnection, InputConn
     OutputConnection, StreamConnection {
   String GET = "GET";
   String POST = "POST";
+  int HTTP_NO_CONTENT = 204;
   int HTTP_MOVED_PERM = 301;
   int HTTP_MOVED_TEMP = 302;
   int HTTP_NOT_MODIFIED = 304;
@@ -12,6 +13,12 @@ public interface HttpConnection extends Connection, ContentConnection, InputConn
 
   String getHeaderField(String name) throws java.io.IOException;
 
+  long getExpiration() throws java.io.IOException;
+
+  long getDate() throws java.io.IOException;
+
+  long getLastModified() throws java.io.IOException;
+
   int getResponseCode() throws java.io.IOException;
 
   void setRequestMethod(String method) throws java.io.IOException;
@@ -15,21 +15,52 @@ import com.nutiteq.ui.ImageProcessor;
 
 /**
  * Caches tiles uncompressed.
+ *
+ * Tiles are stored in fixed slots (slot number is used for painting) and
+ * indexed by an open addressing hash table keyed by tile coordinates and zoom,
+ * so lookups do not need a {@link MapTile} object and do not scan the cache.
+ * Tiles no longer visible are swept only when a free slot is needed.
+ *
+ * Decoded images are shared with {@link TileImageCache}, which keeps recently
+ * removed tile images for reuse. Images are released to it, instead of being
+ * recycled directly.
+ *
+ * Public methods are synchronized: tiles are added by task workers while the
+ * paint thread looks up, adds and paints tiles.
  */
 public class ScreenCache {
   private MapTile[] tiles;
   private int size;
   private Image[] images;
+  // image cache entries, null if image is not in image cache
+  private TileImageCache.Entry[] imageEntries;
   private boolean[] valid;
+
+  // slot keys
+  private int[] keyX;
+  private int[] keyY;
+  private int[] keyZoom;
+  private GeoMap[] keyMap;
+
+  // hash index: slot + 1, 0 for empty. linear probing.
+  private int[] table;
+  private int tableMask;
+
+  // free slots stack
+  private int[] free;
+  private int freeCount;
+
   //BattleTac code starts
   //Added by Krisztian Schaffer, 2010.02.26
   private ImageProcessor imageProcessor;
   private static ScreenCache instance;
 
+  private TileImageCache imageCache;
+
   /**
    * Creates a new ScreenCache and returns it. The created instance is installed
    * as the current screen cache, the previous instance will be removed if any.
-   * 
+   *
    * @param n
    *          maximum number of tiles stored in the created cache
    */
@@ -37,6 +68,11 @@ public class ScreenCache {
     ScreenCache newInstance = new ScreenCache(n);
     if (instance != null) {
       newInstance.imageProcessor = instance.imageProcessor;
+      newInstance.imageCache = instance.imageCache;
+      // images stay in image cache and are reused by new instance
+      instance.reset();
+    } else {
+      newInstance.imageCache = new TileImageCache(TileImageCache.DEFAULT_MAX_PIXELS);
     }
     return instance = newInstance;
   }
@@ -52,60 +88,78 @@ public class ScreenCache {
 
   /**
    * Constructor for ScreenCache.
-   * 
+   *
    * @param n
    *          maximum number of tiles stored
    */
   private ScreenCache(final int n) {//BattleTac code: Modified to private by Krisztian Schaffer, 2010.03.01
     resize(n);
   }
-  
-  public void reset() {
-    for (int i = 0; i < images.length; i++) {
-        if (valid[i]) {
-//            android.util.Log.e("TEST", "reset() recycle everything " + tiles[i].getIDString());
-            images[i].getBitmap().recycle();
-            tiles[i] = null;
-            valid[i] = false;
-        }
+
+  public synchronized void reset() {
+    for (int i = 0; i < size; i++) {
+      if (valid[i]) {
+        release(i);
+      }
     }
     resize(0);
   }
 
 
   /**
-   * Resize the screen cache when switching full screen.
-   * 
+   * Resize the screen cache when switching full screen. Cached tiles are kept,
+   * as long as they fit into new size.
+   *
    * @param n
    *          new size (number of tiles)
    */
-  public void resize(final int n) {
-    final int minSize = Math.min(size, n);
-    final boolean cond = minSize > 0;
-    size = n;
+  public synchronized void resize(final int n) {
+    final MapTile[] oldTiles = tiles;
+    final Image[] oldImages = images;
+    final TileImageCache.Entry[] oldImageEntries = imageEntries;
+    final boolean[] oldValid = valid;
+    final int oldSize = size;
 
+    size = n;
+    tiles = new MapTile[n];
+    images = new Image[n];
+    imageEntries = new TileImageCache.Entry[n];
     valid = new boolean[n];
-    if (cond) {
-      final boolean[] oldValid = valid;
-      System.arraycopy(oldValid, 0, valid, 0, minSize);
+    keyX = new int[n];
+    keyY = new int[n];
+    keyZoom = new int[n];
+    keyMap = new GeoMap[n];
+
+    int tableSize = 4;
+    while (tableSize < n * 2) {
+      tableSize <<= 1;
     }
+    table = new int[tableSize];
+    tableMask = tableSize - 1;
 
-    images = new Image[n];
-    if (cond) {
-      final Image[] oldImages = images;
-      System.arraycopy(oldImages, 0, images, 0, minSize);
+    free = new int[n];
+    freeCount = 0;
+    for (int i = n - 1; i >= 0; i--) {
+      free[freeCount++] = i;
     }
 
-    tiles = new MapTile[n];
-    if (cond) {
-      final MapTile[] oldTiles = tiles;
-      System.arraycopy(oldTiles, 0, tiles, 0, minSize);
+    for (int i = 0; i < oldSize; i++) {
+      if (!oldValid[i]) {
+        continue;
+      }
+
+      if (freeCount == 0) {
+        recycle(oldTiles[i], oldImages[i], oldImageEntries[i]);
+        continue;
+      }
+
+      store(free[--freeCount], oldTiles[i], oldImages[i], oldImageEntries[i]);
     }
   }
 
   /**
    * Paint a tile
-   * 
+   *
    * @param g
    *          graphics object
    * @param i
@@ -113,111 +167,228 @@ public class ScreenCache {
    * @param centerCopy
    *          copy of the map center, used for synchronization
    */
-  public void paint(final Graphics g, final int i, final MapPos centerCopy, final int screenCenterX, final int screenCenterY) {
+  public synchronized void paint(final Graphics g, final int i, final MapPos centerCopy, final int screenCenterX, final int screenCenterY) {
     if (images[i] == null || images[i].getBitmap() == null
             || images[i].getBitmap().isRecycled()) {
-        images[i] = null;
-        valid[i] = false;
+        remove(i);
         return;
     }
-    final int left = tiles[i].getX() - centerCopy.getX() + screenCenterX;
-    final int top = tiles[i].getY() - centerCopy.getY() + screenCenterY;
+    final int left = keyX[i] - centerCopy.getX() + screenCenterX;
+    final int top = keyY[i] - centerCopy.getY() + screenCenterY;
     g.drawImage(images[i], left, top, Graphics.TOP | Graphics.LEFT);
   }
 
   /**
    * Find the position for a map tile.
-   * 
+   *
    * @param t
    *          tile to search
    * @return -1 if not found
    */
-  public int find(final MapTile t) {
-    for (int i = 0; i < size; i++) {
-      if (valid[i] && tiles[i].equals(t)) {
-        return i;
+  public synchronized int find(final MapTile t) {
+    return find(t.getX(), t.getY(), t.getZoom(), t.getMap());
+  }
+
+  /**
+   * Find the position for a map tile without creating tile object.
+   *
+   * @param x
+   *          tile left corner on map (see
+   *          {@link MapTile#tileCoordinate(int, int)})
+   * @param y
+   *          tile top corner on map
+   * @param zoom
+   *          tile zoom
+   * @param map
+   *          tile map
+   * @return -1 if not found
+   */
+  public synchronized int find(final int x, final int y, final int zoom, final GeoMap map) {
+    if (size == 0) {
+      return -1;
+    }
+
+    int index = hash(x, y, zoom) & tableMask;
+    int entry;
+    while ((entry = table[index]) != 0) {
+      final int slot = entry - 1;
+      if (keyX[slot] == x && keyY[slot] == y && keyZoom[slot] == zoom
+          && (keyMap[slot] == map || (keyMap[slot] != null && keyMap[slot].equals(map)))) {
+        return slot;
       }
+      index = (index + 1) & tableMask;
     }
     return -1;
   }
 
   /**
    * Add a tile to this cache.
-   * 
+   *
    * @param t
    *          the tile to add
    * @param update
    */
-  public int add(final MapTile t, final MapPos mp, final GeoMap displayedMap, final int screenCenterX, final int screenCenterY, final boolean update) {
+  public synchronized int add(final MapTile t, final MapPos mp, final GeoMap displayedMap, final int screenCenterX, final int screenCenterY, final boolean update) {
     // if the tile is not (no longer) visible, return -1
     if (!t.isVisible(mp, displayedMap, screenCenterX, screenCenterY)) {
-        t.getImage().getBitmap().recycle();
-//        android.util.Log.e("TEST", "add() recycle not visible "+t.getIDString());
       return -1;
     }
 
-    // sweep at every add
-    final int pos = sweepFind(t, mp, displayedMap, screenCenterX, screenCenterY);
+    int pos = find(t);
     if (pos >= 0 && !update) { // found? return
       return pos;
     }
-    
-    // LOW rewrite if it slows down the app too much (it's O(n))
-    // find a place to add
-    for (int i = 0; i < size; i++) {
-      if (!valid[i] || t.equals(tiles[i])) {
-          // Recycle old image at that position
-        if (images[i] != null && images[i].getBitmap() != null
-                && !images[i].getBitmap().isRecycled()) {
-            images[i].getBitmap().recycle();
-//            android.util.Log.e("TEST", "add() recycle old "+tiles[i].getIDString());
-        }
-        //BattleTac code starts
-        //Modified by Krisztian Schaffer, 2010.02.26
-        Image image = t.getImage();
-        if (imageProcessor != null) {
-          image = imageProcessor.processImage(image);
-        }
-        //BattleTac code ends
-        images[i] = image;
-        tiles[i] = t;
-        valid[i] = true;
-        return i;
+
+    if (pos >= 0) {
+      // updated tile keeps its slot
+      recycle(tiles[pos], images[pos], imageEntries[pos]);
+      imageEntries[pos] = null;
+    } else {
+      if (freeCount == 0) {
+        sweep(mp, displayedMap, screenCenterX, screenCenterY);
       }
+      if (freeCount == 0) {
+        return -1;
+      }
+      pos = free[--freeCount];
     }
 
-    return -1;
+    final String key = t.getIDString();
+    if (update) {
+      imageCache.invalidate(key);
+    } else {
+      final TileImageCache.Entry cached = imageCache.acquire(key);
+      if (cached != null) {
+        store(pos, t, cached.getImage(), cached);
+        return pos;
+      }
+    }
+
+    decode(pos, t);
+    return pos;
   }
 
   /**
-   * Remove unneeded tiles (invalidate them). Also search for a map tile.
-   * 
-   * @param t
-   *          map tile to search for
-   * @return the position of the map tile, or -1 if not found
+   * Decode tile image into given slot and add it to image cache (missing tile
+   * image is not cached).
+   */
+  private void decode(final int slot, final MapTile t) {
+    final long start = System.currentTimeMillis();
+    //BattleTac code starts
+    //Modified by Krisztian Schaffer, 2010.02.26
+    Image image = t.getImage();
+    if (imageProcessor != null) {
+      image = imageProcessor.processImage(image);
+    }
+    //BattleTac code ends
+    TileImageCache.Entry entry = null;
+    if (isCacheable(t, image)) {
+      entry = imageCache.put(t.getIDString(), image, System.currentTimeMillis() - start);
+    }
+    store(slot, t, image, entry);
+  }
+
+  private static boolean isCacheable(final MapTile t, final Image image) {
+    return image != null && image != t.getMap().getMissingTileImage();
+  }
+
+  /**
+   * Remove unneeded tiles (invalidate them).
    */
-  private int sweepFind(final MapTile t, final MapPos mp, final GeoMap displayedMap, final int screenCenterX, final int screenCenterY) {
-    int found = -1;
+  private void sweep(final MapPos mp, final GeoMap displayedMap, final int screenCenterX, final int screenCenterY) {
     for (int i = 0; i < size; i++) {
-      if (!valid[i]) {
-        continue;
+      if (valid[i] && !tiles[i].isVisible(mp, displayedMap, screenCenterX, screenCenterY)) {
+        release(i);
       }
-      // if found, do not remove it
-      if (tiles[i].equals(t)) {
-        found = i;
-      } else if (!tiles[i].isVisible(mp, displayedMap, screenCenterX, screenCenterY)) {
-        if (images[i] != null) {
-            if(!t.getImage().equals(displayedMap.getMissingTileImage())){
-                images[i].getBitmap().recycle();
-            }
-//            android.util.Log.e("TEST", "sweepfind() recycle found but not visible "+tiles[i].getIDString());
-        }
-        tiles[i] = null;
-        images[i] = null;
-        valid[i] = false;
+    }
+  }
+
+  private void store(final int slot, final MapTile t, final Image image,
+      final TileImageCache.Entry imageEntry) {
+    tiles[slot] = t;
+    images[slot] = image;
+    imageEntries[slot] = imageEntry;
+    keyX[slot] = t.getX();
+    keyY[slot] = t.getY();
+    keyZoom[slot] = t.getZoom();
+    keyMap[slot] = t.getMap();
+
+    if (!valid[slot]) {
+      valid[slot] = true;
+      int index = hash(keyX[slot], keyY[slot], keyZoom[slot]) & tableMask;
+      while (table[index] != 0) {
+        index = (index + 1) & tableMask;
+      }
+      table[index] = slot + 1;
+    }
+  }
+
+  /**
+   * Release image at given slot and free the slot.
+   */
+  private void release(final int slot) {
+    recycle(tiles[slot], images[slot], imageEntries[slot]);
+    remove(slot);
+  }
+
+  private void recycle(final MapTile t, final Image image, final TileImageCache.Entry imageEntry) {
+    if (imageEntry != null) {
+      imageCache.release(imageEntry);
+      return;
+    }
+
+    if (image == null || image.getBitmap() == null || image.getBitmap().isRecycled()) {
+      return;
+    }
+
+    // missing tile image is shared between tiles
+    if (t != null && image == t.getMap().getMissingTileImage()) {
+      return;
+    }
+
+    image.getBitmap().recycle();
+  }
+
+  /**
+   * Remove slot from index, without recycling the image.
+   */
+  private void remove(final int slot) {
+    if (!valid[slot]) {
+      images[slot] = null;
+      imageEntries[slot] = null;
+      return;
+    }
+
+    int index = hash(keyX[slot], keyY[slot], keyZoom[slot]) & tableMask;
+    while (table[index] != slot + 1) {
+      index = (index + 1) & tableMask;
+    }
+
+    // backward shift deletion, keeps probe sequences unbroken
+    int next = (index + 1) & tableMask;
+    while (table[next] != 0) {
+      final int moved = table[next] - 1;
+      final int home = hash(keyX[moved], keyY[moved], keyZoom[moved]) & tableMask;
+      if (((next - home) & tableMask) >= ((next - index) & tableMask)) {
+        table[index] = table[next];
+        index = next;
       }
+      next = (next + 1) & tableMask;
     }
-    return found;
+    table[index] = 0;
+
+    tiles[slot] = null;
+    images[slot] = null;
+    imageEntries[slot] = null;
+    keyMap[slot] = null;
+    valid[slot] = false;
+    free[freeCount++] = slot;
+  }
+
+  private static int hash(final int x, final int y, final int zoom) {
+    int h = x * 0x9E3779B1 + y * 0x85EBCA77 + zoom;
+    h ^= h >>> 16;
+    return h;
   }
 
   //BattleTac code starts
@@ -225,17 +396,34 @@ public class ScreenCache {
   /**
    * Sets the tile image processor. The given ImageProcessor will process every
    * tile which is added after this call. This method also clears the cache.
-   * 
+   *
    * @param processor
    *          the new ImageProcessor to use, can be null to delete the current
    *          processor.
    */
   public void setImageProcessor(final ImageProcessor processor) {
     imageProcessor = processor;
+    imageCache.clear();
   }
   //BattleTac code ends
 
-  public Vector<MapTile> getTiles() {
+  /**
+   * Not part of public API
+   */
+  public TileImageCache getImageCache() {
+    return imageCache;
+  }
+
+  /**
+   * Not part of public API
+   *
+   * @return is decoded image for given tile available in image cache
+   */
+  public boolean isImageCached(final MapTile t) {
+    return imageCache.contains(t.getIDString());
+  }
+
+  public synchronized Vector<MapTile> getTiles() {
     Vector<MapTile> tls = new Vector<MapTile>();
     for(int i=0; i < size; i++) {
       if( valid[i] && tiles[i] != null ) {
@@ -245,10 +433,12 @@ public class ScreenCache {
     return tls;
   }
 
-  public void renewTileImages() {
+  public synchronized void renewTileImages() {
     for(int i=0; i < size; i++) {
       if( valid[i] && tiles[i] != null ) {
-        images[i] = tiles[i].getImage();
+        recycle(tiles[i], images[i], imageEntries[i]);
+        imageCache.invalidate(tiles[i].getIDString());
+        decode(i, tiles[i]);
       }
     }
   }
@@ -0,0 +1,282 @@
+package com.mgmaps.cache;
+
+import java.util.Hashtable;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * <p>
+ * Cache for decoded tile images, keyed by tile id. Sits between
+ * {@link ScreenCache} and byte level {@link com.nutiteq.cache.Cache}, so that
+ * tiles returning to screen are not decoded again.
+ * </p>
+ *
+ * <p>
+ * Cache size is limited by number of pixels in cached images. Images used by
+ * screen cache are referenced and never evicted. Unreferenced images are kept
+ * in LRU order and recycled, when cache is over its limit.
+ * </p>
+ *
+ * <p>
+ * Users hold the {@link Entry} they acquired and release that entry, not the
+ * key. Entry invalidated while still referenced is orphaned: it is no longer
+ * found by key and its image is recycled on last release.
+ * </p>
+ */
+public class TileImageCache {
+  /**
+   * Default size limit, 32 tiles with size 256x256
+   */
+  public static final int DEFAULT_MAX_PIXELS = 32 * 256 * 256;
+
+  private final Hashtable entries = new Hashtable();
+  // unreferenced entries, most recently used first
+  private Entry idleHead;
+  private Entry idleTail;
+
+  private int maxPixels;
+  private int usedPixels;
+
+  private int hits;
+  private int misses;
+  private int decodes;
+  private long decodeTime;
+  private int evictions;
+
+  public TileImageCache(final int maxPixels) {
+    this.maxPixels = maxPixels;
+  }
+
+  /**
+   * Get cached image and mark it used. Every successful call must be followed
+   * by {@link #release(Entry)}, when image is not used anymore.
+   *
+   * @param key
+   *          tile id
+   * @return cache entry or null, if not found
+   */
+  public synchronized Entry acquire(final String key) {
+    final Entry entry = (Entry) entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+
+    if (entry.references == 0) {
+      unlink(entry);
+    }
+    entry.references++;
+    hits++;
+    return entry;
+  }
+
+  /**
+   * Add decoded image to cache. Added image is marked used, same as after
+   * {@link #acquire(String)}.
+   *
+   * @param key
+   *          tile id
+   * @param image
+   *          decoded image
+   * @param decodeMillis
+   *          time spent for decoding
+   * @return cache entry for added image
+   */
+  public synchronized Entry put(final String key, final Image image, final long decodeMillis) {
+    decodes++;
+    decodeTime += decodeMillis;
+
+    invalidate(key);
+    final Entry entry = new Entry(key, image);
+    entry.references = 1;
+    entries.put(key, entry);
+    usedPixels += entry.pixels;
+    evict();
+    return entry;
+  }
+
+  /**
+   * Mark entry unused. Unused images can be recycled, when cache is full.
+   * Image of orphaned entry is recycled immediately.
+   *
+   * @param entry
+   *          entry returned by {@link #acquire(String)} or
+   *          {@link #put(String, Image, long)}
+   */
+  public synchronized void release(final Entry entry) {
+    if (entry == null || entry.references == 0) {
+      return;
+    }
+
+    entry.references--;
+    if (entry.references > 0) {
+      return;
+    }
+
+    if (entry.orphaned) {
+      recycle(entry.image);
+      return;
+    }
+
+    linkFirst(entry);
+    evict();
+  }
+
+  /**
+   * Contains cache image for given key
+   */
+  public synchronized boolean contains(final String key) {
+    return entries.containsKey(key);
+  }
+
+  /**
+   * Remove image for given key from cache, for example when tile image data
+   * has been changed. Image is recycled, if it is not used. Otherwise entry is
+   * orphaned and recycled on its last release.
+   *
+   * @param key
+   *          tile id
+   */
+  public synchronized void invalidate(final String key) {
+    final Entry entry = (Entry) entries.remove(key);
+    if (entry == null) {
+      return;
+    }
+
+    usedPixels -= entry.pixels;
+    if (entry.references == 0) {
+      unlink(entry);
+      recycle(entry.image);
+    } else {
+      entry.orphaned = true;
+    }
+  }
+
+  /**
+   * Remove all unused images from cache.
+   */
+  public synchronized void clear() {
+    final int limit = maxPixels;
+    maxPixels = 0;
+    evict();
+    maxPixels = limit;
+  }
+
+  public synchronized void setMaxPixels(final int maxPixels) {
+    this.maxPixels = maxPixels;
+    evict();
+  }
+
+  private void evict() {
+    while (usedPixels > maxPixels && idleTail != null) {
+      final Entry evicted = idleTail;
+      unlink(evicted);
+      entries.remove(evicted.key);
+      usedPixels -= evicted.pixels;
+      recycle(evicted.image);
+      evictions++;
+    }
+  }
+
+  private void linkFirst(final Entry entry) {
+    entry.previous = null;
+    entry.next = idleHead;
+    if (idleHead != null) {
+      idleHead.previous = entry;
+    }
+    idleHead = entry;
+    if (idleTail == null) {
+      idleTail = entry;
+    }
+  }
+
+  private void unlink(final Entry entry) {
+    if (entry.previous != null) {
+      entry.previous.next = entry.next;
+    } else if (idleHead == entry) {
+      idleHead = entry.next;
+    }
+
+    if (entry.next != null) {
+      entry.next.previous = entry.previous;
+    } else if (idleTail == entry) {
+      idleTail = entry.previous;
+    }
+
+    entry.previous = null;
+    entry.next = null;
+  }
+
+  private static void recycle(final Image image) {
+    if (image.getBitmap() != null && !image.getBitmap().isRecycled()) {
+      image.getBitmap().recycle();
+    }
+  }
+
+  public synchronized int getHits() {
+    return hits;
+  }
+
+  public synchronized int getMisses() {
+    return misses;
+  }
+
+  /**
+   * Number of images decoded and added to cache
+   */
+  public synchronized int getDecodes() {
+    return decodes;
+  }
+
+  /**
+   * Total time spent on decoding images in milliseconds
+   */
+  public synchronized long getDecodeTime() {
+    return decodeTime;
+  }
+
+  public synchronized int getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Number of pixels in cached images, including images in use
+   */
+  public synchronized int getUsedPixels() {
+    return usedPixels;
+  }
+
+  public synchronized int getMaxPixels() {
+    return maxPixels;
+  }
+
+  public String toString() {
+    return "TileImageCache: hits=" + getHits() + " misses=" + getMisses() + " decodes="
+        + getDecodes() + " decodeTime=" + getDecodeTime() + " pixels=" + getUsedPixels() + "/"
+        + getMaxPixels();
+  }
+
+  /**
+   * Cached image, held by user between acquire/put and release.
+   */
+  public static class Entry {
+    private final String key;
+    private final Image image;
+    private final int pixels;
+    private int references;
+    // removed from cache while referenced
+    private boolean orphaned;
+    private Entry previous;
+    private Entry next;
+
+    private Entry(final String key, final Image image) {
+      this.key = key;
+      this.image = image;
+      pixels = image.getWidth() * image.getHeight();
+    }
+
+    public Image getImage() {
+      return image;
+    }
+  }
+}
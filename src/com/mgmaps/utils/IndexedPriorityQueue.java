@@ -0,0 +1,228 @@
+package com.mgmaps.utils;
+
+import java.util.Hashtable;
+
+/**
+ * <p>
+ * Priority queue backed by binary heap and hash index. Elements are ordered by
+ * {@link Prioritized#getPriority()} (elements not implementing it get
+ * {@link Prioritized#DEFAULT_PRIORITY}), elements with equal priority are
+ * returned in insertion order.
+ * </p>
+ * 
+ * <p>
+ * Search and duplicate detection take constant time, insert and pop take
+ * logarithmic time. Elements in {@link #getElements()} and {@link #get(int)}
+ * are in heap order, not in pop order.
+ * </p>
+ */
+public class IndexedPriorityQueue extends Queue {
+  private int[] priorities;
+  private long[] sequence;
+  //heap position holders, shared with index
+  private int[][] positions;
+  private long nextSequence;
+  //element -> int[] { heap position }
+  private final Hashtable index;
+
+  public IndexedPriorityQueue(final int size) {
+    super(size);
+    priorities = new int[size];
+    sequence = new long[size];
+    positions = new int[size][];
+    index = new Hashtable(size);
+  }
+
+  public IndexedPriorityQueue() {
+    this(DEFAULT_SIZE);
+  }
+
+  public synchronized void clear() {
+    for (int i = 0; i < count; i++) {
+      positions[i] = null;
+    }
+    super.clear();
+    index.clear();
+  }
+
+  /**
+   * Insert an element into the queue. If the element already exists, it will
+   * be placed after other elements with same priority.
+   * 
+   * @param o
+   *          the object to push
+   */
+  public synchronized void push(final Object o) {
+    push(o, priorityOf(o));
+  }
+
+  /**
+   * Insert an element with given priority.
+   * 
+   * @param o
+   *          the object to push
+   * @param priority
+   *          element priority. Lower values are taken first.
+   */
+  public synchronized void push(final Object o, final int priority) {
+    final int[] position = (int[]) index.remove(o);
+    if (position != null) {
+      final int pos = position[0];
+      elements[pos] = o;
+      index.put(o, position);
+      update(pos, priority);
+      return;
+    }
+
+    // check if the queue is full
+    if (size == count) {
+      grow();
+    }
+
+    final int pos = count++;
+    elements[pos] = o;
+    priorities[pos] = priority;
+    sequence[pos] = nextSequence++;
+    positions[pos] = new int[] { pos };
+    index.put(o, positions[pos]);
+    siftUp(pos);
+  }
+
+  /**
+   * Read priorities again from queued elements and restore heap order.
+   */
+  public synchronized void reprioritize() {
+    for (int i = 0; i < count; i++) {
+      priorities[i] = priorityOf(elements[i]);
+    }
+
+    for (int i = (count >> 1) - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  public synchronized void remove(final int pos) {
+    if (pos < 0 || pos >= count) {
+      return;
+    }
+
+    index.remove(elements[pos]);
+    final int last = --count;
+    if (pos != last) {
+      move(last, pos);
+      if (!siftUp(pos)) {
+        siftDown(pos);
+      }
+    }
+    elements[last] = null;
+    positions[last] = null;
+  }
+
+  public synchronized void remove(final Object o) {
+    final int[] position = (int[]) index.get(o);
+    if (position != null) {
+      remove(position[0]);
+    }
+  }
+
+  public synchronized Object pop() {
+    if (count == 0) {
+      return null;
+    }
+
+    final Object element = elements[0];
+    remove(0);
+    return element;
+  }
+
+  public synchronized Object find(final Object o) {
+    final int[] position = (int[]) index.get(o);
+    return position == null ? null : elements[position[0]];
+  }
+
+  private static int priorityOf(final Object o) {
+    return (o instanceof Prioritized) ? ((Prioritized) o).getPriority()
+        : Prioritized.DEFAULT_PRIORITY;
+  }
+
+  private void update(final int pos, final int priority) {
+    priorities[pos] = priority;
+    sequence[pos] = nextSequence++;
+    if (!siftUp(pos)) {
+      siftDown(pos);
+    }
+  }
+
+  private void grow() {
+    final Object[] oldElements = elements;
+    final int[] oldPriorities = priorities;
+    final long[] oldSequence = sequence;
+    final int[][] oldPositions = positions;
+    size <<= 1;
+    elements = new Object[size];
+    priorities = new int[size];
+    sequence = new long[size];
+    positions = new int[size][];
+    System.arraycopy(oldElements, 0, elements, 0, count);
+    System.arraycopy(oldPriorities, 0, priorities, 0, count);
+    System.arraycopy(oldSequence, 0, sequence, 0, count);
+    System.arraycopy(oldPositions, 0, positions, 0, count);
+  }
+
+  private boolean before(final int a, final int b) {
+    return priorities[a] < priorities[b]
+        || (priorities[a] == priorities[b] && sequence[a] < sequence[b]);
+  }
+
+  private boolean siftUp(int pos) {
+    final int start = pos;
+    while (pos > 0) {
+      final int parent = (pos - 1) >> 1;
+      if (!before(pos, parent)) {
+        break;
+      }
+      swap(pos, parent);
+      pos = parent;
+    }
+    return pos != start;
+  }
+
+  private void siftDown(int pos) {
+    while (true) {
+      final int left = (pos << 1) + 1;
+      if (left >= count) {
+        return;
+      }
+      final int right = left + 1;
+      final int child = (right < count && before(right, left)) ? right : left;
+      if (!before(child, pos)) {
+        return;
+      }
+      swap(pos, child);
+      pos = child;
+    }
+  }
+
+  private void swap(final int a, final int b) {
+    final Object o = elements[a];
+    final int p = priorities[a];
+    final long s = sequence[a];
+    final int[] position = positions[a];
+
+    move(b, a);
+
+    elements[b] = o;
+    priorities[b] = p;
+    sequence[b] = s;
+    positions[b] = position;
+    position[0] = b;
+  }
+
+  private void move(final int from, final int to) {
+    elements[to] = elements[from];
+    priorities[to] = priorities[from];
+    sequence[to] = sequence[from];
+    positions[to] = positions[from];
+    positions[to][0] = to;
+  }
+}
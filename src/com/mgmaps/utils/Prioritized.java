@@ -0,0 +1,20 @@
+package com.mgmaps.utils;
+
+/**
+ * Element with execution priority, used by {@link IndexedPriorityQueue}.
+ */
+public interface Prioritized {
+  /**
+   * Priority used for elements not implementing this interface. Lower than
+   * any on screen map tile.
+   */
+  int DEFAULT_PRIORITY = 1 << 20;
+
+  /**
+   * Get element priority. Elements with lower value are taken from queue
+   * first.
+   * 
+   * @return priority value
+   */
+  int getPriority();
+}
@@ -1,6 +1,7 @@
 package com.nutiteq;
 
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Timer;
 import java.util.Vector;
 
@@ -9,15 +10,19 @@ import javax.microedition.lcdui.Image;
 import javax.microedition.midlet.MIDlet;
 
 import com.mgmaps.cache.ScreenCache;
+import com.mgmaps.cache.TileImageCache;
 import com.mgmaps.utils.Tools;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.components.ImageBuffer;
 import com.nutiteq.components.KmlPlace;
 import com.nutiteq.components.Label;
 import com.nutiteq.components.Line;
+import com.nutiteq.components.MapBounded;
 import com.nutiteq.components.MapPos;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.components.OnMapElement;
+import com.nutiteq.components.OnMapElementsIndex;
+import com.nutiteq.components.OnMapElementsStore;
 import com.nutiteq.components.Place;
 import com.nutiteq.components.PlaceInfo;
 import com.nutiteq.components.PlaceLabel;
@@ -51,6 +56,8 @@ import com.nutiteq.net.DownloadCounter;
 import com.nutiteq.net.DownloadHandler;
 import com.nutiteq.net.DownloadStreamOpener;
 import com.nutiteq.task.MapTileSearchTask;
+import com.nutiteq.task.RegionSeeder;
+import com.nutiteq.task.ReprioritizingTasksRunner;
 import com.nutiteq.task.Task;
 import com.nutiteq.task.TasksRunner;
 import com.nutiteq.task.TileOverlayRetriever;
@@ -138,6 +145,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   public final TasksRunner taskRunner;
 
   protected ScreenCache screenCache;
+  private int tileImageCacheSize = TileImageCache.DEFAULT_MAX_PIXELS;
 
   private MapListener mapListener;
   private OnMapElementListener onMapElementListener;
@@ -155,7 +163,9 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   protected int zoomBufferX;
   protected int zoomBufferY;
 
-  private final Vector displayedElements = new Vector();
+  private final OnMapElementsStore displayedElements = new OnMapElementsStore();
+  private final OnMapElementsIndex displayedElementsIndex = new OnMapElementsIndex();
+  private volatile boolean displayedElementsIndexValid;
 
   private OnMapElement centeredElement;
   private MapPos centeredClickMapPos;
@@ -171,6 +181,14 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   private PanningStrategy panning;
 
   protected final Vector neededTiles = new Vector();
+  /**
+   * Index for needed tiles lookup
+   */
+  private final Hashtable neededTilesIndex = new Hashtable();
+  /**
+   * Tiles given to tile search, that have not been retrieved yet
+   */
+  protected final Vector requestedTiles = new Vector();
 
   private final Timer timer;
   private RepaintTimerTask repaintTask;
@@ -249,6 +267,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   private void createScreenCache() {
     screenCache = com.mgmaps.cache.ScreenCache.createScreenCache((2 + ((displayWidth - 2) / displayedMap.getTileSize()))
         * (2 + ((displayHeight - 2) / displayedMap.getTileSize())));
+    screenCache.getImageCache().setMaxPixels(tileImageCacheSize);
   }
 
   /**
@@ -259,6 +278,31 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   public void setImageProcessor(final ImageProcessor processor){
       com.mgmaps.cache.ScreenCache.getInstance().setImageProcessor(processor);
   }
+
+  /**
+   * Set size limit for decoded tile images cache. Images of tiles that have
+   * left the screen are kept there, so that returning tiles are not decoded
+   * again. Set to 0 to keep only images of visible tiles.
+   *
+   * @param maxPixels
+   *          maximum number of pixels in cached images (tile width * tile
+   *          height per tile)
+   */
+  public void setTileImageCacheSize(final int maxPixels) {
+    tileImageCacheSize = maxPixels;
+    if (screenCache != null) {
+      screenCache.getImageCache().setMaxPixels(maxPixels);
+    }
+  }
+
+  /**
+   * Get decoded tile images cache, for hit/miss and decode time statistics.
+   *
+   * @return images cache or null, if mapping has not been started
+   */
+  public TileImageCache getTileImageCache() {
+    return screenCache == null ? null : screenCache.getImageCache();
+  }
   
   
   /**
@@ -320,7 +364,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
 
     taskRunner.setLicenceKeyCheck(licenseKeyCheck);
 
-    recalculateMapPosition(displayedElements);
+    recalculateMapPosition();
     computeTilesToDisplay();
     enqueueTiles();
 
@@ -430,7 +474,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     final int newZoom = checkValidZoom(zoom, displayedMap);
     middlePoint = displayedMap.wgsToMapPos(point.toInternalWgs(), newZoom);
     tileMapBounds = displayedMap.getTileMapBounds(middlePoint.getZoom());
-    recalculateMapPosition(displayedElements);
+    recalculateMapPosition();
     fullScreenUpdate();
     computeTilesToDisplay();
     enqueueTiles();
@@ -473,12 +517,12 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     // Places
     OnMapElement nextCentered;
     if (cursor != null) {
-      nextCentered = centeredPlaceCheck(displayedElements);
+      nextCentered = centeredPlaceCheck();
       handleActiveIconChange(centeredElement, nextCentered);
     } else {
       nextCentered = centeredElement;
     }
-    paintPlaces(mapBuffer, displayedElements, changed, nextCentered);
+    paintPlaces(mapBuffer, changed, nextCentered);
     
     // Draw mapBuffer
     g.setClip(0, 0, displayWidth, displayHeight);
@@ -558,19 +602,21 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     label.paint(g, placeScreenX, placeScreenY, displayWidth, displayHeight);
   }
 
-  private OnMapElement centeredPlaceCheck(final Vector places) {
+  private OnMapElement centeredPlaceCheck() {
     if (cursor == null || !mappingStarted || middlePoint == null) {
       return null;
     }
 
-    OnMapElement centered = null;
-    for (int i = 0; i < places.size(); i++) {
-      final OnMapElement current = (OnMapElement) places.elementAt(i);
+    final Point cursorOnScreen = cursor.getPointOnDisplay(displayWidth, displayHeight);
+    final MapPos cursorOnMap = new MapPos(middlePoint.getX() - displayCenterX
+        + cursorOnScreen.getX(), middlePoint.getY() - displayCenterY + cursorOnScreen.getY(),
+        middlePoint.getZoom());
 
-      final Point cursorOnScreen = cursor.getPointOnDisplay(displayWidth, displayHeight);
-      final MapPos cursorOnMap = new MapPos(middlePoint.getX() - displayCenterX
-          + cursorOnScreen.getX(), middlePoint.getY() - displayCenterY + cursorOnScreen.getY(),
-          middlePoint.getZoom());
+    final OnMapElement[] places = displayedElementsIn(cursorOnMap.getX(), cursorOnMap.getY(), 0,
+        0);
+    OnMapElement centered = null;
+    for (int i = 0; i < places.length; i++) {
+      final OnMapElement current = places[i];
 
       final boolean isCentered = current.isCentered(cursorOnMap);
 
@@ -583,8 +629,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     return centered;
   }
 
-  private void paintPlaces(final ImageBuffer buffer, final Vector places,
-      final Rectangle changedArea, final OnMapElement centered) {
+  private void paintPlaces(final ImageBuffer buffer, final Rectangle changedArea,
+      final OnMapElement centered) {
     if (!mappingStarted || middlePoint == null) {
       return;
     }
@@ -593,8 +639,10 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     final Rectangle screenChange = Utils.areaToScreen(changedArea, middlePoint.getX()
         - displayCenterX, middlePoint.getY() - displayCenterY, displayWidth, displayHeight);
 
-    for (int i = 0; i < places.size(); i++) {
-      final OnMapElement current = (OnMapElement) places.elementAt(i);
+    final OnMapElement[] places = displayedElementsIn(changedArea.getX(), changedArea.getY(),
+        changedArea.getWidth(), changedArea.getHeight());
+    for (int i = 0; i < places.length; i++) {
+      final OnMapElement current = places[i];
 
       //is element is in changed area
       if (current.isVisible(changedArea.getX(), changedArea.getY(), changedArea.getWidth(),
@@ -707,8 +755,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     // print in order
     for (int i = 0; i < tileW; i++) {
       for (int j = 0; j < tileH; j++) {
-        complete = paintTile(g, new MapTile(tileX + i * tileSize, tileY + j * tileSize, middlePoint
-            .getZoom(), displayedMap, this), middlePoint, change)
+        complete = paintTile(g, tileX + i * tileSize, tileY + j * tileSize, middlePoint, change)
             && complete;
       }
     }
@@ -738,6 +785,41 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     return result;
   }
 
+  /**
+   * Paint a map tile at given map location. Tile object is created only if it
+   * is not in screen cache.
+   * 
+   * @param g
+   *          graphics object
+   * @param mapX
+   *          map x inside tile
+   * @param mapY
+   *          map y inside tile
+   * @param centerCopy
+   *          copy of the current map center
+   * @param change
+   */
+  protected boolean paintTile(final Graphics g, final int mapX, final int mapY,
+      final MapPos centerCopy, final Rectangle change) {
+    final int tileSize = displayedMap.getTileSize();
+    final int x = MapTile.tileCoordinate(mapX, tileSize);
+    final int y = MapTile.tileCoordinate(mapY, tileSize);
+    // slot found must not be reused by workers before it is painted
+    synchronized (screenCache) {
+      final int pos = screenCache.find(x, y, centerCopy.getZoom(), displayedMap);
+      if (pos >= 0) {
+        if (Utils.rectanglesIntersect(x, y, tileSize, tileSize, change.getX(), change.getY(),
+            change.getWidth(), change.getHeight())) {
+          screenCache.paint(g, pos, centerCopy, displayCenterX, displayCenterY);
+        }
+        return true;
+      }
+    }
+
+    return paintTile(g, new MapTile(mapX, mapY, centerCopy.getZoom(), displayedMap, this),
+        centerCopy, change);
+  }
+
   /**
    * Paint a map tile.
    * 
@@ -751,22 +833,30 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
    */
   protected boolean paintTile(final Graphics g, final MapTile mt, final MapPos centerCopy,
       final Rectangle change) {
-    // search in screen cache
-    int pos = screenCache.find(mt);
-    if (pos < 0) {
-      if (networkCache != null && networkCache.contains(mt.getIDString(), Cache.CACHE_LEVEL_MEMORY)) {
-        final byte[] data = networkCache.get(mt.getIDString());
-        mt.setImagesData(new byte[][] { data });
-        pos = screenCache.add(mt, middlePoint, displayedMap, displayCenterX, displayCenterY, false);
+    synchronized (screenCache) {
+      // search in screen cache
+      int pos = screenCache.find(mt);
+      if (pos < 0) {
+        if (screenCache.isImageCached(mt)) {
+          pos = screenCache.add(mt, middlePoint, displayedMap, displayCenterX, displayCenterY,
+              false);
+        } else if (networkCache != null
+            && networkCache.contains(mt.getIDString(), Cache.CACHE_LEVEL_MEMORY)) {
+          final byte[] data = networkCache.get(mt.getIDString());
+          mt.setImagesData(new byte[][] { data });
+          pos = screenCache.add(mt, middlePoint, displayedMap, displayCenterX, displayCenterY,
+              false);
+        }
       }
+      // if found in raw tiles, paint it
+      if (pos >= 0
+          && Utils.rectanglesIntersect(mt.getX(), mt.getY(), displayedMap.getTileSize(),
+              displayedMap.getTileSize(), change.getX(), change.getY(), change.getWidth(), change
+                  .getHeight())) {
+        screenCache.paint(g, pos, centerCopy, displayCenterX, displayCenterY);
+      }
+      return pos >= 0;
     }
-    // if found in raw tiles, paint it
-    if (pos >= 0
-        && Utils.rectanglesIntersect(mt.getX(), mt.getY(), displayedMap.getTileSize(), displayedMap
-            .getTileSize(), change.getX(), change.getY(), change.getWidth(), change.getHeight())) {
-      screenCache.paint(g, pos, centerCopy, displayCenterX, displayCenterY);
-    }
-    return pos >= 0;
   }
 
   /**
@@ -850,7 +940,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     }
 
     enqueueTiles();
-    recalculateMapPosition(displayedElements);
+    recalculateMapPosition();
 
     isMapComplete = onScreenTilesPresent();
 
@@ -875,6 +965,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   }
 
   private void mapMoved() {
+    updateRequestedTiles();
+
     if (mapListener != null) {
       mapListener.mapMoved();
     }
@@ -1136,7 +1228,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
 //      Log.debug("moved in released");
     } else {
       dragged = false;
-      handlePlaceOrMapClick(componentX, componentY, displayedElements);
+      handlePlaceOrMapClick(componentX, componentY);
 //      Log.debug("click handled");
     }
 
@@ -1159,8 +1251,7 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     return onScreenZoomControls.getControlAction(componentX, componentY);
   }
 
-  private void handlePlaceOrMapClick(final int screenX, final int screenY,
-      final Vector onMapElements) {
+  private void handlePlaceOrMapClick(final int screenX, final int screenY) {
     final MapPos clickOnMap = new MapPos(middlePoint.getX() - displayCenterX + screenX, middlePoint
         .getY()
         - displayCenterY + screenY, middlePoint.getZoom());
@@ -1183,8 +1274,10 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     OnMapElement centered = null;
     int distanceFromCenter = Integer.MAX_VALUE;
 
-    for (int i = 0; i < onMapElements.size(); i++) {
-      final OnMapElement current = (OnMapElement) onMapElements.elementAt(i);
+    final OnMapElement[] onMapElements = displayedElementsIn(clickOnMap.getX(), clickOnMap.getY(),
+        0, 0);
+    for (int i = 0; i < onMapElements.length; i++) {
+      final OnMapElement current = onMapElements[i];
       if (current.isCentered(clickOnMap)
       //&& current.distanceInPixels(clickOnMap) < distanceFromCenter
       ) {
@@ -1335,20 +1428,16 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
         final int i2 = (tileW >> 1) + i;
         final int j2 = (tileH >> 1) + j;
         if (i2 < tileW && j2 < tileH) {
-          enqueueTile(new MapTile(tileX + i2 * tileSize, tileY + j2 * tileSize, middlePoint
-              .getZoom(), displayedMap, this));
+          enqueueTile(tileX + i2 * tileSize, tileY + j2 * tileSize);
         }
         if (i2 < tileW && j1 >= 0) {
-          enqueueTile(new MapTile(tileX + i2 * tileSize, tileY + j1 * tileSize, middlePoint
-              .getZoom(), displayedMap, this));
+          enqueueTile(tileX + i2 * tileSize, tileY + j1 * tileSize);
         }
         if (i1 >= 0 && j2 < tileH) {
-          enqueueTile(new MapTile(tileX + i1 * tileSize, tileY + j2 * tileSize, middlePoint
-              .getZoom(), displayedMap, this));
+          enqueueTile(tileX + i1 * tileSize, tileY + j2 * tileSize);
         }
         if (i1 >= 0 && j1 >= 0) {
-          enqueueTile(new MapTile(tileX + i1 * tileSize, tileY + j1 * tileSize, middlePoint
-              .getZoom(), displayedMap, this));
+          enqueueTile(tileX + i1 * tileSize, tileY + j1 * tileSize);
         }
       }
     }// for k
@@ -1358,6 +1447,19 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     }
   }
 
+  /**
+   * Enqueue a tile at given map location, if it is not in screen cache.
+   */
+  private void enqueueTile(final int mapX, final int mapY) {
+    final int tileSize = displayedMap.getTileSize();
+    if (screenCache.find(MapTile.tileCoordinate(mapX, tileSize), MapTile.tileCoordinate(mapY,
+        tileSize), middlePoint.getZoom(), displayedMap) >= 0) {
+      return;
+    }
+
+    enqueueTile(new MapTile(mapX, mapY, middlePoint.getZoom(), displayedMap, this));
+  }
+
   /**
    * Enqueue a tile.
    * 
@@ -1374,7 +1476,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     synchronized (screenCache) {
       // enqueue only if not in offline mode and not already cached
       // search in screen cache first
-      if ((screenCache.find(mt) > 0) || neededTiles.contains(mt)) {
+      if ((screenCache.find(mt) >= 0) || neededTilesIndex.containsKey(mt)
+          || screenCache.isImageCached(mt)) {
         return;
       }
 
@@ -1382,15 +1485,33 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
         return;
       }
 
-      neededTiles.addElement(mt);
+      mt.setPriority(distanceFromCenter(mt));
+      synchronized (neededTiles) {
+        neededTiles.addElement(mt);
+        neededTilesIndex.put(mt, mt);
+      }
     }
   }
 
+  /**
+   * Distance in pixels between tile center and view center. Used as tile
+   * retrieval priority, so that tiles closer to center are retrieved first.
+   */
+  private int distanceFromCenter(final MapTile mt) {
+    final int halfTile = displayedMap.getTileSize() / 2;
+    return Math.abs(mt.getX() + halfTile - middlePoint.getX())
+        + Math.abs(mt.getY() + halfTile - middlePoint.getY());
+  }
+
   /**
    * Not part of public API
    */
   public MapTile getRequiredTile() {
-    return firstVisibleTile(neededTiles);
+    final MapTile required = firstVisibleTile(neededTiles);
+    if (required != null) {
+      requestedTiles.addElement(required);
+    }
+    return required;
   }
 
   /**
@@ -1405,13 +1526,21 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
    */
   public MapTile[] getAllRequiredTiles() {
     final Vector willBeDownloaded = new Vector();
-    for (int i = 0; i < neededTiles.size(); i++) {
-      final MapTile tile = (MapTile) neededTiles.elementAt(i);
-      if (tile.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY)) {
-        willBeDownloaded.addElement(tile);
+    //tile searches can run in parallel workers
+    synchronized (neededTiles) {
+      for (int i = 0; i < neededTiles.size(); i++) {
+        final MapTile tile = (MapTile) neededTiles.elementAt(i);
+        if (tile.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY)) {
+          willBeDownloaded.addElement(tile);
+        }
       }
+      neededTiles.setSize(0);
+      neededTilesIndex.clear();
+    }
+
+    for (int i = 0; i < willBeDownloaded.size(); i++) {
+      requestedTiles.addElement(willBeDownloaded.elementAt(i));
     }
-    neededTiles.setSize(0);
 
     if (willBeDownloaded.size() == 0) {
       return new MapTile[0];
@@ -1424,12 +1553,15 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   }
 
   private MapTile firstVisibleTile(final Vector tiles) {
-    while (tiles.size() > 0) {
-      final MapTile tile = (MapTile) tiles.elementAt(0);
-      tiles.removeElement(tile);
-      if (tile.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY)
-          && screenCache.find(tile) < 0) {
-        return tile;
+    synchronized (tiles) {
+      while (tiles.size() > 0) {
+        final MapTile tile = (MapTile) tiles.elementAt(0);
+        tiles.removeElementAt(0);
+        neededTilesIndex.remove(tile);
+        if (tile.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY)
+            && screenCache.find(tile) < 0) {
+          return tile;
+        }
       }
     }
 
@@ -1449,6 +1581,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   }
 
   private void tileRetrieved(final MapTile mt, final boolean update) {
+    requestedTiles.removeElement(mt);
+
     if (mt.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY) && mt.tryAgain()) {
       //if image is missing (some download error), try again
       enqueueTile(mt);
@@ -1524,6 +1658,39 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     }
   }
 
+  /**
+   * Cancel retrieval for requested tiles, that are not visible after view
+   * change. Tiles still visible get new priorities based on view center.
+   */
+  private void updateRequestedTiles() {
+    if (displayedMap == null || middlePoint == null) {
+      return;
+    }
+
+    synchronized (requestedTiles) {
+      for (int i = requestedTiles.size() - 1; i >= 0; i--) {
+        final MapTile tile = (MapTile) requestedTiles.elementAt(i);
+        if (tile.isVisible(middlePoint, displayedMap, displayCenterX, displayCenterY)) {
+          tile.setPriority(distanceFromCenter(tile));
+        } else {
+          tile.cancel();
+          requestedTiles.removeElementAt(i);
+        }
+      }
+    }
+
+    synchronized (neededTiles) {
+      for (int i = 0; i < neededTiles.size(); i++) {
+        final MapTile tile = (MapTile) neededTiles.elementAt(i);
+        tile.setPriority(distanceFromCenter(tile));
+      }
+    }
+
+    if (taskRunner instanceof ReprioritizingTasksRunner) {
+      ((ReprioritizingTasksRunner) taskRunner).reprioritize();
+    }
+  }
+
   /**
    * Not part of public API
    */
@@ -1538,9 +1705,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
 
     for (int i = 0; i < tileW; i++) {
       for (int j = 0; j < tileH; j++) {
-        final MapTile t = new MapTile(tileX + i * tileSize, tileY + j * tileSize, zoom,
-            displayedMap, this);
-        if (screenCache.find(t) >= 0) {
+        if (screenCache.find(MapTile.tileCoordinate(tileX + i * tileSize, tileSize), MapTile
+            .tileCoordinate(tileY + j * tileSize, tileSize), zoom, displayedMap) >= 0) {
           continue;
         }
 
@@ -1597,7 +1763,8 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
   }
 
   /**
-   * Remove given elements from map display
+   * Remove given elements from map display. Displayed elements equal to given
+   * ones are removed too.
    * 
    * @param elements
    *          elements to be removed
@@ -1607,22 +1774,48 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
       return;
     }
 
-    boolean removed = false;
+    final OnMapElement[] removed = new OnMapElement[elements.length];
+    int removedCount = 0;
     for (int i = 0; i < elements.length; i++) {
       if (elements[i] == centeredElement) {
         centeredElement = null;
       }
-      removed = displayedElements.removeElement(elements[i]) || removed;
+      final OnMapElement displayed = displayedElements.findEqual(elements[i]);
+      if (displayed == null) {
+        continue;
+      }
+      if (displayed == centeredElement) {
+        centeredElement = null;
+      }
+      if (displayedElements.remove(displayed)) {
+        removed[removedCount++] = displayed;
+      }
     }
-    fullScreenUpdate();
-    if (removed) {
-      repaint();
+
+    if (removedCount == 0) {
+      return;
     }
+
+    displayedElementsChanged();
+    if (displayedMap != null && middlePoint != null) {
+      elementsAreaUpdate(removed, removedCount);
+    }
+    repaint();
+  }
+
+  /**
+   * Not part of public API
+   * 
+   * @return displayed elements in display order
+   */
+  public OnMapElement[] getOnMapElements() {
+    return displayedElements.toArray();
   }
 
   private void removeAllKmlElements() {
     final boolean removed = !displayedElements.isEmpty();
-    displayedElements.removeAllElements();
+    displayedElements.clear();
+    displayedElementsChanged();
     fullScreenUpdate();
     if (removed) {
       repaint();
@@ -1656,12 +1849,29 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
    *          places to be displayed on map
    */
   public void replacePlaces(final Place[] places) {
-    // we're using Vector for the places, we should just removeAll then add
-    // because it's less expensive than calling contains() each time
-
-    // avoid additional repaints
     //TODO jaanus : separate internal places handling? it is a mess at the moment
-    displayedElements.removeAllElements();
+    final OnMapElement[] previous = displayedElements.toArray();
+    final OnMapElementsStore replacing = new OnMapElementsStore();
+    for (int i = 0; i < places.length; i++) {
+      replacing.add(places[i]);
+    }
+
+    // only elements not in both sets change on screen
+    final OnMapElement[] removed = new OnMapElement[previous.length];
+    int removedCount = 0;
+    for (int i = 0; i < previous.length; i++) {
+      if (!replacing.contains(previous[i])) {
+        displayedElements.remove(previous[i]);
+        removed[removedCount++] = previous[i];
+      }
+    }
+
+    if (removedCount > 0) {
+      displayedElementsChanged();
+      if (displayedMap != null && middlePoint != null) {
+        elementsAreaUpdate(removed, removedCount);
+      }
+    }
     addOnMapElements(places, true);
   }
 
@@ -1689,19 +1899,18 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
 
     final boolean calculatePlaceLocationAndRepaint = displayedMap != null && middlePoint != null;
     
-    if (!displayedElements.contains(place)) {
-      displayedElements.insertElementAt(place, 0);
+    if (displayedElements.addFirst(place)) {
       if (calculatePlaceLocationAndRepaint) {
         place.calculatePosition(displayedMap, middlePoint.getZoom());
       }
+      displayedElementsChanged();
     }
 
     if (!calculatePlaceLocationAndRepaint) {
       return;
     }
 
-    //TODO jaanus : optimize this
-    fullScreenUpdate();
+    elementsAreaUpdate(new OnMapElement[] { place }, 1);
 
     //TODO jaanus : handler force update after kml place icon has been downloaded without this hack
     repaint();
@@ -1808,30 +2017,34 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
    * @param updateScreen
    */
   public void addOnMapElements(final OnMapElement[] elements, final boolean updateScreen) {
-    boolean added = false;
+    final OnMapElement[] added = new OnMapElement[elements.length];
+    int addedCount = 0;
 
     final boolean calculatePlaceLocationAndRepaint = displayedMap != null && middlePoint != null;
 
     for (int i = 0; i < elements.length; i++) {
-      //TODO jaanus : test removeElement/addElement speed
-      if (!displayedElements.contains(elements[i])) {
-        displayedElements.addElement(elements[i]);
-        added = true;
+      if (displayedElements.add(elements[i])) {
+        added[addedCount++] = elements[i];
         if (calculatePlaceLocationAndRepaint) {
           elements[i].calculatePosition(displayedMap, middlePoint.getZoom());
         }
       }
     }
+    // also called without elements after place icons have changed
+    displayedElementsChanged();
 
     if (!calculatePlaceLocationAndRepaint) {
       return;
     }
 
-    //TODO jaanus : optimize this
-    fullScreenUpdate();
+    if (elements.length == 0) {
+      fullScreenUpdate();
+    } else {
+      elementsAreaUpdate(added, addedCount);
+    }
 
     //TODO jaanus : handler force update after kml place icon has been downloaded without this hack
-    if (added || updateScreen) {
+    if (addedCount > 0 || updateScreen) {
       repaint();
     }
   }
@@ -1933,13 +2146,76 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     }
   }
 
-  private void recalculateMapPosition(final Vector places) {
+  private void recalculateMapPosition() {
     final int zoomLevel = middlePoint.getZoom();
+    final OnMapElement[] places = displayedElements.toArray();
 
-    for (int i = 0; i < places.size(); i++) {
-      final OnMapElement element = (OnMapElement) places.elementAt(i);
-      element.calculatePosition(displayedMap, zoomLevel);
+    for (int i = 0; i < places.length; i++) {
+      places[i].calculatePosition(displayedMap, zoomLevel);
     }
+    displayedElementsChanged();
+  }
+
+  /**
+   * Mark area covered by given elements for repaint. Whole screen is updated,
+   * if some element does not know its bounds.
+   */
+  private void elementsAreaUpdate(final OnMapElement[] elements, final int count) {
+    final Rectangle screen = getScreenAreaOnMap();
+    Rectangle area = null;
+    for (int i = 0; i < count; i++) {
+      final Rectangle bounds = elements[i] instanceof MapBounded ? ((MapBounded) elements[i])
+          .getMapBounds() : null;
+      if (bounds == null) {
+        fullScreenUpdate();
+        return;
+      }
+
+      if (!Utils.rectanglesIntersect(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds
+          .getHeight(), screen.getX(), screen.getY(), screen.getWidth(), screen.getHeight())) {
+        continue;
+      }
+      area = area == null ? bounds : Utils.mergeAreas(area, bounds);
+    }
+
+    if (area == null) {
+      return;
+    }
+
+    // limit to screen
+    final int left = Math.max(area.getX(), screen.getX());
+    final int top = Math.max(area.getY(), screen.getY());
+    final int right = Math.min(area.getX() + area.getWidth(), screen.getX() + screen.getWidth());
+    final int bottom = Math.min(area.getY() + area.getHeight(), screen.getY()
+        + screen.getHeight());
+    changedAreas.addElement(new Rectangle(left, top, right - left + 1, bottom - top + 1));
+  }
+
+  /**
+   * Mark displayed elements index outdated. Needs to be called after elements
+   * have been added/removed or their positions recalculated.
+   */
+  private void displayedElementsChanged() {
+    displayedElementsIndexValid = false;
+  }
+
+  /**
+   * Find displayed elements, that may be visible in given map area. Uses
+   * displayed elements index, that is rebuilt when needed.
+   * 
+   * @return elements in display order
+   */
+  private OnMapElement[] displayedElementsIn(final int mapX, final int mapY, final int width,
+      final int height) {
+    if (!displayedElementsIndexValid) {
+      synchronized (displayedElementsIndex) {
+        if (!displayedElementsIndexValid) {
+          displayedElementsIndexValid = true;
+          displayedElementsIndex.rebuild(displayedElements.toArray());
+        }
+      }
+    }
+    return displayedElementsIndex.query(mapX, mapY, width, height);
   }
 
   /**
@@ -2037,8 +2313,16 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     screenCache.resize((2 + ((displayWidth - 2) / displayedMap.getTileSize()))
         * (2 + ((displayHeight - 2) / displayedMap.getTileSize())));
 
-    neededTiles.setSize(0);
-    //mapTilesRetriever.cancelAllRunning();
+    synchronized (neededTiles) {
+      neededTiles.setSize(0);
+      neededTilesIndex.clear();
+    }
+    synchronized (requestedTiles) {
+      for (int i = 0; i < requestedTiles.size(); i++) {
+        ((MapTile) requestedTiles.elementAt(i)).cancel();
+      }
+      requestedTiles.setSize(0);
+    }
 
     if (zoomBufferGraphics != null) {
       zoomBufferGraphics.setColor(0xFFFFFFFF);
@@ -2505,6 +2789,17 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
     taskRunner.enqueueDownload(downloadable, cacheLevel);
   }
 
+  /**
+   * Start downloading map tiles for an area into network cache, so that it
+   * can be viewed offline later.
+   * 
+   * @param seeder
+   *          seeder defining map, area and zoom range
+   */
+  public void startSeeding(final RegionSeeder seeder) {
+    seeder.start(taskRunner);
+  }
+
   /**
    * Set zoom indicator to be painted on display. This method will overwrite
    * default values set in
@@ -2610,9 +2905,11 @@ public class BasicMapComponent extends BaseMapComponent implements MapTilesReque
    */
   public Place[] getVisiblePlaces() {
     final Vector visible = new Vector();
+    final OnMapElement[] elements = displayedElementsIn(middlePoint.getX() - displayCenterX,
+        middlePoint.getY() - displayCenterY, displayWidth, displayHeight);
 
-    for (int i = 0; i < displayedElements.size(); i++) {
-      final Object p = displayedElements.elementAt(i);
+    for (int i = 0; i < elements.length; i++) {
+      final Object p = elements[i];
       if (!(p instanceof Place)) {
         continue;
       }
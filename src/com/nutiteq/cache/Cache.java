@@ -45,6 +45,16 @@ public interface Cache {
    */
   byte[] get(final String cacheKey);
 
+  /**
+   * Get cached data for multiple keys with one lookup.
+   * 
+   * @param cacheKeys
+   *          keys that were used for data caching
+   * @return cached data in same order as keys. Elements for keys not found are
+   *         null.
+   */
+  byte[][] getAll(final String[] cacheKeys);
+
   /**
    * Cache given data
    * 
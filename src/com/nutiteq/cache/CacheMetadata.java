@@ -0,0 +1,187 @@
+package com.nutiteq.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * HTTP caching information for cached network resource: validators (ETag and
+ * Last-Modified) for conditional requests, fetch time and freshness lifetime.
+ * </p>
+ *
+ * <p>
+ * Resources without explicit or heuristic lifetime are considered fresh, as
+ * before metadata was kept. Resources with lifetime, that have become stale,
+ * are revalidated with conditional request if they have validators, otherwise
+ * they are downloaded again. Stale resource is still used, if it can not be
+ * downloaded.
+ * </p>
+ */
+public class CacheMetadata {
+  /**
+   * Freshness lifetime is not known
+   */
+  public static final long UNKNOWN_MAX_AGE = -1;
+
+  // heuristic lifetime is this part of time since last modification
+  private static final int HEURISTIC_DIVISOR = 10;
+  private static final long MAX_HEURISTIC_AGE = 24 * 60 * 60 * 1000L;
+
+  private final String etag;
+  private final String lastModified;
+  private final long fetchTime;
+  private final long maxAge;
+
+  /**
+   * @param etag
+   *          ETag response header value, null if not present
+   * @param lastModified
+   *          Last-Modified response header value, null if not present
+   * @param fetchTime
+   *          time response was received (milliseconds)
+   * @param maxAge
+   *          freshness lifetime in milliseconds or {@link #UNKNOWN_MAX_AGE}
+   */
+  public CacheMetadata(final String etag, final String lastModified, final long fetchTime,
+      final long maxAge) {
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.fetchTime = fetchTime;
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * Create metadata from response headers.
+   *
+   * @param cacheControl
+   *          Cache-Control header value or null
+   * @param expires
+   *          Expires header as time or 0, if not present
+   * @param date
+   *          Date header as time or 0, if not present
+   * @param lastModifiedTime
+   *          Last-Modified header as time or 0, if not present
+   */
+  public static CacheMetadata fromResponse(final String etag, final String lastModified,
+      final String cacheControl, final long expires, final long date,
+      final long lastModifiedTime, final long fetchTime) {
+    long maxAge = UNKNOWN_MAX_AGE;
+    final String control = cacheControl == null ? "" : cacheControl.toLowerCase();
+    if (control.indexOf("no-cache") >= 0 || control.indexOf("no-store") >= 0) {
+      maxAge = 0;
+    } else if (control.indexOf("max-age=") >= 0) {
+      maxAge = parseSeconds(control, control.indexOf("max-age=") + 8) * 1000L;
+    } else if (expires > 0) {
+      maxAge = Math.max(0, expires - (date > 0 ? date : fetchTime));
+    } else if (lastModifiedTime > 0) {
+      final long age = (date > 0 ? date : fetchTime) - lastModifiedTime;
+      if (age > 0) {
+        maxAge = Math.min(MAX_HEURISTIC_AGE, age / HEURISTIC_DIVISOR);
+      }
+    }
+    return new CacheMetadata(etag, lastModified, fetchTime, maxAge);
+  }
+
+  private static long parseSeconds(final String value, final int start) {
+    long result = 0;
+    for (int i = start; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /**
+   * Metadata after successful revalidation. Validators and lifetime missing
+   * from not modified response are kept from this metadata.
+   *
+   * @param response
+   *          metadata from not modified response
+   */
+  public CacheMetadata revalidated(final CacheMetadata response) {
+    return new CacheMetadata(response.etag != null ? response.etag : etag,
+        response.lastModified != null ? response.lastModified : lastModified,
+        response.fetchTime, response.maxAge != UNKNOWN_MAX_AGE ? response.maxAge : maxAge);
+  }
+
+  /**
+   * Can cached resource be used without contacting server
+   */
+  public boolean isFresh(final long now) {
+    return maxAge == UNKNOWN_MAX_AGE || now - fetchTime < maxAge;
+  }
+
+  /**
+   * Can resource be revalidated with conditional request
+   */
+  public boolean hasValidators() {
+    return etag != null || lastModified != null;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  public long getFetchTime() {
+    return fetchTime;
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Serialize for persistent caches
+   */
+  public byte[] toBytes() {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final DataOutputStream dos = new DataOutputStream(baos);
+    try {
+      write(dos);
+      dos.close();
+    } catch (final IOException e) {
+      // not thrown by byte array stream
+    }
+    return baos.toByteArray();
+  }
+
+  public void write(final DataOutputStream dos) throws IOException {
+    dos.writeUTF(etag == null ? "" : etag);
+    dos.writeUTF(lastModified == null ? "" : lastModified);
+    dos.writeLong(fetchTime);
+    dos.writeLong(maxAge);
+  }
+
+  /**
+   * @return read metadata or null, if data is not valid
+   */
+  public static CacheMetadata fromBytes(final byte[] data) {
+    if (data == null || data.length == 0) {
+      return null;
+    }
+    try {
+      return read(new DataInputStream(new ByteArrayInputStream(data)));
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  public static CacheMetadata read(final DataInputStream dis) throws IOException {
+    final String etag = dis.readUTF();
+    final String lastModified = dis.readUTF();
+    final long fetchTime = dis.readLong();
+    final long maxAge = dis.readLong();
+    return new CacheMetadata(etag.length() == 0 ? null : etag, lastModified.length() == 0 ? null
+        : lastModified, fetchTime, maxAge);
+  }
+}
@@ -1,9 +1,10 @@
 package com.nutiteq.cache;
 
 /**
- * Combines different caching levels to one cache.
+ * Combines different caching levels to one cache. Caching metadata is kept in
+ * levels implementing {@link ValidatingCache}.
  */
-public class CachingChain implements Cache {
+public class CachingChain implements ValidatingCache {
   protected final Cache[] cacheLevels;
 
   /**
@@ -40,13 +41,95 @@ public class CachingChain implements Cache {
     return result;
   }
 
+  /**
+   * Looks up keys from every level once, asking only keys not found from
+   * previous levels. Data found from lower levels is copied to higher levels
+   * (memory level caching).
+   */
+  public byte[][] getAll(final String[] cacheKeys) {
+    final byte[][] result = new byte[cacheKeys.length][];
+    int[] missing = new int[cacheKeys.length];
+    int missingCount = cacheKeys.length;
+    for (int i = 0; i < missingCount; i++) {
+      missing[i] = i;
+    }
+
+    for (int level = 0; level < cacheLevels.length && missingCount > 0; level++) {
+      final String[] keys = new String[missingCount];
+      for (int i = 0; i < missingCount; i++) {
+        keys[i] = cacheKeys[missing[i]];
+      }
+
+      final byte[][] found = cacheLevels[level].getAll(keys);
+      final int[] stillMissing = new int[missingCount];
+      int stillMissingCount = 0;
+      for (int i = 0; i < missingCount; i++) {
+        if (found[i] == null) {
+          stillMissing[stillMissingCount++] = missing[i];
+          continue;
+        }
+
+        result[missing[i]] = found[i];
+        final CacheMetadata metadata = level > 0 ? getMetadata(cacheLevels[level], keys[i])
+            : null;
+        for (int higher = 0; higher < level; higher++) {
+          cache(cacheLevels[higher], keys[i], found[i], metadata, CACHE_LEVEL_MEMORY);
+        }
+      }
+      missing = stillMissing;
+      missingCount = stillMissingCount;
+    }
+
+    return result;
+  }
+
   public void cache(final String cacheKey, final byte[] data, final int cacheLevel) {
+    cache(cacheKey, data, null, cacheLevel);
+  }
+
+  public void cache(final String cacheKey, final byte[] data, final CacheMetadata metadata,
+      final int cacheLevel) {
     if (cacheLevel == CACHE_LEVEL_NONE || data == null || data.length == 0) {
       return;
     }
 
     for (int i = 0; i < cacheLevels.length; i++) {
-      cacheLevels[i].cache(cacheKey, data, cacheLevel);
+      cache(cacheLevels[i], cacheKey, data, metadata, cacheLevel);
+    }
+  }
+
+  /**
+   * Metadata from first level having it
+   */
+  public CacheMetadata getMetadata(final String cacheKey) {
+    for (int i = 0; i < cacheLevels.length; i++) {
+      final CacheMetadata result = getMetadata(cacheLevels[i], cacheKey);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  public void updateMetadata(final String cacheKey, final CacheMetadata metadata) {
+    for (int i = 0; i < cacheLevels.length; i++) {
+      if (cacheLevels[i] instanceof ValidatingCache) {
+        ((ValidatingCache) cacheLevels[i]).updateMetadata(cacheKey, metadata);
+      }
+    }
+  }
+
+  private static CacheMetadata getMetadata(final Cache level, final String cacheKey) {
+    return level instanceof ValidatingCache ? ((ValidatingCache) level).getMetadata(cacheKey)
+        : null;
+  }
+
+  private static void cache(final Cache level, final String cacheKey, final byte[] data,
+      final CacheMetadata metadata, final int cacheLevel) {
+    if (level instanceof ValidatingCache) {
+      ((ValidatingCache) level).cache(cacheKey, data, metadata, cacheLevel);
+    } else {
+      level.cache(cacheKey, data, cacheLevel);
     }
   }
 
@@ -1,9 +1,8 @@
 package com.nutiteq.cache;
 
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Map.Entry;
 
 /**
@@ -11,89 +10,165 @@ import java.util.Map.Entry;
  * Memory cache implementing LRU (least recently used) strategy. If cache is full, least recently
  * used items will be pushed out.
  * </p>
- * 
+ *
+ * <p>
+ * Cache is split into segments by key hash. Every segment has its own lock, LRU order and share
+ * of cache limits, so concurrent tile workers do not block each other. Cache size in bytes never
+ * exceeds given limit, elements larger than segment limit are not cached.
+ * </p>
+ *
+ * <p>
+ * Optionally new elements can be admitted only when they are used more often than the element
+ * they would push out (see {@link #setAdmissionEnabled(boolean)}), so one-off tiles do not flush
+ * frequently used ones.
+ * </p>
+ *
+ * <p>
+ * Caching metadata ({@link CacheMetadata}) is kept with elements and dropped together with them.
+ * </p>
+ *
  * <p>
  * Current implementation uses only actual data size. Objects/keys overhead is not calculated in
  * cache size.
  * </p>
  */
-public class MemoryCache implements Cache {
+public class MemoryCache implements ValidatingCache {
 
     protected static final String TAG = "MemoryCache";
     private static final int DEFAULT_LENGTH = 60;
-    private LinkedHashMap<String, byte[]> cache;
+    private static final int MAX_SEGMENTS = 4;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
     private static final float loadFactor = 1.1f;
     private final int mCacheSize;
-    private int mCacheLength;
-    private int size;
+    private final int mCacheLength;
+    private final int segmentsCount;
+    private volatile Segment[] segments;
+    private volatile boolean admission;
+    // access order across segments, guarded by clockLock
+    private final Object clockLock = new Object();
+    private long clock;
 
     /**
      * Create a new MemoryCache instance.
-     * 
-     * @param mCacheSize
+     *
+     * @param cl
      *            cache size in element number.
-     * @param mCacheLength
+     * @param cs
      *            cache size in bytes.
      */
     public MemoryCache(final int cl, final int cs) {
+        this(cl, cs, defaultSegments(cl, cs));
+    }
+
+    /**
+     * Create a new MemoryCache instance.
+     *
+     * @param cl
+     *            cache size in element number.
+     * @param cs
+     *            cache size in bytes.
+     * @param segments
+     *            number of independently locked segments
+     */
+    public MemoryCache(final int cl, final int cs, final int segments) {
         mCacheLength = cl;
         mCacheSize = cs;
+        segmentsCount = Math.max(1, segments);
     }
 
     /**
      * Create a new MemoryCache instance.
-     * 
-     * @param mCacheSize
-     *            cache size in element number.
+     *
+     * @param cs
+     *            cache size in bytes.
      */
     public MemoryCache(final int cs) {
-        mCacheLength = DEFAULT_LENGTH;
-        mCacheSize = cs;
+        this(DEFAULT_LENGTH, cs);
+    }
+
+    private static int defaultSegments(final int cl, final int cs) {
+        int result = MAX_SEGMENTS;
+        while (result > 1 && (cs / result < MIN_SEGMENT_SIZE || cl / result < 8)) {
+            result >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Admit new elements into full cache only if they have been requested more often than the
+     * least recently used element. Disabled by default.
+     */
+    public void setAdmissionEnabled(final boolean enabled) {
+        admission = enabled;
     }
 
     public void initialize() {
-        size = 0;
-        cache = new LinkedHashMap<String, byte[]>(mCacheLength, loadFactor, true) {
-            private static final long serialVersionUID = 1;
-
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
-                if (size() > mCacheLength || size > mCacheSize) {
-                    size -= eldest.getValue().length;
-                    return true;
-                }
-                return false;
-            }
-        };
+        final Segment[] created = new Segment[segmentsCount];
+        for (int i = 0; i < created.length; i++) {
+            // split limits, so that segments together never exceed them
+            final int bytes = mCacheSize / segmentsCount + (i < mCacheSize % segmentsCount ? 1 : 0);
+            final int elements = Math.max(1, mCacheLength / segmentsCount
+                    + (i < mCacheLength % segmentsCount ? 1 : 0));
+            created[i] = new Segment(elements, bytes);
+        }
+        segments = created;
     }
 
     public void deinitialize() {
-        if (cache != null) {
-            cache.clear();
+        final Segment[] current = segments;
+        segments = null;
+        if (current == null) {
+            return;
+        }
+        for (int i = 0; i < current.length; i++) {
+            current[i].clear();
         }
-        cache = null;
     }
 
     public byte[] get(final String cacheId) {
-        return cache.get(cacheId);
+        final Segment segment = segmentFor(cacheId);
+        return segment == null ? null : segment.get(cacheId);
+    }
+
+    public byte[][] getAll(final String[] cacheIds) {
+        final byte[][] result = new byte[cacheIds.length][];
+        for (int i = 0; i < cacheIds.length; i++) {
+            result[i] = get(cacheIds[i]);
+        }
+        return result;
     }
 
     public void cache(final String cacheId, final byte[] data, final int cacheLevel) {
+        cache(cacheId, data, null, cacheLevel);
+    }
+
+    public void cache(final String cacheId, final byte[] data, final CacheMetadata metadata,
+            final int cacheLevel) {
         if ((cacheLevel & CACHE_LEVEL_MEMORY) != CACHE_LEVEL_MEMORY || data == null
                 || data.length == 0) {
             return;
         }
-        size += data.length;
-        synchronized (cache) {
-            cache.put(cacheId, data);
+        final Segment segment = segmentFor(cacheId);
+        if (segment != null) {
+            segment.put(cacheId, data, metadata);
         }
     }
 
-    public boolean contains(final String cacheKey) {
-        if (cache == null) {
-            return false;
+    public CacheMetadata getMetadata(final String cacheKey) {
+        final Segment segment = segmentFor(cacheKey);
+        return segment == null ? null : segment.getMetadata(cacheKey);
+    }
+
+    public void updateMetadata(final String cacheKey, final CacheMetadata metadata) {
+        final Segment segment = segmentFor(cacheKey);
+        if (segment != null) {
+            segment.setMetadata(cacheKey, metadata);
         }
-        return cache.containsKey(cacheKey);
+    }
+
+    public boolean contains(final String cacheKey) {
+        final Segment segment = segmentFor(cacheKey);
+        return segment != null && segment.contains(cacheKey);
     }
 
     public boolean contains(final String cacheKey, final int cacheLevel) {
@@ -103,31 +178,230 @@ public class MemoryCache implements Cache {
         return contains(cacheKey);
     }
 
+    private Segment segmentFor(final String key) {
+        final Segment[] current = segments;
+        if (current == null) {
+            return null;
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return current[(h & 0x7fffffff) % current.length];
+    }
+
     // TEST METHODS
     protected int getCalculatedSize() {
-        return size;
+        final Segment[] current = segments;
+        int result = 0;
+        for (int i = 0; i < current.length; i++) {
+            synchronized (current[i]) {
+                result += current[i].size;
+            }
+        }
+        return result;
     }
 
     protected int getActualElementsSize() {
-        final Collection<byte[]> e = (Collection<byte[]>) cache.values();
-        final Iterator<byte[]> i = e.iterator();
+        final Segment[] current = segments;
         int result = 0;
-        while (i.hasNext()) {
-            final byte[] item = i.next();
-            result += item.length;
+        for (int i = 0; i < current.length; i++) {
+            synchronized (current[i]) {
+                final Iterator<byte[]> it = current[i].map.values().iterator();
+                while (it.hasNext()) {
+                    result += it.next().length;
+                }
+            }
         }
         return result;
     }
 
     protected CacheItem getMRU() {
-        CacheItem ci = new CacheItem();
-        Iterator<Entry<String, byte[]>> i = cache.entrySet().iterator();
-        Entry<String, byte[]> e = null;
-        while (i.hasNext()) {
-            e = i.next();
-        }
-        ci.key = e.getKey();
-        ci.data = e.getValue();
+        final Segment[] current = segments;
+        CacheItem ci = null;
+        long latestAccess = -1;
+        for (int s = 0; s < current.length; s++) {
+            synchronized (current[s]) {
+                if (current[s].map.size() == 0 || current[s].lastAccess <= latestAccess) {
+                    continue;
+                }
+                latestAccess = current[s].lastAccess;
+                final Iterator<Entry<String, byte[]>> i = current[s].map.entrySet().iterator();
+                Entry<String, byte[]> e = null;
+                while (i.hasNext()) {
+                    e = i.next();
+                }
+                ci = new CacheItem();
+                ci.key = e.getKey();
+                ci.data = e.getValue();
+            }
+        }
         return ci;
     }
+
+    private long tick() {
+        synchronized (clockLock) {
+            return ++clock;
+        }
+    }
+
+    private class Segment {
+        // access ordered, mutates on read - always use under segment lock
+        private final LinkedHashMap<String, byte[]> map;
+        // only for elements cached with metadata
+        private final HashMap<String, CacheMetadata> metadata =
+                new HashMap<String, CacheMetadata>();
+        private final int maxElements;
+        private final int maxBytes;
+        private final FrequencySketch frequency;
+        private int size;
+        private long lastAccess;
+
+        public Segment(final int maxElements, final int maxBytes) {
+            this.maxElements = maxElements;
+            this.maxBytes = maxBytes;
+            map = new LinkedHashMap<String, byte[]>(maxElements, loadFactor, true);
+            frequency = new FrequencySketch(maxElements * 4);
+        }
+
+        public synchronized byte[] get(final String key) {
+            frequency.increment(key);
+            final byte[] result = map.get(key);
+            if (result != null) {
+                lastAccess = tick();
+            }
+            return result;
+        }
+
+        public synchronized boolean contains(final String key) {
+            return map.containsKey(key);
+        }
+
+        public synchronized CacheMetadata getMetadata(final String key) {
+            return metadata.get(key);
+        }
+
+        public synchronized void setMetadata(final String key, final CacheMetadata value) {
+            if (!map.containsKey(key)) {
+                return;
+            }
+            if (value == null) {
+                metadata.remove(key);
+            } else {
+                metadata.put(key, value);
+            }
+        }
+
+        public synchronized void put(final String key, final byte[] data,
+                final CacheMetadata value) {
+            frequency.increment(key);
+            if (data.length > maxBytes) {
+                // would never fit, keep old value out too
+                final byte[] old = map.remove(key);
+                if (old != null) {
+                    size -= old.length;
+                    metadata.remove(key);
+                }
+                return;
+            }
+
+            final byte[] old = map.get(key);
+            if (old == null && admission && !admit(key, data.length)) {
+                return;
+            }
+
+            map.put(key, data);
+            size += data.length - (old == null ? 0 : old.length);
+            if (value == null) {
+                metadata.remove(key);
+            } else {
+                metadata.put(key, value);
+            }
+            lastAccess = tick();
+            evict();
+        }
+
+        /**
+         * Compare candidate against elements it would push out.
+         */
+        private boolean admit(final String key, final int length) {
+            int freedBytes = maxBytes - size;
+            int freedElements = maxElements - map.size();
+            final Iterator<Entry<String, byte[]>> i = map.entrySet().iterator();
+            final int candidate = frequency.frequency(key);
+            while ((freedBytes < length || freedElements < 1) && i.hasNext()) {
+                final Entry<String, byte[]> victim = i.next();
+                if (frequency.frequency(victim.getKey()) >= candidate) {
+                    return false;
+                }
+                freedBytes += victim.getValue().length;
+                freedElements++;
+            }
+            return true;
+        }
+
+        private void evict() {
+            final Iterator<Entry<String, byte[]>> i = map.entrySet().iterator();
+            while ((size > maxBytes || map.size() > maxElements) && i.hasNext()) {
+                final Entry<String, byte[]> eldest = i.next();
+                size -= eldest.getValue().length;
+                metadata.remove(eldest.getKey());
+                i.remove();
+            }
+        }
+
+        public synchronized void clear() {
+            map.clear();
+            metadata.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Approximate access counts for keys. Counts are halved periodically, so old popularity
+     * fades away.
+     */
+    private static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private final byte[] counts;
+        private final int mask;
+        private final int resetLimit;
+        private int additions;
+
+        public FrequencySketch(final int expectedElements) {
+            int length = 16;
+            while (length < expectedElements * 2) {
+                length <<= 1;
+            }
+            counts = new byte[length];
+            mask = length - 1;
+            resetLimit = length * 4;
+        }
+
+        public void increment(final String key) {
+            final int h = key.hashCode();
+            final int first = h & mask;
+            final int second = rehash(h) & mask;
+            if (counts[first] < MAX_COUNT) {
+                counts[first]++;
+            }
+            if (counts[second] < MAX_COUNT) {
+                counts[second]++;
+            }
+            if (++additions >= resetLimit) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] >>= 1;
+                }
+                additions >>= 1;
+            }
+        }
+
+        public int frequency(final String key) {
+            final int h = key.hashCode();
+            return Math.min(counts[h & mask], counts[rehash(h) & mask]);
+        }
+
+        private static int rehash(final int h) {
+            int x = h * 0x9E3779B1;
+            return x ^ (x >>> 15);
+        }
+    }
 }
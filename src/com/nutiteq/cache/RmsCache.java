@@ -44,9 +44,18 @@ import com.nutiteq.utils.RmsUtils;
  * CloudMade images are a lot smaller (usually around 500B) and this also
  * increases number of URLs needed for cache keys.
  * </p>
+ * <p>
+ * Caching metadata ({@link CacheMetadata}) is kept in cache index.
+ * </p>
+ * <p>
+ * Cache is used by several network workers at the same time, so index, LRU list
+ * and bucket counters are accessed only under cache lock.
+ * </p>
  */
-public class RmsCache implements Cache {
+public class RmsCache implements ValidatingCache {
   private static final String CACHE_INDEX_SUFFIX = "_index";
+  // written before index data, older indexes start with first bucket size
+  private static final int INDEX_VERSION_METADATA = -2;
 
   private final String cachePrefix;
   private final int maxBucketSize;
@@ -83,7 +92,7 @@ public class RmsCache implements Cache {
     }
   }
 
-  public void initialize() {
+  public synchronized void initialize() {
     if (!RmsUtils.recordStorePresent(cachePrefix + CACHE_INDEX_SUFFIX) || !readCacheIndex()) {
       RmsUtils.deleteRecordStoresWithPrefix(cachePrefix);
       resetData();
@@ -100,7 +109,7 @@ public class RmsCache implements Cache {
     }
   }
 
-  public byte[] get(final String cacheId) {
+  public synchronized byte[] get(final String cacheId) {
     final RmsCacheItem item = (RmsCacheItem) index.get(cacheId);
 
     if (item == null) {
@@ -114,6 +123,46 @@ public class RmsCache implements Cache {
     return data;
   }
 
+  /**
+   * Reads found keys grouped by bucket, so every record store is opened only
+   * once.
+   */
+  public synchronized byte[][] getAll(final String[] cacheIds) {
+    final byte[][] result = new byte[cacheIds.length][];
+    final RmsCacheItem[] items = new RmsCacheItem[cacheIds.length];
+    final int[] bucketCounts = new int[numberOfBuckets];
+    for (int i = 0; i < cacheIds.length; i++) {
+      items[i] = (RmsCacheItem) index.get(cacheIds[i]);
+      if (items[i] != null) {
+        bucketCounts[items[i].bucket]++;
+      }
+    }
+
+    for (int bucket = 0; bucket < numberOfBuckets; bucket++) {
+      if (bucketCounts[bucket] == 0) {
+        continue;
+      }
+
+      final int[] recordIds = new int[bucketCounts[bucket]];
+      final int[] positions = new int[bucketCounts[bucket]];
+      int n = 0;
+      for (int i = 0; i < items.length; i++) {
+        if (items[i] != null && items[i].bucket == bucket) {
+          recordIds[n] = items[i].recordId;
+          positions[n++] = i;
+        }
+      }
+
+      final byte[][] data = RmsUtils.readDataFromIds(cachePrefix + bucket, recordIds);
+      for (int i = 0; i < n; i++) {
+        result[positions[i]] = data[i];
+        makeFirst(items[positions[i]]);
+      }
+    }
+
+    return result;
+  }
+
   private void makeFirst(final RmsCacheItem item) {
     if (mru == null && lru == null) {
       mru = lru = item;
@@ -144,7 +193,24 @@ public class RmsCache implements Cache {
     }
   }
 
-  public void cache(final String cacheId, final byte[] data, final int cacheLevel) {
+  public synchronized void cache(final String cacheId, final byte[] data, final int cacheLevel) {
+    cache(cacheId, data, null, cacheLevel);
+  }
+
+  public synchronized CacheMetadata getMetadata(final String cacheKey) {
+    final RmsCacheItem item = (RmsCacheItem) index.get(cacheKey);
+    return item == null ? null : item.metadata;
+  }
+
+  public synchronized void updateMetadata(final String cacheKey, final CacheMetadata metadata) {
+    final RmsCacheItem item = (RmsCacheItem) index.get(cacheKey);
+    if (item != null) {
+      item.metadata = metadata;
+    }
+  }
+
+  public synchronized void cache(final String cacheId, final byte[] data,
+      final CacheMetadata metadata, final int cacheLevel) {
     if ((cacheLevel & CACHE_LEVEL_PERSISTENT) != CACHE_LEVEL_PERSISTENT || data == null || data.length == 0) {
       return;
     }
@@ -179,6 +245,7 @@ public class RmsCache implements Cache {
     item.dataLength = dataLength;
     item.key = cacheId;
     item.recordId = recordId;
+    item.metadata = metadata;
 
     index.put(cacheId, item);
     bucketSize[availableBucket] += dataLength;
@@ -244,8 +311,10 @@ public class RmsCache implements Cache {
     try {
       bais = new ByteArrayInputStream(indexData);
       dis = new DataInputStream(bais);
+      final int first = dis.readInt();
+      final boolean withMetadata = first == INDEX_VERSION_METADATA;
       for (int i = 0; i < numberOfBuckets; i++) {
-        bucketSize[i] = dis.readInt();
+        bucketSize[i] = i == 0 && !withMetadata ? first : dis.readInt();
         bucketElements[i] = dis.readInt();
       }
       final int elements = dis.readInt();
@@ -255,6 +324,9 @@ public class RmsCache implements Cache {
         read.bucket = dis.readInt();
         read.recordId = dis.readInt();
         read.key = dis.readUTF();
+        if (withMetadata && dis.readBoolean()) {
+          read.metadata = CacheMetadata.read(dis);
+        }
         makeFirst(read);
         index.put(read.key, read);
       }
@@ -269,7 +341,7 @@ public class RmsCache implements Cache {
     return false;
   }
 
-  public void deinitialize() {
+  public synchronized void deinitialize() {
     writeIndex();
   }
 
@@ -279,6 +351,7 @@ public class RmsCache implements Cache {
     try {
       baos = new ByteArrayOutputStream();
       dos = new DataOutputStream(baos);
+      dos.writeInt(INDEX_VERSION_METADATA);
       for (int i = 0; i < numberOfBuckets; i++) {
         dos.writeInt(bucketSize[i]);
         dos.writeInt(bucketElements[i]);
@@ -290,6 +363,10 @@ public class RmsCache implements Cache {
         dos.writeInt(writing.bucket);
         dos.writeInt(writing.recordId);
         dos.writeUTF(writing.key);
+        dos.writeBoolean(writing.metadata != null);
+        if (writing.metadata != null) {
+          writing.metadata.write(dos);
+        }
       } while ((writing = writing.previous) != null);
 
       final byte[] data = baos.toByteArray();
@@ -302,15 +379,15 @@ public class RmsCache implements Cache {
   }
 
   //TEST METHODS
-  protected int getCalculatedSize(final int bucket) {
+  protected synchronized int getCalculatedSize(final int bucket) {
     return bucketSize[bucket];
   }
 
-  protected RmsCacheItem getMRU() {
+  protected synchronized RmsCacheItem getMRU() {
     return mru;
   }
 
-  protected int getTotalItemsCount() {
+  protected synchronized int getTotalItemsCount() {
     int result = 0;
     for (int i = 0; i < bucketElements.length; i++) {
       result += bucketElements[i];
@@ -318,7 +395,7 @@ public class RmsCache implements Cache {
     return result;
   }
 
-  public boolean contains(final String cacheKey) {
+  public synchronized boolean contains(final String cacheKey) {
     return index.containsKey(cacheKey);
   }
 
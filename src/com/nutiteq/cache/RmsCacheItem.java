@@ -7,4 +7,5 @@ public class RmsCacheItem {
   public RmsCacheItem next;
   public RmsCacheItem previous;
   public String key;
+  public CacheMetadata metadata;
 }
@@ -0,0 +1,38 @@
+package com.nutiteq.cache;
+
+/**
+ * Cache keeping HTTP caching metadata ({@link CacheMetadata}) together with
+ * cached data, so that stale network resources can be revalidated with
+ * conditional requests.
+ */
+public interface ValidatingCache extends Cache {
+  /**
+   * Get metadata for cached data.
+   *
+   * @param cacheKey
+   *          key that was used for data caching
+   * @return metadata or null, if key is not cached or was cached without
+   *         metadata
+   */
+  CacheMetadata getMetadata(String cacheKey);
+
+  /**
+   * Cache given data with metadata.
+   *
+   * @param cacheKey
+   *          key for the cached data
+   * @param data
+   *          data to be cached
+   * @param metadata
+   *          caching metadata, may be null
+   * @param cacheLevel
+   *          at which level this data needs to be cached
+   */
+  void cache(String cacheKey, byte[] data, CacheMetadata metadata, int cacheLevel);
+
+  /**
+   * Replace metadata of cached data, for example after successful
+   * revalidation. Does nothing if key is not cached.
+   */
+  void updateMetadata(String cacheKey, CacheMetadata metadata);
+}
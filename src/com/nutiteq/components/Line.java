@@ -10,11 +10,14 @@ import com.nutiteq.utils.Utils;
 /**
  * Line object to be displayed on map
  */
-public class Line implements OnMapElement {
+public class Line implements OnMapElement, MapBounded {
   private final WgsPoint[] points;
-  private MapPos[] positions;
-  private Point boundingBoxMin;
-  private Point boundingBoxMax;
+  private final ProjectedPoints positions;
+  private SegmentIndex segmentIndex;
+  // clipped segment, reused between paints
+  private final int[] clipped = new int[4];
+  private double clipStart;
+  private double clipEnd;
   private LineStyle style;
   private final boolean serverSideRender;
   private final Label label;
@@ -56,6 +59,7 @@ public class Line implements OnMapElement {
   public Line(final WgsPoint[] points, final LineStyle style, final Label label,
       final boolean serverSideRender) {
     this.points = points;
+    positions = new ProjectedPoints(points);
     this.style = style;
     this.label = label;
     this.serverSideRender = serverSideRender;
@@ -63,28 +67,14 @@ public class Line implements OnMapElement {
 
   public boolean isVisible(final int viewX, final int viewY, final int viewWidth,
       final int viewHeight, final int zoom) {
-    if (!viewWithinBoundingBox(viewX, viewY, viewWidth, viewHeight)) {
+    if (segmentIndex == null || !viewWithinBoundingBox(viewX, viewY, viewWidth, viewHeight)) {
       return false;
     }
 
-    for (int j = 0; j < positions.length - 1; j++) {
-      // work with point pairs
-      final MapPos start = positions[j];
-      final MapPos end = positions[j + 1];
-
-      //TODO jaanus : check this hack! Problem in NutiGuide
-      if (start == null || end == null) {
-        continue;
-      }
-
-      if (Utils.rectanglesIntersect(start.getX(), start.getY(), end.getX() - start.getX(), end
-          .getY()
-          - start.getY(), viewX, viewY, viewWidth, viewHeight)) {
-        return true;
-      }
-    }
-
-    return false;
+    final int left = viewWidth > 0 ? viewX : viewX + viewWidth;
+    final int top = viewHeight > 0 ? viewY : viewY + viewHeight;
+    return segmentIndex.intersects(left, top, left + Math.abs(viewWidth), top
+        + Math.abs(viewHeight));
   }
 
   public void paint(final Graphics g, final MapPos middlePoint, final int displayCenterX,
@@ -94,18 +84,23 @@ public class Line implements OnMapElement {
     }
     g.setColor(style.getColor());
     final int lineWidth = style.getWidth();
-    for (int j = 0; j < positions.length - 1; j++) {
+    final int[] x = positions.getSimplifiedX();
+    final int[] y = positions.getSimplifiedY();
+    final int count = positions.getSimplifiedCount();
+    final int offsetX = displayCenterX - middlePoint.getX();
+    final int offsetY = displayCenterY - middlePoint.getY();
+    // segments are clipped to changed area, widened so that line ends stay outside
+    final int clipLeft = changedMapArea.getX() - lineWidth;
+    final int clipTop = changedMapArea.getY() - lineWidth;
+    final int clipRight = changedMapArea.getX() + changedMapArea.getWidth() + lineWidth;
+    final int clipBottom = changedMapArea.getY() + changedMapArea.getHeight() + lineWidth;
+    for (int j = 0; j < count - 1; j++) {
       // work with point pairs
-      final MapPos start = positions[j];
-      final MapPos end = positions[j + 1];
-      if (Utils.rectanglesIntersect(start.getX(), start.getY(), end.getX() - start.getX(), end
-          .getY()
-          - start.getY(), changedMapArea.getX(), changedMapArea.getY(), changedMapArea.getWidth(),
-          changedMapArea.getHeight())) {
-        final int startX = start.getX() - middlePoint.getX() + displayCenterX;
-        final int startY = start.getY() - middlePoint.getY() + displayCenterY;
-        final int endX = end.getX() - middlePoint.getX() + displayCenterX;
-        final int endY = end.getY() - middlePoint.getY() + displayCenterY;
+      if (clip(x[j], y[j], x[j + 1], y[j + 1], clipLeft, clipTop, clipRight, clipBottom)) {
+        final int startX = clipped[0] + offsetX;
+        final int startY = clipped[1] + offsetY;
+        final int endX = clipped[2] + offsetX;
+        final int endY = clipped[3] + offsetY;
         if (lineWidth < 3) {
           final int xLength = Math.abs(endX - startX);
           final int yLength = Math.abs(endY - startY);
@@ -122,6 +117,57 @@ public class Line implements OnMapElement {
     }
   }
 
+  /**
+   * Clip segment to rectangle (Liang-Barsky). Clipped segment is stored in
+   * {@link #clipped}.
+   *
+   * @return false if segment is outside rectangle
+   */
+  private boolean clip(final int x1, final int y1, final int x2, final int y2, final int left,
+      final int top, final int right, final int bottom) {
+    if (Math.max(x1, x2) < left || Math.min(x1, x2) > right || Math.max(y1, y2) < top
+        || Math.min(y1, y2) > bottom) {
+      return false;
+    }
+
+    if (x1 >= left && x1 <= right && y1 >= top && y1 <= bottom && x2 >= left && x2 <= right
+        && y2 >= top && y2 <= bottom) {
+      clipped[0] = x1;
+      clipped[1] = y1;
+      clipped[2] = x2;
+      clipped[3] = y2;
+      return true;
+    }
+
+    final double dx = x2 - x1;
+    final double dy = y2 - y1;
+    clipStart = 0;
+    clipEnd = 1;
+    if (!clipEdge(-dx, x1 - left) || !clipEdge(dx, right - x1) || !clipEdge(-dy, y1 - top)
+        || !clipEdge(dy, bottom - y1)) {
+      return false;
+    }
+
+    clipped[0] = x1 + (int) (clipStart * dx);
+    clipped[1] = y1 + (int) (clipStart * dy);
+    clipped[2] = x1 + (int) (clipEnd * dx);
+    clipped[3] = y1 + (int) (clipEnd * dy);
+    return true;
+  }
+
+  private boolean clipEdge(final double p, final double q) {
+    if (p == 0) {
+      return q >= 0;
+    }
+    final double t = q / p;
+    if (p < 0) {
+      clipStart = Math.max(clipStart, t);
+    } else {
+      clipEnd = Math.min(clipEnd, t);
+    }
+    return clipStart <= clipEnd;
+  }
+
   /**
    * Draw a line as a polygon.
    * 
@@ -159,21 +205,10 @@ public class Line implements OnMapElement {
    * Not part of public API. Removed by obfuscator
    */
   public void calculatePosition(final GeoMap displayedMap, final int zoomLevel) {
-    int minX = Integer.MAX_VALUE;
-    int minY = Integer.MAX_VALUE;
-    int maxX = Integer.MIN_VALUE;
-    int maxY = Integer.MIN_VALUE;
-    positions = new MapPos[points.length];
-    for (int j = 0; j < points.length; j++) {
-      positions[j] = displayedMap.wgsToMapPos(points[j].toInternalWgs(), zoomLevel);
-      final MapPos pos = positions[j];
-      minX = Math.min(minX, pos.getX());
-      minY = Math.min(minY, pos.getY());
-      maxX = Math.max(maxX, pos.getX());
-      maxY = Math.max(maxY, pos.getY());
+    if (positions.calculate(displayedMap, zoomLevel) || segmentIndex == null) {
+      segmentIndex = new SegmentIndex(positions.getSimplifiedX(), positions.getSimplifiedY(),
+          positions.getSimplifiedCount());
     }
-    boundingBoxMin = new Point(minX, minY);
-    boundingBoxMax = new Point(maxX, maxY);
   }
 
   /**
@@ -195,48 +230,41 @@ public class Line implements OnMapElement {
   }
 
   public boolean isCentered(final MapPos cursorPoint) {
-    if (!viewWithinBoundingBox(cursorPoint.getX(), cursorPoint.getY(), 1, 1)) {
+    if (segmentIndex == null
+        || !viewWithinBoundingBox(cursorPoint.getX(), cursorPoint.getY(), 1, 1)) {
       return false;
     }
 
     final int lineWidth = style.getWidth();
+    return segmentIndex.distance(cursorPoint.getX(), cursorPoint.getY(), lineWidth) <= lineWidth;
+  }
 
-    //put a box around cursor
-    final Rectangle cursorBox = new Rectangle(cursorPoint.getX() - lineWidth, cursorPoint.getY()
-        - lineWidth, lineWidth * 2, lineWidth * 2);
-
-    for (int i = 0; i < positions.length - 1; i++) {
-      final MapPos one = positions[i];
-      final MapPos two = positions[i + 1];
-
-      if (!Utils.rectanglesIntersect(one.getX(), one.getY(), two.getX() - one.getX(), two.getY()
-          - one.getY(), cursorBox.getX(), cursorBox.getY(), cursorBox.getWidth(), cursorBox
-          .getHeight())) {
-        continue;
-      }
-
-      final int cursorDistance = cursorPoint.distanceFromLineInPixels(one.getX(), one.getY(), two
-          .getX(), two.getY());
-
-      if (lineWidth >= cursorDistance) {
-        return true;
-      }
+  /**
+   * Not part of public API
+   */
+  public Rectangle getMapBounds() {
+    if (!positions.isCalculated()) {
+      return null;
     }
-
-    return false;
+    // half of line width plus one pixel margin for centered check
+    final int margin = (style == null ? 0 : style.getWidth() / 2) + 1;
+    return new Rectangle(positions.getMinX() - margin, positions.getMinY() - margin, positions
+        .getMaxX()
+        - positions.getMinX() + margin * 2, positions.getMaxY() - positions.getMinY() + margin * 2);
   }
 
   private boolean viewWithinBoundingBox(final int viewX, final int viewY, final int viewW,
       final int viewH) {
-    return Utils.rectanglesIntersect(boundingBoxMin.getX(), boundingBoxMin.getY(), boundingBoxMax
-        .getX()
-        - boundingBoxMin.getX(), boundingBoxMax.getY() - boundingBoxMin.getY(), viewX, viewY,
-        viewW, viewH);
+    return Utils.rectanglesIntersect(positions.getMinX(), positions.getMinY(), positions.getMaxX()
+        - positions.getMinX(), positions.getMaxY() - positions.getMinY(), viewX, viewY, viewW, viewH);
   }
 
   public int distanceInPixels(final MapPos cursorOnMap) {
-    //TODO jaanus : check this
-    return 0;
+    if (segmentIndex == null) {
+      return 0;
+    }
+    return (int) Math.floor(segmentIndex.distance(cursorOnMap.getX(), cursorOnMap.getY(),
+        Double.MAX_VALUE));
   }
 
   public Label getLabel() {
@@ -0,0 +1,20 @@
+package com.nutiteq.components;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ * 
+ * On map element, that knows its area on pixel map. Used for finding elements
+ * in map view without checking every displayed element.
+ */
+public interface MapBounded {
+  /**
+   * Bounds on pixel map, calculated in last
+   * {@link OnMapElement#calculatePosition(com.nutiteq.maps.GeoMap, int)} call.
+   * Element can be visible or centered only within these bounds.
+   * 
+   * @return bounds or null, if not known
+   */
+  Rectangle getMapBounds();
+}
@@ -3,6 +3,7 @@ package com.nutiteq.components;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
+import com.mgmaps.utils.Prioritized;
 import com.mgmaps.utils.Tools;
 import com.nutiteq.log.Log;
 import com.nutiteq.maps.GeoMap;
@@ -10,12 +11,13 @@ import com.nutiteq.maps.MapTilesRequestor;
 import com.nutiteq.maps.StoredMap;
 import com.nutiteq.maps.StreamedMap;
 import com.nutiteq.maps.UnstreamedMap;
+import com.nutiteq.task.Cancellable;
 
 /**
  * Object containing map tile location on the map (x, y coordinates of
  * upper-left corner on whole map) and image data for that tile.
  */
-public class MapTile {
+public class MapTile implements Prioritized {
   private final int x;
   private final int y;
   private final int zoom;
@@ -26,6 +28,8 @@ public class MapTile {
 
   private int failCount;
   private int dataSize;
+  private int priority = DEFAULT_PRIORITY;
+  private volatile boolean cancelled;
 
   /**
    * Not part of public API
@@ -33,13 +37,22 @@ public class MapTile {
   public MapTile(final int mapX, final int mapY, final int zoom, final GeoMap map,
       final MapTilesRequestor screen) {
     //get the pixel coordinates of upper left corner for this tile
-    x = mapX - mapX % map.getTileSize();
-    y = mapY - mapY % map.getTileSize();
+    x = tileCoordinate(mapX, map.getTileSize());
+    y = tileCoordinate(mapY, map.getTileSize());
     this.zoom = zoom;
     this.map = map;
     this.requestor = screen;
   }
 
+  /**
+   * Not part of public API
+   * 
+   * Get tile corner coordinate for given map coordinate.
+   */
+  public static int tileCoordinate(final int mapCoordinate, final int tileSize) {
+    return mapCoordinate - mapCoordinate % tileSize;
+  }
+
   public int getX() {
     return x;
   }
@@ -70,7 +83,11 @@ public class MapTile {
   }
 
   public int hashCode() {
-    throw new RuntimeException("hashcode() has not been implemented!");
+    int result = x;
+    result = 31 * result + y;
+    result = 31 * result + zoom;
+    result = 31 * result + map.hashCode();
+    return result;
   }
 
   /**
@@ -189,6 +206,39 @@ public class MapTile {
     }
   }
 
+  /**
+   * Not part of public API
+   */
+  public int getPriority() {
+    return cancelled ? Cancellable.CANCELLED_PRIORITY : priority;
+  }
+
+  /**
+   * Not part of public API
+   * 
+   * @param priority
+   *          retrieval priority, for example distance from screen center
+   */
+  public void setPriority(final int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Not part of public API
+   * 
+   * Cancel retrieval of this tile, for example when it is moved out of view.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Not part of public API
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
   /**
    * Not part of public API
    */
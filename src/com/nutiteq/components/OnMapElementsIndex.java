@@ -0,0 +1,207 @@
+package com.nutiteq.components;
+
+import java.util.Arrays;
+
+import com.nutiteq.utils.Utils;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ * 
+ * Spatial index for displayed on map elements. Elements are put into hashed
+ * grid cells by their {@link MapBounded#getMapBounds()}. Elements without
+ * bounds and elements covering large areas are returned for every query.
+ * 
+ * Query results keep elements order, so paint order does not change. Index
+ * needs to be rebuilt after elements positions have been recalculated.
+ */
+public class OnMapElementsIndex {
+  private static final int CELL_SHIFT = 8;
+  private static final int MAX_CELLS_PER_ELEMENT = 64;
+
+  private OnMapElement[] elements = new OnMapElement[0];
+  private Rectangle[] bounds = new Rectangle[0];
+  // element indexes by hashed cell
+  private int[][] buckets = new int[1][];
+  private int[] bucketSizes = new int[1];
+  private int bucketMask;
+  // elements returned for every query
+  private int[] unbounded = new int[0];
+  private int unboundedCount;
+
+  private int[] queryStamps = new int[0];
+  private int queryStamp;
+
+  /**
+   * Build index for given elements.
+   * 
+   * @param source
+   *          elements, in paint order
+   */
+  public synchronized void rebuild(final OnMapElement[] source) {
+    final int n = source.length;
+    elements = source;
+    bounds = new Rectangle[n];
+    queryStamps = new int[n];
+    queryStamp = 0;
+
+    int tableSize = 16;
+    while (tableSize < n) {
+      tableSize <<= 1;
+    }
+    buckets = new int[tableSize][];
+    bucketSizes = new int[tableSize];
+    bucketMask = tableSize - 1;
+    unbounded = new int[4];
+    unboundedCount = 0;
+
+    for (int i = 0; i < n; i++) {
+      final Rectangle r = elements[i] instanceof MapBounded ? ((MapBounded) elements[i])
+          .getMapBounds() : null;
+      bounds[i] = r;
+      if (r == null) {
+        addUnbounded(i);
+        continue;
+      }
+
+      final int x0 = left(r) >> CELL_SHIFT;
+      final int y0 = top(r) >> CELL_SHIFT;
+      final int x1 = (left(r) + Math.abs(r.getWidth())) >> CELL_SHIFT;
+      final int y1 = (top(r) + Math.abs(r.getHeight())) >> CELL_SHIFT;
+      if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_CELLS_PER_ELEMENT) {
+        addUnbounded(i);
+        continue;
+      }
+
+      for (int y = y0; y <= y1; y++) {
+        for (int x = x0; x <= x1; x++) {
+          addToBucket(hash(x, y) & bucketMask, i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find elements, that may intersect with given area on map. Found elements
+   * still need to be checked with
+   * {@link OnMapElement#isVisible(int, int, int, int, int)} or
+   * {@link OnMapElement#isCentered(MapPos)}.
+   * 
+   * @return elements in same order as given for index build
+   */
+  public synchronized OnMapElement[] query(final int x, final int y, final int width,
+      final int height) {
+    if (elements.length == 0) {
+      return new OnMapElement[0];
+    }
+
+    if (++queryStamp == 0) {
+      for (int i = 0; i < queryStamps.length; i++) {
+        queryStamps[i] = 0;
+      }
+      queryStamp = 1;
+    }
+
+    final int left = width >= 0 ? x : x + width;
+    final int top = height >= 0 ? y : y + height;
+    final int x0 = left >> CELL_SHIFT;
+    final int y0 = top >> CELL_SHIFT;
+    final int x1 = (left + Math.abs(width)) >> CELL_SHIFT;
+    final int y1 = (top + Math.abs(height)) >> CELL_SHIFT;
+
+    int[] found = new int[unboundedCount + 16];
+    int count = 0;
+    for (int i = 0; i < unboundedCount; i++) {
+      queryStamps[unbounded[i]] = queryStamp;
+      found[count++] = unbounded[i];
+    }
+
+    if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > buckets.length) {
+      // area larger than index, check all bounds
+      for (int i = 0; i < elements.length; i++) {
+        if (queryStamps[i] != queryStamp && intersects(i, left, top, width, height)) {
+          if (count == found.length) {
+            found = grow(found);
+          }
+          found[count++] = i;
+        }
+      }
+    } else {
+      for (int cy = y0; cy <= y1; cy++) {
+        for (int cx = x0; cx <= x1; cx++) {
+          final int bucket = hash(cx, cy) & bucketMask;
+          final int[] candidates = buckets[bucket];
+          for (int j = 0; j < bucketSizes[bucket]; j++) {
+            final int i = candidates[j];
+            if (queryStamps[i] == queryStamp) {
+              continue;
+            }
+            queryStamps[i] = queryStamp;
+            if (intersects(i, left, top, width, height)) {
+              if (count == found.length) {
+                found = grow(found);
+              }
+              found[count++] = i;
+            }
+          }
+        }
+      }
+    }
+
+    Arrays.sort(found, 0, count);
+    final OnMapElement[] result = new OnMapElement[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = elements[found[i]];
+    }
+    return result;
+  }
+
+  private boolean intersects(final int i, final int left, final int top, final int width,
+      final int height) {
+    final Rectangle r = bounds[i];
+    return r == null
+        || Utils.rectanglesIntersect(r.getX(), r.getY(), r.getWidth(), r.getHeight(), left, top,
+            Math.abs(width), Math.abs(height));
+  }
+
+  private void addUnbounded(final int element) {
+    if (unboundedCount == unbounded.length) {
+      unbounded = grow(unbounded);
+    }
+    unbounded[unboundedCount++] = element;
+  }
+
+  private void addToBucket(final int bucket, final int element) {
+    int[] list = buckets[bucket];
+    if (list == null) {
+      list = buckets[bucket] = new int[2];
+    } else if (bucketSizes[bucket] > 0 && list[bucketSizes[bucket] - 1] == element) {
+      // cells of same element hashed to same bucket
+      return;
+    } else if (bucketSizes[bucket] == list.length) {
+      list = buckets[bucket] = grow(list);
+    }
+    list[bucketSizes[bucket]++] = element;
+  }
+
+  private static int[] grow(final int[] array) {
+    final int[] result = new int[array.length * 2];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+
+  private static int left(final Rectangle r) {
+    return r.getWidth() >= 0 ? r.getX() : r.getX() + r.getWidth();
+  }
+
+  private static int top(final Rectangle r) {
+    return r.getHeight() >= 0 ? r.getY() : r.getY() + r.getHeight();
+  }
+
+  private static int hash(final int x, final int y) {
+    int h = x * 0x9E3779B1 + y * 0x85EBCA77;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,204 @@
+package com.nutiteq.components;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ *
+ * Ordered set of on map elements. Elements are compared by identity (not
+ * {@link Object#equals(Object)}) and looked up through identity hash table, so
+ * adding, checking and removing elements does not scan all elements. Equal
+ * elements can be found with {@link #findEqual(OnMapElement)}.
+ */
+public class OnMapElementsStore {
+  private static final int MIN_CAPACITY = 16;
+
+  // elements in order between start and end, removed elements leave null holes
+  private OnMapElement[] items = new OnMapElement[MIN_CAPACITY];
+  private int start;
+  private int end;
+  private int size;
+
+  // item position + 1, 0 for empty. linear probing.
+  private int[] table = new int[MIN_CAPACITY * 2];
+  private int tableMask = table.length - 1;
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  public synchronized boolean contains(final OnMapElement element) {
+    return find(element) >= 0;
+  }
+
+  /**
+   * Find stored element equal to given one. Elements are scanned only if given
+   * element itself is not stored.
+   *
+   * @return given element, if stored, or first stored element equal to it,
+   *         null if there is none
+   */
+  public synchronized OnMapElement findEqual(final OnMapElement element) {
+    if (element == null || find(element) >= 0) {
+      return element;
+    }
+
+    for (int i = start; i < end; i++) {
+      if (items[i] != null && element.equals(items[i])) {
+        return items[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Add element to the end, if not already present.
+   *
+   * @return true if element was added
+   */
+  public synchronized boolean add(final OnMapElement element) {
+    if (element == null || find(element) >= 0) {
+      return false;
+    }
+
+    if (end == items.length) {
+      relayout(0);
+    }
+    store(end++, element);
+    return true;
+  }
+
+  /**
+   * Add element to the beginning, if not already present.
+   *
+   * @return true if element was added
+   */
+  public synchronized boolean addFirst(final OnMapElement element) {
+    if (element == null || find(element) >= 0) {
+      return false;
+    }
+
+    if (start == 0) {
+      relayout(Math.max(MIN_CAPACITY, size / 2));
+    }
+    store(--start, element);
+    return true;
+  }
+
+  /**
+   * @return true if element was removed
+   */
+  public synchronized boolean remove(final OnMapElement element) {
+    final int pos = find(element);
+    if (pos < 0) {
+      return false;
+    }
+
+    unindex(pos);
+    items[pos] = null;
+    size--;
+
+    if (size == 0) {
+      start = end = 0;
+    } else if (end - start - size > MIN_CAPACITY && end - start - size > size) {
+      relayout(0);
+    }
+    return true;
+  }
+
+  public synchronized void clear() {
+    items = new OnMapElement[MIN_CAPACITY];
+    table = new int[MIN_CAPACITY * 2];
+    tableMask = table.length - 1;
+    start = end = size = 0;
+  }
+
+  /**
+   * @return elements in order
+   */
+  public synchronized OnMapElement[] toArray() {
+    final OnMapElement[] result = new OnMapElement[size];
+    int n = 0;
+    for (int i = start; i < end; i++) {
+      if (items[i] != null) {
+        result[n++] = items[i];
+      }
+    }
+    return result;
+  }
+
+  private int find(final OnMapElement element) {
+    if (element == null) {
+      return -1;
+    }
+
+    int index = System.identityHashCode(element) & tableMask;
+    int entry;
+    while ((entry = table[index]) != 0) {
+      if (items[entry - 1] == element) {
+        return entry - 1;
+      }
+      index = (index + 1) & tableMask;
+    }
+    return -1;
+  }
+
+  private void store(final int pos, final OnMapElement element) {
+    items[pos] = element;
+    size++;
+    int index = System.identityHashCode(element) & tableMask;
+    while (table[index] != 0) {
+      index = (index + 1) & tableMask;
+    }
+    table[index] = pos + 1;
+  }
+
+  private void unindex(final int pos) {
+    int index = System.identityHashCode(items[pos]) & tableMask;
+    while (table[index] != pos + 1) {
+      index = (index + 1) & tableMask;
+    }
+
+    // backward shift deletion, keeps probe sequences unbroken
+    int next = (index + 1) & tableMask;
+    while (table[next] != 0) {
+      final int home = System.identityHashCode(items[table[next] - 1]) & tableMask;
+      if (((next - home) & tableMask) >= ((next - index) & tableMask)) {
+        table[index] = table[next];
+        index = next;
+      }
+      next = (next + 1) & tableMask;
+    }
+    table[index] = 0;
+  }
+
+  /**
+   * Compact elements into new arrays, leaving given room before first element
+   * and at least same amount after last.
+   */
+  private void relayout(final int frontRoom) {
+    final int capacity = Math.max(MIN_CAPACITY, frontRoom + size * 2);
+    final OnMapElement[] old = items;
+    final int oldStart = start;
+    final int oldEnd = end;
+
+    items = new OnMapElement[capacity];
+    int tableSize = MIN_CAPACITY * 2;
+    while (tableSize < capacity * 2) {
+      tableSize <<= 1;
+    }
+    table = new int[tableSize];
+    tableMask = tableSize - 1;
+    start = end = frontRoom;
+    size = 0;
+    for (int i = oldStart; i < oldEnd; i++) {
+      if (old[i] != null) {
+        store(end++, old[i]);
+      }
+    }
+  }
+}
@@ -10,13 +10,14 @@ import com.nutiteq.utils.Utils;
 /**
  * Place object to be used for showing location points on maps.
  */
-public class Place implements OnMapElement {
+public class Place implements OnMapElement, MapBounded {
     private static final int CLICK_BOX_SIZE = 16;
 
     private Placemark defaultPlacemark;
     private Placemark activePlacemark;
     private WgsPoint wgs;
     private MapPos mapPosition;
+    private ProjectedPoints projected;
     private final Label label;
     private final int id;
     private OnMapElement[] elements;
@@ -317,8 +318,13 @@ public class Place implements OnMapElement {
     public void calculatePosition(final GeoMap displayedMap, final int zoomLevel) {
         if (wgs != null) {
             // if we have some concrete place, like POI, not some area or line
-            mapPosition = displayedMap.wgsToMapPos(wgs.toInternalWgs(),
-                    zoomLevel);
+            if (projected == null) {
+                projected = new ProjectedPoints(new WgsPoint[] { wgs });
+            }
+            if (projected.calculate(displayedMap, zoomLevel) || mapPosition == null) {
+                mapPosition = new MapPos(projected.getX()[0], projected.getY()[0],
+                        zoomLevel);
+            }
         }
 
         if (elements != null && elements.length > 0) {
@@ -328,6 +334,55 @@ public class Place implements OnMapElement {
         }
     }
 
+    /**
+     * Not part of public API
+     */
+    public Rectangle getMapBounds() {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        if (wgs != null && mapPosition != null && defaultPlacemark != null) {
+            final int zoom = mapPosition.getZoom();
+            // area of both placemarks (as in toMapArea), with click box for
+            // centered check
+            final Placemark[] placemarks = { defaultPlacemark, activePlacemark };
+            for (int i = 0; i < placemarks.length; i++) {
+                if (placemarks[i] == null) {
+                    continue;
+                }
+                final int left = mapPosition.getX() - placemarks[i].getAnchorX(zoom);
+                final int top = mapPosition.getY() - placemarks[i].getAnchorY(zoom);
+                minX = Math.min(minX, left - CLICK_BOX_SIZE);
+                minY = Math.min(minY, top - CLICK_BOX_SIZE);
+                maxX = Math.max(maxX, left + Math.max(0, placemarks[i].getWidth(zoom)));
+                maxY = Math.max(maxY, top + Math.max(0, placemarks[i].getHeight(zoom)));
+            }
+        }
+
+        if (elements != null) {
+            for (int i = 0; i < elements.length; i++) {
+                if (!(elements[i] instanceof MapBounded)) {
+                    return null;
+                }
+                final Rectangle r = ((MapBounded) elements[i]).getMapBounds();
+                if (r == null) {
+                    return null;
+                }
+                minX = Math.min(minX, r.getX());
+                minY = Math.min(minY, r.getY());
+                maxX = Math.max(maxX, r.getX() + r.getWidth());
+                maxY = Math.max(maxY, r.getY() + r.getHeight());
+            }
+        }
+
+        if (minX > maxX) {
+            return null;
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
     /**
      * Not part of public API
      */
@@ -350,6 +405,7 @@ public class Place implements OnMapElement {
         // GeoMap
         // that contains this point
         this.wgs = p;
+        projected = null;
     }
 
     public int distanceInPixels(final MapPos middlePoint) {
@@ -10,14 +10,15 @@ import com.nutiteq.utils.Utils;
 /**
  * A generic polygon object. At the moment only available in blue.
  */
-public class Polygon implements OnMapElement {
+public class Polygon implements OnMapElement, MapBounded {
   private final WgsPoint[] coordinates;
-  private final MapPos[] mapPositions;
+  private final ProjectedPoints mapPositions;
   private final boolean serverSideRender;
-  private Point boundingBoxMin;
-  private Point boundingBoxMax;
   private PolyStyle style;
   private final Label label;
+  // screen coordinates, reused while simplified point count does not change
+  private int[] xPoints = new int[0];
+  private int[] yPoints = new int[0];
 
   public Polygon(final WgsPoint[] coordinates) {
     this(coordinates, PolyStyle.DEFAULT_STYLE, false);
@@ -44,7 +45,7 @@ public class Polygon implements OnMapElement {
     this.coordinates = coordinates;
     this.style = style;
     this.label = label;
-    mapPositions = new MapPos[coordinates.length];
+    mapPositions = new ProjectedPoints(coordinates);
     this.serverSideRender = serverSideRender;
   }
 
@@ -52,32 +53,18 @@ public class Polygon implements OnMapElement {
     coordinates = null;
     style = null;
     label = null;
-    mapPositions = positions;
+    mapPositions = new ProjectedPoints(positions);
     serverSideRender = false;
-
-    int minX = Integer.MAX_VALUE;
-    int minY = Integer.MAX_VALUE;
-    int maxX = Integer.MIN_VALUE;
-    int maxY = Integer.MIN_VALUE;
-    for (int i = 0; i < mapPositions.length; i++) {
-      final MapPos pos = mapPositions[i];
-      minX = Math.min(minX, pos.getX());
-      minY = Math.min(minY, pos.getY());
-      maxX = Math.max(maxX, pos.getX());
-      maxY = Math.max(maxY, pos.getY());
-    }
-    boundingBoxMin = new Point(minX, minY);
-    boundingBoxMax = new Point(maxX, maxY);
   }
 
   public boolean isVisible(final int viewX, final int viewY, final int viewWidth,
       final int viewHeight, final int zoom) {
-    final MapPos start = mapPositions[0];
-    for (int i = 1; i < mapPositions.length; i++) {
-      final MapPos end = mapPositions[i];
-      if (Utils.rectanglesIntersect(start.getX(), start.getY(), end.getX() - start.getX(), end
-          .getY()
-          - start.getY(), viewX, viewY, viewWidth, viewHeight)) {
+    final int[] x = mapPositions.getSimplifiedX();
+    final int[] y = mapPositions.getSimplifiedY();
+    final int count = mapPositions.getSimplifiedCount();
+    for (int i = 1; i < count; i++) {
+      if (Utils.rectanglesIntersect(x[0], y[0], x[i] - x[0], y[i] - y[0], viewX, viewY,
+          viewWidth, viewHeight)) {
         return true;
       }
     }
@@ -103,24 +90,29 @@ public class Polygon implements OnMapElement {
 
     //Try to draw filled polygon
     //TODO jaanus : shares some logic with line?
-    final int[] xPoints = new int[mapPositions.length];
-    final int[] yPoints = new int[mapPositions.length];
+    final int[] x = mapPositions.getSimplifiedX();
+    final int[] y = mapPositions.getSimplifiedY();
+    final int count = mapPositions.getSimplifiedCount();
+    if (xPoints.length != count) {
+      // polygon hashing uses array length as point count
+      xPoints = new int[count];
+      yPoints = new int[count];
+    }
     int minScreenY = Integer.MAX_VALUE;
-    for (int i = 0; i < xPoints.length; i++) {
-      left = mapPositions[i].getX() - middlePoint.getX() + displayCenterX;
-      top = mapPositions[i].getY() - middlePoint.getY() + displayCenterY;
-
-      if (i < mapPositions.length - 1) {
-        dx = mapPositions[i + 1].getX() - mapPositions[i].getX();
-        dy = mapPositions[i + 1].getY() - mapPositions[i].getY();
-      } else {
-        dx = mapPositions[0].getX() - mapPositions[i].getX();
-        dy = mapPositions[0].getY() - mapPositions[i].getY();
+    for (int i = 0; i < count; i++) {
+      left = x[i] - middlePoint.getX() + displayCenterX;
+      top = y[i] - middlePoint.getY() + displayCenterY;
+
+      final int next = i < count - 1 ? i + 1 : 0;
+      dx = x[next] - x[i];
+      dy = y[next] - y[i];
+
+      //Draw border lines, only in changed area
+      if (Utils.rectanglesIntersect(x[i], y[i], dx, dy, changedMapArea.getX(), changedMapArea
+          .getY(), changedMapArea.getWidth(), changedMapArea.getHeight())) {
+        g.drawLine(left, top, left + dx, top + dy);
       }
 
-      //Draw border lines
-      g.drawLine(left, top, left + dx, top + dy);
-
       xPoints[i] = left + dx;
       yPoints[i] = top + dy;
 
@@ -133,20 +125,7 @@ public class Polygon implements OnMapElement {
   }
 
   public void calculatePosition(final GeoMap displayedMap, final int zoomLevel) {
-    int minX = Integer.MAX_VALUE;
-    int minY = Integer.MAX_VALUE;
-    int maxX = Integer.MIN_VALUE;
-    int maxY = Integer.MIN_VALUE;
-    for (int i = 0; i < coordinates.length; i++) {
-      mapPositions[i] = displayedMap.wgsToMapPos(coordinates[i].toInternalWgs(), zoomLevel);
-      final MapPos pos = mapPositions[i];
-      minX = Math.min(minX, pos.getX());
-      minY = Math.min(minY, pos.getY());
-      maxX = Math.max(maxX, pos.getX());
-      maxY = Math.max(maxY, pos.getY());
-    }
-    boundingBoxMin = new Point(minX, minY);
-    boundingBoxMax = new Point(maxX, maxY);
+    mapPositions.calculate(displayedMap, zoomLevel);
   }
 
   public boolean isCentered(final MapPos cursorPoint) {
@@ -154,9 +133,8 @@ public class Polygon implements OnMapElement {
       return false;
     }
 
-    final MapPos[] copy = new MapPos[mapPositions.length];
-    System.arraycopy(mapPositions, 0, copy, 0, mapPositions.length);
-    return PolygonGraphics.cursorOnPolygon(copy, cursorPoint.getX(), cursorPoint.getY());
+    return PolygonGraphics.cursorOnPolygon(mapPositions.toMapPositions(), cursorPoint.getX(),
+        cursorPoint.getY());
   }
 
   public int distanceInPixels(final MapPos cursorOnMap) {
@@ -172,11 +150,24 @@ public class Polygon implements OnMapElement {
       return coordinates;
     }
   
+  /**
+   * Not part of public API
+   */
+  public Rectangle getMapBounds() {
+    if (!mapPositions.isCalculated()) {
+      return null;
+    }
+    // one pixel margin for centered check
+    return new Rectangle(mapPositions.getMinX() - 1, mapPositions.getMinY() - 1, mapPositions
+        .getMaxX()
+        - mapPositions.getMinX() + 2, mapPositions.getMaxY() - mapPositions.getMinY() + 2);
+  }
+
   private boolean viewWithinBoundingBox(final int viewX, final int viewY, final int viewW,
       final int viewH) {
-    return Utils.rectanglesIntersect(boundingBoxMin.getX(), boundingBoxMin.getY(), boundingBoxMax
-        .getX()
-        - boundingBoxMin.getX(), boundingBoxMax.getY() - boundingBoxMin.getY(), viewX, viewY,
+    return Utils.rectanglesIntersect(mapPositions.getMinX(), mapPositions.getMinY(), mapPositions
+        .getMaxX()
+        - mapPositions.getMinX(), mapPositions.getMaxY() - mapPositions.getMinY(), viewX, viewY,
         viewW, viewH);
   }
 
@@ -0,0 +1,358 @@
+package com.nutiteq.components;
+
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.projections.EPSG3395;
+import com.nutiteq.maps.projections.EPSG3785;
+import com.nutiteq.utils.Utils;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ *
+ * Pixel positions of WGS84 points on map, kept in int arrays.
+ *
+ * For maps where every zoom level doubles the map size (Mercator projections
+ * with power of two tile pyramid), points are projected once at reference zoom
+ * and positions for other zoom levels are calculated by bit shifting. For other
+ * maps points are projected again on zoom change.
+ *
+ * Simplified positions (Douglas-Peucker, one pixel tolerance) are kept for
+ * painting and hit testing. Vertex significance is calculated once together
+ * with positions it is based on, so simplification for new zoom level is
+ * filtering by significance.
+ */
+public class ProjectedPoints {
+  // map edge in pixels must fit into positive int
+  private static final int MAX_MAP_BITS = 30;
+  // maximum distance (in pixels) of removed vertex from simplified line
+  private static final int SIMPLIFY_TOLERANCE = 1;
+
+  private final WgsPoint[] points;
+
+  private GeoMap referenceMap;
+  private int referenceZoom = -1;
+  private int[] referenceX;
+  private int[] referenceY;
+  // significance of vertexes at reference zoom
+  private int[] referenceSignificance;
+  // significance of vertexes at current zoom, when positions are not shifted
+  // from reference positions. kept apart, so that it does not replace
+  // reference significance used for other zoom levels
+  private int[] projectedSignificance;
+
+  private GeoMap map;
+  private int zoom = -1;
+  private final int[] x;
+  private final int[] y;
+  private int minX;
+  private int minY;
+  private int maxX;
+  private int maxY;
+
+  private int[] simplifiedX;
+  private int[] simplifiedY;
+  private int simplifiedCount;
+
+  public ProjectedPoints(final WgsPoint[] points) {
+    this.points = points;
+    x = new int[points.length];
+    y = new int[points.length];
+  }
+
+  /**
+   * Create positions not bound to WGS84 coordinates. Positions are not
+   * changed by {@link #calculate(GeoMap, int)}.
+   */
+  public ProjectedPoints(final MapPos[] positions) {
+    points = null;
+    x = new int[positions.length];
+    y = new int[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      x[i] = positions[i].getX();
+      y[i] = positions[i].getY();
+    }
+    if (positions.length > 0) {
+      zoom = positions[0].getZoom();
+    }
+    updateBounds();
+    projectedSignificance = calculateSignificance(x, y);
+    simplify(projectedSignificance, 0);
+  }
+
+  /**
+   * Calculate positions for given map and zoom.
+   *
+   * @return false if positions were already calculated for same map and zoom
+   */
+  public boolean calculate(final GeoMap displayedMap, final int zoomLevel) {
+    if (points == null || (displayedMap == map && zoomLevel == zoom)) {
+      return false;
+    }
+
+    final int shift = referenceShift(displayedMap, zoomLevel);
+    if (shift >= 0) {
+      for (int i = 0; i < points.length; i++) {
+        x[i] = referenceX[i] >> shift;
+        y[i] = referenceY[i] >> shift;
+      }
+      projectedSignificance = null;
+    } else {
+      project(displayedMap, zoomLevel, x, y);
+      projectedSignificance = calculateSignificance(x, y);
+    }
+
+    map = displayedMap;
+    zoom = zoomLevel;
+    updateBounds();
+    if (shift >= 0) {
+      simplify(referenceSignificance, shift);
+    } else {
+      simplify(projectedSignificance, 0);
+    }
+    return true;
+  }
+
+  /**
+   * Get shift from reference positions to given zoom, projecting reference
+   * positions if needed.
+   *
+   * @return -1 if positions can not be shifted for given map and zoom
+   */
+  private int referenceShift(final GeoMap displayedMap, final int zoomLevel) {
+    if (!scalesByShift(displayedMap)) {
+      releaseReference();
+      return -1;
+    }
+
+    if (displayedMap != referenceMap) {
+      final int maxZoom = Math.min(displayedMap.getMaxZoom(), MAX_MAP_BITS
+          - Utils.log2(displayedMap.getTileSize()));
+      if (zoomLevel > maxZoom) {
+        releaseReference();
+        return -1;
+      }
+
+      if (referenceX == null) {
+        referenceX = new int[points.length];
+        referenceY = new int[points.length];
+      }
+      project(displayedMap, maxZoom, referenceX, referenceY);
+      referenceSignificance = calculateSignificance(referenceX, referenceY);
+      referenceMap = displayedMap;
+      referenceZoom = maxZoom;
+    }
+
+    return zoomLevel > referenceZoom ? -1 : referenceZoom - zoomLevel;
+  }
+
+  private void releaseReference() {
+    referenceMap = null;
+    referenceZoom = -1;
+    referenceX = null;
+    referenceY = null;
+    referenceSignificance = null;
+  }
+
+  private void project(final GeoMap displayedMap, final int zoomLevel, final int[] resultX,
+      final int[] resultY) {
+    for (int i = 0; i < points.length; i++) {
+      final MapPos pos = displayedMap.wgsToMapPos(points[i].toInternalWgs(), zoomLevel);
+      resultX[i] = pos.getX();
+      resultY[i] = pos.getY();
+    }
+  }
+
+  /**
+   * Keep vertexes significant at given shift from positions significance was
+   * calculated for.
+   */
+  private void simplify(final int[] significance, final int shift) {
+    final int n = x.length;
+    final int threshold = shift >= MAX_MAP_BITS ? Integer.MAX_VALUE : SIMPLIFY_TOLERANCE << shift;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (significance[i] >= threshold) {
+        count++;
+      }
+    }
+
+    if (count == n) {
+      simplifiedX = x;
+      simplifiedY = y;
+      simplifiedCount = n;
+      return;
+    }
+
+    if (simplifiedX == null || simplifiedX == x || simplifiedX.length < count) {
+      simplifiedX = new int[count];
+      simplifiedY = new int[count];
+    }
+    simplifiedCount = 0;
+    for (int i = 0; i < n; i++) {
+      if (significance[i] >= threshold) {
+        simplifiedX[simplifiedCount] = x[i];
+        simplifiedY[simplifiedCount] = y[i];
+        simplifiedCount++;
+      }
+    }
+  }
+
+  /**
+   * Douglas-Peucker significance for every vertex: largest tolerance, at which
+   * vertex is still kept. End points are always kept.
+   */
+  private static int[] calculateSignificance(final int[] xs, final int[] ys) {
+    final int n = xs.length;
+    final int[] result = new int[n];
+    if (n == 0) {
+      return result;
+    }
+    result[0] = Integer.MAX_VALUE;
+    result[n - 1] = Integer.MAX_VALUE;
+
+    // ranges waiting for split, ranges on stack do not overlap
+    final int[] stack = new int[Math.max(2, n * 2)];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = n - 1;
+    while (top > 0) {
+      final int end = stack[--top];
+      final int start = stack[--top];
+      if (end - start < 2) {
+        continue;
+      }
+
+      final double dx = xs[end] - xs[start];
+      final double dy = ys[end] - ys[start];
+      final double lengthSquared = dx * dx + dy * dy;
+      double maxDistance = -1;
+      int split = -1;
+      for (int i = start + 1; i < end; i++) {
+        // distance from segment, not from line - tracks can turn back
+        double px = xs[i] - xs[start];
+        double py = ys[i] - ys[start];
+        if (lengthSquared > 0) {
+          final double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+          px -= t * dx;
+          py -= t * dy;
+        }
+        final double distance = Math.sqrt(px * px + py * py);
+        if (distance > maxDistance) {
+          maxDistance = distance;
+          split = i;
+        }
+      }
+
+      // vertex can not outlive range end points, one of them is its parent
+      final int parent = Math.min(result[start], result[end]);
+      result[split] = (int) Math.min(parent, Math.min(maxDistance, Integer.MAX_VALUE - 1));
+      stack[top++] = start;
+      stack[top++] = split;
+      stack[top++] = split;
+      stack[top++] = end;
+    }
+    return result;
+  }
+
+  /**
+   * Positions on these maps are truncated from same value scaled by power of
+   * two, so shifting equals projecting again.
+   */
+  private static boolean scalesByShift(final GeoMap displayedMap) {
+    return displayedMap instanceof EPSG3785 || displayedMap instanceof EPSG3395;
+  }
+
+  private void updateBounds() {
+    minX = Integer.MAX_VALUE;
+    minY = Integer.MAX_VALUE;
+    maxX = Integer.MIN_VALUE;
+    maxY = Integer.MIN_VALUE;
+    for (int i = 0; i < x.length; i++) {
+      minX = Math.min(minX, x[i]);
+      minY = Math.min(minY, y[i]);
+      maxX = Math.max(maxX, x[i]);
+      maxY = Math.max(maxY, y[i]);
+    }
+  }
+
+  /**
+   * @return are positions calculated
+   */
+  public boolean isCalculated() {
+    return zoom >= 0;
+  }
+
+  public int size() {
+    return x.length;
+  }
+
+  public int getZoom() {
+    return zoom;
+  }
+
+  /**
+   * X coordinates on map. Returned array is not copied and must not be
+   * changed.
+   */
+  public int[] getX() {
+    return x;
+  }
+
+  /**
+   * Y coordinates on map. Returned array is not copied and must not be
+   * changed.
+   */
+  public int[] getY() {
+    return y;
+  }
+
+  public int getMinX() {
+    return minX;
+  }
+
+  public int getMinY() {
+    return minY;
+  }
+
+  public int getMaxX() {
+    return maxX;
+  }
+
+  public int getMaxY() {
+    return maxY;
+  }
+
+  /**
+   * X coordinates of simplified positions, only first
+   * {@link #getSimplifiedCount()} values are used. Returned array is not copied
+   * and must not be changed.
+   */
+  public int[] getSimplifiedX() {
+    return simplifiedX;
+  }
+
+  /**
+   * Y coordinates of simplified positions, only first
+   * {@link #getSimplifiedCount()} values are used. Returned array is not copied
+   * and must not be changed.
+   */
+  public int[] getSimplifiedY() {
+    return simplifiedY;
+  }
+
+  public int getSimplifiedCount() {
+    return simplifiedCount;
+  }
+
+  /**
+   * Create position objects for current simplified positions
+   */
+  public MapPos[] toMapPositions() {
+    final MapPos[] result = new MapPos[simplifiedCount];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new MapPos(simplifiedX[i], simplifiedY[i], zoom);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,194 @@
+package com.nutiteq.components;
+
+/**
+ * Bounding box hierarchy over polyline segments. Segments are grouped by
+ * {@link #FANOUT} consecutive segments, groups again by same number of groups
+ * and so on, so rectangle and distance queries descend only into boxes near
+ * the query.
+ */
+class SegmentIndex {
+  private static final int FANOUT = 16;
+
+  private final int[] x;
+  private final int[] y;
+  private final int segments;
+
+  // boxes per level, level 0 contains segment groups
+  private final int[][] minX;
+  private final int[][] minY;
+  private final int[][] maxX;
+  private final int[][] maxY;
+
+  private double best;
+
+  /**
+   * @param x
+   *          vertex x coordinates
+   * @param y
+   *          vertex y coordinates
+   * @param count
+   *          number of used vertexes in arrays
+   */
+  public SegmentIndex(final int[] x, final int[] y, final int count) {
+    this.x = x;
+    this.y = y;
+    segments = Math.max(0, count - 1);
+
+    int levels = 1;
+    for (int n = boxes(segments); n > 1; n = boxes(n)) {
+      levels++;
+    }
+    minX = new int[levels][];
+    minY = new int[levels][];
+    maxX = new int[levels][];
+    maxY = new int[levels][];
+
+    int n = boxes(segments);
+    allocate(0, n);
+    for (int b = 0; b < n; b++) {
+      final int last = Math.min(segments, (b + 1) * FANOUT);
+      for (int s = b * FANOUT; s < last; s++) {
+        include(0, b, Math.min(x[s], x[s + 1]), Math.min(y[s], y[s + 1]), Math.max(x[s],
+            x[s + 1]), Math.max(y[s], y[s + 1]));
+      }
+    }
+
+    for (int level = 1; level < levels; level++) {
+      final int children = n;
+      n = boxes(children);
+      allocate(level, n);
+      for (int b = 0; b < n; b++) {
+        final int last = Math.min(children, (b + 1) * FANOUT);
+        for (int c = b * FANOUT; c < last; c++) {
+          include(level, b, minX[level - 1][c], minY[level - 1][c], maxX[level - 1][c],
+              maxY[level - 1][c]);
+        }
+      }
+    }
+  }
+
+  private static int boxes(final int children) {
+    return (children + FANOUT - 1) / FANOUT;
+  }
+
+  private void allocate(final int level, final int n) {
+    minX[level] = new int[n];
+    minY[level] = new int[n];
+    maxX[level] = new int[n];
+    maxY[level] = new int[n];
+    for (int i = 0; i < n; i++) {
+      minX[level][i] = Integer.MAX_VALUE;
+      minY[level][i] = Integer.MAX_VALUE;
+      maxX[level][i] = Integer.MIN_VALUE;
+      maxY[level][i] = Integer.MIN_VALUE;
+    }
+  }
+
+  private void include(final int level, final int box, final int left, final int top,
+      final int right, final int bottom) {
+    minX[level][box] = Math.min(minX[level][box], left);
+    minY[level][box] = Math.min(minY[level][box], top);
+    maxX[level][box] = Math.max(maxX[level][box], right);
+    maxY[level][box] = Math.max(maxY[level][box], bottom);
+  }
+
+  /**
+   * Does any segment bounding box intersect with given area (edges included,
+   * same as {@link com.nutiteq.utils.Utils#rectanglesIntersect}).
+   */
+  public boolean intersects(final int left, final int top, final int right, final int bottom) {
+    if (segments == 0) {
+      return false;
+    }
+    final int topLevel = minX.length - 1;
+    for (int b = 0; b < minX[topLevel].length; b++) {
+      if (intersects(topLevel, b, left, top, right, bottom)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean intersects(final int level, final int box, final int left, final int top,
+      final int right, final int bottom) {
+    if (maxX[level][box] < left || minX[level][box] > right || maxY[level][box] < top
+        || minY[level][box] > bottom) {
+      return false;
+    }
+
+    if (level == 0) {
+      final int last = Math.min(segments, (box + 1) * FANOUT);
+      for (int s = box * FANOUT; s < last; s++) {
+        if (Math.max(x[s], x[s + 1]) >= left && Math.min(x[s], x[s + 1]) <= right
+            && Math.max(y[s], y[s + 1]) >= top && Math.min(y[s], y[s + 1]) <= bottom) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    final int last = Math.min(minX[level - 1].length, (box + 1) * FANOUT);
+    for (int c = box * FANOUT; c < last; c++) {
+      if (intersects(level - 1, c, left, top, right, bottom)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Shortest distance from given point to polyline segments.
+   *
+   * @param limit
+   *          segments further than limit can be skipped
+   * @return distance or {@link Double#MAX_VALUE}, if no segment is closer than
+   *         limit
+   */
+  public synchronized double distance(final int px, final int py, final double limit) {
+    best = limit < Double.MAX_VALUE ? limit + 1 : Double.MAX_VALUE;
+    if (segments > 0) {
+      final int top = minX.length - 1;
+      for (int b = 0; b < minX[top].length; b++) {
+        nearest(top, b, px, py);
+      }
+    }
+    return best > limit ? Double.MAX_VALUE : best;
+  }
+
+  private void nearest(final int level, final int box, final int px, final int py) {
+    final double dx = Math.max(0, Math.max((double) minX[level][box] - px, (double) px
+        - maxX[level][box]));
+    final double dy = Math.max(0, Math.max((double) minY[level][box] - py, (double) py
+        - maxY[level][box]));
+    if (dx * dx + dy * dy >= best * best) {
+      return;
+    }
+
+    if (level == 0) {
+      final int last = Math.min(segments, (box + 1) * FANOUT);
+      for (int s = box * FANOUT; s < last; s++) {
+        best = Math.min(best, segmentDistance(px, py, s));
+      }
+      return;
+    }
+
+    final int last = Math.min(minX[level - 1].length, (box + 1) * FANOUT);
+    for (int c = box * FANOUT; c < last; c++) {
+      nearest(level - 1, c, px, py);
+    }
+  }
+
+  private double segmentDistance(final int px, final int py, final int s) {
+    final double dx = (double) x[s + 1] - x[s];
+    final double dy = (double) y[s + 1] - y[s];
+    double ex = (double) px - x[s];
+    double ey = (double) py - y[s];
+    final double lengthSquared = dx * dx + dy * dy;
+    if (lengthSquared > 0) {
+      final double t = Math.max(0, Math.min(1, (ex * dx + ey * dy) / lengthSquared));
+      ex -= t * dx;
+      ey -= t * dy;
+    }
+    return Math.sqrt(ex * ex + ey * ey);
+  }
+}
@@ -1,10 +1,9 @@
 package com.nutiteq.core;
 
 import com.mgmaps.utils.AsyncRunner;
-import com.mgmaps.utils.Queue;
 import com.nutiteq.task.LocalTask;
+import com.nutiteq.task.PooledTasksRunner;
 import com.nutiteq.task.TasksRunner;
-import com.nutiteq.task.TasksRunnerImpl;
 
 //TODO jaanus : evaluate this implementation
 public class MappingCore {
@@ -27,7 +26,7 @@ public class MappingCore {
 
   public TasksRunner getTasksRunner() {
     if (tasksRunner == null) {
-      tasksRunner = new TasksRunnerImpl(new Queue());
+      tasksRunner = new PooledTasksRunner();
     }
 
     return tasksRunner;
@@ -0,0 +1,44 @@
+package com.nutiteq.fs;
+
+import java.io.IOException;
+
+/**
+ * File system implementations that can read part of a file without reading
+ * (or skipping) all data before it.
+ */
+public interface RandomAccessFileSystem extends FileSystem {
+  /**
+   * Read part of a file.
+   * 
+   * @param filename
+   *          fully-qualified file path (following "file:///" qualifier)
+   * @param offset
+   *          offset from file start
+   * @param length
+   *          number of bytes to read
+   * @return read data
+   * @throws IOException
+   *           if an exception occurs or file is shorter than requested
+   */
+  byte[] readFile(String filename, long offset, int length) throws IOException;
+
+  /**
+   * File size in bytes.
+   * 
+   * @param filename
+   *          fully-qualified file path (following "file:///" qualifier)
+   * @throws IOException
+   *           if file does not exist
+   */
+  long fileSize(String filename) throws IOException;
+
+  /**
+   * Time of last file modification, used together with file size to find out
+   * if file has been replaced.
+   * 
+   * @param filename
+   *          fully-qualified file path (following "file:///" qualifier)
+   * @return modification time in milliseconds, 0 if not known
+   */
+  long lastModified(String filename) throws IOException;
+}
@@ -1,5 +1,6 @@
 package com.nutiteq.io;
 
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.fs.FileSystem;
 import com.nutiteq.net.DownloadCounter;
@@ -10,7 +11,7 @@ import com.nutiteq.task.Task;
 import com.nutiteq.task.TasksRunner;
 import com.nutiteq.utils.Utils;
 
-public class RetrieveResourceTask implements Task {
+public class RetrieveResourceTask implements Task, Prioritized {
   private final ResourceRequestor resourceRequestor;
   private DownloadStreamOpener downloadStreamOpener;
   private Cache networkCache;
@@ -54,6 +55,11 @@ public class RetrieveResourceTask implements Task {
     }
   }
 
+  public int getPriority() {
+    return (resourceRequestor instanceof Prioritized) ? ((Prioritized) resourceRequestor)
+        .getPriority() : DEFAULT_PRIORITY;
+  }
+
   public void initialize(final DownloadStreamOpener downloadStreamOpener, final Cache networkCache,
       final DownloadCounter downloadCounter, final TasksRunner tasksRunner,
       final FileSystem fileSystem) {
@@ -3,26 +3,40 @@ package com.nutiteq.io;
 import java.io.IOException;
 import java.io.InputStream;
 
-import com.mgmaps.utils.Tools;
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.log.Log;
 import com.nutiteq.maps.StreamedMap;
 import com.nutiteq.net.DownloadCounter;
+import com.nutiteq.task.Cancellable;
 import com.nutiteq.task.MapTileSearchTask;
-import com.nutiteq.utils.Utils;
+import com.nutiteq.task.TasksRunner;
 
-public class StreamedTileRetriever implements ResourceRequestor, ResourceStreamWaiter {
+public class StreamedTileRetriever implements ResourceRequestor, ResourceStreamWaiter,
+    Prioritized, Cancellable {
   private final MapTileSearchTask mapTileSearchTask;
   private final MapTile[] tiles;
   private final StreamedMap map;
+  private final TasksRunner tasksRunner;
   private int downloaded;
 
   public StreamedTileRetriever(final MapTileSearchTask mapTileSearchTask,
       final MapTile[] toRetrieve, final StreamedMap map) {
+    this(mapTileSearchTask, toRetrieve, map, null);
+  }
+
+  /**
+   * @param tasksRunner
+   *          runner for tasks handing read tiles over, null to hand tiles over
+   *          in reading thread
+   */
+  public StreamedTileRetriever(final MapTileSearchTask mapTileSearchTask,
+      final MapTile[] toRetrieve, final StreamedMap map, final TasksRunner tasksRunner) {
     this.mapTileSearchTask = mapTileSearchTask;
     this.tiles = toRetrieve;
     this.map = map;
+    this.tasksRunner = tasksRunner;
   }
 
   public int getCachingLevel() {
@@ -37,38 +51,50 @@ public class StreamedTileRetriever implements ResourceRequestor, ResourceStreamW
     return map.buildStreamedPath(tiles);
   }
 
+  /**
+   * Priority of the most important tile in stream, that is still needed.
+   */
+  public int getPriority() {
+    if (isCancelled()) {
+      return CANCELLED_PRIORITY;
+    }
+
+    int result = DEFAULT_PRIORITY;
+    for (int i = 0; i < tiles.length; i++) {
+      if (!tiles[i].isCancelled()) {
+        result = Math.min(result, tiles[i].getPriority());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Stream is cancelled, when none of the tiles is needed anymore.
+   */
+  public boolean isCancelled() {
+    for (int i = 0; i < tiles.length; i++) {
+      if (!tiles[i].isCancelled()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void notifyCancelled() {
+    mapTileSearchTask.retrieveSuccess();
+  }
+
   public void streamOpened(final InputStream is, final DownloadCounter counter,
       final Cache networkCache) throws IOException {
     //TODO jaanus : maybe add tile coordinates check
+    final StreamedTilesDecoder decoder = new StreamedTilesDecoder(is);
     try {
       for (; downloaded < tiles.length; downloaded++) {
-        // read a line
-        final String line = Tools.readLine2(is);
-
-        final String[] splits = Utils.split(line.trim(), ",");
-        // get length
-        final int len = Integer.parseInt(splits[2]);
-        // read data
-        final byte[] data = new byte[len];
-        int ch = 0;
-        int rd = 0;
-        while ((rd != len) && (ch != -1)) {
-          ch = is.read(data, rd, len - rd);
-          if (ch > 0) {
-            rd += ch;
-          }
-        }
-        // read \r\n
-        is.read();
-
-        // notify downloaded
-        tiles[downloaded].setImagesData(new byte[][] { data });
-        if (networkCache != null) {
-          networkCache.cache(tiles[downloaded].getIDString(), data, Cache.CACHE_LEVEL_MEMORY
-              | Cache.CACHE_LEVEL_PERSISTENT);
-        }
+        final byte[] data = decoder.next();
+        // tiles are handed over on arrival, decoded and cached in local tasks
+        StreamedTilesDecoder.deliver(tiles[downloaded], data, networkCache, tasksRunner);
         if (counter != null) {
-          counter.downloaded(len + line.length());
+          counter.downloaded(data.length + decoder.getHeaderLength());
         }
       }
       mapTileSearchTask.retrieveSuccess();
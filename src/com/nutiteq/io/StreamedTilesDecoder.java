@@ -0,0 +1,134 @@
+package com.nutiteq.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.nutiteq.cache.Cache;
+import com.nutiteq.components.MapTile;
+import com.nutiteq.task.StoreStreamedTileTask;
+import com.nutiteq.task.TasksRunner;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ *
+ * Decoder for multi-tile stream returned for
+ * {@link com.nutiteq.maps.StreamedMap#buildStreamedPath(MapTile[])}. Every
+ * tile in stream has a header line with comma separated numbers (tile data
+ * length is third), line end, tile data and one separator byte.
+ *
+ * Header is parsed from reusable buffer without creating strings. Read tiles
+ * can be handed over to local tasks, so that tile decoding and caching run in
+ * parallel with reading next tiles from network.
+ */
+public class StreamedTilesDecoder {
+  private static final int MAX_FIELDS = 3;
+  private static final int LENGTH_FIELD = 2;
+
+  private final InputStream is;
+  private final int[] fields = new int[MAX_FIELDS];
+  private int headerLength;
+
+  public StreamedTilesDecoder(final InputStream is) {
+    this.is = is;
+  }
+
+  /**
+   * Read next tile from stream.
+   *
+   * @return tile data
+   * @throws IOException
+   *           on read error, invalid header or if stream ends before tile data
+   */
+  public byte[] next() throws IOException {
+    readHeader();
+    final int length = fields[LENGTH_FIELD];
+    if (length < 0) {
+      throw new IOException("Invalid tile length " + length);
+    }
+
+    final byte[] data = new byte[length];
+    int rd = 0;
+    while (rd < length) {
+      final int ch = is.read(data, rd, length - rd);
+      if (ch < 0) {
+        throw new IOException("Stream ended after " + rd + " of " + length + " bytes");
+      }
+      rd += ch;
+    }
+    // read separator
+    is.read();
+    return data;
+  }
+
+  /**
+   * Header line is read until first line end character.
+   */
+  private void readHeader() throws IOException {
+    int field = 0;
+    int value = 0;
+    boolean negative = false;
+    boolean digits = false;
+    headerLength = 0;
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = 0;
+    }
+
+    while (true) {
+      final int c = is.read();
+      if (c == -1 || c == '\n' || c == '\r') {
+        if (c == -1 && headerLength == 0) {
+          throw new IOException("Stream ended before tile header");
+        }
+        break;
+      }
+      headerLength++;
+
+      if (c >= '0' && c <= '9') {
+        value = value * 10 + (c - '0');
+        digits = true;
+      } else if (c == '-' && !digits) {
+        negative = true;
+      } else if (c == ',') {
+        if (field < MAX_FIELDS) {
+          fields[field] = negative ? -value : value;
+        }
+        field++;
+        value = 0;
+        negative = false;
+        digits = false;
+      } else if (c != ' ' && c != '\t') {
+        throw new IOException("Invalid character in tile header: " + c);
+      }
+    }
+
+    if (field < MAX_FIELDS) {
+      fields[field] = negative ? -value : value;
+    }
+    if (field < LENGTH_FIELD || (field == LENGTH_FIELD && !digits)) {
+      throw new IOException("Tile length missing from header");
+    }
+  }
+
+  /**
+   * Number of header characters read for last tile, not including line end
+   */
+  public int getHeaderLength() {
+    return headerLength;
+  }
+
+  /**
+   * Hand read tile data over to tile and network cache. With tasks runner
+   * this is done in a local task, otherwise immediately.
+   */
+  public static void deliver(final MapTile tile, final byte[] data, final Cache networkCache,
+      final TasksRunner tasksRunner) {
+    final StoreStreamedTileTask task = new StoreStreamedTileTask(tile, data, networkCache);
+    if (tasksRunner == null) {
+      task.execute();
+    } else {
+      tasksRunner.enqueue(task);
+    }
+  }
+}
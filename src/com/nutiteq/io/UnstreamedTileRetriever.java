@@ -1,20 +1,54 @@
 package com.nutiteq.io;
 
+import java.util.Vector;
+
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.maps.UnstreamedMap;
+import com.nutiteq.task.Cancellable;
 import com.nutiteq.task.MapTileSearchTask;
+import com.nutiteq.task.TasksRunner;
 import com.nutiteq.utils.Utils;
 
-public class UnstreamedTileRetriever implements ResourceRequestor, ResourceDataWaiter {
+/**
+ * Retrieves tiles one at a time. With several tiles (failed tiles from stored
+ * map or tile pack read in one task) retriever for next tile is enqueued after
+ * previous tile is done, and search continues after last tile. Failed tiles
+ * are passed to next search strategy together.
+ */
+public class UnstreamedTileRetriever implements ResourceRequestor, ResourceDataWaiter,
+    Prioritized, Cancellable {
   private final MapTileSearchTask mapTileSearchTask;
   private final UnstreamedMap map;
   private final MapTile[] toRetrieve;
+  private final TasksRunner tasksRunner;
+  private final int index;
+  private final Vector failed;
 
   public UnstreamedTileRetriever(final MapTileSearchTask mapTileSearchTask, final MapTile[] toRetrieve, final UnstreamedMap map) {
+    this(mapTileSearchTask, toRetrieve, map, null);
+  }
+
+  /**
+   * @param tasksRunner
+   *          runner for retrieving tiles after first, null to pass them to next
+   *          search strategy as failed
+   */
+  public UnstreamedTileRetriever(final MapTileSearchTask mapTileSearchTask,
+      final MapTile[] toRetrieve, final UnstreamedMap map, final TasksRunner tasksRunner) {
+    this(mapTileSearchTask, toRetrieve, map, tasksRunner, 0, new Vector());
+  }
+
+  private UnstreamedTileRetriever(final MapTileSearchTask mapTileSearchTask,
+      final MapTile[] toRetrieve, final UnstreamedMap map, final TasksRunner tasksRunner,
+      final int index, final Vector failed) {
     this.mapTileSearchTask = mapTileSearchTask;
     this.toRetrieve = toRetrieve;
     this.map = map;
+    this.tasksRunner = tasksRunner;
+    this.index = index;
+    this.failed = failed;
   }
 
   public int getCachingLevel() {
@@ -23,11 +57,12 @@ public class UnstreamedTileRetriever implements ResourceRequestor, ResourceDataW
   }
 
   public void notifyError() {
-    mapTileSearchTask.retrieveErrorFor(toRetrieve);
+    failed.addElement(toRetrieve[index]);
+    next();
   }
 
   public String resourcePath() {
-    final MapTile tile = toRetrieve[0];
+    final MapTile tile = toRetrieve[index];
     final String path = map.buildPath(tile.getX(), tile.getY(), tile.getZoom());
 
     final int areaParamIndex = path.indexOf("|a=");
@@ -38,8 +73,41 @@ public class UnstreamedTileRetriever implements ResourceRequestor, ResourceDataW
     }
   }
 
+  public int getPriority() {
+    return toRetrieve[index].getPriority();
+  }
+
+  public boolean isCancelled() {
+    return toRetrieve[index].isCancelled();
+  }
+
+  public void notifyCancelled() {
+    next();
+  }
+
   public void dataRetrieved(final byte[] data) {
-    toRetrieve[0].setImagesData(new byte[][] { data });
-    mapTileSearchTask.retrieveSuccess();
+    toRetrieve[index].setImagesData(new byte[][] { data });
+    next();
+  }
+
+  private void next() {
+    if (index + 1 < toRetrieve.length) {
+      if (tasksRunner != null) {
+        tasksRunner.enqueueDownload(new UnstreamedTileRetriever(mapTileSearchTask, toRetrieve,
+            map, tasksRunner, index + 1, failed), Cache.CACHE_LEVEL_NONE);
+        return;
+      }
+      for (int i = index + 1; i < toRetrieve.length; i++) {
+        failed.addElement(toRetrieve[i]);
+      }
+    }
+
+    if (failed.isEmpty()) {
+      mapTileSearchTask.retrieveSuccess();
+    } else {
+      final MapTile[] failedTiles = new MapTile[failed.size()];
+      failed.copyInto(failedTiles);
+      mapTileSearchTask.retrieveErrorFor(failedTiles);
+    }
   }
 }
@@ -184,10 +184,14 @@ public class KmlServicesHandler implements DownloadRequestor, ImageWaiter, KmlEl
       final Vector kmlPlaces = placesForService[j];
       final Vector addedPlaces = new Vector();
       final Vector removedPlaces = new Vector();
+      Vector previousPlaces = null;
 
       if (zoomedOut) {
-        // remove old places for service
-        appendPlacesElements(removedPlaces, kmlPlaces);
+        // remove old places for service, unless they are received again
+        previousPlaces = new Vector();
+        for (int k = 0; k < kmlPlaces.size(); k++) {
+          previousPlaces.addElement(kmlPlaces.elementAt(k));
+        }
         kmlPlaces.setSize(0);
       }
 
@@ -196,10 +200,21 @@ public class KmlServicesHandler implements DownloadRequestor, ImageWaiter, KmlEl
           continue;
         }
 
-        final Place tmpPlace = addedKmlPlaces[i].getPlace();
-        removedPlaces.removeElement(tmpPlace);
+        final int previous = previousPlaces == null ? -1 : previousPlaces
+            .indexOf(addedKmlPlaces[i]);
+        if (previous >= 0) {
+          // keep place instance already on map, map elements are compared by identity
+          kmlPlaces.addElement(previousPlaces.elementAt(previous));
+          previousPlaces.removeElementAt(previous);
+          continue;
+        }
+
         kmlPlaces.addElement(addedKmlPlaces[i]);
-        addedPlaces.addElement(tmpPlace);
+        addedPlaces.addElement(addedKmlPlaces[i].getPlace());
+      }
+
+      if (previousPlaces != null) {
+        appendPlacesElements(removedPlaces, previousPlaces);
       }
 
       final int maxElements = service.maxResults() * 2;
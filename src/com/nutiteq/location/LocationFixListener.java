@@ -0,0 +1,24 @@
+package com.nutiteq.location;
+
+import com.nutiteq.components.WgsPoint;
+
+/**
+ * Location listener interested in movement and accuracy data of GPS fixes.
+ * Location sources supporting it call {@link #setFix(WgsPoint, double, double, double)}
+ * instead of {@link #setLocation(WgsPoint)}.
+ */
+public interface LocationFixListener extends LocationListener {
+  /**
+   * New fix received.
+   *
+   * @param location
+   *          fix location
+   * @param speed
+   *          speed over ground in meters per second, NaN if not known
+   * @param course
+   *          course over ground in degrees from true north, NaN if not known
+   * @param hdop
+   *          horizontal dilution of precision, NaN if not known
+   */
+  void setFix(WgsPoint location, double speed, double course, double hdop);
+}
@@ -0,0 +1,168 @@
+package com.nutiteq.location.cellid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.nutiteq.cache.Cache;
+import com.nutiteq.components.WgsPoint;
+import com.nutiteq.core.MappingCore;
+
+/**
+ * <p>
+ * Cell id service remembering locations retrieved by another service. Cached
+ * answers (also "can't locate" answers) are used until given time to live has
+ * passed. If service reports error, expired cached location is used instead.
+ * </p>
+ *
+ * <p>
+ * Answers are kept at memory and persistent level of given cache, or of
+ * library network cache, so they are remembered between application runs.
+ * </p>
+ */
+public class CachingCellIdService implements CellIdService, CellIdResponseWaiter {
+  /**
+   * Default time to live for cached locations - one week
+   */
+  public static final long DEFAULT_TTL = 7 * 24 * 60 * 60 * 1000L;
+
+  private static final String KEY_PREFIX = "cellid:";
+
+  private final CellIdService service;
+  private final Cache cache;
+  private final long ttl;
+  private CellIdResponseWaiter responseWaiter;
+  private String requestedKey;
+
+  /**
+   * Cache answers in library network cache for {@link #DEFAULT_TTL}
+   *
+   * @param service
+   *          service used for cells not in cache
+   */
+  public CachingCellIdService(final CellIdService service) {
+    this(service, null, DEFAULT_TTL);
+  }
+
+  /**
+   * @param service
+   *          service used for cells not in cache
+   * @param cache
+   *          initialized cache for answers, null to use library network cache
+   * @param ttl
+   *          time in milliseconds cached answer is used
+   */
+  public CachingCellIdService(final CellIdService service, final Cache cache, final long ttl) {
+    this.service = service;
+    this.cache = cache;
+    this.ttl = ttl;
+  }
+
+  public void setResponseWaiter(final CellIdResponseWaiter responseWaiter) {
+    this.responseWaiter = responseWaiter;
+  }
+
+  public void retrieveLocation(final String cellId, final String lac, final String mcc,
+      final String mnc) {
+    final String key = new StringBuffer(KEY_PREFIX).append(mcc).append('/').append(mnc).append(
+        '/').append(lac).append('/').append(cellId).toString();
+    if (answerFromCache(key, false)) {
+      return;
+    }
+
+    synchronized (this) {
+      requestedKey = key;
+    }
+    service.setResponseWaiter(this);
+    service.retrieveLocation(cellId, lac, mcc, mnc);
+  }
+
+  public void locationRetrieved(final WgsPoint wgsPoint) {
+    store(wgsPoint);
+    responseWaiter.locationRetrieved(wgsPoint);
+  }
+
+  public void cantLocate() {
+    store(null);
+    responseWaiter.cantLocate();
+  }
+
+  public void notifyError() {
+    final String key;
+    synchronized (this) {
+      key = requestedKey;
+      requestedKey = null;
+    }
+    if (!answerFromCache(key, true)) {
+      responseWaiter.notifyError();
+    }
+  }
+
+  /**
+   * Notify response waiter about cached answer.
+   *
+   * @param useExpired
+   *          use expired location, "can't locate" answers are not used then
+   * @return true, if response waiter was notified
+   */
+  private boolean answerFromCache(final String key, final boolean useExpired) {
+    final Cache answers = getCache();
+    final byte[] cached = key == null || answers == null ? null : answers.get(key);
+    if (cached == null) {
+      return false;
+    }
+
+    try {
+      final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(cached));
+      final boolean expired = System.currentTimeMillis() - dis.readLong() >= ttl;
+      final boolean found = dis.readBoolean();
+      if (useExpired ? !found : expired) {
+        return false;
+      }
+      if (found) {
+        final double lon = dis.readDouble();
+        responseWaiter.locationRetrieved(new WgsPoint(lon, dis.readDouble()));
+      } else {
+        responseWaiter.cantLocate();
+      }
+      return true;
+    } catch (final IOException e) {
+      // invalid entry
+      return false;
+    }
+  }
+
+  private void store(final WgsPoint location) {
+    final String key;
+    synchronized (this) {
+      key = requestedKey;
+      requestedKey = null;
+    }
+    final Cache answers = getCache();
+    if (key == null || answers == null) {
+      return;
+    }
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final DataOutputStream dos = new DataOutputStream(baos);
+    try {
+      dos.writeLong(System.currentTimeMillis());
+      dos.writeBoolean(location != null);
+      if (location != null) {
+        dos.writeDouble(location.getLon());
+        dos.writeDouble(location.getLat());
+      }
+      dos.close();
+    } catch (final IOException e) {
+      // not thrown by byte array stream
+    }
+    answers.cache(key, baos.toByteArray(), Cache.CACHE_LEVEL_MEMORY
+        | Cache.CACHE_LEVEL_PERSISTENT);
+  }
+
+  private Cache getCache() {
+    return cache != null ? cache : MappingCore.getInstance().getTasksRunner().getNetworkCache();
+  }
+}
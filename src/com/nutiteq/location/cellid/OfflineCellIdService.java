@@ -0,0 +1,251 @@
+package com.nutiteq.location.cellid;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.nutiteq.components.WgsPoint;
+import com.nutiteq.core.MappingCore;
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.fs.FileSystemConnection;
+import com.nutiteq.fs.RandomAccessFileSystem;
+import com.nutiteq.log.Log;
+import com.nutiteq.task.LocalTask;
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * <p>
+ * Cell id service resolving locations from cell database file on device (for
+ * example converted from OpenCellID export). Cells not found in database can
+ * be passed to fallback service.
+ * </p>
+ *
+ * <p>
+ * Database file format (big-endian, as written by DataOutputStream):
+ * </p>
+ * <ul>
+ * <li>header: int magic ('NTCI'), int version (1), int cell count, int cells
+ * in block</li>
+ * <li>block index: first cell key in every block - short mcc, short mnc, int
+ * lac, int cell id</li>
+ * <li>cells: short mcc, short mnc, int lac, int cell id, int latitude and int
+ * longitude in microdegrees</li>
+ * </ul>
+ *
+ * <p>
+ * Cells are sorted by mcc, mnc, lac and cell id (all non-negative). Block
+ * index is loaded with first lookup, after that every lookup reads one block
+ * of cells.
+ * </p>
+ */
+public class OfflineCellIdService implements CellIdService, LocalTask {
+  private static final int MAGIC = ('N' << 24) | ('T' << 16) | ('C' << 8) | 'I';
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 16;
+  private static final int KEY_LENGTH = 12;
+  private static final int CELL_LENGTH = 20;
+
+  private final FileSystem fs;
+  private final String filename;
+  private final CellIdService fallback;
+  private CellIdResponseWaiter responseWaiter;
+
+  private int cellCount;
+  private int blockSize;
+  // block first keys: mcc and mnc packed to one int, lac, cell id
+  private int[] blockNetworks;
+  private int[] blockLacs;
+  private int[] blockCells;
+  private boolean broken;
+
+  private String cellId;
+  private String lac;
+  private String mcc;
+  private String mnc;
+
+  /**
+   * @param fs
+   *          file system for reading database
+   * @param filename
+   *          database file
+   */
+  public OfflineCellIdService(final FileSystem fs, final String filename) {
+    this(fs, filename, null);
+  }
+
+  /**
+   * @param fs
+   *          file system for reading database
+   * @param filename
+   *          database file
+   * @param fallback
+   *          service used for cells missing from database, may be null
+   */
+  public OfflineCellIdService(final FileSystem fs, final String filename,
+      final CellIdService fallback) {
+    this.fs = fs;
+    this.filename = filename;
+    this.fallback = fallback;
+  }
+
+  public void setResponseWaiter(final CellIdResponseWaiter responseWaiter) {
+    this.responseWaiter = responseWaiter;
+  }
+
+  public void retrieveLocation(final String cellId, final String lac, final String mcc,
+      final String mnc) {
+    this.cellId = cellId;
+    this.lac = lac;
+    this.mcc = mcc;
+    this.mnc = mnc;
+    MappingCore.getInstance().getTasksRunner().enqueue(this);
+  }
+
+  public void execute() {
+    final WgsPoint location;
+    try {
+      location = find(Integer.parseInt(mcc), Integer.parseInt(mnc), Integer.parseInt(lac, 16),
+          Integer.parseInt(cellId, 16));
+    } catch (final NumberFormatException e) {
+      responseWaiter.cantLocate();
+      return;
+    } catch (final IOException e) {
+      Log.error("Cell database: " + e.getMessage());
+      responseWaiter.notifyError();
+      return;
+    }
+
+    if (location != null) {
+      responseWaiter.locationRetrieved(location);
+    } else if (fallback != null) {
+      fallback.setResponseWaiter(responseWaiter);
+      fallback.retrieveLocation(cellId, lac, mcc, mnc);
+    } else {
+      responseWaiter.cantLocate();
+    }
+  }
+
+  /**
+   * Find cell location from database.
+   *
+   * @return location or null, if cell is not in database
+   */
+  public synchronized WgsPoint find(final int mcc, final int mnc, final int lac, final int cellId)
+      throws IOException {
+    if (broken) {
+      throw new IOException("Invalid cell database " + filename);
+    }
+    if (blockNetworks == null) {
+      readIndex();
+    }
+
+    final int network = (mcc << 16) | mnc;
+    // last block starting with smaller or same key
+    int low = 0;
+    int high = blockNetworks.length - 1;
+    int block = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (compare(blockNetworks[mid], blockLacs[mid], blockCells[mid], network, lac, cellId) <= 0) {
+        block = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (block < 0) {
+      return null;
+    }
+
+    final int first = block * blockSize;
+    final int count = Math.min(blockSize, cellCount - first);
+    final int blockOffset = HEADER_LENGTH + blockNetworks.length * KEY_LENGTH;
+    final byte[] cells = read(blockOffset + first * CELL_LENGTH, count * CELL_LENGTH);
+    low = 0;
+    high = count - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int offset = mid * CELL_LENGTH;
+      final int result = compare(readInt(cells, offset), readInt(cells, offset + 4), readInt(
+          cells, offset + 8), network, lac, cellId);
+      if (result < 0) {
+        low = mid + 1;
+      } else if (result > 0) {
+        high = mid - 1;
+      } else {
+        return new WgsPoint(readInt(cells, offset + 16) / 1000000.0,
+            readInt(cells, offset + 12) / 1000000.0);
+      }
+    }
+    return null;
+  }
+
+  private void readIndex() throws IOException {
+    final byte[] header = read(0, HEADER_LENGTH);
+    if (readInt(header, 0) != MAGIC || readInt(header, 4) != VERSION) {
+      broken = true;
+      throw new IOException("Invalid cell database " + filename);
+    }
+    cellCount = readInt(header, 8);
+    blockSize = readInt(header, 12);
+    if (cellCount < 0 || blockSize <= 0) {
+      broken = true;
+      throw new IOException("Invalid cell database " + filename);
+    }
+
+    final int blocks = (cellCount + blockSize - 1) / blockSize;
+    final byte[] index = read(HEADER_LENGTH, blocks * KEY_LENGTH);
+    blockNetworks = new int[blocks];
+    blockLacs = new int[blocks];
+    blockCells = new int[blocks];
+    for (int i = 0; i < blocks; i++) {
+      blockNetworks[i] = readInt(index, i * KEY_LENGTH);
+      blockLacs[i] = readInt(index, i * KEY_LENGTH + 4);
+      blockCells[i] = readInt(index, i * KEY_LENGTH + 8);
+    }
+  }
+
+  private static int compare(final int network1, final int lac1, final int cell1,
+      final int network2, final int lac2, final int cell2) {
+    if (network1 != network2) {
+      return network1 < network2 ? -1 : 1;
+    }
+    if (lac1 != lac2) {
+      return lac1 < lac2 ? -1 : 1;
+    }
+    return cell1 < cell2 ? -1 : (cell1 == cell2 ? 0 : 1);
+  }
+
+  private byte[] read(final int offset, final int length) throws IOException {
+    if (fs instanceof RandomAccessFileSystem) {
+      return ((RandomAccessFileSystem) fs).readFile(filename, offset, length);
+    }
+
+    FileSystemConnection fconn = null;
+    try {
+      fconn = fs.openConnectionToFile(filename);
+      final InputStream is = fconn.openInputStream();
+      if (IOUtils.skip(is, offset) < offset) {
+        throw new IOException("Unexpected end of " + filename);
+      }
+      final byte[] result = new byte[length];
+      int rd = 0;
+      while (rd < length) {
+        final int ch = is.read(result, rd, length - rd);
+        if (ch < 0) {
+          throw new IOException("Unexpected end of " + filename);
+        }
+        rd += ch;
+      }
+      return result;
+    } finally {
+      if (fconn != null) {
+        fconn.close();
+      }
+    }
+  }
+
+  private static int readInt(final byte[] data, final int offset) {
+    return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+  }
+}
@@ -4,19 +4,21 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import com.nutiteq.components.WgsPoint;
+import com.nutiteq.location.LocationFixListener;
 import com.nutiteq.location.LocationListener;
 import com.nutiteq.location.LocationMarker;
 import com.nutiteq.location.LocationSource;
 import com.nutiteq.log.Log;
 import com.nutiteq.utils.IOUtils;
-import com.nutiteq.utils.Utils;
 
 /**
- * Provider reading NMEA data from given connection source.
+ * Provider reading NMEA data from given connection source. Data is read in
+ * blocks and parsed with {@link NmeaParser}. Listeners are notified only about
+ * new fixes, {@link LocationFixListener}s also get speed, course and HDOP.
  */
 public class BluetoothProvider extends Thread implements LocationSource {
-  private static final String RMC_SENTANCE_START = "$GPRMC";
-  private static final String RMC_STATUS_ACTIVE = "A";
+  private static final int READ_BUFFER_SIZE = 512;
+  private final NmeaParser parser = new NmeaParser();
   private boolean running;
   private final String url;
   private InputStream is;
@@ -51,36 +53,35 @@ public class BluetoothProvider extends Thread implements LocationSource {
 
   public void run() {
     running = true;
+    final byte[] buffer = new byte[READ_BUFFER_SIZE];
     while (running) {
       connect();
       while (running && connected) {
-        final String line = readLine();
-        if (line.length() == 0) {
+        final int read = readData(buffer);
+        if (read < 0) {
           disconnect();
           continue;
         }
-        Log.debug(line);
-        parseData(line);
-        for (int i = 0; i < listeners.length; i++) {
-          listeners[i].setLocation(location);
+        for (int i = 0; i < read; i++) {
+          if (parser.parse(buffer[i] & 0xFF)) {
+            fixReceived();
+          }
         }
-        sleepSomeTime(10);
       }
       sleepSomeTime(5000);
     }
     Log.debug("BT done");
   }
 
-  private void parseData(final String line) {
-    if (line.length() == 0) {
-      return;
-    }
-
-    final String[] split = Utils.split(line, ",");
-    if (RMC_SENTANCE_START.equals(split[0]) && RMC_STATUS_ACTIVE.equals(split[2])) {
-      final double lat = Utils.parseDecimalDegree(split[3], split[4]);
-      final double lon = Utils.parseDecimalDegree(split[5], split[6]);
-      location = new WgsPoint(lon, lat);
+  private void fixReceived() {
+    location = new WgsPoint(parser.getLongitude(), parser.getLatitude());
+    for (int i = 0; i < listeners.length; i++) {
+      if (listeners[i] instanceof LocationFixListener) {
+        ((LocationFixListener) listeners[i]).setFix(location, parser.getSpeed(), parser
+            .getCourse(), parser.getHdop());
+      } else {
+        listeners[i].setLocation(location);
+      }
     }
   }
 
@@ -97,26 +98,16 @@ public class BluetoothProvider extends Thread implements LocationSource {
     }
   }
 
-  private String readLine() {
+  /**
+   * @return number of bytes read, -1 if stream ended or read failed
+   */
+  private int readData(final byte[] buffer) {
     try {
-      final StringBuffer sb = new StringBuffer();
-      int c = 0;
-      for (int i = 0;; i++) {
-        c = is.read();
-        if (c == -1 || c == '\0' || c == '\n') {
-          break;
-        }
-        if (c != '\r') {
-          sb.append((char) c);
-        }
-      }
-      return sb.toString();
+      return is.read(buffer, 0, buffer.length);
     } catch (final Exception ex) {
       Log.error("Error receiving data");
       Log.printStackTrace(ex);
-      // disconnect if an error occurs
-      disconnect();
-      return "";
+      return -1;
     }
   }
 
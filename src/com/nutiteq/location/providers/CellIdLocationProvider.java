@@ -30,6 +30,8 @@ public class CellIdLocationProvider extends TimerTask implements CellIdResponseW
   private final Timer timer = new Timer();
   private final CellIdService cellIdService;
   private boolean retrievingLocation;
+  private String locatedCell;
+  private String requestedCell;
   private LocationListener[] listeners = new LocationListener[0];
 
   /**
@@ -83,15 +85,23 @@ public class CellIdLocationProvider extends TimerTask implements CellIdResponseW
     if (dataReader.getCellId() == null) {
       status = STATUS_CANT_LOCATE;
     } else if (!retrievingLocation) {
-      status = STATUS_CONNECTING;
-      cellIdService.setResponseWaiter(this);
       final String cellId = dataReader.getCellId();
       final String lac = dataReader.getLac();
       final String mcc = dataReader.getMcc();
       final String mnc = dataReader.getMnc();
+      final String cell = new StringBuffer(cellId).append('/').append(lac).append('/').append(
+          mcc).append('/').append(mnc).toString();
+      // location for same cell has already been pushed
+      if (status == STATUS_CONNECTED && cell.equals(locatedCell)) {
+        return;
+      }
+
+      status = STATUS_CONNECTING;
+      retrievingLocation = true;
+      requestedCell = cell;
+      cellIdService.setResponseWaiter(this);
       Log.debug("cellid > " + cellId + " : lac >" + lac + " : mcc > " + mcc + " : mnc > " + mnc);
       cellIdService.retrieveLocation(cellId, lac, mcc, mnc);
-      retrievingLocation = true;
     }
   }
 
@@ -101,6 +111,7 @@ public class CellIdLocationProvider extends TimerTask implements CellIdResponseW
 
   public void notifyError() {
     status = STATUS_CANT_LOCATE;
+    retrievingLocation = false;
   }
 
   public LocationMarker getLocationMarker() {
@@ -120,11 +131,13 @@ public class CellIdLocationProvider extends TimerTask implements CellIdResponseW
 
   public void cantLocate() {
     status = STATUS_CANT_LOCATE;
+    retrievingLocation = false;
   }
 
   public void locationRetrieved(final WgsPoint wgsPoint) {
     status = STATUS_CONNECTED;
     location = wgsPoint;
+    locatedCell = requestedCell;
     for (int i = 0; i < listeners.length; i++) {
       listeners[i].setLocation(location);
     }
@@ -0,0 +1,445 @@
+package com.nutiteq.location.providers;
+
+/**
+ * <p>
+ * NMEA 0183 parser for RMC, GGA, GSA and VTG sentences (any talker, for
+ * example GP or GN). Data is fed byte by byte, sentences are checked and
+ * parsed in reused buffers without creating objects.
+ * </p>
+ *
+ * <p>
+ * Sentences with same UTC time form one fix. Fix is completed when both RMC
+ * and GGA have been received for it (or only one of them, if receiver does
+ * not send the other), or when sentence for next time is received. VTG and
+ * GSA have no time, they belong to fix of last RMC or GGA. Receiver without
+ * RMC is waited for VTG and receiver without GGA for GSA, as these carry
+ * speed and HDOP of the fix. Invalid fixes (no satellite fix) are not
+ * reported.
+ * </p>
+ */
+public class NmeaParser {
+  /**
+   * Value for unknown speed, course, HDOP and altitude
+   */
+  public static final double UNKNOWN = Double.NaN;
+
+  private static final int MAX_SENTENCE_LENGTH = 128;
+  private static final int MAX_FIELDS = 24;
+  private static final double KNOTS_TO_MPS = 1852.0 / 3600.0;
+
+  private static final int TYPE_UNKNOWN = 0;
+  private static final int TYPE_RMC = 1;
+  private static final int TYPE_GGA = 2;
+  private static final int TYPE_GSA = 3;
+  private static final int TYPE_VTG = 4;
+
+  private final byte[] sentence = new byte[MAX_SENTENCE_LENGTH];
+  private int length = -1;
+  private final int[] fieldStarts = new int[MAX_FIELDS];
+  private final int[] fieldEnds = new int[MAX_FIELDS];
+  private int fieldCount;
+
+  // fix being collected
+  private int time = -1;
+  private boolean rmcReceived;
+  private boolean ggaReceived;
+  private boolean vtgReceived;
+  private boolean gsaReceived;
+  private boolean valid;
+  private boolean completed;
+  private double latitude;
+  private double longitude;
+  private double speed;
+  private double course;
+  private double hdop;
+  private double altitude;
+  private int satellites;
+
+  // receiver sends these sentences
+  private boolean sendsRmc;
+  private boolean sendsGga;
+  private boolean sendsVtg;
+  private boolean sendsGsa;
+
+  // last completed fix
+  private int fixTime = -1;
+  private double fixLatitude;
+  private double fixLongitude;
+  private double fixSpeed = UNKNOWN;
+  private double fixCourse = UNKNOWN;
+  private double fixHdop = UNKNOWN;
+  private double fixAltitude = UNKNOWN;
+  private int fixSatellites = -1;
+
+  private int sentences;
+  private int checksumErrors;
+
+  public NmeaParser() {
+    resetFix();
+  }
+
+  /**
+   * Parse next byte from NMEA stream.
+   *
+   * @return true if new fix was completed with this byte
+   */
+  public boolean parse(final int b) {
+    if (b == '$') {
+      length = 0;
+      return false;
+    }
+    if (length < 0) {
+      return false;
+    }
+    if (b == '\r' || b == '\n') {
+      final boolean newFix = parseSentence();
+      length = -1;
+      return newFix;
+    }
+    if (b < ' ' || b > '~' || length == MAX_SENTENCE_LENGTH) {
+      // not a sentence
+      length = -1;
+      return false;
+    }
+    sentence[length++] = (byte) b;
+    return false;
+  }
+
+  private boolean parseSentence() {
+    int end = length;
+    int checksum = 0;
+    for (int i = 0; i < length; i++) {
+      if (sentence[i] == '*') {
+        end = i;
+        break;
+      }
+      checksum ^= sentence[i];
+    }
+    if (end < length) {
+      if (length - end < 3 || hex(sentence[end + 1]) * 16 + hex(sentence[end + 2]) != checksum) {
+        checksumErrors++;
+        return false;
+      }
+    }
+
+    fieldCount = 0;
+    int start = 0;
+    for (int i = 0; i <= end && fieldCount < MAX_FIELDS; i++) {
+      if (i == end || sentence[i] == ',') {
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = i;
+        fieldCount++;
+        start = i + 1;
+      }
+    }
+
+    sentences++;
+    switch (sentenceType()) {
+    case TYPE_RMC:
+      return parseRmc();
+    case TYPE_GGA:
+      return parseGga();
+    case TYPE_GSA:
+      return parseGsa();
+    case TYPE_VTG:
+      return parseVtg();
+    default:
+      return false;
+    }
+  }
+
+  private int sentenceType() {
+    // address field is talker (2 characters) and sentence type
+    if (fieldEnds[0] != 5 || sentence[0] == 'P') {
+      return TYPE_UNKNOWN;
+    }
+    final int c1 = sentence[2];
+    final int c2 = sentence[3];
+    final int c3 = sentence[4];
+    if (c1 == 'R' && c2 == 'M' && c3 == 'C') {
+      return TYPE_RMC;
+    } else if (c1 == 'G' && c2 == 'G' && c3 == 'A') {
+      return TYPE_GGA;
+    } else if (c1 == 'G' && c2 == 'S' && c3 == 'A') {
+      return TYPE_GSA;
+    } else if (c1 == 'V' && c2 == 'T' && c3 == 'G') {
+      return TYPE_VTG;
+    }
+    return TYPE_UNKNOWN;
+  }
+
+  private boolean parseRmc() {
+    if (fieldCount < 9) {
+      return false;
+    }
+    sendsRmc = true;
+    final boolean finished = startFix(parseTime(1));
+    rmcReceived = true;
+    if (fieldEquals(2, 'A')) {
+      valid = true;
+      latitude = parseCoordinate(3, 'S');
+      longitude = parseCoordinate(5, 'W');
+    }
+    speed = parseDouble(7) * KNOTS_TO_MPS;
+    course = parseDouble(8);
+    return checkCompleted() || finished;
+  }
+
+  private boolean parseGga() {
+    if (fieldCount < 10) {
+      return false;
+    }
+    sendsGga = true;
+    final boolean finished = startFix(parseTime(1));
+    ggaReceived = true;
+    final int quality = parseInt(6);
+    if (quality > 0) {
+      valid = true;
+      latitude = parseCoordinate(2, 'S');
+      longitude = parseCoordinate(4, 'W');
+    }
+    satellites = parseInt(7);
+    hdop = parseDouble(8);
+    altitude = parseDouble(9);
+    return checkCompleted() || finished;
+  }
+
+  private boolean parseGsa() {
+    sendsGsa = true;
+    gsaReceived = true;
+    // HDOP from GGA is used, when present
+    if (Double.isNaN(hdop)) {
+      hdop = parseDouble(16);
+    }
+    return checkCompleted();
+  }
+
+  private boolean parseVtg() {
+    sendsVtg = true;
+    vtgReceived = true;
+    // RMC speed and course are used, when present
+    if (!Double.isNaN(speed)) {
+      return checkCompleted();
+    }
+    if (fieldEquals(2, 'T')) {
+      // $--VTG,course,T,course,M,knots,N,kmh,K
+      course = parseDouble(1);
+      speed = parseDouble(7) / 3.6;
+      if (Double.isNaN(speed)) {
+        speed = parseDouble(5) * KNOTS_TO_MPS;
+      }
+    } else {
+      // old format $--VTG,course,course,knots,kmh
+      course = parseDouble(1);
+      speed = parseDouble(3) * KNOTS_TO_MPS;
+    }
+    return checkCompleted();
+  }
+
+  /**
+   * Sentence for given time was received. Fix for earlier time is completed,
+   * if it was not reported yet.
+   *
+   * @return true if earlier fix was completed
+   */
+  private boolean startFix(final int sentenceTime) {
+    if (sentenceTime == time) {
+      return false;
+    }
+    final boolean finished = valid && !completed;
+    if (finished) {
+      publish();
+    }
+    resetFix();
+    time = sentenceTime;
+    return finished;
+  }
+
+  private boolean checkCompleted() {
+    if (completed || !valid || (sendsRmc && !rmcReceived) || (sendsGga && !ggaReceived)
+        || (sendsVtg && !sendsRmc && !vtgReceived) || (sendsGsa && !sendsGga && !gsaReceived)) {
+      return false;
+    }
+    publish();
+    return true;
+  }
+
+  private void publish() {
+    completed = true;
+    fixTime = time;
+    fixLatitude = latitude;
+    fixLongitude = longitude;
+    fixSpeed = speed;
+    fixCourse = course;
+    fixHdop = hdop;
+    fixAltitude = altitude;
+    fixSatellites = satellites;
+  }
+
+  private void resetFix() {
+    time = -1;
+    rmcReceived = false;
+    ggaReceived = false;
+    vtgReceived = false;
+    gsaReceived = false;
+    valid = false;
+    completed = false;
+    speed = UNKNOWN;
+    course = UNKNOWN;
+    hdop = UNKNOWN;
+    altitude = UNKNOWN;
+    satellites = -1;
+  }
+
+  private boolean fieldEquals(final int field, final char value) {
+    return field < fieldCount && fieldEnds[field] - fieldStarts[field] == 1
+        && sentence[fieldStarts[field]] == value;
+  }
+
+  /**
+   * @return field as integer or -1, if field is empty or invalid
+   */
+  private int parseInt(final int field) {
+    if (field >= fieldCount || fieldStarts[field] == fieldEnds[field]) {
+      return -1;
+    }
+    int result = 0;
+    for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+      final int c = sentence[i];
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /**
+   * @return field as number or {@link #UNKNOWN}, if field is empty or invalid
+   */
+  private double parseDouble(final int field) {
+    if (field >= fieldCount || fieldStarts[field] == fieldEnds[field]) {
+      return UNKNOWN;
+    }
+    long value = 0;
+    long divider = 1;
+    boolean fraction = false;
+    boolean negative = false;
+    for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+      final int c = sentence[i];
+      if (c >= '0' && c <= '9') {
+        value = value * 10 + (c - '0');
+        if (fraction) {
+          divider *= 10;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else if (c == '-' && i == fieldStarts[field]) {
+        negative = true;
+      } else {
+        return UNKNOWN;
+      }
+    }
+    final double result = (double) value / divider;
+    return negative ? -result : result;
+  }
+
+  /**
+   * Parse coordinate in degrees and minutes (dddmm.mmmm) with hemisphere in
+   * next field.
+   */
+  private double parseCoordinate(final int field, final char negativeHemisphere) {
+    final double value = parseDouble(field);
+    if (Double.isNaN(value)) {
+      return 0;
+    }
+    final int degrees = (int) (value / 100);
+    final double result = degrees + (value - degrees * 100) / 60;
+    return fieldEquals(field + 1, negativeHemisphere) ? -result : result;
+  }
+
+  /**
+   * @return time (hhmmss.sss) as milliseconds from midnight, -1 if missing
+   */
+  private int parseTime(final int field) {
+    final double value = parseDouble(field);
+    if (Double.isNaN(value)) {
+      return -1;
+    }
+    final int hhmmss = (int) value;
+    final int millis = (int) ((value - hhmmss) * 1000 + 0.5);
+    return ((hhmmss / 10000) * 3600 + (hhmmss / 100 % 100) * 60 + hhmmss % 100) * 1000 + millis;
+  }
+
+  private static int hex(final int c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    return -256;
+  }
+
+  /**
+   * UTC time of last fix in milliseconds from midnight, -1 if not known
+   */
+  public int getFixTime() {
+    return fixTime;
+  }
+
+  public double getLatitude() {
+    return fixLatitude;
+  }
+
+  public double getLongitude() {
+    return fixLongitude;
+  }
+
+  /**
+   * Speed over ground in meters per second or {@link #UNKNOWN}
+   */
+  public double getSpeed() {
+    return fixSpeed;
+  }
+
+  /**
+   * Course over ground in degrees from true north or {@link #UNKNOWN}
+   */
+  public double getCourse() {
+    return fixCourse;
+  }
+
+  /**
+   * Horizontal dilution of precision or {@link #UNKNOWN}
+   */
+  public double getHdop() {
+    return fixHdop;
+  }
+
+  /**
+   * Altitude above mean sea level in meters or {@link #UNKNOWN}
+   */
+  public double getAltitude() {
+    return fixAltitude;
+  }
+
+  /**
+   * Number of satellites used for fix, -1 if not known
+   */
+  public int getSatellites() {
+    return fixSatellites;
+  }
+
+  /**
+   * Number of parsed sentences with valid checksum
+   */
+  public int getSentenceCount() {
+    return sentences;
+  }
+
+  public int getChecksumErrors() {
+    return checksumErrors;
+  }
+}
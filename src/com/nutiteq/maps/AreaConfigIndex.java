@@ -0,0 +1,195 @@
+package com.nutiteq.maps;
+
+import java.util.Vector;
+
+import com.nutiteq.components.MapPos;
+import com.nutiteq.components.MultiMapSingleConfig;
+import com.nutiteq.components.TileMapBounds;
+
+/**
+ * Grid index over {@link MultiMapSingleConfig} area bounds, built separately
+ * for every zoom level. Every grid cell lists bounds touching it, so finding
+ * configuration for a tile checks only bounds near the tile instead of all
+ * areas of all configurations.
+ */
+class AreaConfigIndex {
+  private static final int MAX_CELLS_PER_AXIS = 64;
+
+  private final MultiMapSingleConfig[] configurations;
+  private final int tileSize;
+  private final ZoomGrid[] grids;
+
+  public AreaConfigIndex(final MultiMapSingleConfig[] configurations, final int tileSize) {
+    this.configurations = configurations;
+    this.tileSize = tileSize;
+
+    int maxZoom = -1;
+    for (int i = 0; i < configurations.length; i++) {
+      final TileMapBounds[] bounds = configurations[i].getTileBounds();
+      for (int j = 0; j < bounds.length; j++) {
+        maxZoom = Math.max(maxZoom, bounds[j].getZoomLevel());
+      }
+    }
+
+    grids = new ZoomGrid[maxZoom + 1];
+    for (int zoom = 0; zoom <= maxZoom; zoom++) {
+      grids[zoom] = buildGrid(zoom);
+    }
+  }
+
+  /**
+   * Find first configuration (in configurations order) with area containing
+   * given tile. Same result as checking {@link MultiMapSingleConfig#contains}
+   * for every configuration.
+   *
+   * @return configuration or null, if tile is not in any area
+   */
+  public MultiMapSingleConfig find(final int mapX, final int mapY, final int zoom) {
+    if (zoom < 0 || zoom >= grids.length || grids[zoom] == null) {
+      return null;
+    }
+
+    final ZoomGrid grid = grids[zoom];
+    final int cell = grid.cellFor(mapX, mapY);
+    if (cell < 0) {
+      return null;
+    }
+
+    final int[] candidates = grid.cells[cell];
+    if (candidates == null) {
+      return null;
+    }
+
+    // candidates are ordered by configuration index
+    for (int i = 0; i < candidates.length; i++) {
+      final TileMapBounds bounds = grid.bounds[candidates[i]];
+      if (bounds.intersectsWithBounds(mapX, mapY, tileSize)) {
+        return configurations[grid.configIndexes[candidates[i]]];
+      }
+    }
+    return null;
+  }
+
+  private ZoomGrid buildGrid(final int zoom) {
+    final Vector zoomBounds = new Vector();
+    final Vector zoomConfigs = new Vector();
+    for (int i = 0; i < configurations.length; i++) {
+      final TileMapBounds[] bounds = configurations[i].getTileBounds();
+      for (int j = bounds.length - 1; j >= 0; j--) {
+        if (bounds[j].getZoomLevel() == zoom) {
+          zoomBounds.addElement(bounds[j]);
+          zoomConfigs.addElement(new Integer(i));
+        }
+      }
+    }
+
+    if (zoomBounds.size() == 0) {
+      return null;
+    }
+
+    final ZoomGrid grid = new ZoomGrid(zoomBounds.size());
+    zoomBounds.copyInto(grid.bounds);
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+    for (int i = 0; i < grid.bounds.length; i++) {
+      grid.configIndexes[i] = ((Integer) zoomConfigs.elementAt(i)).intValue();
+      // area touching tile left/top corner is found, widen by tile size
+      final int[] r = expandedRect(grid.bounds[i]);
+      minX = Math.min(minX, r[0]);
+      minY = Math.min(minY, r[1]);
+      maxX = Math.max(maxX, r[2]);
+      maxY = Math.max(maxY, r[3]);
+    }
+
+    grid.minX = minX;
+    grid.minY = minY;
+    grid.shift = 0;
+    while (((maxX - minX) >> grid.shift) >= MAX_CELLS_PER_AXIS
+        || ((maxY - minY) >> grid.shift) >= MAX_CELLS_PER_AXIS) {
+      grid.shift++;
+    }
+    grid.width = ((maxX - minX) >> grid.shift) + 1;
+    grid.height = ((maxY - minY) >> grid.shift) + 1;
+    grid.cells = new int[grid.width * grid.height][];
+
+    final int[] counts = new int[grid.cells.length];
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < grid.bounds.length; i++) {
+        final int[] r = expandedRect(grid.bounds[i]);
+        final int x0 = (r[0] - minX) >> grid.shift;
+        final int y0 = (r[1] - minY) >> grid.shift;
+        final int x1 = (r[2] - minX) >> grid.shift;
+        final int y1 = (r[3] - minY) >> grid.shift;
+        for (int y = y0; y <= y1; y++) {
+          for (int x = x0; x <= x1; x++) {
+            final int cell = y * grid.width + x;
+            if (pass == 0) {
+              counts[cell]++;
+            } else {
+              grid.cells[cell][counts[cell]++] = i;
+            }
+          }
+        }
+      }
+
+      if (pass == 0) {
+        for (int c = 0; c < counts.length; c++) {
+          if (counts[c] > 0) {
+            grid.cells[c] = new int[counts[c]];
+          }
+          counts[c] = 0;
+        }
+      }
+    }
+
+    return grid;
+  }
+
+  /**
+   * Range of tile left/top corners, for which tile intersects with given
+   * bounds: {minX, minY, maxX, maxY}
+   */
+  private int[] expandedRect(final TileMapBounds bounds) {
+    final MapPos min = bounds.getMinPoint();
+    final MapPos max = bounds.getMaxPoint();
+    int width = max.getX() - min.getX();
+    width = width == 0 ? 1 : width;
+    int height = max.getY() - min.getY();
+    height = height == 0 ? 1 : height;
+    final int left = Math.min(min.getX(), min.getX() + width);
+    final int top = Math.min(min.getY(), min.getY() + height);
+    return new int[] { left - tileSize, top - tileSize, left + Math.abs(width),
+        top + Math.abs(height) };
+  }
+
+  private static class ZoomGrid {
+    private final TileMapBounds[] bounds;
+    private final int[] configIndexes;
+    private int minX;
+    private int minY;
+    private int shift;
+    private int width;
+    private int height;
+    // bounds indexes, ordered by configuration index
+    private int[][] cells;
+
+    public ZoomGrid(final int size) {
+      bounds = new TileMapBounds[size];
+      configIndexes = new int[size];
+    }
+
+    public int cellFor(final int mapX, final int mapY) {
+      if (mapX < minX || mapY < minY) {
+        return -1;
+      }
+      final int x = (mapX - minX) >> shift;
+      final int y = (mapY - minY) >> shift;
+      if (x >= width || y >= height) {
+        return -1;
+      }
+      return y * width + x;
+    }
+  }
+}
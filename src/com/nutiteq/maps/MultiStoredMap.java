@@ -3,6 +3,7 @@ package com.nutiteq.maps;
 import henson.midp.Float11;
 
 import java.io.IOException;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import com.mgmaps.utils.Tools;
@@ -19,12 +20,16 @@ import com.nutiteq.utils.Utils;
 
 public class MultiStoredMap extends StoredMap {
   private static final String CONFIG_FILENAME = "cache.conf";
+  private static final int MAX_REMEMBERED_PATHS = 256;
   private final String baseBath;
   private boolean needToInitialize = true;
   private final String name;
   private MultiMapSingleConfig[] areaConfigurations;
   private final String fileExt;
   private StoredMapConfig storedMapConfig;
+  private AreaConfigIndex areaIndex;
+  // recently built paths, cleared when full
+  private final Hashtable builtPaths = new Hashtable();
 
 //  private ZoomRange zoomRange = new ZoomRange(Integer.MAX_VALUE,Integer.MIN_VALUE);
   
@@ -98,18 +103,38 @@ public class MultiStoredMap extends StoredMap {
       throw new RuntimeException("No cofigurations found in " + baseBath);
     }
 
+    areaIndex = new AreaConfigIndex(areaConfigurations, getTileSize());
+    synchronized (builtPaths) {
+      builtPaths.clear();
+    }
+
     needToInitialize = false;
   }
 
   public String buildPath(final int mapX, final int mapY, final int zoom) {
-      if (areaConfigurations != null) {
-            for (int i = 0; i < areaConfigurations.length; i++) {
-                final MultiMapSingleConfig config = areaConfigurations[i];
-                if (config.contains(mapX, mapY, zoom, getTileSize())) {
-                    return buildPath(config.getTilesDir(), mapX, mapY, zoom,
-                            config.getHashSize(), config.getTilesPerFile(),
-                            config.getTpfx(), config.getTpfy());
+      final AreaConfigIndex index = areaIndex;
+      if (index != null) {
+            final Long key = new Long(((long) zoom << 58) | (((long) mapX & 0x1FFFFFFFL) << 29)
+                | ((long) mapY & 0x1FFFFFFFL));
+            synchronized (builtPaths) {
+                final String built = (String) builtPaths.get(key);
+                if (built != null) {
+                    return built;
+                }
+            }
+
+            final MultiMapSingleConfig config = index.find(mapX, mapY, zoom);
+            if (config != null) {
+                final String path = buildPath(config.getTilesDir(), mapX, mapY, zoom,
+                        config.getHashSize(), config.getTilesPerFile(),
+                        config.getTpfx(), config.getTpfy());
+                synchronized (builtPaths) {
+                    if (builtPaths.size() >= MAX_REMEMBERED_PATHS) {
+                        builtPaths.clear();
+                    }
+                    builtPaths.put(key, path);
                 }
+                return path;
             }
         }else{
             Log.debug("areaConfigurations is null");
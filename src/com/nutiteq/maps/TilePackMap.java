@@ -0,0 +1,129 @@
+package com.nutiteq.maps;
+
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.maps.projections.EPSG3785;
+import com.nutiteq.ui.Copyright;
+import com.nutiteq.ui.StringCopyright;
+
+/**
+ * <p>
+ * Offline map stored in one indexed tile pack file. Unlike {@link StoredMap}
+ * there is no directory structure to walk and no file to open per tile - tiles
+ * needed for screen are looked up from file index and read in batches of
+ * neighbouring tiles.
+ * </p>
+ *
+ * <p>
+ * Tiles are addressed same way as in MBTiles <code>tiles</code> table (zoom
+ * level, tile column, TMS tile row counted from south), so tile pack is a
+ * straight dump of MBTiles tiles (see
+ * <code>com.nutiteq.maps.TilePackWriter</code> and
+ * <code>com.nutiteq.maps.MBTilesConverter</code> in Android library). File
+ * layout (big endian, ints are 4 bytes and offsets 8 bytes):
+ * </p>
+ *
+ * <ul>
+ * <li>magic bytes <code>NTPK</code>, format version (2), number of zoom levels
+ * and number of tiles in index block</li>
+ * <li>for every zoom level: zoom, number of tiles and index offset from file
+ * start</li>
+ * <li>zoom level index: column and row of first tile in every block, followed
+ * by tile entries - column, row, data offset from file start and data length,
+ * ordered by column and row</li>
+ * <li>tile data</li>
+ * </ul>
+ *
+ * <p>
+ * Block index of zoom level is read with first tile of that zoom, after that
+ * a lookup reads at most one block of tile entries.
+ * </p>
+ *
+ * <p>
+ * <strong>Note:</strong> to use tile pack map You need to also insert
+ * {@link com.nutiteq.fs.FileSystem} into map component using
+ * {@link com.nutiteq.BasicMapComponent#setFileSystem(FileSystem)}. File systems
+ * implementing {@link com.nutiteq.fs.RandomAccessFileSystem} read only needed
+ * parts of the file.
+ * </p>
+ */
+public class TilePackMap extends EPSG3785 implements GeoMap, UnstreamedMap {
+  private final String path;
+
+  /**
+   * Constructor for tile pack map with 256 pixel tiles.
+   *
+   * @param name
+   *          map name, also used as copyright text
+   * @param path
+   *          tile pack file path
+   * @param minZoom
+   *          minimum zoom level
+   * @param maxZoom
+   *          maximum zoom level
+   */
+  public TilePackMap(final String name, final String path, final int minZoom, final int maxZoom) {
+    this(new StringCopyright(name), path, 256, minZoom, maxZoom);
+  }
+
+  /**
+   * Constructor for tile pack map.
+   *
+   * @param copyright
+   *          Text/image for the copyright overlay
+   * @param path
+   *          tile pack file path
+   * @param tileSize
+   *          tile size in pixels
+   * @param minZoom
+   *          minimum zoom level
+   * @param maxZoom
+   *          maximum zoom level
+   */
+  public TilePackMap(final Copyright copyright, final String path, final int tileSize,
+      final int minZoom, final int maxZoom) {
+    super(copyright, tileSize, minZoom, maxZoom);
+    String p = path;
+    if (p.startsWith("file://")) {
+      p = p.substring(7);
+    }
+    if (p.startsWith("/")) {
+      p = p.substring(1);
+    }
+    this.path = p;
+  }
+
+  /**
+   * Tile pack file path (following "file:///" qualifier)
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Tile column in pack file for given map x coordinate
+   */
+  public int getTileColumn(final int mapX, final int zoom) {
+    return mapX / getTileSize() & ((1 << zoom) - 1);
+  }
+
+  /**
+   * Tile row in pack file (counted from south) for given map y coordinate
+   */
+  public int getTileRow(final int mapY, final int zoom) {
+    return (1 << zoom) - 1 - mapY / getTileSize();
+  }
+
+  /**
+   * Tile ID, tiles are read by {@link com.nutiteq.task.ReadTilePackTask}
+   */
+  public String buildPath(final int mapX, final int mapY, final int zoom) {
+    final StringBuffer result = new StringBuffer(path);
+    result.append('|');
+    result.append(zoom);
+    result.append('/');
+    result.append(getTileColumn(mapX, zoom));
+    result.append('/');
+    result.append(getTileRow(mapY, zoom));
+    return result.toString();
+  }
+}
@@ -0,0 +1,19 @@
+package com.nutiteq.net;
+
+/**
+ * Download counter that also counts downloads that were not done, because
+ * request was cancelled before it was started. Used by library, if set
+ * download counter implements it.
+ */
+public interface AvoidedDownloadCounter extends DownloadCounter {
+  /**
+   * Download was not done, because request was cancelled before it was
+   * started.
+   * 
+   * @param url
+   *          request url
+   */
+  void downloadAvoided(String url);
+
+  int getNumberOfAvoidedDownloads();
+}
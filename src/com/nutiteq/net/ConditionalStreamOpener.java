@@ -0,0 +1,25 @@
+package com.nutiteq.net;
+
+import com.nutiteq.cache.CacheMetadata;
+
+/**
+ * Stream opener supporting HTTP conditional requests and giving response
+ * caching metadata to waiter.
+ */
+public interface ConditionalStreamOpener extends DownloadStreamOpener {
+  /**
+   * Open a connection to given network resource. If validators are given,
+   * request is sent with If-None-Match and If-Modified-Since headers and for
+   * not modified response {@link ConditionalStreamWaiter#notModified(CacheMetadata)}
+   * is called instead of opening stream.
+   * 
+   * @param streamWaiter
+   *          object asking for stream to be opened
+   * @param url
+   *          URL to network resource
+   * @param validators
+   *          metadata of cached resource, null for unconditional request
+   */
+  void openInputStream(ConditionalStreamWaiter streamWaiter, String url,
+      CacheMetadata validators);
+}
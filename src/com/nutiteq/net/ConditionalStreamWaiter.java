@@ -0,0 +1,26 @@
+package com.nutiteq.net;
+
+import com.nutiteq.cache.CacheMetadata;
+
+/**
+ * Stream waiter receiving response caching metadata from
+ * {@link ConditionalStreamOpener}.
+ */
+public interface ConditionalStreamWaiter extends DownloadStreamWaiter {
+  /**
+   * Caching metadata of response. Called before
+   * {@link DownloadStreamWaiter#streamOpened(java.io.InputStream)}.
+   * 
+   * @param metadata
+   *          metadata read from response headers
+   */
+  void responseMetadata(CacheMetadata metadata);
+
+  /**
+   * Resource has not changed since cached version (HTTP status 304)
+   * 
+   * @param metadata
+   *          metadata read from response headers
+   */
+  void notModified(CacheMetadata metadata);
+}
@@ -12,6 +12,7 @@ import javax.microedition.io.HttpConnection;
 
 import android.text.StaticLayout;
 
+import com.nutiteq.cache.CacheMetadata;
 import com.nutiteq.log.Log;
 import com.nutiteq.utils.IOUtils;
 
@@ -20,13 +21,14 @@ import com.nutiteq.utils.IOUtils;
  * opened by it.
  * 
  * Status codes 200 (OK) and 304 (not modified) are handled the same way - with
- * data read.
+ * data read. Only for conditional requests (see {@link ConditionalStreamOpener})
+ * not modified response is reported separately.
  * 
  * This implementation tries to follow up to 3 redirects (HTTP status codes 301,
  * 302, 307). If it is not successful, then an error notification will be sent
  * to stream waiter.
  */
-public class DefaultDownloadStreamOpener implements DownloadStreamOpener {
+public class DefaultDownloadStreamOpener implements ConditionalStreamOpener {
   /**
    * Default timeout for network activity.
    */
@@ -73,16 +75,22 @@ public class DefaultDownloadStreamOpener implements DownloadStreamOpener {
   }
 
   public void openInputStream(final DownloadStreamWaiter streamWaiter, final String url) {
-    openInputStream(streamWaiter, url, 0, null);
+    openInputStream(streamWaiter, url, 0, null, null);
   }
 
   public void openInputStream(final DownloadStreamWaiter streamWaiter,
       final DataPostingDownloadable postingDownloadable) {
-    openInputStream(streamWaiter, postingDownloadable.getUrl(), 0, postingDownloadable);
+    openInputStream(streamWaiter, postingDownloadable.getUrl(), 0, postingDownloadable, null);
+  }
+
+  public void openInputStream(final ConditionalStreamWaiter streamWaiter, final String url,
+      final CacheMetadata validators) {
+    openInputStream(streamWaiter, url, 0, null, validators);
   }
 
   private void openInputStream(final DownloadStreamWaiter streamWaiter, final String url,
-      final int redirects, final DataPostingDownloadable downloadable) {
+      final int redirects, final DataPostingDownloadable downloadable,
+      final CacheMetadata validators) {
     final String downloadableUrl = url + urlExtension;
     final DataInputStream dis = null;
     HttpConnection connection = null;
@@ -103,6 +111,15 @@ public class DefaultDownloadStreamOpener implements DownloadStreamOpener {
         }
       }
 
+      if (validators != null) {
+        if (validators.getEtag() != null) {
+          connection.setRequestProperty("If-None-Match", validators.getEtag());
+        }
+        if (validators.getLastModified() != null) {
+          connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+        }
+      }
+
       if (downloadable != null) {
         final byte[] dataBytes = downloadable.getPostContent().getBytes("iso-8859-1");
         connection.setRequestProperty("Content-Length", Integer.toString(dataBytes.length));
@@ -114,9 +131,14 @@ public class DefaultDownloadStreamOpener implements DownloadStreamOpener {
       is = connection.openInputStream();
       final int responseCode = connection.getResponseCode();
       Log.debug("Connection opened in " + (System.currentTimeMillis() - startTime));
-      if (responseCode == HttpConnection.HTTP_OK
+      if (validators != null && responseCode == HttpConnection.HTTP_NOT_MODIFIED) {
+        ((ConditionalStreamWaiter) streamWaiter).notModified(readMetadata(connection));
+      } else if (responseCode == HttpConnection.HTTP_OK
           || responseCode == HttpConnection.HTTP_NOT_MODIFIED) {
         final long processStart = System.currentTimeMillis();
+        if (streamWaiter instanceof ConditionalStreamWaiter) {
+          ((ConditionalStreamWaiter) streamWaiter).responseMetadata(readMetadata(connection));
+        }
         streamWaiter.streamOpened(is);
         Log.debug("Response read in " + (System.currentTimeMillis() - processStart));
       } else if (responseCode == HttpConnection.HTTP_TEMP_REDIRECT
@@ -145,10 +167,17 @@ public class DefaultDownloadStreamOpener implements DownloadStreamOpener {
     }
 
     if (redirectUrl != null) {
-      openInputStream(streamWaiter, redirectUrl, redirects + 1, downloadable);
+      openInputStream(streamWaiter, redirectUrl, redirects + 1, downloadable, validators);
     }
   }
 
+  private CacheMetadata readMetadata(final HttpConnection connection) throws IOException {
+    return CacheMetadata.fromResponse(connection.getHeaderField("ETag"), connection
+        .getHeaderField("Last-Modified"), connection.getHeaderField("Cache-Control"), connection
+        .getExpiration(), connection.getDate(), connection.getLastModified(), System
+        .currentTimeMillis());
+  }
+
   public long getTimeout() {
     return timeout;
   }
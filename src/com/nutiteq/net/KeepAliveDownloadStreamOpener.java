@@ -0,0 +1,410 @@
+package com.nutiteq.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.TimeZone;
+import java.util.Vector;
+
+import javax.microedition.io.HttpConnection;
+
+import com.nutiteq.cache.CacheMetadata;
+import com.nutiteq.log.Log;
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * <p>
+ * Stream opener keeping HTTP/1.1 connections open between requests. Opening a
+ * connection for every tile costs at least one extra round trip, which on
+ * mobile networks often takes longer than downloading the tile itself.
+ * </p>
+ *
+ * <p>
+ * Plain http GET requests are sent over socket connections, at most
+ * {@link #setMaxConnectionsPerHost(int)} connections to one host. Idle
+ * connection is used first, then new connection is opened. When connection
+ * limit has been reached, request is pipelined on least loaded connection: it
+ * is written right away and its response is read after responses for earlier
+ * requests. Request that fails before response is received on reused
+ * connection (server closed idle connection) is retried once on new
+ * connection.
+ * </p>
+ *
+ * <p>
+ * Every request blocks its calling worker until response has been read, so
+ * pipelining takes effect only when more requests run at the same time than
+ * there are connections to host. With default
+ * {@link com.nutiteq.task.PooledTasksRunner#DEFAULT_NETWORK_WORKERS} (2) and
+ * {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST} (2) every worker gets its own
+ * connection and the gain comes from keeping connections open. To pipeline,
+ * use more network workers than connections per host, or limit connections to
+ * one.
+ * </p>
+ *
+ * <p>
+ * POST and https requests are passed to {@link DefaultDownloadStreamOpener}.
+ * Redirects and conditional requests are handled as in default opener.
+ * Connections are closed with {@link #closeConnections()}, idle connections
+ * are also closed after {@link #setIdleTimeout(long)}.
+ * </p>
+ */
+public class KeepAliveDownloadStreamOpener implements ConditionalStreamOpener {
+  /**
+   * Default number of connections to one host
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+  /**
+   * Default number of requests sent on one connection before their responses
+   * are read. Used only when all connections to host are busy.
+   */
+  public static final int DEFAULT_PIPELINE_DEPTH = 4;
+  /**
+   * Default time unused connection is kept open
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT = 15 * 1000;
+
+  private static final String HTTP_PREFIX = "http://";
+  private static final int HTTP_PORT = 80;
+  private static final int MAX_FOLLOWED_REDIRECTS = 3;
+  private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+  private final String urlExtension;
+  private final long timeout;
+  private final Hashtable properties = new Hashtable();
+  private final DefaultDownloadStreamOpener fallback;
+
+  // host:port -> Vector of PersistentConnection, also pool lock
+  private final Hashtable hosts = new Hashtable();
+  private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+  private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+  private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+  public KeepAliveDownloadStreamOpener() {
+    this("", DefaultDownloadStreamOpener.DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * @param urlExtension
+   *          Optional extension for socket and http URLs, for instance
+   *          ";deviceside=true". Used on some Blackberry devices.
+   */
+  public KeepAliveDownloadStreamOpener(final String urlExtension) {
+    this(urlExtension, DefaultDownloadStreamOpener.DEFAULT_TIMEOUT);
+  }
+
+  public KeepAliveDownloadStreamOpener(final String urlExtension, final long timeout) {
+    this.urlExtension = urlExtension;
+    this.timeout = timeout;
+    fallback = new DefaultDownloadStreamOpener(urlExtension, timeout);
+  }
+
+  /**
+   * Add request properties, that will be added added to every request (for
+   * example User-Agent).
+   *
+   * @param propertyName
+   *          request property name
+   * @param propertyValue
+   *          request property value
+   */
+  public void addRequestProperty(final String propertyName, final String propertyValue) {
+    properties.put(propertyName, propertyValue);
+    fallback.addRequestProperty(propertyName, propertyValue);
+  }
+
+  /**
+   * Set maximum number of connections kept to one host
+   */
+  public void setMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+    this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+  }
+
+  /**
+   * Set maximum number of requests waiting for response on one connection. 1
+   * disables pipelining.
+   */
+  public void setPipelineDepth(final int pipelineDepth) {
+    this.pipelineDepth = Math.max(1, pipelineDepth);
+  }
+
+  /**
+   * Set time in milliseconds unused connection is kept open
+   */
+  public void setIdleTimeout(final long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Close all connections. Connections still in use are closed after
+   * responses have been read.
+   */
+  public void closeConnections() {
+    synchronized (hosts) {
+      final Enumeration e = hosts.elements();
+      while (e.hasMoreElements()) {
+        final Vector connections = (Vector) e.nextElement();
+        for (int i = 0; i < connections.size(); i++) {
+          ((PersistentConnection) connections.elementAt(i)).closeWhenIdle();
+        }
+      }
+      hosts.clear();
+    }
+  }
+
+  public void openInputStream(final DownloadStreamWaiter streamWaiter, final String url) {
+    openInputStream(streamWaiter, url, 0, null);
+  }
+
+  public void openInputStream(final DownloadStreamWaiter streamWaiter,
+      final DataPostingDownloadable postingDownloadable) {
+    fallback.openInputStream(streamWaiter, postingDownloadable);
+  }
+
+  public void openInputStream(final ConditionalStreamWaiter streamWaiter, final String url,
+      final CacheMetadata validators) {
+    openInputStream(streamWaiter, url, 0, validators);
+  }
+
+  private void openInputStream(final DownloadStreamWaiter streamWaiter, final String url,
+      final int redirects, final CacheMetadata validators) {
+    if (!url.startsWith(HTTP_PREFIX)) {
+      if (validators != null) {
+        fallback.openInputStream((ConditionalStreamWaiter) streamWaiter, url, validators);
+      } else {
+        fallback.openInputStream(streamWaiter, url);
+      }
+      return;
+    }
+
+    final int pathStart = url.indexOf('/', HTTP_PREFIX.length());
+    final String hostHeader = pathStart < 0 ? url.substring(HTTP_PREFIX.length()) : url
+        .substring(HTTP_PREFIX.length(), pathStart);
+    final String path = pathStart < 0 ? "/" : url.substring(pathStart);
+    final int portIndex = hostHeader.indexOf(':');
+
+    String redirectUrl = null;
+    try {
+      final String host = portIndex < 0 ? hostHeader : hostHeader.substring(0, portIndex);
+      final int port = portIndex < 0 ? HTTP_PORT : Integer.parseInt(hostHeader
+          .substring(portIndex + 1));
+      Log.info("Downloading " + url);
+      redirectUrl = execute(streamWaiter, host, port,
+          buildRequest(path, hostHeader, validators), validators, true);
+    } catch (final IOException e) {
+      Log.error("Downloader: " + e.getMessage());
+      streamWaiter.error(NETWORK_ERROR, e.getMessage());
+    } catch (final NumberFormatException e) {
+      Log.error("Downloader: invalid port in " + url);
+      streamWaiter.error(NETWORK_ERROR, e.getMessage());
+    } catch (final SecurityException e) {
+      Log.error("Downloader security: " + e.getMessage());
+      streamWaiter.error(SECURITY_EXCEPTION, e.getMessage());
+    }
+
+    if (redirects == MAX_FOLLOWED_REDIRECTS && redirectUrl != null) {
+      streamWaiter.error(TOO_MANY_REDIRECTS, "Too manu redirects created!");
+      return;
+    }
+
+    if (redirectUrl != null) {
+      openInputStream(streamWaiter, redirectUrl, redirects + 1, validators);
+    }
+  }
+
+  /**
+   * Send request and handle response.
+   *
+   * @return redirect location or null
+   */
+  private String execute(final DownloadStreamWaiter streamWaiter, final String host,
+      final int port, final byte[] request, final CacheMetadata validators, final boolean retry)
+      throws IOException {
+    final PersistentConnection connection = acquire(host, port, !retry);
+    int responseCode = -1;
+    boolean keepAlive = false;
+    boolean completed = false;
+    InputStream is = null;
+    try {
+      final long startTime = System.currentTimeMillis();
+      final int ticket = connection.send(request);
+      connection.awaitTurn(ticket);
+      final Hashtable headers = new Hashtable();
+      responseCode = connection.readResponseHead(headers);
+      is = connection.openBody(responseCode, headers);
+      keepAlive = !"close".equalsIgnoreCase((String) headers.get("connection"));
+      Log.debug("Response received in " + (System.currentTimeMillis() - startTime));
+
+      String redirectUrl = null;
+      if (validators != null && responseCode == HttpConnection.HTTP_NOT_MODIFIED) {
+        ((ConditionalStreamWaiter) streamWaiter).notModified(readMetadata(headers));
+      } else if (responseCode == HttpConnection.HTTP_OK
+          || responseCode == HttpConnection.HTTP_NOT_MODIFIED) {
+        if (streamWaiter instanceof ConditionalStreamWaiter) {
+          ((ConditionalStreamWaiter) streamWaiter).responseMetadata(readMetadata(headers));
+        }
+        streamWaiter.streamOpened(is);
+      } else if (responseCode == HttpConnection.HTTP_TEMP_REDIRECT
+          || responseCode == HttpConnection.HTTP_MOVED_PERM
+          || responseCode == HttpConnection.HTTP_MOVED_TEMP) {
+        redirectUrl = (String) headers.get("location");
+        Log.debug("Redirect to " + redirectUrl);
+      } else {
+        streamWaiter.error(RESPONCE_NOT_OK, "");
+      }
+
+      // skip unread body for next response
+      is.close();
+      completed = true;
+      return redirectUrl;
+    } catch (final IOException e) {
+      // server may close idle connection while requests are sent to it
+      if (!retry || responseCode >= 0 || !connection.isReused()) {
+        throw e;
+      }
+    } finally {
+      if (completed) {
+        connection.responseDone(keepAlive);
+      } else {
+        IOUtils.closeStream(is);
+        connection.close();
+      }
+      release(connection);
+    }
+
+    Log.debug("Retrying request on new connection");
+    return execute(streamWaiter, host, port, request, validators, false);
+  }
+
+  /**
+   * Find connection for request: idle connection, new connection or least
+   * loaded connection with room in pipeline, waiting if there is none.
+   *
+   * @param fresh
+   *          open new connection even if connection limit has been reached
+   */
+  private PersistentConnection acquire(final String host, final int port, final boolean fresh)
+      throws IOException {
+    final String key = host + ":" + port;
+    synchronized (hosts) {
+      while (true) {
+        Vector connections = (Vector) hosts.get(key);
+        if (connections == null) {
+          connections = new Vector();
+          hosts.put(key, connections);
+        }
+
+        final long now = System.currentTimeMillis();
+        PersistentConnection best = null;
+        for (int i = connections.size() - 1; i >= 0; i--) {
+          final PersistentConnection connection = (PersistentConnection) connections
+              .elementAt(i);
+          if (connection.getLoad() == 0 && connection.getIdleTime(now) > idleTimeout) {
+            connection.close();
+          }
+          if (connection.isClosed()) {
+            connections.removeElementAt(i);
+          } else if (best == null || connection.getLoad() < best.getLoad()) {
+            best = connection;
+          }
+        }
+
+        if (fresh || best == null
+            || (best.getLoad() > 0 && connections.size() < maxConnectionsPerHost)) {
+          best = new PersistentConnection(host, port, urlExtension);
+          connections.addElement(best);
+        }
+        if (best.getLoad() < pipelineDepth) {
+          best.reserve();
+          return best;
+        }
+
+        try {
+          hosts.wait();
+        } catch (final InterruptedException e) {
+          throw new IOException("Interrupted while waiting for connection");
+        }
+      }
+    }
+  }
+
+  private void release(final PersistentConnection connection) {
+    synchronized (hosts) {
+      connection.release();
+      hosts.notifyAll();
+    }
+  }
+
+  private byte[] buildRequest(final String path, final String hostHeader,
+      final CacheMetadata validators) throws IOException {
+    final StringBuffer request = new StringBuffer(256);
+    request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+    appendHeader(request, "Host", hostHeader);
+    appendHeader(request, "Connection", "keep-alive");
+    appendHeader(request, "Cache-Control", "No-Transform");
+    final Enumeration keysEnum = properties.keys();
+    while (keysEnum.hasMoreElements()) {
+      final String key = (String) keysEnum.nextElement();
+      appendHeader(request, key, (String) properties.get(key));
+    }
+
+    if (validators != null) {
+      if (validators.getEtag() != null) {
+        appendHeader(request, "If-None-Match", validators.getEtag());
+      }
+      if (validators.getLastModified() != null) {
+        appendHeader(request, "If-Modified-Since", validators.getLastModified());
+      }
+    }
+    request.append("\r\n");
+    return request.toString().getBytes("iso-8859-1");
+  }
+
+  private static void appendHeader(final StringBuffer request, final String name,
+      final String value) {
+    request.append(name).append(": ").append(value).append("\r\n");
+  }
+
+  private CacheMetadata readMetadata(final Hashtable headers) {
+    final String lastModified = (String) headers.get("last-modified");
+    return CacheMetadata.fromResponse((String) headers.get("etag"), lastModified,
+        (String) headers.get("cache-control"), parseDate((String) headers.get("expires")),
+        parseDate((String) headers.get("date")), parseDate(lastModified), System
+            .currentTimeMillis());
+  }
+
+  /**
+   * Parse HTTP date in preferred format (Sun, 06 Nov 1994 08:49:37 GMT).
+   *
+   * @return time or 0, if date is missing or in other format
+   */
+  private static long parseDate(final String value) {
+    if (value == null) {
+      return 0;
+    }
+
+    try {
+      final String date = value.substring(value.indexOf(',') + 1).trim();
+      final int month = MONTHS.indexOf(date.substring(3, 6));
+      if (month < 0 || month % 3 != 0 || date.length() < 20) {
+        return 0;
+      }
+      final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+      calendar.set(Calendar.DAY_OF_MONTH, Integer.parseInt(date.substring(0, 2)));
+      calendar.set(Calendar.MONTH, Calendar.JANUARY + month / 3);
+      calendar.set(Calendar.YEAR, Integer.parseInt(date.substring(7, 11)));
+      calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(date.substring(12, 14)));
+      calendar.set(Calendar.MINUTE, Integer.parseInt(date.substring(15, 17)));
+      calendar.set(Calendar.SECOND, Integer.parseInt(date.substring(18, 20)));
+      calendar.set(Calendar.MILLISECOND, 0);
+      return calendar.getTime().getTime();
+    } catch (final RuntimeException e) {
+      return 0;
+    }
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+}
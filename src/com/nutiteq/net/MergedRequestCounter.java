@@ -0,0 +1,17 @@
+package com.nutiteq.net;
+
+/**
+ * Download counter that also counts requests merged with download of same url
+ * already in progress. Used by library, if set download counter implements it.
+ */
+public interface MergedRequestCounter extends DownloadCounter {
+  /**
+   * Request was not sent, because same url was already being downloaded.
+   * Requestor will get data from download in progress.
+   * @param url
+   *          request url
+   */
+  void requestMerged(String url);
+
+  int getNumberOfMergedRequests();
+}
@@ -6,11 +6,15 @@ import com.nutiteq.log.Log;
  * Default download counter used in library. For every network request adds an
  * estimate of 100 bytes of overhead for creating the connection.
  */
-public class NutiteqDownloadCounter implements DownloadCounter {
+public class NutiteqDownloadCounter implements AvoidedDownloadCounter,
+    RevalidationCounter, MergedRequestCounter {
   private int networkRequests;
   private int cacheHits;
   private int loadedFromCache;
   private int downloaded;
+  private int avoidedDownloads;
+  private int savedByRevalidation;
+  private int mergedRequests;
   private NetworkListener networkListener;
 
   public void networkRequest(final String url) {
@@ -66,4 +70,33 @@ public class NutiteqDownloadCounter implements DownloadCounter {
   public int getBytesLoadedFromCache() {
     return loadedFromCache;
   }
+
+  public void downloadAvoided(final String url) {
+    Log.debug("Download cancelled: " + url);
+    avoidedDownloads++;
+  }
+
+  public int getNumberOfAvoidedDownloads() {
+    return avoidedDownloads;
+  }
+
+  public void notModified(final String url, final int savedBytes) {
+    Log.debug("Not modified: " + url);
+    cacheHits++;
+    loadedFromCache += savedBytes;
+    savedByRevalidation += savedBytes;
+  }
+
+  public int getBytesSavedByRevalidation() {
+    return savedByRevalidation;
+  }
+
+  public void requestMerged(final String url) {
+    Log.debug("Merged with download in progress: " + url);
+    mergedRequests++;
+  }
+
+  public int getNumberOfMergedRequests() {
+    return mergedRequests;
+  }
 }
@@ -0,0 +1,418 @@
+package com.nutiteq.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Hashtable;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.HttpConnection;
+import javax.microedition.io.SocketConnection;
+
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * <p>
+ * Not part of public API
+ * </p>
+ *
+ * Keep-alive HTTP/1.1 connection to one host. Socket is opened with first
+ * request. New requests can be written while earlier responses are still being
+ * read (pipelining), responses are read in request order.
+ *
+ * Number of requests assigned to connection (load) is managed by
+ * {@link KeepAliveDownloadStreamOpener} under its pool lock.
+ */
+class PersistentConnection {
+  private static final int BUFFER_SIZE = IOUtils.BUFSIZE;
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+  private final String socketUrl;
+  private final Object writeLock = new Object();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+
+  private SocketConnection connection;
+  private InputStream is;
+  private OutputStream os;
+
+  // guarded by this
+  private int sent;
+  private int answered;
+  private boolean closed;
+  private boolean closeWhenIdle;
+  private long lastUsed;
+
+  // guarded by opener pool lock
+  private int load;
+
+  PersistentConnection(final String host, final int port, final String urlExtension) {
+    socketUrl = "socket://" + host + ":" + port + urlExtension;
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Write request to connection, opening socket if needed.
+   *
+   * @return ticket for reading response with {@link #awaitTurn(int)}
+   */
+  int send(final byte[] request) throws IOException {
+    synchronized (writeLock) {
+      final int ticket;
+      synchronized (this) {
+        if (closed) {
+          throw new IOException("Connection closed");
+        }
+        ticket = sent++;
+      }
+
+      try {
+        if (connection == null) {
+          connection = (SocketConnection) Connector.open(socketUrl, Connector.READ_WRITE, true);
+          connection.setSocketOption(SocketConnection.DELAY, 0);
+          connection.setSocketOption(SocketConnection.KEEPALIVE, 1);
+          is = connection.openInputStream();
+          os = connection.openOutputStream();
+        }
+        os.write(request);
+        os.flush();
+      } catch (final IOException e) {
+        close();
+        throw e;
+      }
+      return ticket;
+    }
+  }
+
+  /**
+   * Wait until responses for all earlier requests have been read.
+   *
+   * @throws IOException
+   *           if connection is closed before response can be read
+   */
+  synchronized void awaitTurn(final int ticket) throws IOException {
+    while (answered != ticket && !closed) {
+      try {
+        wait();
+      } catch (final InterruptedException e) {
+        throw new IOException("Interrupted");
+      }
+    }
+    if (closed) {
+      throw new IOException("Connection closed before response");
+    }
+  }
+
+  /**
+   * Read response status line and headers. Informational (1xx) responses are
+   * skipped.
+   *
+   * @param headers
+   *          filled with received headers, names in lower case
+   * @return response status code
+   */
+  int readResponseHead(final Hashtable headers) throws IOException {
+    int status;
+    do {
+      headers.clear();
+      final String statusLine = readLine();
+      if (statusLine == null) {
+        throw new IOException("Connection closed by server");
+      }
+      final int codeStart = statusLine.indexOf(' ');
+      if (!statusLine.startsWith("HTTP/") || codeStart < 0
+          || statusLine.length() < codeStart + 4) {
+        throw new IOException("Invalid status line " + statusLine);
+      }
+      try {
+        status = Integer.parseInt(statusLine.substring(codeStart + 1, codeStart + 4));
+      } catch (final NumberFormatException e) {
+        throw new IOException("Invalid status line " + statusLine);
+      }
+      if (statusLine.startsWith("HTTP/1.0")) {
+        headers.put("connection", "close");
+      }
+
+      String line;
+      while ((line = readLine()) != null && line.length() > 0) {
+        final int separator = line.indexOf(':');
+        if (separator > 0) {
+          headers.put(line.substring(0, separator).trim().toLowerCase(), line.substring(
+              separator + 1).trim());
+        }
+      }
+      if (line == null) {
+        throw new IOException("Connection closed in response headers");
+      }
+    } while (status >= 100 && status < 200);
+    return status;
+  }
+
+  /**
+   * Stream for reading response body. Closing it skips unread body, so that
+   * next response can be read.
+   */
+  InputStream openBody(final int status, final Hashtable headers) throws IOException {
+    if (status == HttpConnection.HTTP_NO_CONTENT || status == HttpConnection.HTTP_NOT_MODIFIED) {
+      return new BodyInputStream(BodyInputStream.FIXED, 0);
+    }
+
+    final String transferEncoding = (String) headers.get("transfer-encoding");
+    if (transferEncoding != null && transferEncoding.toLowerCase().indexOf("chunked") >= 0) {
+      return new BodyInputStream(BodyInputStream.CHUNKED, 0);
+    }
+
+    final String contentLength = (String) headers.get("content-length");
+    if (contentLength != null) {
+      try {
+        return new BodyInputStream(BodyInputStream.FIXED, Long.parseLong(contentLength));
+      } catch (final NumberFormatException e) {
+        throw new IOException("Invalid content length " + contentLength);
+      }
+    }
+
+    headers.put("connection", "close");
+    return new BodyInputStream(BodyInputStream.UNTIL_CLOSE, 0);
+  }
+
+  /**
+   * Response has been read completely. Lets next pipelined request read its
+   * response, or closes connection.
+   */
+  synchronized void responseDone(final boolean keepAlive) {
+    answered++;
+    lastUsed = System.currentTimeMillis();
+    if (!keepAlive || (closeWhenIdle && answered == sent)) {
+      close();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Close connection. Requests waiting for response are failed.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    IOUtils.closeStream(is);
+    IOUtils.closeStream(os);
+    IOUtils.closeConnection(connection);
+    notifyAll();
+  }
+
+  /**
+   * Close connection after responses for already sent requests have been read
+   */
+  synchronized void closeWhenIdle() {
+    closeWhenIdle = true;
+    if (answered == sent) {
+      close();
+    }
+  }
+
+  /**
+   * Have other requests been sent on this connection
+   */
+  synchronized boolean isReused() {
+    return sent > 1;
+  }
+
+  synchronized boolean isClosed() {
+    return closed;
+  }
+
+  synchronized long getIdleTime(final long now) {
+    return answered == sent ? now - lastUsed : 0;
+  }
+
+  int getLoad() {
+    return load;
+  }
+
+  void reserve() {
+    load++;
+  }
+
+  void release() {
+    load--;
+  }
+
+  private int readByte() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  private boolean fill() throws IOException {
+    final int read = is.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  /**
+   * @return line without line end or null, if stream ended
+   */
+  private String readLine() throws IOException {
+    final StringBuffer line = new StringBuffer();
+    int c;
+    while ((c = readByte()) != '\n') {
+      if (c == -1) {
+        return line.length() == 0 ? null : line.toString();
+      }
+      if (c != '\r') {
+        if (line.length() == MAX_LINE_LENGTH) {
+          throw new IOException("Too long line in response");
+        }
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+  /**
+   * Response body read from connection buffer. Handles fixed length and chunked
+   * bodies and bodies ending with connection close.
+   */
+  private class BodyInputStream extends InputStream {
+    static final int FIXED = 0;
+    static final int CHUNKED = 1;
+    static final int UNTIL_CLOSE = 2;
+
+    private final int mode;
+    // bytes left in body or current chunk
+    private long remaining;
+    private boolean finished;
+
+    BodyInputStream(final int mode, final long length) {
+      this.mode = mode;
+      remaining = length;
+      finished = mode == FIXED && length == 0;
+    }
+
+    public int read() throws IOException {
+      if (!prepare()) {
+        return -1;
+      }
+      final int c = readByte();
+      if (c == -1) {
+        return endOfStream();
+      }
+      remaining--;
+      return c;
+    }
+
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!prepare()) {
+        return -1;
+      }
+      if (position == limit && !fill()) {
+        return endOfStream();
+      }
+      int count = Math.min(len, limit - position);
+      if (mode != UNTIL_CLOSE) {
+        count = (int) Math.min(count, remaining);
+      }
+      System.arraycopy(buffer, position, b, off, count);
+      position += count;
+      remaining -= count;
+      return count;
+    }
+
+    public int available() {
+      if (finished) {
+        return 0;
+      }
+      final int buffered = limit - position;
+      return mode == UNTIL_CLOSE ? buffered : (int) Math.min(buffered, remaining);
+    }
+
+    /**
+     * Skips unread part of body
+     */
+    public void close() throws IOException {
+      if (mode == UNTIL_CLOSE) {
+        finished = true;
+        return;
+      }
+      while (!finished) {
+        if (!prepare()) {
+          break;
+        }
+        final int skipped = (int) Math.min(remaining, limit - position);
+        if (skipped == 0) {
+          if (!fill()) {
+            endOfStream();
+          }
+        } else {
+          position += skipped;
+          remaining -= skipped;
+        }
+      }
+    }
+
+    /**
+     * @return false if there is no more body data
+     */
+    private boolean prepare() throws IOException {
+      if (finished) {
+        return false;
+      }
+      if (mode == FIXED && remaining == 0) {
+        finished = true;
+        return false;
+      }
+      if (mode == CHUNKED && remaining == 0) {
+        if (!nextChunk()) {
+          finished = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean nextChunk() throws IOException {
+      String line = readLine();
+      // line end after previous chunk data
+      if (line != null && line.length() == 0) {
+        line = readLine();
+      }
+      if (line == null) {
+        throw new IOException("Connection closed in chunked body");
+      }
+      final int extension = line.indexOf(';');
+      final String size = (extension >= 0 ? line.substring(0, extension) : line).trim();
+      try {
+        remaining = Long.parseLong(size, 16);
+      } catch (final NumberFormatException e) {
+        throw new IOException("Invalid chunk size " + size);
+      }
+      if (remaining > 0) {
+        return true;
+      }
+
+      // skip trailer
+      while ((line = readLine()) != null && line.length() > 0) {
+      }
+      return false;
+    }
+
+    private int endOfStream() throws IOException {
+      finished = true;
+      if (mode != UNTIL_CLOSE) {
+        throw new IOException("Connection closed in response body");
+      }
+      return -1;
+    }
+  }
+}
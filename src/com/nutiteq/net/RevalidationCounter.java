@@ -0,0 +1,23 @@
+package com.nutiteq.net;
+
+/**
+ * Download counter that also counts cached resources revalidated with
+ * conditional requests. Used by library, if set download counter implements
+ * it.
+ */
+public interface RevalidationCounter extends DownloadCounter {
+  /**
+   * Cached data for given url was revalidated with conditional request and
+   * server responded that it has not been modified.
+   * @param url
+   *          request url
+   * @param savedBytes
+   *          size of cached data, that did not have to be downloaded again
+   */
+  void notModified(String url, int savedBytes);
+
+  /**
+   * @return bytes not downloaded thanks to not modified responses
+   */
+  int getBytesSavedByRevalidation();
+}
@@ -0,0 +1,27 @@
+package com.nutiteq.task;
+
+/**
+ * Retrieval that can be cancelled while waiting in tasks queue. Cancelled
+ * retrievals are dropped before any data is read or downloaded.
+ */
+public interface Cancellable {
+  /**
+   * Priority used for cancelled work. Cancelled tasks finish without any I/O,
+   * so they are taken from queue first to release tile searches waiting for
+   * them.
+   */
+  int CANCELLED_PRIORITY = -1;
+
+  /**
+   * Is this retrieval no longer needed
+   * 
+   * @return if retrieval has been cancelled
+   */
+  boolean isCancelled();
+
+  /**
+   * Notify implementing object, that retrieval was skipped because of
+   * cancellation.
+   */
+  void notifyCancelled();
+}
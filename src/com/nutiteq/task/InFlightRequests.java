@@ -0,0 +1,46 @@
+package com.nutiteq.task;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.nutiteq.io.ResourceDataWaiter;
+
+/**
+ * Network requests in progress, by resource path. Requests for a path already
+ * being downloaded are not sent again, but wait for result of the first
+ * request.
+ */
+class InFlightRequests {
+  // resource path to waiting requestors (empty vector if none)
+  private final Hashtable requests = new Hashtable();
+
+  /**
+   * Start request for resource path or join request already in progress.
+   * 
+   * @param waiter
+   *          requestor waiting for data, given result of request in progress
+   * @return true if new request was started and caller must download the
+   *         resource and call {@link #finish(String)}, false if waiter was
+   *         added to request in progress
+   */
+  public synchronized boolean start(final String resourcePath, final ResourceDataWaiter waiter) {
+    final Vector waiting = (Vector) requests.get(resourcePath);
+    if (waiting == null) {
+      requests.put(resourcePath, new Vector());
+      return true;
+    }
+
+    waiting.addElement(waiter);
+    return false;
+  }
+
+  /**
+   * Finish request and get requestors waiting for its result.
+   * 
+   * @return waiting {@link ResourceDataWaiter}s
+   */
+  public synchronized Vector finish(final String resourcePath) {
+    final Vector waiting = (Vector) requests.remove(resourcePath);
+    return waiting == null ? new Vector() : waiting;
+  }
+}
@@ -2,6 +2,7 @@ package com.nutiteq.task;
 
 import java.util.Vector;
 
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.io.StreamedTileRetriever;
@@ -10,9 +11,10 @@ import com.nutiteq.maps.GeoMap;
 import com.nutiteq.maps.MapTilesRequestor;
 import com.nutiteq.maps.StoredMap;
 import com.nutiteq.maps.StreamedMap;
+import com.nutiteq.maps.TilePackMap;
 import com.nutiteq.maps.UnstreamedMap;
 
-public class MapTileSearchTask implements Task {
+public class MapTileSearchTask implements Task, Prioritized {
   private final MapTilesRequestor tilesRequestor;
   private final GeoMap[] tileSearchStrategy;
   private final TasksRunner taskRunner;
@@ -48,7 +50,13 @@ public class MapTileSearchTask implements Task {
       toRetrieve = appendTiles(toRetrieve, pullNeededTiles(map, tilesRequestor));
     }
 
+    toRetrieve = removeCancelled(toRetrieve);
+
     if (toRetrieve.length == 0) {
+      if (strategyIndex > 0) {
+        //failed tiles were cancelled meanwhile, continue with next search
+        retrieveSuccess();
+      }
       return;
     }
 
@@ -57,14 +65,19 @@ public class MapTileSearchTask implements Task {
       final StoredMap sMap = (StoredMap) map;
       if (sMap.isInitializeConf()) {
         sMap.initializeConfigUsingFs(taskRunner.getFileSystem());
+        // files may have been replaced together with configuration
+        ReadStoredMapTileTask.clearHeaderCache();
       }
 
       taskRunner.enqueue(new ReadStoredMapTileTask(this, toRetrieve, sMap, taskRunner
           .getFileSystem()));
+    } else if (map instanceof TilePackMap) {
+      taskRunner.enqueue(new ReadTilePackTask(this, toRetrieve, (TilePackMap) map, taskRunner
+          .getFileSystem()));
     } else if (map instanceof UnstreamedMap) {
-      taskRunner.enqueueDownload(
-          new UnstreamedTileRetriever(this, toRetrieve, (UnstreamedMap) map),
-          Cache.CACHE_LEVEL_NONE);
+      // several tiles come here as failed tiles of stored map or tile pack
+      taskRunner.enqueueDownload(new UnstreamedTileRetriever(this, toRetrieve,
+          (UnstreamedMap) map, taskRunner), Cache.CACHE_LEVEL_NONE);
     } else if (map instanceof StreamedMap) {
       toRetrieve = findStreamedFromCache(toRetrieve, (StreamedMap) map, taskRunner
           .getNetworkCache());
@@ -73,29 +86,38 @@ public class MapTileSearchTask implements Task {
         retrieveSuccess();
         return;
       }
-      taskRunner.enqueueDownload(new StreamedTileRetriever(this, toRetrieve, (StreamedMap) map),
-          Cache.CACHE_LEVEL_NONE);
+      taskRunner.enqueueDownload(new StreamedTileRetriever(this, toRetrieve, (StreamedMap) map,
+          taskRunner), Cache.CACHE_LEVEL_NONE);
     }
   }
 
+  /**
+   * Tile search only decides where tiles are retrieved from, so it is done
+   * before any actual retrieval.
+   */
+  public int getPriority() {
+    return 0;
+  }
+
   private MapTile[] findStreamedFromCache(final MapTile[] tiles, final StreamedMap map,
       final Cache networkCache) {
     if (networkCache == null) {
       return tiles;
     }
 
+    final String[] keys = new String[tiles.length];
+    for (int i = 0; i < tiles.length; i++) {
+      keys[i] = tiles[i].getIDString();
+    }
+
+    final byte[][] cached = networkCache.getAll(keys);
     final Vector uncached = new Vector();
     for (int i = 0; i < tiles.length; i++) {
-      final MapTile t = tiles[i];
-      if (networkCache.contains(t.getIDString())) {
-        final byte[] tc = networkCache.get(t.getIDString());
-        if (tc != null) {
-          t.setImagesData(new byte[][] { tc });
-        } else { // file not found from cache
-          uncached.addElement(t);
-        }
+      final byte[] tc = cached[i];
+      if (tc != null && tc.length > 0) {
+        tiles[i].setImagesData(new byte[][] { tc });
       } else {
-        uncached.addElement(t);
+        uncached.addElement(tiles[i]);
       }
     }
 
@@ -104,6 +126,28 @@ public class MapTileSearchTask implements Task {
     return result;
   }
 
+  private MapTile[] removeCancelled(final MapTile[] tiles) {
+    int cancelled = 0;
+    for (int i = 0; i < tiles.length; i++) {
+      if (tiles[i].isCancelled()) {
+        cancelled++;
+      }
+    }
+
+    if (cancelled == 0) {
+      return tiles;
+    }
+
+    final MapTile[] result = new MapTile[tiles.length - cancelled];
+    int j = 0;
+    for (int i = 0; i < tiles.length; i++) {
+      if (!tiles[i].isCancelled()) {
+        result[j++] = tiles[i];
+      }
+    }
+    return result;
+  }
+
   private MapTile[] appendTiles(final MapTile[] toRetrieve, final MapTile[] additionalTiles) {
     final int titalSize = toRetrieve.length + additionalTiles.length;
     final MapTile[] result = new MapTile[titalSize];
@@ -116,7 +160,9 @@ public class MapTileSearchTask implements Task {
 
   private MapTile[] pullNeededTiles(final GeoMap map, final MapTilesRequestor tilesRequestor) {
     MapTile[] result = new MapTile[0];
-    if (map instanceof UnstreamedMap) {
+    // stored maps and tile packs read all tiles in one task
+    if (map instanceof UnstreamedMap && !(map instanceof StoredMap)
+        && !(map instanceof TilePackMap)) {
       final MapTile required = tilesRequestor.getRequiredTile();
       if (required != null) {
         result = new MapTile[] { required };
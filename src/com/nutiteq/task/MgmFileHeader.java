@@ -0,0 +1,88 @@
+package com.nutiteq.task;
+
+import com.mgmaps.utils.Tools;
+
+/**
+ * Parsed header of .mgm file containing multiple tiles. Header starts with
+ * number of stored tiles (2 bytes), followed by 6 byte entry for every tile
+ * slot: tile x and y inside file block (1 byte each) and tile data end offset
+ * (4 bytes). Tile data starts where previous tile data ends (first tile right
+ * after header).
+ */
+class MgmFileHeader {
+  private final int tpfx;
+  private final int tpfy;
+  private final int[] starts;
+  private final int[] ends;
+  private final int headerLength;
+
+  private MgmFileHeader(final int tpfx, final int tpfy, final int headerLength) {
+    this.tpfx = tpfx;
+    this.tpfy = tpfy;
+    this.headerLength = headerLength;
+    starts = new int[tpfx * tpfy];
+    ends = new int[tpfx * tpfy];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = -1;
+    }
+  }
+
+  /**
+   * Header length in bytes for given tiles per file count
+   */
+  public static int headerLength(final int tilesPerFile) {
+    return 6 * tilesPerFile + 2;
+  }
+
+  /**
+   * Parse header data.
+   *
+   * @param header
+   *          header bytes, at least {@link #headerLength(int)} long
+   * @param tpfx
+   *          tiles in file block horizontally
+   * @param tpfy
+   *          tiles in file block vertically
+   */
+  public static MgmFileHeader parse(final byte[] header, final int tpfx, final int tpfy) {
+    final int headerLength = headerLength(tpfx * tpfy);
+    final MgmFileHeader result = new MgmFileHeader(tpfx, tpfy, headerLength);
+    final int numberOfTilesStored = (Tools.unsigned(header[0]) << 8) + Tools.unsigned(header[1]);
+    final int n6 = Math.min(numberOfTilesStored * 6, header.length - 2);
+    int start = headerLength;
+    for (int i6 = 0; i6 + 5 < n6; i6 += 6) {
+      final int dx = Tools.unsigned(header[2 + i6]);
+      final int dy = Tools.unsigned(header[3 + i6]);
+      final int end = (Tools.unsigned(header[4 + i6]) << 24)
+          + (Tools.unsigned(header[5 + i6]) << 16) + (Tools.unsigned(header[6 + i6]) << 8)
+          + Tools.unsigned(header[7 + i6]);
+      if (dx < tpfx && dy < tpfy && result.starts[dy * tpfx + dx] < 0) {
+        result.starts[dy * tpfx + dx] = start;
+        result.ends[dy * tpfx + dx] = end;
+      }
+      start = end;
+    }
+    return result;
+  }
+
+  public int getHeaderLength() {
+    return headerLength;
+  }
+
+  /**
+   * @return tile data start offset from file start, -1 if tile is not stored
+   */
+  public int getStart(final int dx, final int dy) {
+    if (dx < 0 || dy < 0 || dx >= tpfx || dy >= tpfy) {
+      return -1;
+    }
+    return starts[dy * tpfx + dx];
+  }
+
+  /**
+   * @return tile data end offset (exclusive)
+   */
+  public int getEnd(final int dx, final int dy) {
+    return ends[dy * tpfx + dx];
+  }
+}
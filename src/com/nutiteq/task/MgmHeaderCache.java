@@ -0,0 +1,75 @@
+package com.nutiteq.task;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * LRU cache for parsed .mgm file headers, keyed by file path. Header is
+ * returned only for file with same size and modification time it was parsed
+ * from, so replaced files are parsed again.
+ */
+class MgmHeaderCache {
+  private final int maxSize;
+  private final Hashtable headers = new Hashtable();
+  // least recently used first
+  private final Vector order = new Vector();
+
+  public MgmHeaderCache(final int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @param fileSize
+   *          current size of file
+   * @param lastModified
+   *          current modification time of file
+   * @return cached header or null, if header is not cached or file has changed
+   */
+  public synchronized MgmFileHeader get(final String path, final long fileSize,
+      final long lastModified) {
+    final Entry entry = (Entry) headers.get(path);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.fileSize != fileSize || entry.lastModified != lastModified) {
+      headers.remove(path);
+      order.removeElement(path);
+      return null;
+    }
+    if (!path.equals(order.lastElement())) {
+      order.removeElement(path);
+      order.addElement(path);
+    }
+    return entry.header;
+  }
+
+  public synchronized void put(final String path, final MgmFileHeader header,
+      final long fileSize, final long lastModified) {
+    if (headers.put(path, new Entry(header, fileSize, lastModified)) != null) {
+      order.removeElement(path);
+    }
+    order.addElement(path);
+
+    while (order.size() > maxSize) {
+      headers.remove(order.elementAt(0));
+      order.removeElementAt(0);
+    }
+  }
+
+  public synchronized void clear() {
+    headers.clear();
+    order.removeAllElements();
+  }
+
+  private static class Entry {
+    private final MgmFileHeader header;
+    private final long fileSize;
+    private final long lastModified;
+
+    public Entry(final MgmFileHeader header, final long fileSize, final long lastModified) {
+      this.header = header;
+      this.fileSize = fileSize;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package com.nutiteq.task;
+
+import com.mgmaps.utils.IndexedPriorityQueue;
+import com.mgmaps.utils.Queue;
+import com.nutiteq.cache.Cache;
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.io.ResourceRequestor;
+import com.nutiteq.io.RetrieveResourceTask;
+import com.nutiteq.license.LicenseKeyCheck;
+import com.nutiteq.listeners.ErrorListener;
+import com.nutiteq.net.DefaultDownloadStreamOpener;
+import com.nutiteq.net.DownloadCounter;
+import com.nutiteq.net.DownloadRequestor;
+import com.nutiteq.net.DownloadStreamOpener;
+
+/**
+ * <p>
+ * Tasks runner using a pool of workers. Tasks are divided between two lanes:
+ * </p>
+ * <ul>
+ * <li>local lane - local I/O and processing ({@link LocalTask},
+ * {@link ReadStoredMapTileTask}, {@link MapTileSearchTask}, etc.)</li>
+ * <li>network lane - network I/O ({@link NetworkTask},
+ * {@link RetrieveResourceTask}, {@link DownloadRequestorTask})</li>
+ * </ul>
+ * <p>
+ * Number of workers in lane defines how many tasks from that lane can be
+ * executed concurrently. This way slow network requests (KML, geocoding, etc.)
+ * will not block reading tiles from local file system or cache.
+ * </p>
+ * <p>
+ * Inside a lane tasks are ordered by priority (see
+ * {@link com.mgmaps.utils.Prioritized}), so that map tiles closer to screen
+ * center are retrieved first.
+ * </p>
+ */
+public class PooledTasksRunner implements ReprioritizingTasksRunner {
+  /**
+   * Default number of workers for local tasks
+   */
+  public static final int DEFAULT_LOCAL_WORKERS = 1;
+  /**
+   * Default number of workers for network tasks
+   */
+  public static final int DEFAULT_NETWORK_WORKERS = 2;
+
+  private final TaskLane localLane;
+  private final TaskLane networkLane;
+
+  private ErrorListener errorListener;
+  private Cache networkCache;
+  private FileSystem fileSystem;
+
+  private boolean stopping;
+
+  public PooledTasksRunner() {
+    this(DEFAULT_LOCAL_WORKERS, DEFAULT_NETWORK_WORKERS);
+  }
+
+  /**
+   * Create tasks runner with given concurrency limits.
+   * 
+   * @param localWorkers
+   *          number of workers executing local tasks
+   * @param networkWorkers
+   *          number of workers executing network tasks
+   */
+  public PooledTasksRunner(final int localWorkers, final int networkWorkers) {
+    //local lane is used for on screen tiles reading, so run it above network
+    localLane = new TaskLane("local", new IndexedPriorityQueue(), this, localWorkers,
+        Thread.NORM_PRIORITY - 1);
+    networkLane = new TaskLane("network", new IndexedPriorityQueue(), this, networkWorkers,
+        Thread.MIN_PRIORITY);
+    setDownloadStreamOpener(new DefaultDownloadStreamOpener());
+  }
+
+  private TaskLane laneFor(final Object task) {
+    if (task instanceof NetworkTask || task instanceof RetrieveResourceTask
+        || task instanceof DownloadRequestorTask) {
+      return networkLane;
+    }
+
+    return localLane;
+  }
+
+  public boolean hasMoreTasks() {
+    return localLane.hasMoreTasks() || networkLane.hasMoreTasks();
+  }
+
+  public Object getNextTask() {
+    final Object next = localLane.getNextTask();
+    return next != null ? next : networkLane.getNextTask();
+  }
+
+  public void taskCompleted() {
+    //completion is handled by lanes
+  }
+
+  public void setWorker(final TaskWorker next) {
+    //workers are owned by lanes, that replace failed workers themselves
+  }
+
+  public void enqueue(final Task task) {
+    if (stopping || task == null) {
+      return;
+    }
+
+    laneFor(task).enqueue(task);
+  }
+
+  public void reprioritize() {
+    localLane.reprioritize();
+    networkLane.reprioritize();
+  }
+
+  public void enqueueDownload(final ResourceRequestor downloadable, final int cacheLevel) {
+    enqueue(new RetrieveResourceTask(downloadable));
+  }
+
+  public void enqueueDownloadRequestor(final DownloadRequestor requestor, final int cacheLevel) {
+    enqueue(new DownloadRequestorTask(requestor, errorListener, this));
+  }
+
+  public void startWorker() {
+    localLane.start();
+    networkLane.start();
+  }
+
+  public void quit() {
+    stopping = true;
+    localLane.quit();
+    networkLane.quit();
+  }
+
+  public void setErrorListener(final ErrorListener errorListener) {
+    this.errorListener = errorListener;
+  }
+
+  public void setDownloadStreamOpener(final DownloadStreamOpener opener) {
+    localLane.setDownloadStreamOpener(opener);
+    networkLane.setDownloadStreamOpener(opener);
+  }
+
+  public void setNetworkCache(final Cache networkCache) {
+    this.networkCache = networkCache;
+    localLane.setNetworkCache(networkCache);
+    networkLane.setNetworkCache(networkCache);
+  }
+
+  public Cache getNetworkCache() {
+    return networkCache;
+  }
+
+  public void setDownloadCounter(final DownloadCounter downloadCounter) {
+    localLane.setDownloadCounter(downloadCounter);
+    networkLane.setDownloadCounter(downloadCounter);
+  }
+
+  public void setFileSystem(final FileSystem fs) {
+    this.fileSystem = fs;
+    localLane.setFileSystem(fs);
+    networkLane.setFileSystem(fs);
+  }
+
+  public FileSystem getFileSystem() {
+    return fileSystem;
+  }
+
+  public void setLicenceKeyCheck(final LicenseKeyCheck licenseKeyCheck) {
+    networkLane.setLicenceKeyCheck(licenseKeyCheck);
+  }
+
+  /**
+   * Queue of network lane. This is where most of the pending work is waiting.
+   */
+  public Queue getQueue() {
+    return networkLane.getQueue();
+  }
+
+  /**
+   * Queue of local lane.
+   */
+  public Queue getLocalQueue() {
+    return localLane.getQueue();
+  }
+}
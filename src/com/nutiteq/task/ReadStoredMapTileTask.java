@@ -2,17 +2,22 @@ package com.nutiteq.task;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Vector;
 
-import com.mgmaps.utils.Tools;
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.config.StoredMapConfig;
 import com.nutiteq.fs.FileSystem;
 import com.nutiteq.fs.FileSystemConnection;
+import com.nutiteq.fs.RandomAccessFileSystem;
 import com.nutiteq.log.Log;
 import com.nutiteq.maps.StoredMap;
 import com.nutiteq.utils.IOUtils;
 
-public class ReadStoredMapTileTask implements Task {
+public class ReadStoredMapTileTask implements LocalTask, Prioritized {
+  private static final MgmHeaderCache HEADERS = new MgmHeaderCache(16);
+
   private final MapTileSearchTask mapTileSearchTask;
   private final StoredMap map;
   private final FileSystem fs;
@@ -26,61 +31,159 @@ public class ReadStoredMapTileTask implements Task {
     this.fs = fileSystem;
   }
 
+  /**
+   * Reads all tiles to retrieve. Tiles are grouped by file, so that every file
+   * is opened once. Read tiles are handed over after all files have been read.
+   */
   public void execute() {
-    final MapTile tile = toRetrieve[0];
-    final int mx = tile.getX() / map.getTileSize() & ((1 << tile.getZoom()) - 1);
-    final int my = tile.getY() / map.getTileSize();
-    String filename = map.buildPath(tile.getX(), tile.getY(), tile.getZoom());
-
-    Log.debug("ReadStoredMapTileTask "+filename);
-    // TODO Jaak this could be incompatible with tilesperfile>1 config
-    final int areaParamIndex = filename.indexOf("|a=");
-    if (areaParamIndex > 0) {
-      filename = filename.substring(0, areaParamIndex);
-    } 
-    Log.debug("ReadStoredMapTileTask fixed "+filename);
-    
-    if ("".equals(filename)) {
-      mapTileSearchTask.retrieveErrorFor(toRetrieve);
-      return;
-    }
-
-    final byte[] filedata;
+    final long start = System.currentTimeMillis();
     final StoredMapConfig conf = map.getConfig();
-    try {
+    final byte[][] data = new byte[toRetrieve.length][];
+    final Hashtable files = new Hashtable();
+    final Vector fileOrder = new Vector();
+    final int[] dx = new int[toRetrieve.length];
+    final int[] dy = new int[toRetrieve.length];
+
+    for (int i = 0; i < toRetrieve.length; i++) {
+      final MapTile tile = toRetrieve[i];
+      if (tile.isCancelled()) {
+        continue;
+      }
+
+      String filename = map.buildPath(tile.getX(), tile.getY(), tile.getZoom());
+      // TODO Jaak this could be incompatible with tilesperfile>1 config
+      final int areaParamIndex = filename.indexOf("|a=");
+      if (areaParamIndex > 0) {
+        filename = filename.substring(0, areaParamIndex);
+      }
+
+      if ("".equals(filename)) {
+        continue;
+      }
+
       if (conf.getTilesPerFile() > 1) {
+        final int mx = tile.getX() / map.getTileSize() & ((1 << tile.getZoom()) - 1);
+        final int my = tile.getY() / map.getTileSize();
+        dx[i] = mx % conf.getTpfx();
+        dy[i] = my % conf.getTpfy();
         filename = filename.substring(0, filename.indexOf('|'));
-        filedata = readMapTile(fs, filename, conf.getTilesPerFile(), mx % conf.getTpfx(), my
-            % conf.getTpfy());
-      } else {
-        filedata = fs.readFile(filename);
       }
-      tile.setImagesData(new byte[][] { filedata });
+
+      Vector fileTiles = (Vector) files.get(filename);
+      if (fileTiles == null) {
+        fileTiles = new Vector();
+        files.put(filename, fileTiles);
+        fileOrder.addElement(filename);
+      }
+      fileTiles.addElement(new Integer(i));
+    }
+
+    for (int f = 0; f < fileOrder.size(); f++) {
+      final String filename = (String) fileOrder.elementAt(f);
+      final Vector fileTiles = (Vector) files.get(filename);
+      Log.debug("ReadStoredMapTileTask " + filename + " : " + fileTiles.size());
+      try {
+        if (conf.getTilesPerFile() > 1) {
+          readMapTiles(fs, filename, conf, fileTiles, dx, dy, data);
+        } else {
+          data[((Integer) fileTiles.elementAt(0)).intValue()] = fs.readFile(filename);
+        }
+      } catch (final Exception e) {
+        Log.error("Error reading tile: " + e.getMessage());
+        Log.printStackTrace(e);
+      }
+    }
+
+    final Vector failed = new Vector();
+    int read = 0;
+    for (int i = 0; i < toRetrieve.length; i++) {
+      if (data[i] != null) {
+        toRetrieve[i].setImagesData(new byte[][] { data[i] });
+        read++;
+      } else if (!toRetrieve[i].isCancelled()) {
+        failed.addElement(toRetrieve[i]);
+      }
+    }
+
+    Log.debug("ReadStoredMapTileTask read " + read + " tiles from " + fileOrder.size()
+        + " files in " + (System.currentTimeMillis() - start) + " ms");
+
+    if (failed.size() > 0) {
+      final MapTile[] failedTiles = new MapTile[failed.size()];
+      failed.copyInto(failedTiles);
+      mapTileSearchTask.retrieveErrorFor(failedTiles);
+    } else {
       mapTileSearchTask.retrieveSuccess();
-    } catch (final Exception e) {
-      Log.error("Error reading tile: " + e.getMessage());
-      Log.printStackTrace(e);
-      mapTileSearchTask.retrieveErrorFor(toRetrieve);
     }
   }
 
   /**
-   * Read map tile from a file with multiple tiles.
+   * Forget parsed file headers, for example when stored map configuration is
+   * read again. Files on file systems without random access can not be checked
+   * for changes, their headers are kept until cleared.
+   */
+  static void clearHeaderCache() {
+    HEADERS.clear();
+  }
+
+  public int getPriority() {
+    int result = DEFAULT_PRIORITY;
+    for (int i = 0; i < toRetrieve.length; i++) {
+      if (!toRetrieve[i].isCancelled()) {
+        result = Math.min(result, toRetrieve[i].getPriority());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read map tiles from a file with multiple tiles. Parsed file headers are
+   * cached, so tiles from same file do not parse header again. Header of
+   * replaced file (different size or modification time) is parsed again.
    * 
    * @param filename
    *          file to read from
-   * @param tilesPerFile
-   *          maximum number of tiles stored in a file (power of two)
+   * @param conf
+   *          stored map configuration (tiles per file)
+   * @param fileTiles
+   *          indexes of tiles stored in this file
    * @param dx
-   *          x-index of tile in block stored in file
+   *          x-indexes of tiles in block stored in file
    * @param dy
-   *          y-index of tile in block stored in file
-   * @return map tile data
+   *          y-indexes of tiles in block stored in file
+   * @param data
+   *          read tiles data is stored here. Tiles not found in file are left
+   *          null
    */
-  private byte[] readMapTile(final FileSystem fs, final String filename, final int tilesPerFile,
-      final int dx, final int dy) throws IOException {
+  private void readMapTiles(final FileSystem fs, final String filename,
+      final StoredMapConfig conf, final Vector fileTiles, final int[] dx, final int[] dy,
+      final byte[][] data) throws IOException {
     Log.debug("Loading file:///" + filename);
 
+    if (fs instanceof RandomAccessFileSystem) {
+      final RandomAccessFileSystem rafs = (RandomAccessFileSystem) fs;
+      final long fileSize = rafs.fileSize(filename);
+      final long lastModified = rafs.lastModified(filename);
+      MgmFileHeader header = HEADERS.get(filename, fileSize, lastModified);
+      if (header == null) {
+        header = MgmFileHeader.parse(rafs.readFile(filename, 0, MgmFileHeader.headerLength(conf
+            .getTilesPerFile())), conf.getTpfx(), conf.getTpfy());
+        HEADERS.put(filename, header, fileSize, lastModified);
+      }
+
+      for (int i = 0; i < fileTiles.size(); i++) {
+        final int index = ((Integer) fileTiles.elementAt(i)).intValue();
+        final int offset = header.getStart(dx[index], dy[index]);
+        if (offset >= 0) {
+          data[index] = rafs.readFile(filename, offset, header.getEnd(dx[index], dy[index])
+              - offset);
+        }
+      }
+      return;
+    }
+
+    // file changes can not be seen, cached until cleared
+    MgmFileHeader header = HEADERS.get(filename, -1, -1);
     FileSystemConnection fconn = null;
     InputStream is;
     try {
@@ -88,57 +191,60 @@ public class ReadStoredMapTileTask implements Task {
 
       is = fconn.openInputStream();
 
-      // read header
-      int toRead = 6 * tilesPerFile + 2;
-      final byte[] header = new byte[toRead];
-      long ch = 0;
-      int rd = 0;
-      while ((rd < toRead) && (ch >= 0)) {
-        ch = is.read(header, rd, toRead - rd);
-        if (ch > 0) {
-          rd += ch;
-        }
+      int position = 0;
+      if (header == null) {
+        final byte[] headerData = new byte[MgmFileHeader.headerLength(conf.getTilesPerFile())];
+        position = readFully(is, headerData);
+        header = MgmFileHeader.parse(headerData, conf.getTpfx(), conf.getTpfy());
+        HEADERS.put(filename, header, -1, -1);
       }
 
-      // search for the tile
-      final int numberOfTilesStored = (Tools.unsigned(header[0]) << 8) + Tools.unsigned(header[1]);
-      int offset = -1;
-      int offset2 = -1;
-      final int n6 = numberOfTilesStored * 6;
-      for (int i6 = 0; i6 < n6; i6 += 6) {
-        if ((header[2 + i6] == dx || header[2 + i6] + 256 == dx)
-            && (header[3 + i6] == dy || header[3 + i6] + 256 == dy)) {
-          offset2 = (Tools.unsigned(header[4 + i6]) << 24) + (Tools.unsigned(header[5 + i6]) << 16)
-              + (Tools.unsigned(header[6 + i6]) << 8) + (Tools.unsigned(header[7 + i6]));
-          offset = (i6 == 0) ? toRead : ((Tools.unsigned(header[i6 - 2]) << 24)
-              + (Tools.unsigned(header[i6 - 1]) << 16) + (Tools.unsigned(header[i6]) << 8) + (Tools
-              .unsigned(header[i6 + 1])));
-          break;
+      // stream can only go forward, read tiles in file order
+      final int[] order = new int[fileTiles.size()];
+      int count = 0;
+      for (int i = 0; i < fileTiles.size(); i++) {
+        final int index = ((Integer) fileTiles.elementAt(i)).intValue();
+        final int offset = header.getStart(dx[index], dy[index]);
+        if (offset < 0) {
+          continue;
+        }
+        int j = count++;
+        while (j > 0 && header.getStart(dx[order[j - 1]], dy[order[j - 1]]) > offset) {
+          order[j] = order[j - 1];
+          j--;
         }
+        order[j] = index;
       }
 
-      if (offset < 0) {
-        throw new IllegalArgumentException("Tile not found");
-      }
+      for (int i = 0; i < count; i++) {
+        final int index = order[i];
+        final int offset = header.getStart(dx[index], dy[index]);
 
-      // seek
-      IOUtils.skip(is, offset - toRead);
-
-      // read data
-      ch = 0;
-      rd = 0;
-      toRead = offset2 - offset;
-      final byte[] result = new byte[toRead];
-      while ((rd < toRead) && (ch >= 0)) {
-        ch = is.read(result, rd, (toRead - rd) > IOUtils.BUFSIZE ? IOUtils.BUFSIZE : (toRead - rd));
-        if (ch > 0) {
-          rd += ch;
-        }
-      }
+        // seek
+        position += IOUtils.skip(is, offset - position);
 
-      return result;
+        // read data
+        final byte[] result = new byte[header.getEnd(dx[index], dy[index]) - offset];
+        position += readFully(is, result);
+        data[index] = result;
+      }
     } finally {
-      fconn.close();
+      if (fconn != null) {
+        fconn.close();
+      }
+    }
+  }
+
+  private static int readFully(final InputStream is, final byte[] buffer) throws IOException {
+    long ch = 0;
+    int rd = 0;
+    final int toRead = buffer.length;
+    while ((rd < toRead) && (ch >= 0)) {
+      ch = is.read(buffer, rd, (toRead - rd) > IOUtils.BUFSIZE ? IOUtils.BUFSIZE : (toRead - rd));
+      if (ch > 0) {
+        rd += ch;
+      }
     }
+    return rd;
   }
 }
@@ -0,0 +1,185 @@
+package com.nutiteq.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.mgmaps.utils.Prioritized;
+import com.nutiteq.components.MapTile;
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.fs.FileSystemConnection;
+import com.nutiteq.fs.RandomAccessFileSystem;
+import com.nutiteq.log.Log;
+import com.nutiteq.maps.TilePackMap;
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * Reads tiles of {@link TilePackMap}. Tiles are looked up from file index,
+ * sorted by data offset and tiles with close data are read with one read.
+ * Tiles missing from pack are passed to next search strategy together, online
+ * fallback retrieves them one by one (see {@link
+ * com.nutiteq.io.UnstreamedTileRetriever}).
+ */
+public class ReadTilePackTask implements LocalTask, Prioritized {
+  // unused bytes allowed between tiles read together
+  private static final int MAX_GAP = 16 * 1024;
+  private static final int MAX_BATCH_LENGTH = 256 * 1024;
+
+  private static final Hashtable FILES = new Hashtable();
+
+  private final MapTileSearchTask mapTileSearchTask;
+  private final TilePackMap map;
+  private final FileSystem fs;
+  private final MapTile[] toRetrieve;
+
+  public ReadTilePackTask(final MapTileSearchTask mapTileSearchTask,
+      final MapTile[] toRetrieve, final TilePackMap map, final FileSystem fileSystem) {
+    this.mapTileSearchTask = mapTileSearchTask;
+    this.toRetrieve = toRetrieve;
+    this.map = map;
+    this.fs = fileSystem;
+  }
+
+  public void execute() {
+    final long start = System.currentTimeMillis();
+    final byte[][] data = new byte[toRetrieve.length][];
+    int batches = 0;
+    try {
+      batches = readTiles(data);
+    } catch (final Exception e) {
+      Log.error("Error reading tile pack: " + e.getMessage());
+      Log.printStackTrace(e);
+    }
+
+    final Vector failed = new Vector();
+    int read = 0;
+    for (int i = 0; i < toRetrieve.length; i++) {
+      if (data[i] != null) {
+        toRetrieve[i].setImagesData(new byte[][] { data[i] });
+        read++;
+      } else if (!toRetrieve[i].isCancelled()) {
+        failed.addElement(toRetrieve[i]);
+      }
+    }
+
+    Log.debug("ReadTilePackTask read " + read + " tiles in " + batches + " reads in "
+        + (System.currentTimeMillis() - start) + " ms");
+
+    if (failed.size() > 0) {
+      final MapTile[] failedTiles = new MapTile[failed.size()];
+      failed.copyInto(failedTiles);
+      mapTileSearchTask.retrieveErrorFor(failedTiles);
+    } else {
+      mapTileSearchTask.retrieveSuccess();
+    }
+  }
+
+  /**
+   * @return number of file reads
+   */
+  private int readTiles(final byte[][] data) throws IOException {
+    final TilePackFile file = getFile(fs, map.getPath());
+
+    // found tiles in data offset order
+    final int[] order = new int[toRetrieve.length];
+    final long[] offsets = new long[toRetrieve.length];
+    final int[] lengths = new int[toRetrieve.length];
+    final long[] location = new long[2];
+    int count = 0;
+    for (int i = 0; i < toRetrieve.length; i++) {
+      final MapTile tile = toRetrieve[i];
+      if (tile.isCancelled()
+          || !file.find(fs, tile.getZoom(), map.getTileColumn(tile.getX(), tile.getZoom()), map
+              .getTileRow(tile.getY(), tile.getZoom()), location)) {
+        continue;
+      }
+
+      offsets[i] = location[0];
+      lengths[i] = (int) location[1];
+      int j = count++;
+      while (j > 0 && offsets[order[j - 1]] > offsets[i]) {
+        order[j] = order[j - 1];
+        j--;
+      }
+      order[j] = i;
+    }
+
+    if (count == 0) {
+      return 0;
+    }
+
+    FileSystemConnection fconn = null;
+    InputStream is = null;
+    long position = 0;
+    int batches = 0;
+    try {
+      if (!(fs instanceof RandomAccessFileSystem)) {
+        fconn = fs.openConnectionToFile(map.getPath());
+        is = fconn.openInputStream();
+      }
+
+      int first = 0;
+      while (first < count) {
+        final long batchStart = offsets[order[first]];
+        long batchEnd = batchStart + lengths[order[first]];
+        int last = first + 1;
+        while (last < count && offsets[order[last]] - batchEnd <= MAX_GAP
+            && offsets[order[last]] + lengths[order[last]] - batchStart <= MAX_BATCH_LENGTH) {
+          batchEnd = Math.max(batchEnd, offsets[order[last]] + lengths[order[last]]);
+          last++;
+        }
+
+        final byte[] batch;
+        if (is == null) {
+          batch = ((RandomAccessFileSystem) fs).readFile(map.getPath(), batchStart,
+              (int) (batchEnd - batchStart));
+        } else {
+          position += IOUtils.skip(is, batchStart - position);
+          batch = TilePackFile.readFully(is, (int) (batchEnd - batchStart));
+          position += batch.length;
+        }
+        batches++;
+
+        for (int i = first; i < last; i++) {
+          final int index = order[i];
+          data[index] = new byte[lengths[index]];
+          System.arraycopy(batch, (int) (offsets[index] - batchStart), data[index], 0,
+              lengths[index]);
+        }
+        first = last;
+      }
+    } finally {
+      if (fconn != null) {
+        fconn.close();
+      }
+    }
+    return batches;
+  }
+
+  /**
+   * Parsed tile pack file. File replaced after parsing (different size or
+   * modification time) is parsed again.
+   */
+  private static TilePackFile getFile(final FileSystem fs, final String path)
+      throws IOException {
+    synchronized (FILES) {
+      TilePackFile result = (TilePackFile) FILES.get(path);
+      if (result == null || !result.isCurrent(fs)) {
+        result = TilePackFile.open(fs, path);
+        FILES.put(path, result);
+      }
+      return result;
+    }
+  }
+
+  public int getPriority() {
+    int result = DEFAULT_PRIORITY;
+    for (int i = 0; i < toRetrieve.length; i++) {
+      if (!toRetrieve[i].isCancelled()) {
+        result = Math.min(result, toRetrieve[i].getPriority());
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,311 @@
+package com.nutiteq.task;
+
+import java.util.Vector;
+
+import com.nutiteq.cache.Cache;
+import com.nutiteq.components.MapPos;
+import com.nutiteq.components.WgsBoundingBox;
+import com.nutiteq.components.WgsPoint;
+import com.nutiteq.components.ZoomRange;
+import com.nutiteq.log.Log;
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.UnstreamedMap;
+import com.nutiteq.net.AvoidedDownloadCounter;
+import com.nutiteq.net.DownloadCounter;
+
+/**
+ * <p>
+ * Downloads map tiles for an area and zoom range into network cache, so that
+ * the area can later be viewed without network connection.
+ * </p>
+ *
+ * <p>
+ * Tiles are downloaded through library tasks runner, so same download stream
+ * opener and network cache are used as for displayed tiles. Only given number
+ * of tiles are downloaded at once and seeding tiles have lowest priority, so
+ * displayed map is still updated during seeding. Tiles already in persistent
+ * cache are skipped.
+ * </p>
+ *
+ * <p>
+ * Tiles are numbered in fixed order (by zoom, row and column). Seeding can be
+ * resumed later by starting new seeder for same map, area and zoom range from
+ * {@link #getResumeIndex()}.
+ * </p>
+ */
+public class RegionSeeder {
+  /**
+   * Default number of tiles downloaded at once
+   */
+  public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+  private final GeoMap map;
+  private final ZoomRange zoomRange;
+
+  // tile range and first tile index for every zoom level
+  private final int[] minColumns;
+  private final int[] minRows;
+  private final int[] columns;
+  private final long[] firstIndexes;
+  private final long tileCount;
+
+  private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+  private long byteBudget = Long.MAX_VALUE;
+  private DownloadCounter downloadCounter;
+
+  private TasksRunner tasksRunner;
+  private Cache networkCache;
+  private long nextIndex;
+  private final Vector inFlight = new Vector();
+  private long processed;
+  private long downloadedBytes;
+  private boolean started;
+  private boolean cancelled;
+
+  /**
+   * Create seeder for map tiles covering given area.
+   *
+   * @param map
+   *          map to seed, must implement {@link UnstreamedMap}
+   * @param area
+   *          area to seed
+   * @param zoomRange
+   *          zoom levels to seed, limited to map zoom range
+   */
+  public RegionSeeder(final GeoMap map, final WgsBoundingBox area, final ZoomRange zoomRange) {
+    if (!(map instanceof UnstreamedMap)) {
+      throw new IllegalArgumentException("Only unstreamed maps can be seeded");
+    }
+
+    this.map = map;
+    final int minZoom = Math.max(zoomRange.getMinZoom(), map.getMinZoom());
+    final int maxZoom = Math.min(zoomRange.getMaxZoom(), map.getMaxZoom());
+    this.zoomRange = new ZoomRange(minZoom, Math.max(minZoom - 1, maxZoom));
+
+    final int levels = Math.max(0, maxZoom - minZoom + 1);
+    minColumns = new int[levels];
+    minRows = new int[levels];
+    columns = new int[levels];
+    firstIndexes = new long[levels + 1];
+
+    final int tileSize = map.getTileSize();
+    final WgsPoint topLeft = new WgsPoint(area.getWgsMin().getLon(), area.getWgsMax().getLat());
+    final WgsPoint bottomRight = new WgsPoint(area.getWgsMax().getLon(), area.getWgsMin()
+        .getLat());
+    for (int i = 0; i < levels; i++) {
+      final int zoom = minZoom + i;
+      final int mapColumns = map.getMapWidth(zoom) / tileSize;
+      final int mapRows = map.getMapHeight(zoom) / tileSize;
+      final MapPos min = map.wgsToMapPos(topLeft.toInternalWgs(), zoom);
+      final MapPos max = map.wgsToMapPos(bottomRight.toInternalWgs(), zoom);
+
+      minColumns[i] = Math.max(0, min.getX() / tileSize);
+      int maxColumn = Math.min(mapColumns - 1, max.getX() / tileSize);
+      // east edge at 180 degrees wraps to map start
+      if (maxColumn < minColumns[i] || area.getWgsMax().getLon() >= 180) {
+        maxColumn = mapColumns - 1;
+      }
+      minRows[i] = Math.max(0, min.getY() / tileSize);
+      final int maxRow = Math.min(mapRows - 1, max.getY() / tileSize);
+
+      columns[i] = maxColumn - minColumns[i] + 1;
+      final int rows = Math.max(0, maxRow - minRows[i] + 1);
+      firstIndexes[i + 1] = firstIndexes[i] + (long) columns[i] * rows;
+    }
+    tileCount = firstIndexes[levels];
+  }
+
+  /**
+   * Set number of tiles downloaded at once. Has to be set before
+   * {@link #start(TasksRunner)}.
+   */
+  public void setMaxConcurrent(final int maxConcurrent) {
+    this.maxConcurrent = Math.max(1, maxConcurrent);
+  }
+
+  /**
+   * Stop starting new downloads after given number of bytes has been
+   * downloaded. Downloads in progress are still completed.
+   */
+  public void setByteBudget(final long byteBudget) {
+    this.byteBudget = byteBudget;
+  }
+
+  /**
+   * Set counter notified about seeding progress. Every processed tile is
+   * reported either as downloaded (network request, downloaded bytes and
+   * completed download), as avoided download for tiles already in cache, or
+   * as completed download for failed tiles.
+   */
+  public void setDownloadCounter(final DownloadCounter downloadCounter) {
+    this.downloadCounter = downloadCounter;
+  }
+
+  /**
+   * Set index of first tile to seed, for resuming earlier seeding. Has to be
+   * set before {@link #start(TasksRunner)}.
+   */
+  public void setStartIndex(final long startIndex) {
+    nextIndex = Math.max(0, Math.min(tileCount, startIndex));
+    processed = nextIndex;
+  }
+
+  /**
+   * Start seeding. Usually started through
+   * {@link com.nutiteq.BasicMapComponent#startSeeding(RegionSeeder)}.
+   *
+   * @param runner
+   *          tasks runner used for downloads
+   */
+  public void start(final TasksRunner runner) {
+    synchronized (this) {
+      if (started) {
+        return;
+      }
+      started = true;
+      tasksRunner = runner;
+      networkCache = runner.getNetworkCache();
+      if (networkCache == null) {
+        Log.error("RegionSeeder: no network cache, nothing to seed into");
+        cancelled = true;
+        return;
+      }
+    }
+    enqueueNext();
+  }
+
+  /**
+   * Stop seeding. Tiles waiting in tasks queue are dropped.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+
+  private void enqueueNext() {
+    final Vector toEnqueue = new Vector();
+    synchronized (this) {
+      while (!cancelled && inFlight.size() + toEnqueue.size() < maxConcurrent
+          && nextIndex < tileCount && downloadedBytes < byteBudget) {
+        final long index = nextIndex++;
+        final String url = tileUrl(index);
+        if (networkCache.contains(url, Cache.CACHE_LEVEL_PERSISTENT)) {
+          processed++;
+          if (downloadCounter instanceof AvoidedDownloadCounter) {
+            ((AvoidedDownloadCounter) downloadCounter).downloadAvoided(url);
+          }
+          continue;
+        }
+        toEnqueue.addElement(new SeedTile(this, url, index));
+      }
+      for (int i = 0; i < toEnqueue.size(); i++) {
+        inFlight.addElement(toEnqueue.elementAt(i));
+      }
+    }
+
+    for (int i = 0; i < toEnqueue.size(); i++) {
+      tasksRunner.enqueueDownload((SeedTile) toEnqueue.elementAt(i),
+          Cache.CACHE_LEVEL_PERSISTENT);
+    }
+  }
+
+  private String tileUrl(final long index) {
+    int level = 0;
+    while (index >= firstIndexes[level + 1]) {
+      level++;
+    }
+    final long position = index - firstIndexes[level];
+    final int column = minColumns[level] + (int) (position % columns[level]);
+    final int row = minRows[level] + (int) (position / columns[level]);
+    final int tileSize = map.getTileSize();
+    final String path = ((UnstreamedMap) map).buildPath(column * tileSize, row * tileSize,
+        zoomRange.getMinZoom() + level);
+
+    final int areaParamIndex = path.indexOf("|a=");
+    return areaParamIndex > 0 ? path.substring(0, areaParamIndex) : path;
+  }
+
+  void tileDownloaded(final SeedTile tile, final int dataLength) {
+    if (downloadCounter != null) {
+      downloadCounter.networkRequest(tile.resourcePath());
+      downloadCounter.downloaded(dataLength);
+      downloadCounter.downloadCompleted();
+    }
+    synchronized (this) {
+      downloadedBytes += dataLength;
+    }
+    tileDone(tile);
+  }
+
+  void tileFailed(final SeedTile tile) {
+    Log.error("RegionSeeder: could not download " + tile.resourcePath());
+    if (downloadCounter != null) {
+      downloadCounter.downloadCompleted();
+    }
+    tileDone(tile);
+  }
+
+  void tileCancelled(final SeedTile tile) {
+    synchronized (this) {
+      inFlight.removeElement(tile);
+    }
+  }
+
+  private void tileDone(final SeedTile tile) {
+    synchronized (this) {
+      inFlight.removeElement(tile);
+      processed++;
+    }
+    enqueueNext();
+  }
+
+  /**
+   * Number of tiles in seeded area and zoom range
+   */
+  public long getTileCount() {
+    return tileCount;
+  }
+
+  /**
+   * Number of tiles downloaded, failed or skipped (already cached or before
+   * start index)
+   */
+  public synchronized long getProcessedCount() {
+    return processed;
+  }
+
+  public synchronized long getDownloadedBytes() {
+    return downloadedBytes;
+  }
+
+  /**
+   * Index to resume seeding from. All tiles before this index have been
+   * processed.
+   */
+  public synchronized long getResumeIndex() {
+    long result = nextIndex;
+    for (int i = 0; i < inFlight.size(); i++) {
+      result = Math.min(result, ((SeedTile) inFlight.elementAt(i)).getIndex());
+    }
+    return result;
+  }
+
+  /**
+   * Is byte budget used up
+   */
+  public synchronized boolean isBudgetExceeded() {
+    return downloadedBytes >= byteBudget;
+  }
+
+  /**
+   * Is seeding finished: all tiles processed, seeding cancelled or byte budget
+   * used up, and no downloads are in progress.
+   */
+  public synchronized boolean isFinished() {
+    return started && inFlight.isEmpty()
+        && (cancelled || nextIndex == tileCount || downloadedBytes >= byteBudget);
+  }
+
+  synchronized boolean isCancelled() {
+    return cancelled;
+  }
+}
@@ -0,0 +1,13 @@
+package com.nutiteq.task;
+
+/**
+ * Tasks runner that can reorder queued tasks after their priorities have
+ * changed.
+ */
+public interface ReprioritizingTasksRunner extends TasksRunner {
+  /**
+   * Read priorities of queued tasks again. Called after view change, when tile
+   * priorities have been updated.
+   */
+  void reprioritize();
+}
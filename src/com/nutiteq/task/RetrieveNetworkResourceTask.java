@@ -2,26 +2,56 @@ package com.nutiteq.task;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Vector;
 
+import com.mgmaps.utils.Prioritized;
 import com.nutiteq.cache.Cache;
+import com.nutiteq.cache.CacheMetadata;
+import com.nutiteq.cache.ValidatingCache;
 import com.nutiteq.components.MapTile;
 import com.nutiteq.io.ResourceDataWaiter;
 import com.nutiteq.io.ResourceRequestor;
 import com.nutiteq.io.ResourceStreamWaiter;
 import com.nutiteq.listeners.ErrorListener;
 import com.nutiteq.log.Log;
+import com.nutiteq.net.AvoidedDownloadCounter;
+import com.nutiteq.net.ConditionalStreamOpener;
+import com.nutiteq.net.ConditionalStreamWaiter;
 import com.nutiteq.net.DataPostingDownloadable;
 import com.nutiteq.net.DownloadCounter;
 import com.nutiteq.net.DownloadStreamOpener;
 import com.nutiteq.net.DownloadStreamWaiter;
+import com.nutiteq.net.MergedRequestCounter;
+import com.nutiteq.net.RevalidationCounter;
 import com.nutiteq.net.StreamedTilesDownloadable;
 import com.nutiteq.utils.IOUtils;
 
-public class RetrieveNetworkResourceTask extends NetworkTask implements DownloadStreamWaiter {
+/**
+ * Retrieves network resource from network cache or network. With
+ * {@link ValidatingCache} and {@link ConditionalStreamOpener} stale cached
+ * resources are revalidated with conditional requests and not modified
+ * resources are served from cache. If stale resource can not be downloaded
+ * (network error or response not OK), cached data is used anyway.
+ *
+ * Concurrent downloads of same resource path are merged: only first one is
+ * sent and its data is given to all {@link ResourceDataWaiter}s.
+ */
+public class RetrieveNetworkResourceTask extends NetworkTask implements
+    ConditionalStreamWaiter, Prioritized {
+  private static final InFlightRequests IN_FLIGHT = new InFlightRequests();
+
   private final ResourceRequestor downloadable;
   private final ErrorListener errorListener;
   private Cache networkCache;
   private String downloadableUrl;
+  // stale cached data, used if download fails
+  private byte[] stale;
+  // stale cached data being revalidated
+  private byte[] revalidated;
+  private CacheMetadata cachedMetadata;
+  private CacheMetadata responseMetadata;
+  // other requests are waiting for result of this one
+  private boolean leader;
 
   public RetrieveNetworkResourceTask(final ResourceRequestor downloadable,
       final ErrorListener errorListener, final int cacheLevel) {
@@ -37,25 +67,94 @@ public class RetrieveNetworkResourceTask extends NetworkTask implements Download
       final DownloadCounter downloadCounter) {
     this.networkCache = networkCache;
     downloadableUrl = downloadable.resourcePath();
+    if (downloadable instanceof Cancellable && ((Cancellable) downloadable).isCancelled()) {
+      if (downloadCounter instanceof AvoidedDownloadCounter) {
+        ((AvoidedDownloadCounter) downloadCounter).downloadAvoided(downloadableUrl);
+      }
+      ((Cancellable) downloadable).notifyCancelled();
+      return;
+    }
+
     if (downloadableUrl == null || "".equals(downloadableUrl)) {
       Log.error("Null or empty url from downloadable!");
       downloadable.notifyError();
       return;
     }
 
-    //TODO jaanus : check also if resource has caching value
     final byte[] cacheData = networkCache == null ? null : networkCache.get(downloadableUrl);
+    final CacheMetadata metadata = cacheData != null && networkCache instanceof ValidatingCache
+        ? ((ValidatingCache) networkCache).getMetadata(downloadableUrl) : null;
+    final boolean conditional = opener instanceof ConditionalStreamOpener
+        && networkCache instanceof ValidatingCache;
 
-    if (cacheData != null && downloadable instanceof ResourceDataWaiter) {
+    if (cacheData != null && downloadable instanceof ResourceDataWaiter
+        && (metadata == null || metadata.isFresh(System.currentTimeMillis()) || !conditional)) {
       if (downloadCounter != null) {
         downloadCounter.cacheHit(downloadableUrl, cacheData.length);
       }
       ((ResourceDataWaiter) downloadable).dataRetrieved(cacheData);
-    } else if (downloadable instanceof DataPostingDownloadable) {
-      opener.openInputStream(this, (DataPostingDownloadable) downloadable);
-    } else {
-      // TODO jaanus : handle download separator
-      opener.openInputStream(this, downloadableUrl);
+      return;
+    }
+
+    final boolean mergeable = downloadable instanceof ResourceDataWaiter
+        && !(downloadable instanceof DataPostingDownloadable);
+    if (mergeable && !IN_FLIGHT.start(downloadableUrl, (ResourceDataWaiter) downloadable)) {
+      if (downloadCounter instanceof MergedRequestCounter) {
+        ((MergedRequestCounter) downloadCounter).requestMerged(downloadableUrl);
+      }
+      return;
+    }
+
+    leader = mergeable;
+    if (cacheData != null && downloadable instanceof ResourceDataWaiter) {
+      stale = cacheData;
+    }
+    try {
+      if (downloadable instanceof DataPostingDownloadable) {
+        opener.openInputStream(this, (DataPostingDownloadable) downloadable);
+      } else if (conditional) {
+        if (stale != null && metadata.hasValidators()) {
+          revalidated = cacheData;
+          cachedMetadata = metadata;
+        }
+        ((ConditionalStreamOpener) opener).openInputStream(this, downloadableUrl,
+            cachedMetadata);
+      } else {
+        // TODO jaanus : handle download separator
+        opener.openInputStream(this, downloadableUrl);
+      }
+    } finally {
+      // opener returned without result, do not leave merged requests waiting
+      finishFlight(null);
+    }
+  }
+
+  public void responseMetadata(final CacheMetadata metadata) {
+    responseMetadata = metadata;
+  }
+
+  public void notModified(final CacheMetadata metadata) {
+    final DownloadCounter downloadCounter = getDownloadCounter();
+    final CacheMetadata updated = cachedMetadata.revalidated(metadata);
+    ((ValidatingCache) networkCache).updateMetadata(downloadableUrl, updated);
+    if (downloadCounter != null) {
+      downloadCounter.networkRequest(downloadableUrl);
+      if (downloadCounter instanceof RevalidationCounter) {
+        ((RevalidationCounter) downloadCounter).notModified(downloadableUrl, revalidated.length);
+      } else {
+        downloadCounter.cacheHit(downloadableUrl, revalidated.length);
+      }
+    }
+
+    stale = null;
+    try {
+      ((ResourceDataWaiter) downloadable).dataRetrieved(revalidated);
+    } finally {
+      finishFlight(revalidated);
+    }
+
+    if (downloadCounter != null) {
+      downloadCounter.downloadCompleted();
     }
   }
 
@@ -69,7 +168,10 @@ public class RetrieveNetworkResourceTask extends NetworkTask implements Download
       ((ResourceStreamWaiter) downloadable).streamOpened(stream, downloadCounter, networkCache);
     } else {
       final byte[] downloadedData = IOUtils.readFully(stream);
-      if (networkCache != null) {
+      if (networkCache instanceof ValidatingCache) {
+        ((ValidatingCache) networkCache).cache(downloadableUrl, downloadedData,
+            responseMetadata, downloadable.getCachingLevel());
+      } else if (networkCache != null) {
         networkCache.cache(downloadableUrl, downloadedData, downloadable.getCachingLevel());
       }
 
@@ -77,7 +179,12 @@ public class RetrieveNetworkResourceTask extends NetworkTask implements Download
         downloadCounter.downloaded(downloadedData.length);
       }
 
-      ((ResourceDataWaiter) downloadable).dataRetrieved(downloadedData);
+      stale = null;
+      try {
+        ((ResourceDataWaiter) downloadable).dataRetrieved(downloadedData);
+      } finally {
+        finishFlight(downloadedData);
+      }
     }
 
     if (downloadCounter != null) {
@@ -85,8 +192,36 @@ public class RetrieveNetworkResourceTask extends NetworkTask implements Download
     }
   }
 
+  /**
+   * Give result to requests merged into this one.
+   * 
+   * @param data
+   *          downloaded data, null on error
+   */
+  private void finishFlight(final byte[] data) {
+    if (!leader) {
+      return;
+    }
+    leader = false;
+
+    final Vector waiting = IN_FLIGHT.finish(downloadableUrl);
+    for (int i = 0; i < waiting.size(); i++) {
+      final ResourceDataWaiter waiter = (ResourceDataWaiter) waiting.elementAt(i);
+      if (data != null) {
+        waiter.dataRetrieved(data);
+      } else {
+        ((ResourceRequestor) waiter).notifyError();
+      }
+    }
+  }
+
   public void error(final int errorCode, final String message) {
     Log.error("Network error "+errorCode+ " : "+message);
+    if (stale != null) {
+      serveStale();
+      return;
+    }
+    finishFlight(null);
       if (getDownloadCounter() != null) {
       getDownloadCounter().downloadCompleted();
     }
@@ -116,6 +251,33 @@ public class RetrieveNetworkResourceTask extends NetworkTask implements Download
     }
   }
 
+  /**
+   * Download of stale resource failed, use cached data instead.
+   */
+  private void serveStale() {
+    final byte[] data = stale;
+    stale = null;
+    final DownloadCounter downloadCounter = getDownloadCounter();
+    if (downloadCounter != null) {
+      downloadCounter.cacheHit(downloadableUrl, data.length);
+    }
+
+    try {
+      ((ResourceDataWaiter) downloadable).dataRetrieved(data);
+    } finally {
+      finishFlight(data);
+    }
+
+    if (downloadCounter != null) {
+      downloadCounter.downloadCompleted();
+    }
+  }
+
+  public int getPriority() {
+    return (downloadable instanceof Prioritized) ? ((Prioritized) downloadable).getPriority()
+        : DEFAULT_PRIORITY;
+  }
+
   public ResourceRequestor getDownloadable() {
     return downloadable;
   }
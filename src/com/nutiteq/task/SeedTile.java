@@ -0,0 +1,57 @@
+package com.nutiteq.task;
+
+import com.mgmaps.utils.Prioritized;
+import com.nutiteq.cache.Cache;
+import com.nutiteq.io.ResourceDataWaiter;
+import com.nutiteq.io.ResourceRequestor;
+
+/**
+ * Tile download requested by {@link RegionSeeder}. Downloaded data is only
+ * cached, so it is cached to persistent level and not kept in memory cache.
+ */
+class SeedTile implements ResourceRequestor, ResourceDataWaiter, Prioritized, Cancellable {
+  private final RegionSeeder seeder;
+  private final String url;
+  private final long index;
+
+  public SeedTile(final RegionSeeder seeder, final String url, final long index) {
+    this.seeder = seeder;
+    this.url = url;
+    this.index = index;
+  }
+
+  public long getIndex() {
+    return index;
+  }
+
+  public String resourcePath() {
+    return url;
+  }
+
+  public int getCachingLevel() {
+    return Cache.CACHE_LEVEL_PERSISTENT;
+  }
+
+  /**
+   * Seeding is done after all displayed tiles
+   */
+  public int getPriority() {
+    return isCancelled() ? CANCELLED_PRIORITY : Integer.MAX_VALUE;
+  }
+
+  public boolean isCancelled() {
+    return seeder.isCancelled();
+  }
+
+  public void notifyCancelled() {
+    seeder.tileCancelled(this);
+  }
+
+  public void notifyError() {
+    seeder.tileFailed(this);
+  }
+
+  public void dataRetrieved(final byte[] data) {
+    seeder.tileDownloaded(this, data.length);
+  }
+}
@@ -0,0 +1,34 @@
+package com.nutiteq.task;
+
+import com.mgmaps.utils.Prioritized;
+import com.nutiteq.cache.Cache;
+import com.nutiteq.components.MapTile;
+
+/**
+ * Hands tile read from multi-tile stream over to map tile (tile image is
+ * created by tile requestor) and writes it to network cache. Runs as local
+ * task, so network worker can read next tile meanwhile.
+ */
+public class StoreStreamedTileTask implements LocalTask, Prioritized {
+  private final MapTile tile;
+  private final byte[] data;
+  private final Cache networkCache;
+
+  public StoreStreamedTileTask(final MapTile tile, final byte[] data, final Cache networkCache) {
+    this.tile = tile;
+    this.data = data;
+    this.networkCache = networkCache;
+  }
+
+  public void execute() {
+    tile.setImagesData(new byte[][] { data });
+    if (networkCache != null) {
+      networkCache.cache(tile.getIDString(), data, Cache.CACHE_LEVEL_MEMORY
+          | Cache.CACHE_LEVEL_PERSISTENT);
+    }
+  }
+
+  public int getPriority() {
+    return tile.getPriority();
+  }
+}
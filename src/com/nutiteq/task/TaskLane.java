@@ -0,0 +1,199 @@
+package com.nutiteq.task;
+
+import com.mgmaps.utils.IndexedPriorityQueue;
+import com.mgmaps.utils.Queue;
+import com.nutiteq.cache.Cache;
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.license.LicenseKeyCheck;
+import com.nutiteq.net.DownloadCounter;
+import com.nutiteq.net.DownloadStreamOpener;
+
+/**
+ * Execution lane used by {@link PooledTasksRunner}. Lane has its own queue and
+ * a fixed number of workers, that defines how many tasks from this lane can be
+ * executed at the same time.
+ */
+class TaskLane implements TaskSource {
+  private final String name;
+  private final Queue executionQueue;
+  private final TaskWorker[] workers;
+  // task taken by worker with same index, until it is completed
+  private final Object[] executing;
+  private boolean started;
+  private boolean stopping;
+
+  TaskLane(final String name, final Queue executionQueue, final TasksRunner tasksRunner,
+      final int numberOfWorkers, final int workerPriority) {
+    this.name = name;
+    this.executionQueue = executionQueue;
+    workers = new TaskWorker[Math.max(1, numberOfWorkers)];
+    executing = new Object[workers.length];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new TaskWorker(this, tasksRunner, workerPriority, null, null, null, null, null);
+    }
+  }
+
+  public boolean hasMoreTasks() {
+    return !executionQueue.isEmpty();
+  }
+
+  /**
+   * Take next task from queue. Task is marked as executed by calling worker
+   * under same lock as {@link #enqueue(Task)} checks for duplicates.
+   */
+  public synchronized Object getNextTask() {
+    final Object task = executionQueue.pop();
+    final int worker = currentWorker();
+    if (worker >= 0) {
+      executing[worker] = task;
+    }
+    return task;
+  }
+
+  public synchronized void taskCompleted() {
+    final int worker = currentWorker();
+    if (worker >= 0) {
+      executing[worker] = null;
+    }
+  }
+
+  public synchronized void setWorker(final TaskWorker next) {
+    final int worker = currentWorker();
+    if (worker >= 0) {
+      workers[worker] = next;
+      executing[worker] = null;
+      return;
+    }
+
+    //replaced from outside of worker thread. replace first dead worker
+    for (int i = 0; i < workers.length; i++) {
+      if (!workers[i].isAlive()) {
+        workers[i] = next;
+        executing[i] = null;
+        return;
+      }
+    }
+  }
+
+  public void enqueue(final Task task) {
+    synchronized (this) {
+      if (stopping || isExecuting(task) || executionQueue.find(task) != null) {
+        return;
+      }
+
+      executionQueue.push(task);
+      if (!started) {
+        return;
+      }
+    }
+
+    // workers take lane lock while holding their own, so notify outside of it
+    notifyWorkers();
+  }
+
+  public void reprioritize() {
+    if (executionQueue instanceof IndexedPriorityQueue) {
+      ((IndexedPriorityQueue) executionQueue).reprioritize();
+    }
+  }
+
+  private boolean isExecuting(final Task task) {
+    for (int i = 0; i < executing.length; i++) {
+      if (executing[i] != null && executing[i].equals(task)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private synchronized TaskWorker[] copyWorkers() {
+    final TaskWorker[] result = new TaskWorker[workers.length];
+    System.arraycopy(workers, 0, result, 0, workers.length);
+    return result;
+  }
+
+  private int currentWorker() {
+    final Thread current = Thread.currentThread();
+    for (int i = 0; i < workers.length; i++) {
+      if (workers[i] == current) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void notifyWorkers() {
+    final TaskWorker[] notified = copyWorkers();
+    for (int i = 0; i < notified.length; i++) {
+      final TaskWorker worker = notified[i];
+      synchronized (worker) {
+        worker.notify();
+      }
+    }
+  }
+
+  public synchronized void start() {
+    started = true;
+    for (int i = 0; i < workers.length; i++) {
+      if (!workers[i].isAlive()) {
+        workers[i].start();
+      }
+    }
+  }
+
+  public void quit() {
+    synchronized (this) {
+      stopping = true;
+      executionQueue.clear();
+    }
+    final TaskWorker[] stopped = copyWorkers();
+    for (int i = 0; i < stopped.length; i++) {
+      stopped[i].quit();
+    }
+  }
+
+  public synchronized void setDownloadStreamOpener(final DownloadStreamOpener opener) {
+    for (int i = 0; i < workers.length; i++) {
+      workers[i].setDownloadStreamOpener(opener);
+    }
+  }
+
+  public synchronized void setNetworkCache(final Cache networkCache) {
+    for (int i = 0; i < workers.length; i++) {
+      workers[i].setNetworkCache(networkCache);
+    }
+  }
+
+  public synchronized void setDownloadCounter(final DownloadCounter downloadCounter) {
+    for (int i = 0; i < workers.length; i++) {
+      workers[i].setDownloadCounter(downloadCounter);
+    }
+  }
+
+  public synchronized void setFileSystem(final FileSystem fs) {
+    for (int i = 0; i < workers.length; i++) {
+      workers[i].setFileSystem(fs);
+    }
+  }
+
+  /**
+   * License check is done only once, so it is given only to first worker.
+   */
+  public synchronized void setLicenceKeyCheck(final LicenseKeyCheck licenseKeyCheck) {
+    workers[0].setLicenceKeyCheck(licenseKeyCheck);
+  }
+
+  public Queue getQueue() {
+    return executionQueue;
+  }
+
+  public int getNumberOfWorkers() {
+    return workers.length;
+  }
+
+  public String toString() {
+    return "TaskLane " + name + ": workers=" + workers.length + " queued="
+        + executionQueue.getCount();
+  }
+}
@@ -0,0 +1,21 @@
+package com.nutiteq.task;
+
+/**
+ * Source of tasks polled by {@link TaskWorker} threads.
+ */
+public interface TaskSource {
+  boolean hasMoreTasks();
+
+  Object getNextTask();
+
+  void taskCompleted();
+
+  /**
+   * Replace the calling worker with a new one. Called by worker, that failed
+   * on task execution.
+   * 
+   * @param next
+   *          worker replacing current thread
+   */
+  void setWorker(TaskWorker next);
+}
@@ -13,6 +13,7 @@ import com.nutiteq.net.DownloadStreamOpener;
 
 public class TaskWorker extends Thread {
   private boolean stopping;
+  private TaskSource taskSource;
   private TasksRunner tasksRunner;
   private DownloadStreamOpener downloadStreamOpener;
   private Cache networkCache;
@@ -20,12 +21,34 @@ public class TaskWorker extends Thread {
   private DownloadCounter downloadCounter;
   private FileSystem fileSystem;
   private LicenseKeyCheck licenseKeyCheck;
+  private final int workerPriority;
   private final Timer timeoutTimer = new Timer();
 
   public TaskWorker(final TasksRunner tasksRunner, final DownloadStreamOpener downloadStreamOpener,
       final Cache networkCache, final DownloadCounter downloadCounter, final FileSystem fileSystem,
       final LicenseKeyCheck licenseKeyCheck) {
+    this(tasksRunner, tasksRunner, MIN_PRIORITY, downloadStreamOpener, networkCache,
+        downloadCounter, fileSystem, licenseKeyCheck);
+  }
+
+  /**
+   * Worker polling tasks from given source. Tasks created during execution are
+   * enqueued to tasks runner.
+   * 
+   * @param taskSource
+   *          where tasks are polled from
+   * @param tasksRunner
+   *          runner owning the worker
+   * @param workerPriority
+   *          thread priority used by worker
+   */
+  public TaskWorker(final TaskSource taskSource, final TasksRunner tasksRunner,
+      final int workerPriority, final DownloadStreamOpener downloadStreamOpener,
+      final Cache networkCache, final DownloadCounter downloadCounter, final FileSystem fileSystem,
+      final LicenseKeyCheck licenseKeyCheck) {
+    this.taskSource = taskSource;
     this.tasksRunner = tasksRunner;
+    this.workerPriority = workerPriority;
     this.downloadStreamOpener = downloadStreamOpener;
     this.networkCache = networkCache;
     this.downloadCounter = downloadCounter;
@@ -34,18 +57,18 @@ public class TaskWorker extends Thread {
   }
 
   public void run() {
-    setPriority(MIN_PRIORITY);
+    setPriority(workerPriority);
     while (!stopping) {
       synchronized (this) {
         // is queue empty?
-        if (!tasksRunner.hasMoreTasks()) {
+        if (!taskSource.hasMoreTasks()) {
           try {
             wait();
           } catch (final InterruptedException ignore) {
           }
         }
 
-        currentObject = tasksRunner.getNextTask();
+        currentObject = taskSource.getNextTask();
       }
 
       if (stopping) {
@@ -60,6 +83,8 @@ public class TaskWorker extends Thread {
       currentObject = null;
     }
 
+    timeoutTimer.cancel();
+    taskSource = null;
     tasksRunner = null;
     downloadStreamOpener = null;
     networkCache = null;
@@ -103,13 +128,13 @@ public class TaskWorker extends Thread {
       notifyError(currentObject);
     } finally {
       if (done) {
-        tasksRunner.taskCompleted();
+        taskSource.taskCompleted();
       } else if (onErrorInitializeNewWorker && !stopping) {
         Log.debug("TW: create new worker");
         stopping = true;
-        final TaskWorker next = new TaskWorker(tasksRunner, downloadStreamOpener, networkCache,
-            downloadCounter, fileSystem, licenseKeyCheck);
-        tasksRunner.setWorker(next);
+        final TaskWorker next = new TaskWorker(taskSource, tasksRunner, workerPriority,
+            downloadStreamOpener, networkCache, downloadCounter, fileSystem, licenseKeyCheck);
+        taskSource.setWorker(next);
         next.start();
       }
     }
@@ -129,6 +154,15 @@ public class TaskWorker extends Thread {
     this.networkCache = networkCache;
   }
 
+  /**
+   * Task currently executed by this worker.
+   * 
+   * @return executed task or null, if worker is idle
+   */
+  public Object getCurrentTask() {
+    return currentObject;
+  }
+
   public synchronized void quit() {
     stopping = true;
     notify();
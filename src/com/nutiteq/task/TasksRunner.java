@@ -10,15 +10,7 @@ import com.nutiteq.net.DownloadHandler;
 import com.nutiteq.net.DownloadRequestor;
 import com.nutiteq.net.DownloadStreamOpener;
 
-public interface TasksRunner extends DownloadHandler {
-  boolean hasMoreTasks();
-
-  Object getNextTask();
-
-  void taskCompleted();
-
-  void setWorker(TaskWorker next);
-
+public interface TasksRunner extends DownloadHandler, TaskSource {
   void quit();
 
   void enqueue(Task task);
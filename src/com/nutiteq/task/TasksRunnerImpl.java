@@ -1,5 +1,6 @@
 package com.nutiteq.task;
 
+import com.mgmaps.utils.IndexedPriorityQueue;
 import com.mgmaps.utils.Queue;
 import com.nutiteq.cache.Cache;
 import com.nutiteq.fs.FileSystem;
@@ -13,7 +14,7 @@ import com.nutiteq.net.DownloadHandler;
 import com.nutiteq.net.DownloadRequestor;
 import com.nutiteq.net.DownloadStreamOpener;
 
-public class TasksRunnerImpl implements DownloadHandler, TasksRunner {
+public class TasksRunnerImpl implements DownloadHandler, ReprioritizingTasksRunner {
   private final Queue executionQueue;
 
   private Object currentObject;
@@ -72,6 +73,12 @@ public class TasksRunnerImpl implements DownloadHandler, TasksRunner {
     }
   }
 
+  public void reprioritize() {
+    if (executionQueue instanceof IndexedPriorityQueue) {
+      ((IndexedPriorityQueue) executionQueue).reprioritize();
+    }
+  }
+
   public void quit() {
     stopping = true;
     synchronized (worker) {
@@ -0,0 +1,285 @@
+package com.nutiteq.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.fs.FileSystemConnection;
+import com.nutiteq.fs.RandomAccessFileSystem;
+import com.nutiteq.utils.IOUtils;
+
+/**
+ * Parsed header and zoom level block indexes of tile pack file (see
+ * {@link com.nutiteq.maps.TilePackMap} for file layout). Block index of zoom
+ * level is loaded on first use and at most {@link #MAX_LOADED_ZOOMS} are kept
+ * in memory. Tile entries are read one block at a time, at most
+ * {@link #MAX_LOADED_BLOCKS} recently used blocks are kept.
+ */
+class TilePackFile {
+  private static final int MAGIC = ('N' << 24) | ('T' << 16) | ('P' << 8) | 'K';
+  private static final int VERSION = 2;
+  private static final int HEADER_LENGTH = 16;
+  private static final int ZOOM_ENTRY_LENGTH = 16;
+  private static final int BLOCK_KEY_LENGTH = 8;
+  private static final int TILE_ENTRY_LENGTH = 20;
+  private static final int MAX_LOADED_ZOOMS = 3;
+  private static final int MAX_LOADED_BLOCKS = 16;
+
+  private final String filename;
+  private final long fileSize;
+  private final long lastModified;
+  private final int blockSize;
+  private final int[] zooms;
+  private final int[] tileCounts;
+  private final long[] indexOffsets;
+
+  // first column and row of every block
+  private final int[][] blockKeys;
+  // loaded zoom positions, least recently used first
+  private final int[] loaded = new int[MAX_LOADED_ZOOMS];
+  private int loadedCount;
+
+  // loaded blocks (zoom position and block number), least recently used first
+  private final int[] blockZooms = new int[MAX_LOADED_BLOCKS];
+  private final int[] blockNumbers = new int[MAX_LOADED_BLOCKS];
+  private final byte[][] blocks = new byte[MAX_LOADED_BLOCKS][];
+  private int blockCount;
+
+  private TilePackFile(final String filename, final long fileSize, final long lastModified,
+      final int blockSize, final int zoomCount) {
+    this.filename = filename;
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    this.blockSize = blockSize;
+    zooms = new int[zoomCount];
+    tileCounts = new int[zoomCount];
+    indexOffsets = new long[zoomCount];
+    blockKeys = new int[zoomCount][];
+  }
+
+  /**
+   * Read and parse file header.
+   *
+   * @throws IOException
+   *           if file can not be read or is not a tile pack
+   */
+  public static TilePackFile open(final FileSystem fs, final String filename) throws IOException {
+    long fileSize = -1;
+    long lastModified = -1;
+    if (fs instanceof RandomAccessFileSystem) {
+      fileSize = ((RandomAccessFileSystem) fs).fileSize(filename);
+      lastModified = ((RandomAccessFileSystem) fs).lastModified(filename);
+    }
+
+    final byte[] start = read(fs, filename, 0, HEADER_LENGTH);
+    if (readInt(start, 0) != MAGIC) {
+      throw new IOException("Not a tile pack: " + filename);
+    }
+    if (readInt(start, 4) != VERSION) {
+      throw new IOException("Unsupported tile pack version " + readInt(start, 4));
+    }
+
+    final int zoomCount = readInt(start, 8);
+    final int blockSize = readInt(start, 12);
+    if (zoomCount < 0 || zoomCount > 32 || blockSize <= 0) {
+      throw new IOException("Invalid tile pack header");
+    }
+
+    final TilePackFile result = new TilePackFile(filename, fileSize, lastModified, blockSize,
+        zoomCount);
+    final byte[] zoomEntries = read(fs, filename, HEADER_LENGTH, zoomCount * ZOOM_ENTRY_LENGTH);
+    for (int i = 0; i < zoomCount; i++) {
+      result.zooms[i] = readInt(zoomEntries, i * ZOOM_ENTRY_LENGTH);
+      result.tileCounts[i] = readInt(zoomEntries, i * ZOOM_ENTRY_LENGTH + 4);
+      result.indexOffsets[i] = readLong(zoomEntries, i * ZOOM_ENTRY_LENGTH + 8);
+    }
+    return result;
+  }
+
+  /**
+   * Is parsed file still same as file in file system. File systems without
+   * random access can not tell, their files are treated as unchanged.
+   */
+  public boolean isCurrent(final FileSystem fs) throws IOException {
+    if (!(fs instanceof RandomAccessFileSystem)) {
+      return true;
+    }
+    final RandomAccessFileSystem rafs = (RandomAccessFileSystem) fs;
+    return rafs.fileSize(filename) == fileSize && rafs.lastModified(filename) == lastModified;
+  }
+
+  /**
+   * Find tile data location.
+   *
+   * @param location
+   *          tile data offset and length are stored here
+   * @return false if tile is not stored in file
+   */
+  public synchronized boolean find(final FileSystem fs, final int zoom, final int column,
+      final int row, final long[] location) throws IOException {
+    int pos = -1;
+    for (int i = 0; i < zooms.length; i++) {
+      if (zooms[i] == zoom) {
+        pos = i;
+        break;
+      }
+    }
+    if (pos < 0) {
+      return false;
+    }
+
+    // last block starting with smaller or same tile
+    final int[] keys = getBlockKeys(fs, pos);
+    int low = 0;
+    int high = keys.length / 2 - 1;
+    int block = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (compare(keys[mid * 2], keys[mid * 2 + 1], column, row) <= 0) {
+        block = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (block < 0) {
+      return false;
+    }
+
+    final byte[] entries = getBlock(fs, pos, block);
+    low = 0;
+    high = entries.length / TILE_ENTRY_LENGTH - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int offset = mid * TILE_ENTRY_LENGTH;
+      final int result = compare(readInt(entries, offset), readInt(entries, offset + 4), column,
+          row);
+      if (result < 0) {
+        low = mid + 1;
+      } else if (result > 0) {
+        high = mid - 1;
+      } else {
+        location[0] = readLong(entries, offset + 8);
+        location[1] = readInt(entries, offset + 16);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int[] getBlockKeys(final FileSystem fs, final int pos) throws IOException {
+    if (blockKeys[pos] == null) {
+      if (loadedCount == MAX_LOADED_ZOOMS) {
+        blockKeys[loaded[0]] = null;
+        System.arraycopy(loaded, 1, loaded, 0, --loadedCount);
+      }
+      final int count = (tileCounts[pos] + blockSize - 1) / blockSize;
+      final byte[] data = read(fs, filename, indexOffsets[pos], count * BLOCK_KEY_LENGTH);
+      final int[] keys = new int[count * 2];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = readInt(data, i * 4);
+      }
+      blockKeys[pos] = keys;
+      loaded[loadedCount++] = pos;
+    } else if (loaded[loadedCount - 1] != pos) {
+      int i = 0;
+      while (loaded[i] != pos) {
+        i++;
+      }
+      System.arraycopy(loaded, i + 1, loaded, i, loadedCount - i - 1);
+      loaded[loadedCount - 1] = pos;
+    }
+    return blockKeys[pos];
+  }
+
+  /**
+   * Tile entries of given block, read from file if not loaded
+   */
+  private byte[] getBlock(final FileSystem fs, final int pos, final int block)
+      throws IOException {
+    for (int i = blockCount - 1; i >= 0; i--) {
+      if (blockZooms[i] == pos && blockNumbers[i] == block) {
+        final byte[] result = blocks[i];
+        System.arraycopy(blockZooms, i + 1, blockZooms, i, blockCount - i - 1);
+        System.arraycopy(blockNumbers, i + 1, blockNumbers, i, blockCount - i - 1);
+        System.arraycopy(blocks, i + 1, blocks, i, blockCount - i - 1);
+        blockZooms[blockCount - 1] = pos;
+        blockNumbers[blockCount - 1] = block;
+        blocks[blockCount - 1] = result;
+        return result;
+      }
+    }
+
+    final int blocksInZoom = (tileCounts[pos] + blockSize - 1) / blockSize;
+    final int first = block * blockSize;
+    final int count = Math.min(blockSize, tileCounts[pos] - first);
+    final byte[] result = read(fs, filename, indexOffsets[pos] + blocksInZoom
+        * BLOCK_KEY_LENGTH + (long) first * TILE_ENTRY_LENGTH, count * TILE_ENTRY_LENGTH);
+
+    if (blockCount == MAX_LOADED_BLOCKS) {
+      blockCount--;
+      System.arraycopy(blockZooms, 1, blockZooms, 0, blockCount);
+      System.arraycopy(blockNumbers, 1, blockNumbers, 0, blockCount);
+      System.arraycopy(blocks, 1, blocks, 0, blockCount);
+    }
+    blockZooms[blockCount] = pos;
+    blockNumbers[blockCount] = block;
+    blocks[blockCount] = result;
+    blockCount++;
+    return result;
+  }
+
+  private static int compare(final int column1, final int row1, final int column2,
+      final int row2) {
+    if (column1 != column2) {
+      return column1 < column2 ? -1 : 1;
+    }
+    return row1 < row2 ? -1 : (row1 == row2 ? 0 : 1);
+  }
+
+  /**
+   * Read part of a file, with random access if file system supports it.
+   */
+  static byte[] read(final FileSystem fs, final String filename, final long offset,
+      final int length) throws IOException {
+    if (fs instanceof RandomAccessFileSystem) {
+      return ((RandomAccessFileSystem) fs).readFile(filename, offset, length);
+    }
+
+    FileSystemConnection fconn = null;
+    try {
+      fconn = fs.openConnectionToFile(filename);
+      final InputStream is = fconn.openInputStream();
+      if (IOUtils.skip(is, offset) < offset) {
+        throw new IOException("Unexpected end of " + filename);
+      }
+      return readFully(is, length);
+    } finally {
+      if (fconn != null) {
+        fconn.close();
+      }
+    }
+  }
+
+  static byte[] readFully(final InputStream is, final int length) throws IOException {
+    final byte[] result = new byte[length];
+    int rd = 0;
+    while (rd < length) {
+      final int ch = is.read(result, rd, Math.min(length - rd, IOUtils.BUFSIZE));
+      if (ch < 0) {
+        throw new IOException("Unexpected end of tile pack");
+      }
+      rd += ch;
+    }
+    return result;
+  }
+
+  private static int readInt(final byte[] data, final int offset) {
+    return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+  }
+
+  private static long readLong(final byte[] data, final int offset) {
+    return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+  }
+}
@@ -92,4 +92,24 @@ public class IOUtils {
     }
     return rd;
   }
+
+  /**
+   * Skip bytes in large streams.
+   * 
+   * @return number of skipped bytes, less than requested if stream ended
+   */
+  public static long skip(final InputStream is, final long n) throws IOException {
+    long rd = 0;
+    while (rd < n) {
+      final long ch = is.skip(Math.min(n - rd, BUFSIZE));
+      if (ch > 0) {
+        rd += ch;
+      } else if (is.read() < 0) {
+        break;
+      } else {
+        rd++;
+      }
+    }
+    return rd;
+  }
 }
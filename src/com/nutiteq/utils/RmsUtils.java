@@ -66,6 +66,32 @@ public class RmsUtils {
     return result;
   }
 
+  /**
+   * Read multiple records from one record store.
+   * 
+   * @return records data in same order as ids. Null for records that could
+   *         not be read.
+   */
+  public static byte[][] readDataFromIds(final String rsName, final int[] recordIds) {
+    final byte[][] result = new byte[recordIds.length][];
+    RecordStore rs = null;
+    try {
+      rs = RecordStore.openRecordStore(rsName, true);
+      for (int i = 0; i < recordIds.length; i++) {
+        try {
+          result[i] = rs.getRecord(recordIds[i]);
+        } catch (RecordStoreException ignore) {
+        }
+      }
+    } catch (RecordStoreException ignore) {
+      //      Log.printStackTrace(ignore);
+    } finally {
+      closeRecordStore(rs);
+    }
+
+    return result;
+  }
+
   public static void closeRecordStore(final RecordStore rs) {
     if (rs != null) {
       try {
@@ -0,0 +1,83 @@
+package com.mgmaps.cache;
+
+import javax.microedition.lcdui.Image;
+
+import junit.framework.TestCase;
+
+public class TileImageCacheTest extends TestCase {
+  private TileImageCache cache;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new TileImageCache(4 * 16 * 16);
+  }
+
+  public void testReleasedImageIsKeptForReuse() {
+    final Image image = Image.createImage(16, 16);
+    cache.release(cache.put("a", image, 0));
+
+    final TileImageCache.Entry entry = cache.acquire("a");
+    assertNotNull(entry);
+    assertSame(image, entry.getImage());
+    assertFalse(image.getBitmap().isRecycled());
+  }
+
+  public void testReplacedReferencedEntryIsRecycledOnLastRelease() {
+    final Image old = Image.createImage(16, 16);
+    final TileImageCache.Entry oldEntry = cache.put("a", old, 0);
+    final Image updated = Image.createImage(16, 16);
+    final TileImageCache.Entry updatedEntry = cache.put("a", updated, 0);
+
+    assertFalse(old.getBitmap().isRecycled());
+    cache.release(oldEntry);
+    assertTrue(old.getBitmap().isRecycled());
+
+    // new entry still referenced by its holder
+    final TileImageCache.Entry found = cache.acquire("a");
+    assertSame(updatedEntry, found);
+    cache.release(found);
+    cache.release(updatedEntry);
+    assertFalse(updated.getBitmap().isRecycled());
+
+    cache.clear();
+    assertTrue(updated.getBitmap().isRecycled());
+    assertEquals(0, cache.getUsedPixels());
+  }
+
+  public void testInvalidatedReferencedEntryIsNotFound() {
+    final Image image = Image.createImage(16, 16);
+    final TileImageCache.Entry entry = cache.put("a", image, 0);
+    cache.invalidate("a");
+
+    assertFalse(cache.contains("a"));
+    assertNull(cache.acquire("a"));
+    assertFalse(image.getBitmap().isRecycled());
+
+    cache.release(entry);
+    assertTrue(image.getBitmap().isRecycled());
+    // repeated release is ignored
+    cache.release(entry);
+  }
+
+  public void testUnusedImagesAreEvictedInLruOrder() {
+    final Image[] images = new Image[5];
+    final TileImageCache.Entry[] entries = new TileImageCache.Entry[images.length];
+    for (int i = 0; i < images.length; i++) {
+      images[i] = Image.createImage(16, 16);
+      entries[i] = cache.put("t" + i, images[i], 0);
+    }
+
+    // everything referenced, nothing can be evicted
+    assertEquals(0, cache.getEvictions());
+    for (int i = 0; i < entries.length; i++) {
+      cache.release(entries[i]);
+    }
+
+    assertTrue(images[0].getBitmap().isRecycled());
+    assertFalse(cache.contains("t0"));
+    for (int i = 1; i < images.length; i++) {
+      assertFalse(images[i].getBitmap().isRecycled());
+    }
+    assertEquals(1, cache.getEvictions());
+  }
+}
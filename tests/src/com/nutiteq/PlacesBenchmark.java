@@ -0,0 +1,97 @@
+package com.nutiteq;
+
+import java.util.Random;
+import java.util.Vector;
+
+import javax.microedition.lcdui.Image;
+
+import com.nutiteq.components.OnMapElement;
+import com.nutiteq.components.Place;
+import com.nutiteq.components.PlaceIcon;
+import com.nutiteq.components.WgsPoint;
+
+/**
+ * Adding and removing 1k, 10k and 50k places on displayed map in batches of
+ * KML refresh size. Reference is element vector with contains check on add and
+ * removeElement on remove, as used before the identity hashed store.
+ */
+public class PlacesBenchmark {
+  private static final int[] COUNTS = { 1000, 10000, 50000 };
+  private static final int BATCH = 100;
+
+  public static void main(final String[] args) {
+    final PlaceIcon icon = new PlaceIcon(Image.createImage(16, 16));
+    // warm up
+    run(places(icon, 10000, new Random(1)), false);
+    for (int i = 0; i < COUNTS.length; i++) {
+      run(places(icon, COUNTS[i], new Random(2)), true);
+    }
+    // map component timer threads are not stopped with component
+    System.exit(0);
+  }
+
+  private static void run(final Place[] places, final boolean print) {
+    final BasicMapComponent mapComponent = new BasicMapComponent("", "", "", 240, 320,
+        new WgsPoint(24.74, 59.43), 10);
+    long start = System.nanoTime();
+    for (int i = 0; i < places.length; i += BATCH) {
+      mapComponent.addPlaces(batch(places, i));
+    }
+    final long addTime = System.nanoTime() - start;
+    final int added = mapComponent.getOnMapElements().length;
+
+    // removed in other order than added
+    start = System.nanoTime();
+    for (int i = places.length - BATCH; i >= 0; i -= BATCH) {
+      mapComponent.removePlaces(batch(places, i));
+    }
+    final long removeTime = System.nanoTime() - start;
+    final int left = mapComponent.getOnMapElements().length;
+
+    final Vector elements = new Vector();
+    start = System.nanoTime();
+    for (int i = 0; i < places.length; i += BATCH) {
+      final Place[] batch = batch(places, i);
+      for (int j = 0; j < batch.length; j++) {
+        if (!elements.contains(batch[j])) {
+          elements.addElement(batch[j]);
+        }
+      }
+    }
+    final long vectorAddTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = places.length - BATCH; i >= 0; i -= BATCH) {
+      final Place[] batch = batch(places, i);
+      for (int j = 0; j < batch.length; j++) {
+        elements.removeElement(batch[j]);
+      }
+    }
+    final long vectorRemoveTime = System.nanoTime() - start;
+
+    if (print) {
+      System.out.println(places.length + " places: add " + addTime / 1000000 + " ms, remove "
+          + removeTime / 1000000 + " ms (" + added + " added, " + left + " left), vector add "
+          + vectorAddTime / 1000000 + " ms, vector remove " + vectorRemoveTime / 1000000
+          + " ms");
+    }
+  }
+
+  private static Place[] batch(final OnMapElement[] places, final int from) {
+    final Place[] result = new Place[Math.min(BATCH, places.length - from)];
+    System.arraycopy(places, from, result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Places around map center, some of them on screen
+   */
+  private static Place[] places(final PlaceIcon icon, final int count, final Random random) {
+    final Place[] result = new Place[count];
+    for (int i = 0; i < count; i++) {
+      final double lon = 24.74 + (random.nextDouble() - 0.5) * 0.2;
+      final double lat = 59.43 + (random.nextDouble() - 0.5) * 0.1;
+      result[i] = new Place(i, "place " + i, icon, new WgsPoint(lon, lat));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,64 @@
+package com.nutiteq.cache;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class AndroidFileSystemCacheTest extends TestCase {
+  private File dir;
+  private InMemoryCacheIndexStorage storage;
+  private AndroidFileSystemCache cache;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("fscache", "");
+    dir.delete();
+    dir.mkdirs();
+    storage = new InMemoryCacheIndexStorage();
+    cache = new AndroidFileSystemCache(dir, 100, storage);
+    cache.initialize();
+  }
+
+  protected void tearDown() throws Exception {
+    cache.deinitialize();
+    delete(dir);
+    super.tearDown();
+  }
+
+  public void testCachedResourceIsRead() {
+    cache.cache("http://a/1.png", "data".getBytes(), Cache.CACHE_LEVEL_PERSISTENT);
+    assertTrue(cache.contains("http://a/1.png", Cache.CACHE_LEVEL_PERSISTENT));
+    assertEquals("data", new String(cache.get("http://a/1.png")));
+    assertEquals(1, storage.size());
+  }
+
+  public void testResourceWithMissingFileIsDropped() {
+    cache.cache("http://a/1.png", "data".getBytes(), Cache.CACHE_LEVEL_PERSISTENT);
+    assertTrue(new File(dir, "http_a/1_png").delete());
+
+    assertNull(cache.get("http://a/1.png"));
+    assertFalse(cache.contains("http://a/1.png"));
+    assertEquals(0, storage.size());
+  }
+
+  public void testLeastRecentlyUsedFileIsDeleted() {
+    cache.cache("a", new byte[40], Cache.CACHE_LEVEL_PERSISTENT);
+    cache.cache("b", new byte[40], Cache.CACHE_LEVEL_PERSISTENT);
+    cache.get("a");
+    cache.cache("c", new byte[40], Cache.CACHE_LEVEL_PERSISTENT);
+
+    assertTrue(new File(dir, "a").exists());
+    assertFalse(new File(dir, "b").exists());
+    assertFalse(cache.contains("b"));
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (int i = 0; i < children.length; i++) {
+        delete(children[i]);
+      }
+    }
+    file.delete();
+  }
+}
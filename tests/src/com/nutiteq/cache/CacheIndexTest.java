@@ -0,0 +1,102 @@
+package com.nutiteq.cache;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CacheIndexTest extends TestCase {
+  private InMemoryCacheIndexStorage storage;
+  private CacheIndex index;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    storage = new InMemoryCacheIndexStorage();
+    index = new CacheIndex(storage);
+    index.open();
+  }
+
+  public void testLeastRecentlyUsedIsRemovedFirst() {
+    index.add("a", "pa", 10, 100);
+    index.add("b", "pb", 10, 100);
+    index.add("c", "pc", 10, 100);
+    assertEquals("pa", index.use("a"));
+
+    final List<String> removed = index.add("d", "pd", 75, 100);
+    assertEquals(1, removed.size());
+    assertEquals("pb", removed.get(0));
+    assertFalse(index.contains("b"));
+    assertTrue(index.contains("a"));
+    assertEquals(-1, storage.getUsed("b"));
+    assertEquals(3, storage.size());
+  }
+
+  public void testAddedResourceIsNotRemoved() {
+    index.add("a", "pa", 10, 100);
+    final List<String> removed = index.add("b", "pb", 150, 100);
+    assertEquals(1, removed.size());
+    assertEquals("pa", removed.get(0));
+    assertTrue(index.contains("b"));
+    assertEquals(150, index.getTotalSize());
+  }
+
+  public void testTotalSizeIsKeptOnChanges() {
+    index.add("a", "pa", 10, 100);
+    index.add("b", "pb", 20, 100);
+    assertEquals(30, index.getTotalSize());
+
+    // replaced with same file
+    assertTrue(index.add("a", "pa", 5, 100).isEmpty());
+    assertEquals(25, index.getTotalSize());
+
+    assertEquals("pb", index.remove("b"));
+    assertNull(index.remove("b"));
+    assertEquals(5, index.getTotalSize());
+
+    index.close();
+    assertEquals(0, index.getTotalSize());
+    index.open();
+    assertEquals(5, index.getTotalSize());
+    assertEquals(1, index.size());
+  }
+
+  public void testUsedTimesAreWrittenInBatches() {
+    index.close();
+    for (int i = 0; i < 33; i++) {
+      storage.put(new CacheIndex.Entry("k" + i, "p" + i, 1, 0));
+    }
+    index.open();
+
+    for (int i = 0; i < 31; i++) {
+      index.use("k" + i);
+    }
+    assertEquals(0, storage.getTouchBatches());
+    assertEquals(0, storage.getUsed("k0"));
+
+    index.use("k31");
+    assertEquals(1, storage.getTouchBatches());
+    for (int i = 0; i < 32; i++) {
+      assertTrue(storage.getUsed("k" + i) > 0);
+    }
+
+    index.use("k32");
+    assertEquals(0, storage.getUsed("k32"));
+    index.close();
+    assertEquals(2, storage.getTouchBatches());
+    assertTrue(storage.getUsed("k32") > 0);
+  }
+
+  public void testStoredUsageOrderIsKeptOnOpen() {
+    index.close();
+    storage.put(new CacheIndex.Entry("a", "pa", 10, 3));
+    storage.put(new CacheIndex.Entry("b", "pb", 10, 1));
+    storage.put(new CacheIndex.Entry("c", "pc", 10, 2));
+    index.open();
+    assertEquals(30, index.getTotalSize());
+
+    final List<String> removed = index.add("d", "pd", 25, 40);
+    assertEquals(2, removed.size());
+    assertEquals("pb", removed.get(0));
+    assertEquals("pc", removed.get(1));
+    assertTrue(index.contains("a"));
+  }
+}
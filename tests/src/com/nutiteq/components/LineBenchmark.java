@@ -0,0 +1,146 @@
+package com.nutiteq.components;
+
+import henson.midp.Float11;
+
+import java.util.Random;
+
+import javax.microedition.lcdui.Graphics;
+
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.TilePackMap;
+import com.nutiteq.utils.Utils;
+
+/**
+ * Per-frame cost of 100k point route on screen of 480x800 pixels: zoom change
+ * (projection and simplification), visibility check and paint with simplified
+ * and clipped segments. Reference is painting every projected segment, as
+ * done before simplification.
+ */
+public class LineBenchmark {
+  private static final int POINTS = 100000;
+  private static final int SCREEN_WIDTH = 480;
+  private static final int SCREEN_HEIGHT = 800;
+  private static final int FRAMES = 50;
+  private static final int LINE_WIDTH = 4;
+  private static final int[] ZOOMS = { 6, 10, 13, 16, 18 };
+
+  public static void main(final String[] args) {
+    final WgsPoint[] points = route(new Random(0));
+    final GeoMap map = new TilePackMap("bench", "bench.ntpk", 0, 18);
+    final CountingGraphics g = new CountingGraphics();
+
+    // warm up
+    run(points, map, g, new Random(1), false);
+    run(points, map, g, new Random(2), true);
+  }
+
+  private static void run(final WgsPoint[] points, final GeoMap map, final CountingGraphics g,
+      final Random random, final boolean print) {
+    final Line line = new Line(points, new LineStyle(0xFF0000, LINE_WIDTH));
+    for (int z = 0; z < ZOOMS.length; z++) {
+      final int zoom = ZOOMS[z];
+      long start = System.nanoTime();
+      line.calculatePosition(map, zoom);
+      final long zoomTime = System.nanoTime() - start;
+
+      // frames centered on random route points
+      final MapPos[] centers = new MapPos[FRAMES];
+      final Rectangle[] areas = new Rectangle[FRAMES];
+      for (int i = 0; i < FRAMES; i++) {
+        centers[i] = map.wgsToMapPos(points[random.nextInt(POINTS)].toInternalWgs(), zoom);
+        areas[i] = new Rectangle(centers[i].getX() - SCREEN_WIDTH / 2, centers[i].getY()
+            - SCREEN_HEIGHT / 2, SCREEN_WIDTH, SCREEN_HEIGHT);
+      }
+
+      g.count = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < FRAMES; i++) {
+        final Rectangle area = areas[i];
+        if (line.isVisible(area.getX(), area.getY(), SCREEN_WIDTH, SCREEN_HEIGHT, zoom)) {
+          line.paint(g, centers[i], SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2, area);
+        }
+      }
+      final long frameTime = System.nanoTime() - start;
+      final int drawn = g.count;
+
+      final ProjectedPoints projected = new ProjectedPoints(points);
+      projected.calculate(map, zoom);
+      g.count = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < FRAMES; i++) {
+        paintAll(g, projected, centers[i], areas[i]);
+      }
+      final long referenceTime = System.nanoTime() - start;
+
+      if (print) {
+        System.out.println("zoom " + zoom + ": zoom change " + zoomTime / 1000000
+            + " ms, frame " + frameTime / FRAMES / 1000 + " us (" + drawn / FRAMES
+            + " triangles), all segments " + referenceTime / FRAMES / 1000 + " us ("
+            + g.count / FRAMES + " triangles)");
+      }
+    }
+  }
+
+  /**
+   * Paint as before simplification: every projected segment intersecting
+   * changed area is drawn as polygon.
+   */
+  private static void paintAll(final CountingGraphics g, final ProjectedPoints projected,
+      final MapPos center, final Rectangle area) {
+    final int[] x = projected.getX();
+    final int[] y = projected.getY();
+    final int offsetX = SCREEN_WIDTH / 2 - center.getX();
+    final int offsetY = SCREEN_HEIGHT / 2 - center.getY();
+    for (int i = 0; i < x.length - 1; i++) {
+      if (Utils.rectanglesIntersect(x[i], y[i], x[i + 1] - x[i], y[i + 1] - y[i], area.getX(),
+          area.getY(), area.getWidth(), area.getHeight())) {
+        final int x1 = x[i] + offsetX;
+        final int y1 = y[i] + offsetY;
+        final int x2 = x[i + 1] + offsetX;
+        final int y2 = y[i + 1] + offsetY;
+        final double phi = Float11.atan2(y2 - y1, x2 - x1);
+        final int dx = (int) (LINE_WIDTH / 2D * Math.sin(phi));
+        final int dy = (int) (LINE_WIDTH / 2D * Math.cos(phi));
+        g.fillTriangle(x1 + dx, y1 - dy, x1 - dx, y1 + dy, x2 + dx, y2 - dy);
+        g.fillTriangle(x2 - dx, y2 + dy, x1 - dx, y1 + dy, x2 + dx, y2 - dy);
+      }
+    }
+  }
+
+  /**
+   * Winding track with about 5 meter steps
+   */
+  private static WgsPoint[] route(final Random random) {
+    final WgsPoint[] result = new WgsPoint[POINTS];
+    double lon = 24.7;
+    double lat = 59.4;
+    double heading = 0;
+    for (int i = 0; i < POINTS; i++) {
+      heading += (random.nextDouble() - 0.5) * 0.3;
+      lon += Math.cos(heading) * 0.00009;
+      lat += Math.sin(heading) * 0.000045;
+      result[i] = new WgsPoint(lon, lat);
+    }
+    return result;
+  }
+
+  private static class CountingGraphics extends Graphics {
+    private int count;
+
+    public CountingGraphics() {
+      super(null);
+    }
+
+    public void setColor(final int rgb) {
+    }
+
+    public void drawLine(final int x1, final int y1, final int x2, final int y2) {
+      count++;
+    }
+
+    public void fillTriangle(final int x1, final int y1, final int x2, final int y2,
+        final int x3, final int y3) {
+      count++;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.nutiteq.components;
+
+import java.util.Vector;
+
+import javax.microedition.lcdui.Graphics;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.maps.BaseMap;
+
+public class LineTest extends TestCase {
+  private PixelMap map;
+  private RecordingGraphics g;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    map = new PixelMap();
+    g = new RecordingGraphics();
+  }
+
+  public void testSegmentInsideAreaIsNotChanged() {
+    paint(20, 20, 50, 70);
+    assertDrawn(new int[] { 20, 20, 50, 70 });
+  }
+
+  public void testCrossingSegmentIsClippedToWidenedArea() {
+    // changed area 10..110, widened by line width
+    paint(0, 50, 200, 50);
+    assertDrawn(new int[] { 9, 50, 111, 50 });
+
+    g.lines.removeAllElements();
+    paint(0, 0, 200, 200);
+    assertDrawn(new int[] { 9, 9, 111, 111 });
+  }
+
+  public void testSegmentStartingInsideIsClippedAtEnd() {
+    paint(60, 60, 60, 300);
+    assertDrawn(new int[] { 60, 60, 60, 111 });
+  }
+
+  public void testSegmentOutsideAreaIsNotDrawn() {
+    paint(0, 200, 300, 200);
+    // bounding box overlaps area, segment passes corner
+    paint(0, 15, 15, 0);
+    assertDrawn(new int[0]);
+  }
+
+  private void paint(final int x1, final int y1, final int x2, final int y2) {
+    final Line line = new Line(new WgsPoint[] { new WgsPoint(x1, y1), new WgsPoint(x2, y2) },
+        new LineStyle(0, 1));
+    line.calculatePosition(map, 0);
+    line.paint(g, new MapPos(0, 0, 0), 0, 0, new Rectangle(10, 10, 100, 100));
+  }
+
+  private void assertDrawn(final int[] expected) {
+    assertEquals(expected.length / 4, g.lines.size());
+    for (int i = 0; i < g.lines.size(); i++) {
+      final int[] line = (int[]) g.lines.elementAt(i);
+      for (int j = 0; j < 4; j++) {
+        assertEquals(expected[i * 4 + j], line[j]);
+      }
+    }
+  }
+
+  /**
+   * Map with one pixel per degree on every zoom
+   */
+  private static class PixelMap extends BaseMap {
+    public PixelMap() {
+      super("", 256, 0, 0);
+    }
+
+    public MapPos wgsToMapPos(final Point wgs, final int zoom) {
+      return new MapPos(wgs.getX() / 1000000, wgs.getY() / 1000000, zoom);
+    }
+
+    public Point mapPosToWgs(final MapPos pos) {
+      return new Point(pos.getX() * 1000000, pos.getY() * 1000000);
+    }
+  }
+
+  private static class RecordingGraphics extends Graphics {
+    private final Vector lines = new Vector();
+
+    public RecordingGraphics() {
+      super(null);
+    }
+
+    public void setColor(final int rgb) {
+    }
+
+    public void drawLine(final int x1, final int y1, final int x2, final int y2) {
+      lines.addElement(new int[] { x1, y1, x2, y2 });
+    }
+  }
+}
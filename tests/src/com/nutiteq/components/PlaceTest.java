@@ -0,0 +1,29 @@
+package com.nutiteq.components;
+
+import javax.microedition.lcdui.Image;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.maps.TilePackMap;
+
+public class PlaceTest extends TestCase {
+  public void testMapBoundsContainActivePlacemark() {
+    final PlaceIcon small = new PlaceIcon(Image.createImage(8, 8), 4, 4);
+    final PlaceIcon large = new PlaceIcon(Image.createImage(40, 30), 20, 30);
+    final Place place = new Place(1, null, small, large, new WgsPoint(24.74, 59.43));
+    place.calculatePosition(new TilePackMap("test", "test.ntpk", 0, 18), 10);
+
+    final MapPos position = place.getMapPosition();
+    final Rectangle bounds = place.getMapBounds();
+    assertTrue(bounds.getX() <= position.getX() - 20);
+    assertTrue(bounds.getY() <= position.getY() - 30);
+    assertTrue(bounds.getX() + bounds.getWidth() >= position.getX() + 20);
+    assertTrue(bounds.getY() + bounds.getHeight() >= position.getY());
+
+    final Rectangle area = place.toMapArea(10);
+    assertTrue(bounds.getX() <= area.getX());
+    assertTrue(bounds.getY() <= area.getY());
+    assertTrue(bounds.getX() + bounds.getWidth() >= area.getX() + area.getWidth());
+    assertTrue(bounds.getY() + bounds.getHeight() >= area.getY() + area.getHeight());
+  }
+}
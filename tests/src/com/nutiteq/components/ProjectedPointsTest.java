@@ -0,0 +1,94 @@
+package com.nutiteq.components;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.TilePackMap;
+
+public class ProjectedPointsTest extends TestCase {
+  private GeoMap map;
+  private WgsPoint[] points;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    map = new TilePackMap("test", "test.ntpk", 0, 10);
+    // zigzag with small and large deviations
+    points = new WgsPoint[200];
+    for (int i = 0; i < points.length; i++) {
+      final double deviation = (i % 2 == 0 ? 1 : -1) * (i % 10 == 0 ? 0.5 : 0.01);
+      points[i] = new WgsPoint(24.0 + i * 0.01, 59.0 + deviation);
+    }
+  }
+
+  public void testZoomBeyondReferenceDoesNotChangeSimplificationOfOtherZooms() {
+    final ProjectedPoints expected = new ProjectedPoints(points);
+    expected.calculate(map, 10);
+    expected.calculate(map, 5);
+
+    final ProjectedPoints projected = new ProjectedPoints(points);
+    projected.calculate(map, 10);
+    // above reference zoom, projected and simplified separately
+    projected.calculate(map, 12);
+    assertEquals(12, projected.getZoom());
+    projected.calculate(map, 5);
+
+    assertSimplified(expected, projected);
+  }
+
+  public void testPointsOnStraightLineAreDropped() {
+    final ProjectedPoints projected = new ProjectedPoints(new MapPos[] { new MapPos(0, 0, 5),
+        new MapPos(10, 0, 5), new MapPos(20, 0, 5), new MapPos(30, 0, 5), new MapPos(40, 0, 5) });
+    assertEquals(2, projected.getSimplifiedCount());
+    assertEquals(0, projected.getSimplifiedX()[0]);
+    assertEquals(40, projected.getSimplifiedX()[1]);
+    assertEquals(5, projected.size());
+  }
+
+  public void testVertexIsKeptFromOnePixelDeviation() {
+    final ProjectedPoints projected = new ProjectedPoints(new MapPos[] { new MapPos(0, 0, 5),
+        new MapPos(50, 1, 5), new MapPos(100, 0, 5), new MapPos(150, 0, 5),
+        new MapPos(200, 0, 5) });
+    // rest are less than one pixel from line to (50, 1)
+    assertEquals(3, projected.getSimplifiedCount());
+    assertEquals(0, projected.getSimplifiedX()[0]);
+    assertEquals(50, projected.getSimplifiedX()[1]);
+    assertEquals(1, projected.getSimplifiedY()[1]);
+    assertEquals(200, projected.getSimplifiedX()[2]);
+  }
+
+  public void testBacktrackingVertexIsKept() {
+    // turning point is on line through end points, but not on segment
+    final ProjectedPoints projected = new ProjectedPoints(new MapPos[] { new MapPos(0, 0, 5),
+        new MapPos(100, 0, 5), new MapPos(50, 0, 5) });
+    assertEquals(3, projected.getSimplifiedCount());
+  }
+
+  public void testFewerVertexesAreKeptOnLowerZooms() {
+    final ProjectedPoints projected = new ProjectedPoints(points);
+    projected.calculate(map, 10);
+    assertEquals(points.length, projected.getSimplifiedCount());
+
+    int previous = projected.getSimplifiedCount();
+    for (int zoom = 9; zoom >= 0; zoom--) {
+      projected.calculate(map, zoom);
+      final int count = projected.getSimplifiedCount();
+      assertTrue("zoom " + zoom, count <= previous);
+      assertEquals(projected.getX()[0], projected.getSimplifiedX()[0]);
+      assertEquals(projected.getX()[points.length - 1], projected.getSimplifiedX()[count - 1]);
+      assertEquals(projected.getY()[points.length - 1], projected.getSimplifiedY()[count - 1]);
+      previous = count;
+    }
+    // only large deviations remain
+    projected.calculate(map, 4);
+    assertTrue(projected.getSimplifiedCount() < points.length / 2);
+  }
+
+  private static void assertSimplified(final ProjectedPoints expected,
+      final ProjectedPoints actual) {
+    assertEquals(expected.getSimplifiedCount(), actual.getSimplifiedCount());
+    for (int i = 0; i < expected.getSimplifiedCount(); i++) {
+      assertEquals(expected.getSimplifiedX()[i], actual.getSimplifiedX()[i]);
+      assertEquals(expected.getSimplifiedY()[i], actual.getSimplifiedY()[i]);
+    }
+  }
+}
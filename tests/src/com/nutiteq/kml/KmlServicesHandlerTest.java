@@ -0,0 +1,121 @@
+package com.nutiteq.kml;
+
+import javax.microedition.lcdui.Image;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.BasicMapComponent;
+import com.nutiteq.components.KmlPlace;
+import com.nutiteq.components.OnMapElement;
+import com.nutiteq.components.Place;
+import com.nutiteq.components.PlaceIcon;
+import com.nutiteq.components.WgsBoundingBox;
+import com.nutiteq.components.WgsPoint;
+
+public class KmlServicesHandlerTest extends TestCase {
+  private BasicMapComponent mapComponent;
+  private KmlServicesHandler handler;
+  private KmlService service;
+
+  protected void setUp() throws Exception {
+    mapComponent = new BasicMapComponent("", "", "", 240, 320, new WgsPoint(24.74, 59.43), 10);
+    handler = new KmlServicesHandler(mapComponent, mapComponent.taskRunner);
+    service = new TestService();
+    handler.addService(service);
+  }
+
+  public void testRefreshAfterZoomKeepsDisplayedInstanceOfEqualPlace() {
+    final KmlPlace first = kmlPlace("first", 24.74, 59.43);
+    final KmlPlace second = kmlPlace("second", 24.75, 59.44);
+    handler.addKmlPlaces(service, new KmlPlace[] { first, second });
+    assertEquals(2, mapComponent.getOnMapElements().length);
+
+    zoomOut();
+    final KmlPlace firstAgain = kmlPlace("first", 24.74, 59.43);
+    final KmlPlace third = kmlPlace("third", 24.76, 59.45);
+    handler.addKmlPlaces(service, new KmlPlace[] { firstAgain, third });
+
+    final OnMapElement[] displayed = mapComponent.getOnMapElements();
+    assertEquals(2, displayed.length);
+    assertTrue(contains(displayed, first.getPlace()));
+    assertFalse(contains(displayed, firstAgain.getPlace()));
+    assertFalse(contains(displayed, second.getPlace()));
+    assertTrue(contains(displayed, third.getPlace()));
+
+    final KmlPlace[] tracked = handler.getKmlPlaces(service);
+    assertEquals(2, tracked.length);
+    assertSame(first, tracked[0]);
+    assertSame(third, tracked[1]);
+  }
+
+  public void testRemovedServiceRemovesAllRefreshedPlaces() {
+    handler.addKmlPlaces(service, new KmlPlace[] { kmlPlace("first", 24.74, 59.43),
+        kmlPlace("second", 24.75, 59.44) });
+    zoomOut();
+    handler.addKmlPlaces(service, new KmlPlace[] { kmlPlace("first", 24.74, 59.43),
+        kmlPlace("third", 24.76, 59.45) });
+
+    handler.removeService(service);
+    assertEquals(0, mapComponent.getOnMapElements().length);
+  }
+
+  public void testRefreshWithoutZoomDoesNotDuplicatePlaces() {
+    final KmlPlace first = kmlPlace("first", 24.74, 59.43);
+    handler.addKmlPlaces(service, new KmlPlace[] { first });
+    handler.addKmlPlaces(service, new KmlPlace[] { kmlPlace("first", 24.74, 59.43) });
+
+    final OnMapElement[] displayed = mapComponent.getOnMapElements();
+    assertEquals(1, displayed.length);
+    assertSame(first.getPlace(), displayed[0]);
+  }
+
+  public void testRemovePlacesRemovesEqualPlace() {
+    final Place displayed = place("first", 24.74, 59.43);
+    mapComponent.addPlaces(new Place[] { displayed, place("second", 24.75, 59.44) });
+
+    mapComponent.removePlaces(new Place[] { place("first", 24.74, 59.43) });
+
+    final OnMapElement[] left = mapComponent.getOnMapElements();
+    assertEquals(1, left.length);
+    assertEquals("second", ((Place) left[0]).getName());
+  }
+
+  private void zoomOut() {
+    handler.mapMoved(new WgsBoundingBox(24.0, 59.0, 25.0, 60.0), 11);
+  }
+
+  private static boolean contains(final OnMapElement[] elements, final OnMapElement element) {
+    for (int i = 0; i < elements.length; i++) {
+      if (elements[i] == element) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static KmlPlace kmlPlace(final String name, final double lon, final double lat) {
+    return new KmlPlace(place(name, lon, lat), null, null, null, null, null);
+  }
+
+  private static Place place(final String name, final double lon, final double lat) {
+    return new Place(0, name, new PlaceIcon(Image.createImage(16, 16)), new WgsPoint(lon, lat));
+  }
+
+  private static class TestService implements KmlService {
+    public boolean needsUpdate(final WgsBoundingBox boundingBox, final int zoom) {
+      return false;
+    }
+
+    public String getServiceUrl(final WgsBoundingBox boundingBox, final int zoom) {
+      return null;
+    }
+
+    public int maxResults() {
+      return 50;
+    }
+
+    public String getDefaultIcon() {
+      return null;
+    }
+  }
+}
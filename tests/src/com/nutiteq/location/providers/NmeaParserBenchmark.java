@@ -0,0 +1,98 @@
+package com.nutiteq.location.providers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.nutiteq.utils.Utils;
+
+/**
+ * NMEA parser throughput on recorded log (GGA, GSA, GSV, RMC and VTG every
+ * second). Reference is line reading and splitting, as done before
+ * {@link NmeaParser}, which handled only RMC.
+ */
+public class NmeaParserBenchmark {
+  private static final int ROUNDS = 200;
+
+  public static void main(final String[] args) throws IOException {
+    final byte[] log = readLog();
+    // warm up
+    run(log, ROUNDS / 4, false);
+    run(log, ROUNDS, true);
+  }
+
+  private static void run(final byte[] log, final int rounds, final boolean print)
+      throws IOException {
+    final NmeaParser parser = new NmeaParser();
+    int fixes = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (int i = 0; i < log.length; i++) {
+        if (parser.parse(log[i] & 0xFF)) {
+          fixes++;
+        }
+      }
+    }
+    final long parserTime = System.nanoTime() - start;
+
+    int lines = 0;
+    int locations = 0;
+    start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      final InputStream in = new ByteArrayInputStream(log);
+      String line;
+      while ((line = readLine(in)) != null) {
+        lines++;
+        if (parseRmc(line)) {
+          locations++;
+        }
+      }
+    }
+    final long splitTime = System.nanoTime() - start;
+
+    if (print) {
+      final long bytes = (long) log.length * rounds;
+      System.out.println("parser " + bytes * 1000 / parserTime + " MB/s, "
+          + parser.getSentenceCount() * 1000000000L / parserTime + " sentences/s, " + fixes
+          + " fixes; line split " + bytes * 1000 / splitTime + " MB/s, " + lines
+          * 1000000000L / splitTime + " lines/s, " + locations + " locations");
+    }
+  }
+
+  private static String readLine(final InputStream in) throws IOException {
+    final StringBuffer sb = new StringBuffer();
+    int c = in.read();
+    if (c == -1) {
+      return null;
+    }
+    for (; c != -1 && c != '\n'; c = in.read()) {
+      if (c != '\r') {
+        sb.append((char) c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean parseRmc(final String line) {
+    final String[] split = Utils.split(line, ",");
+    if ("$GPRMC".equals(split[0]) && "A".equals(split[2])) {
+      final double lat = Utils.parseDecimalDegree(split[3], split[4]);
+      final double lon = Utils.parseDecimalDegree(split[5], split[6]);
+      return lat != 0 || lon != 0;
+    }
+    return false;
+  }
+
+  private static byte[] readLog() throws IOException {
+    final InputStream in = NmeaParserBenchmark.class.getResourceAsStream("nmea.log");
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+}
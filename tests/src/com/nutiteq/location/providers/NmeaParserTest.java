@@ -0,0 +1,200 @@
+package com.nutiteq.location.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class NmeaParserTest extends TestCase {
+  private static final double DELTA = 0.000001;
+  private static final double KNOTS = 1852.0 / 3600.0;
+
+  private NmeaParser parser;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    parser = new NmeaParser();
+  }
+
+  public void testChecksumIsVerified() {
+    final String rmc = "GPRMC,101203.000,A,5926.2200,N,02445.2160,E,8.00,45.00,180926,,,A";
+    assertFalse(feed("$" + rmc + "*00\r\n"));
+    assertEquals(1, parser.getChecksumErrors());
+    assertEquals(0, parser.getSentenceCount());
+
+    // truncated checksum
+    assertFalse(feed("$" + rmc + "*" + hex(checksum(rmc)).charAt(0) + "\r\n"));
+    assertEquals(2, parser.getChecksumErrors());
+
+    assertTrue(feed(sentence(rmc)));
+    assertEquals(2, parser.getChecksumErrors());
+    assertEquals(1, parser.getSentenceCount());
+    assertEquals(59.437, parser.getLatitude(), DELTA);
+    assertEquals(24.7536, parser.getLongitude(), DELTA);
+  }
+
+  public void testLowerCaseAndMissingChecksumAreAccepted() {
+    final String rmc = "GPRMC,101203.000,A,5926.2200,S,02445.2160,W,8.00,45.00,180926,,,A";
+    assertTrue(feed("$" + rmc + "*" + hex(checksum(rmc)).toLowerCase() + "\r\n"));
+    assertEquals(-59.437, parser.getLatitude(), DELTA);
+    assertEquals(-24.7536, parser.getLongitude(), DELTA);
+
+    assertTrue(feed("$" + rmc.replace("101203", "101204") + "\n"));
+    assertEquals(0, parser.getChecksumErrors());
+    assertEquals((10 * 3600 + 12 * 60 + 4) * 1000, parser.getFixTime());
+  }
+
+  public void testRmcAndGgaOfSameTimeAreMerged() {
+    // receiver sentences are known after first fix
+    feedEpoch(2, true);
+    assertFalse(feed(gga(3, "5926.3000")));
+    assertTrue(feed(rmc(3, "5926.3000", "10.00")));
+
+    assertEquals((10 * 3600 + 12 * 60 + 3) * 1000, parser.getFixTime());
+    assertEquals(59 + 26.3 / 60, parser.getLatitude(), DELTA);
+    assertEquals(10 * KNOTS, parser.getSpeed(), DELTA);
+    assertEquals(45, parser.getCourse(), DELTA);
+    assertEquals(1.2, parser.getHdop(), DELTA);
+    assertEquals(38.5, parser.getAltitude(), DELTA);
+    assertEquals(8, parser.getSatellites());
+  }
+
+  public void testFixIsCompletedBySentenceOfNextTime() {
+    feedEpoch(2, true);
+    assertFalse(feed(gga(3, "5926.3000")));
+    // RMC of time 3 lost
+    assertTrue(feed(gga(4, "5926.4000")));
+    assertEquals((10 * 3600 + 12 * 60 + 3) * 1000, parser.getFixTime());
+    assertEquals(59 + 26.3 / 60, parser.getLatitude(), DELTA);
+    assertTrue(Double.isNaN(parser.getSpeed()));
+  }
+
+  public void testInvalidFixIsNotReported() {
+    assertFalse(feed(sentence("GPGGA,101202.000,,,,,0,00,,,M,0.0,M,,0000")));
+    assertFalse(feed(sentence("GPRMC,101202.000,V,,,,,,,180926,,,N")));
+    assertFalse(feed(sentence("GPGGA,101203.000,,,,,0,00,,,M,0.0,M,,0000")));
+    assertEquals(-1, parser.getFixTime());
+  }
+
+  public void testVtgAndGsaAfterRmcAndGgaDoNotReplaceTheirValues() {
+    feedEpoch(2, true);
+    // RMC and GGA values win in any order
+    feed(gga(3, "5926.3000"));
+    feed(vtg("90.00", "20.00"));
+    feed(gsa("3.5"));
+    assertTrue(feed(rmc(3, "5926.3000", "10.00")));
+    assertEquals(10 * KNOTS, parser.getSpeed(), DELTA);
+    assertEquals(45, parser.getCourse(), DELTA);
+    assertEquals(1.2, parser.getHdop(), DELTA);
+
+    feed(gsa("3.5"));
+    feed(rmc(4, "5926.4000", "11.00"));
+    assertTrue(feed(gga(4, "5926.4000")));
+    feed(vtg("90.00", "20.00"));
+    assertEquals(11 * KNOTS, parser.getSpeed(), DELTA);
+    assertEquals(1.2, parser.getHdop(), DELTA);
+  }
+
+  public void testVtgIsWaitedForWithoutRmc() {
+    feed(gga(2, "5926.2000"));
+    feed(vtg("80.00", "9.00"));
+    assertFalse(feed(gga(3, "5926.3000")));
+    assertTrue(feed(vtg("90.00", "12.00")));
+    assertEquals((10 * 3600 + 12 * 60 + 3) * 1000, parser.getFixTime());
+    assertEquals(12 * KNOTS, parser.getSpeed(), DELTA);
+    assertEquals(90, parser.getCourse(), DELTA);
+
+    // old VTG format without field letters
+    assertFalse(feed(gga(4, "5926.4000")));
+    assertTrue(feed(sentence("GPVTG,100.00,,14.00,25.93")));
+    assertEquals(14 * KNOTS, parser.getSpeed(), DELTA);
+    assertEquals(100, parser.getCourse(), DELTA);
+  }
+
+  public void testGsaIsWaitedForWithoutGga() {
+    feed(rmc(2, "5926.2000", "8.00"));
+    feed(gsa("2.0"));
+    assertFalse(feed(rmc(3, "5926.3000", "9.00")));
+    assertTrue(feed(gsa("1.7")));
+    assertEquals(1.7, parser.getHdop(), DELTA);
+    assertEquals(9 * KNOTS, parser.getSpeed(), DELTA);
+  }
+
+  public void testRecordedLogFixes() throws IOException {
+    final InputStream in = getClass().getResourceAsStream("nmea.log");
+    int fixes = 0;
+    int b;
+    while ((b = in.read()) != -1) {
+      if (parser.parse(b)) {
+        fixes++;
+        assertFalse(Double.isNaN(parser.getSpeed()));
+        assertFalse(Double.isNaN(parser.getHdop()));
+      }
+    }
+    in.close();
+    // first 5 seconds without fix, one VTG and one GSV damaged
+    assertEquals(115, fixes);
+    assertEquals(2, parser.getChecksumErrors());
+    assertEquals(838, parser.getSentenceCount());
+  }
+
+  private void feedEpoch(final int second, final boolean vtg) {
+    feed(gga(second, "5926.2000"));
+    feed(gsa("1.9"));
+    feed(rmc(second, "5926.2000", "8.00"));
+    if (vtg) {
+      feed(vtg("45.00", "8.00"));
+    }
+  }
+
+  /**
+   * @return true if any byte completed a fix
+   */
+  private boolean feed(final String data) {
+    boolean result = false;
+    for (int i = 0; i < data.length(); i++) {
+      result |= parser.parse(data.charAt(i));
+    }
+    return result;
+  }
+
+  private static String gga(final int second, final String latitude) {
+    return sentence("GPGGA,1012" + pad(second) + ".000," + latitude
+        + ",N,02445.2160,E,1,08,1.2,38.5,M,18.6,M,,0000");
+  }
+
+  private static String rmc(final int second, final String latitude, final String knots) {
+    return sentence("GPRMC,1012" + pad(second) + ".000,A," + latitude + ",N,02445.2160,E,"
+        + knots + ",45.00,180926,,,A");
+  }
+
+  private static String vtg(final String course, final String knots) {
+    final double kmh = Double.parseDouble(knots) * 1.852;
+    return sentence("GPVTG," + course + ",T,,M," + knots + ",N," + kmh + ",K,A");
+  }
+
+  private static String gsa(final String hdop) {
+    return sentence("GPGSA,A,3,02,05,07,09,13,15,18,21,,,,,2.1," + hdop + ",1.2");
+  }
+
+  private static String sentence(final String body) {
+    return "$" + body + "*" + hex(checksum(body)) + "\r\n";
+  }
+
+  private static int checksum(final String body) {
+    int result = 0;
+    for (int i = 0; i < body.length(); i++) {
+      result ^= body.charAt(i);
+    }
+    return result;
+  }
+
+  private static String hex(final int value) {
+    final String result = Integer.toHexString(value).toUpperCase();
+    return result.length() == 1 ? "0" + result : result;
+  }
+
+  private static String pad(final int value) {
+    return value < 10 ? "0" + value : String.valueOf(value);
+  }
+}
@@ -0,0 +1,280 @@
+package com.nutiteq.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Vector;
+
+/**
+ * In-process HTTP server for stream opener tests and benchmarks. Requests on
+ * one connection are answered in request order by {@link Responder}.
+ *
+ * Round trip time can be simulated: new connection is accepted after one round
+ * trip (TCP handshake) and every response is written one round trip after its
+ * request was received, independent of other requests on same connection.
+ */
+public class HttpStandIn {
+  public interface Responder {
+    /**
+     * @param connection
+     *          number of connection, starting from 0
+     * @param request
+     *          number of request on connection, starting from 0
+     * @param path
+     *          requested path
+     */
+    Response respond(int connection, int request, String path) throws InterruptedException;
+  }
+
+  public static class Response {
+    private final byte[] data;
+    private final boolean close;
+
+    /**
+     * @param raw
+     *          status line, headers and body
+     * @param close
+     *          close connection after response
+     */
+    public Response(final String raw, final boolean close) {
+      this(toBytes(raw), close);
+    }
+
+    public Response(final byte[] data, final boolean close) {
+      this.data = data;
+      this.close = close;
+    }
+
+    /**
+     * Response with content length
+     */
+    public static Response ok(final String body) {
+      return new Response("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n"
+          + body, false);
+    }
+  }
+
+  private final ServerSocket server;
+  private final Responder responder;
+  private final long rtt;
+  private final Vector sockets = new Vector();
+  private int connections;
+  private int requests;
+  private boolean stopped;
+
+  public HttpStandIn(final Responder responder) throws IOException {
+    this(responder, 0);
+  }
+
+  /**
+   * @param rtt
+   *          simulated round trip time in milliseconds
+   */
+  public HttpStandIn(final Responder responder, final long rtt) throws IOException {
+    this.responder = responder;
+    this.rtt = rtt;
+    server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    final Thread acceptor = new Thread() {
+      public void run() {
+        accept();
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public String url(final String path) {
+    return "http://127.0.0.1:" + server.getLocalPort() + path;
+  }
+
+  /**
+   * Number of accepted connections
+   */
+  public synchronized int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Number of received requests
+   */
+  public synchronized int getRequests() {
+    return requests;
+  }
+
+  /**
+   * Wait until given number of requests has been received
+   */
+  public synchronized void awaitRequests(final int count) throws InterruptedException {
+    final long end = System.currentTimeMillis() + 5000;
+    while (requests < count && System.currentTimeMillis() < end) {
+      wait(end - System.currentTimeMillis());
+    }
+  }
+
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+    }
+    close(server);
+    for (int i = 0; i < sockets.size(); i++) {
+      close((Socket) sockets.elementAt(i));
+    }
+  }
+
+  private void accept() {
+    while (true) {
+      final Socket socket;
+      final int number;
+      try {
+        socket = server.accept();
+        socket.setTcpNoDelay(true);
+      } catch (final IOException e) {
+        return;
+      }
+      synchronized (this) {
+        if (stopped) {
+          close(socket);
+          return;
+        }
+        number = connections++;
+      }
+      sockets.addElement(socket);
+      new Exchange(socket, number).start();
+    }
+  }
+
+  private synchronized void requestReceived() {
+    requests++;
+    notifyAll();
+  }
+
+  private static void close(final ServerSocket socket) {
+    try {
+      socket.close();
+    } catch (final IOException ignore) {
+    }
+  }
+
+  private static void close(final Socket socket) {
+    try {
+      socket.close();
+    } catch (final IOException ignore) {
+    }
+  }
+
+  private static byte[] toBytes(final String value) {
+    try {
+      return value.getBytes("iso-8859-1");
+    } catch (final IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  private static void sleepUntil(final long time) throws InterruptedException {
+    final long delay = time - System.currentTimeMillis();
+    if (delay > 0) {
+      Thread.sleep(delay);
+    }
+  }
+
+  /**
+   * Connection to client. Requests are read on own thread, so that pipelined
+   * requests are received while earlier responses are delayed.
+   */
+  private class Exchange extends Thread {
+    private final Socket socket;
+    private final int number;
+    // path and receive time of unanswered requests, null at end of requests
+    private final Vector pending = new Vector();
+
+    Exchange(final Socket socket, final int number) {
+      this.socket = socket;
+      this.number = number;
+      setDaemon(true);
+    }
+
+    public void run() {
+      final Thread reader = new Thread() {
+        public void run() {
+          readRequests();
+        }
+      };
+      reader.setDaemon(true);
+
+      try {
+        // handshake
+        Thread.sleep(rtt);
+        reader.start();
+        final OutputStream os = socket.getOutputStream();
+        for (int request = 0;; request++) {
+          final Object[] next = nextRequest();
+          if (next == null) {
+            break;
+          }
+          sleepUntil(((Long) next[1]).longValue() + rtt);
+          final Response response = responder.respond(number, request, (String) next[0]);
+          os.write(response.data);
+          os.flush();
+          if (response.close) {
+            break;
+          }
+        }
+      } catch (final IOException ignore) {
+      } catch (final InterruptedException ignore) {
+      } finally {
+        close(socket);
+      }
+    }
+
+    private synchronized Object[] nextRequest() throws InterruptedException {
+      while (pending.isEmpty()) {
+        wait();
+      }
+      final Object[] next = (Object[]) pending.elementAt(0);
+      pending.removeElementAt(0);
+      return next;
+    }
+
+    private synchronized void add(final Object[] request) {
+      pending.addElement(request);
+      notifyAll();
+    }
+
+    private void readRequests() {
+      try {
+        final InputStream is = socket.getInputStream();
+        while (true) {
+          final String requestLine = readLine(is);
+          if (requestLine == null) {
+            break;
+          }
+          String header;
+          while ((header = readLine(is)) != null && header.length() > 0) {
+          }
+          final String[] parts = requestLine.split(" ");
+          add(new Object[] { parts[1], new Long(System.currentTimeMillis()) });
+          requestReceived();
+        }
+      } catch (final IOException ignore) {
+      }
+      add(null);
+    }
+
+    private String readLine(final InputStream is) throws IOException {
+      final StringBuffer line = new StringBuffer();
+      int c;
+      while ((c = is.read()) != '\n') {
+        if (c == -1) {
+          return null;
+        }
+        if (c != '\r') {
+          line.append((char) c);
+        }
+      }
+      return line.toString();
+    }
+  }
+}
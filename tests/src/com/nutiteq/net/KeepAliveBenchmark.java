@@ -0,0 +1,107 @@
+package com.nutiteq.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tile download throughput of {@link KeepAliveDownloadStreamOpener} compared
+ * to {@link DefaultDownloadStreamOpener}, against {@link HttpStandIn} with
+ * simulated round trip time. Workers download tiles one at a time, same as
+ * network workers in {@link com.nutiteq.task.PooledTasksRunner}.
+ *
+ * Default opener runs with JVM keep-alive disabled, as MIDP connections are
+ * not reused after close.
+ */
+public class KeepAliveBenchmark {
+  private static final long[] RTTS = { 50, 200, 500 };
+  private static final int TILES = 32;
+  private static final int TILE_SIZE = 8 * 1024;
+
+  public static void main(final String[] args) throws Exception {
+    System.setProperty("http.keepAlive", "false");
+    final StringBuffer body = new StringBuffer(TILE_SIZE);
+    for (int i = 0; i < TILE_SIZE; i++) {
+      body.append((char) ('a' + i % 26));
+    }
+    final HttpStandIn.Response tile = HttpStandIn.Response.ok(body.toString());
+
+    System.out.println("rtt ms | opener | workers | tiles/s | connections");
+    for (int i = 0; i < RTTS.length; i++) {
+      final long rtt = RTTS[i];
+      run(rtt, tile, "default", 2, 0);
+      run(rtt, tile, "keep-alive", 2, 1);
+      run(rtt, tile, "default", 8, 0);
+      run(rtt, tile, "keep-alive", 8, 1);
+      run(rtt, tile, "pipelined", 8, KeepAliveDownloadStreamOpener.DEFAULT_PIPELINE_DEPTH);
+    }
+  }
+
+  /**
+   * @param pipelineDepth
+   *          0 for default opener
+   */
+  private static void run(final long rtt, final HttpStandIn.Response tile, final String name,
+      final int workers, final int pipelineDepth) throws Exception {
+    final HttpStandIn server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        return tile;
+      }
+    }, rtt);
+
+    final KeepAliveDownloadStreamOpener keepAlive = new KeepAliveDownloadStreamOpener();
+    final DownloadStreamOpener opener;
+    if (pipelineDepth == 0) {
+      opener = new DefaultDownloadStreamOpener();
+    } else {
+      keepAlive.setPipelineDepth(pipelineDepth);
+      opener = keepAlive;
+    }
+
+    final int[] next = new int[1];
+    final Thread[] threads = new Thread[workers];
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < workers; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          final Reader reader = new Reader();
+          while (true) {
+            final int tileNumber;
+            synchronized (next) {
+              if (next[0] == TILES) {
+                return;
+              }
+              tileNumber = next[0]++;
+            }
+            opener.openInputStream(reader, server.url("/tile/" + tileNumber));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < workers; i++) {
+      threads[i].join();
+    }
+    final long time = System.currentTimeMillis() - start;
+
+    keepAlive.closeConnections();
+    server.stop();
+    System.out.println(rtt + " | " + name + " | " + workers + " | "
+        + (TILES * 10000 / time) / 10.0 + " | " + server.getConnections());
+  }
+
+  private static class Reader implements DownloadStreamWaiter {
+    private final byte[] buffer = new byte[4096];
+
+    public void streamOpened(final InputStream stream) throws IOException {
+      int read = 0;
+      while (read != -1) {
+        read = stream.read(buffer);
+      }
+    }
+
+    public void error(final int errorCode, final String message) {
+      System.out.println("Error " + errorCode + " " + message);
+    }
+  }
+}
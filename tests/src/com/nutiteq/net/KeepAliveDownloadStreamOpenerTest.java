@@ -0,0 +1,204 @@
+package com.nutiteq.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class KeepAliveDownloadStreamOpenerTest extends TestCase {
+  private HttpStandIn server;
+  private KeepAliveDownloadStreamOpener opener;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    opener = new KeepAliveDownloadStreamOpener();
+  }
+
+  protected void tearDown() throws Exception {
+    opener.closeConnections();
+    if (server != null) {
+      server.stop();
+    }
+    super.tearDown();
+  }
+
+  public void testContentLengthResponsesReuseConnection() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        return HttpStandIn.Response.ok("tile" + path);
+      }
+    });
+
+    assertEquals("tile/1", download("/1"));
+    assertEquals("tile/2", download("/2"));
+    assertEquals("tile/3", download("/3"));
+    assertEquals(1, server.getConnections());
+  }
+
+  public void testChunkedResponseReusesConnection() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        return new HttpStandIn.Response("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "5;name=value\r\nhello\r\n" + "7\r\n world!\r\n" + "0\r\nX-Trailer: 1\r\n\r\n",
+            false);
+      }
+    });
+
+    assertEquals("hello world!", download("/1"));
+    assertEquals("hello world!", download("/2"));
+    assertEquals(1, server.getConnections());
+  }
+
+  public void testUnreadBodyIsSkippedForNextResponse() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        if (request == 0) {
+          return new HttpStandIn.Response("HTTP/1.1 404 Not Found\r\nContent-Length: 9\r\n\r\n"
+              + "not found", false);
+        }
+        return HttpStandIn.Response.ok("found");
+      }
+    });
+
+    final Waiter missing = new Waiter();
+    opener.openInputStream(missing, server.url("/missing"));
+    assertEquals(DownloadStreamOpener.RESPONCE_NOT_OK, missing.errorCode);
+    assertEquals("found", download("/found"));
+    assertEquals(1, server.getConnections());
+  }
+
+  public void testBodyUntilCloseOpensNewConnection() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        return new HttpStandIn.Response("HTTP/1.1 200 OK\r\n\r\nuntil close" + path, true);
+      }
+    });
+
+    assertEquals("until close/1", download("/1"));
+    assertEquals("until close/2", download("/2"));
+    assertEquals(2, server.getConnections());
+  }
+
+  public void testHttp10ResponseClosesConnection() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        // server keeps socket open, client must not reuse it
+        return new HttpStandIn.Response("HTTP/1.0 200 OK\r\nContent-Length: 3\r\n\r\nold",
+            false);
+      }
+    });
+
+    assertEquals("old", download("/1"));
+    assertEquals("old", download("/2"));
+    assertEquals(2, server.getConnections());
+  }
+
+  public void testConnectionCloseWhilePipelinedRetriesOnNewConnection() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) throws InterruptedException {
+        if (connection == 0) {
+          // answer first request only after second one has been pipelined
+          server.awaitRequests(2);
+          return new HttpStandIn.Response("HTTP/1.1 200 OK\r\nConnection: close\r\n"
+              + "Content-Length: 5\r\n\r\nfirst", true);
+        }
+        return HttpStandIn.Response.ok("retried" + path);
+      }
+    });
+    opener.setMaxConnectionsPerHost(1);
+
+    final Download first = new Download("/1");
+    first.start();
+    server.awaitRequests(1);
+    final Download second = new Download("/2");
+    second.start();
+    first.join(5000);
+    second.join(5000);
+
+    assertEquals("first", first.waiter.body);
+    assertEquals("retried/2", second.waiter.body);
+    assertEquals(2, server.getConnections());
+    assertEquals(3, server.getRequests());
+  }
+
+  public void testRequestOnStaleConnectionIsRetried() throws Exception {
+    // first connection is closed by server after response, as on idle timeout
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        final String body = "tile" + path;
+        return new HttpStandIn.Response("HTTP/1.1 200 OK\r\nContent-Length: " + body.length()
+            + "\r\n\r\n" + body, connection == 0);
+      }
+    });
+
+    assertEquals("tile/1", download("/1"));
+    // let client see the close
+    Thread.sleep(100);
+    assertEquals("tile/2", download("/2"));
+    assertEquals(2, server.getConnections());
+  }
+
+  public void testErrorIsReportedWhenServerIsDown() throws Exception {
+    server = new HttpStandIn(new HttpStandIn.Responder() {
+      public HttpStandIn.Response respond(final int connection, final int request,
+          final String path) {
+        return HttpStandIn.Response.ok("");
+      }
+    });
+    final String url = server.url("/1");
+    server.stop();
+    server = null;
+
+    final Waiter waiter = new Waiter();
+    opener.openInputStream(waiter, url);
+    assertEquals(DownloadStreamOpener.NETWORK_ERROR, waiter.errorCode);
+    assertNull(waiter.body);
+  }
+
+  private String download(final String path) {
+    final Waiter waiter = new Waiter();
+    opener.openInputStream(waiter, server.url(path));
+    assertEquals(0, waiter.errorCode);
+    return waiter.body;
+  }
+
+  private class Download extends Thread {
+    private final String path;
+    private final Waiter waiter = new Waiter();
+
+    Download(final String path) {
+      this.path = path;
+    }
+
+    public void run() {
+      opener.openInputStream(waiter, server.url(path));
+    }
+  }
+
+  private static class Waiter implements DownloadStreamWaiter {
+    private String body;
+    private int errorCode;
+
+    public void streamOpened(final InputStream stream) throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[3];
+      int read;
+      while ((read = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      body = new String(out.toByteArray(), "iso-8859-1");
+    }
+
+    public void error(final int errorCode, final String message) {
+      this.errorCode = errorCode;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.nutiteq.task;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.components.MapTile;
+import com.nutiteq.fs.AndroidFileSystem;
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.MapTilesRequestor;
+import com.nutiteq.maps.StoredMap;
+
+public class ReadStoredMapTileTaskTest extends TestCase {
+  private static final int ZOOM = 2;
+
+  private File dir;
+  private AndroidFileSystem fs;
+  private StoredMap map;
+  private Requestor requestor;
+  private MapTileSearchTask search;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("storedmap", "");
+    dir.delete();
+    new File(dir, "test_" + ZOOM).mkdirs();
+    final FileOutputStream conf = new FileOutputStream(new File(dir, "cache.conf"));
+    conf.write("tiles_per_file=4\n".getBytes());
+    conf.close();
+
+    fs = new AndroidFileSystem();
+    map = new StoredMap("test", dir.getAbsolutePath(), true);
+    map.initializeConfigUsingFs(fs);
+    requestor = new Requestor();
+    search = new MapTileSearchTask(requestor, new GeoMap[0], null) {
+      public void retrieveSuccess() {
+      }
+
+      public void retrieveErrorFor(final MapTile[] errorTiles) {
+      }
+    };
+  }
+
+  protected void tearDown() throws Exception {
+    final File zoomDir = new File(dir, "test_" + ZOOM);
+    final File[] files = zoomDir.listFiles();
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+    zoomDir.delete();
+    new File(dir, "cache.conf").delete();
+    dir.delete();
+    super.tearDown();
+  }
+
+  public void testTilesOfSameFileAreRead() throws IOException {
+    writeFile("first");
+    final MapTile[] tiles = { tile(0, 0), tile(1, 0), tile(0, 1), tile(1, 1) };
+    new ReadStoredMapTileTask(search, tiles, map, fs).execute();
+    assertEquals("first 0 0", new String(tiles[0].getData()));
+    assertEquals("first 1 0", new String(tiles[1].getData()));
+    assertEquals("first 0 1", new String(tiles[2].getData()));
+    assertEquals("first 1 1", new String(tiles[3].getData()));
+  }
+
+  public void testReplacedFileIsReadWithNewHeader() throws IOException {
+    writeFile("first");
+    final MapTile first = tile(1, 1);
+    new ReadStoredMapTileTask(search, new MapTile[] { first }, map, fs).execute();
+    assertEquals("first 1 1", new String(first.getData()));
+
+    // tiles move in replaced file
+    writeFile("replaced");
+    final MapTile replaced = tile(1, 1);
+    new ReadStoredMapTileTask(search, new MapTile[] { replaced }, map, fs).execute();
+    assertEquals("replaced 1 1", new String(replaced.getData()));
+  }
+
+  private MapTile tile(final int x, final int y) {
+    return new MapTile(x * map.getTileSize(), y * map.getTileSize(), ZOOM, map, requestor);
+  }
+
+  private void writeFile(final String prefix) throws IOException {
+    final DataOutputStream mgm = new DataOutputStream(new FileOutputStream(new File(dir, "test_"
+        + ZOOM + "/0_0.mgm")));
+    mgm.writeShort(4);
+    int end = 6 * 4 + 2;
+    for (int dy = 0; dy < 2; dy++) {
+      for (int dx = 0; dx < 2; dx++) {
+        end += data(prefix, dx, dy).length;
+        mgm.writeByte(dx);
+        mgm.writeByte(dy);
+        mgm.writeInt(end);
+      }
+    }
+    for (int dy = 0; dy < 2; dy++) {
+      for (int dx = 0; dx < 2; dx++) {
+        mgm.write(data(prefix, dx, dy));
+      }
+    }
+    mgm.close();
+  }
+
+  private static byte[] data(final String prefix, final int dx, final int dy) {
+    return (prefix + " " + dx + " " + dy).getBytes();
+  }
+
+  private static class Requestor implements MapTilesRequestor {
+    public MapTile getRequiredTile() {
+      return null;
+    }
+
+    public MapTile[] getAllRequiredTiles() {
+      return new MapTile[0];
+    }
+
+    public void tileRetrieved(final MapTile tile) {
+    }
+
+    public boolean requiresMoreTiles() {
+      return false;
+    }
+
+    public void updateTile(final MapTile mapTile) {
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package com.nutiteq.task;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import com.nutiteq.components.MapTile;
+import com.nutiteq.fs.AndroidFileSystem;
+import com.nutiteq.maps.GeoMap;
+import com.nutiteq.maps.MapTilesRequestor;
+import com.nutiteq.maps.StoredMap;
+import com.nutiteq.maps.TilePackMap;
+import com.nutiteq.maps.TilePackWriter;
+
+/**
+ * Screen tile read time from tile pack compared to .mgm stored map with
+ * multiple tiles per file, both read with their tasks through
+ * {@link AndroidFileSystem}. Same tiles are written to both, screens of 5x4
+ * tiles are read from random positions.
+ */
+public class TilePackBenchmark {
+  private static final int ZOOM = 14;
+  private static final int FIRST = 9000;
+  private static final int SIDE = 64;
+  private static final int TILE_SIZE = 256;
+  private static final int DATA_SIZE = 6 * 1024;
+  private static final int TILES_PER_FILE = 16;
+  private static final int SCREEN_COLUMNS = 5;
+  private static final int SCREEN_ROWS = 4;
+  private static final int SCREENS = 500;
+
+  public static void main(final String[] args) throws Exception {
+    final File dir = File.createTempFile("tilepack", "");
+    dir.delete();
+    dir.mkdirs();
+    final File packFile = new File(dir, "bench.ntpk");
+    writeTiles(dir, packFile);
+
+    final AndroidFileSystem fs = new AndroidFileSystem();
+    final StoredMap storedMap = new StoredMap("bench", dir.getAbsolutePath() + "/mgm", true);
+    storedMap.initializeConfigUsingFs(fs);
+    final TilePackMap packMap = new TilePackMap("bench", packFile.getAbsolutePath(), 0, 18);
+
+    // warm up, fills header caches of both tasks
+    run(fs, storedMap, packMap, SCREENS / 5, new Random(1));
+    run(fs, storedMap, packMap, SCREENS, new Random(2));
+
+    delete(dir);
+  }
+
+  private static void run(final AndroidFileSystem fs, final StoredMap storedMap,
+      final TilePackMap packMap, final int screens, final Random random) {
+    final Requestor requestor = new Requestor();
+    final MapTileSearchTask search = new MapTileSearchTask(requestor, new GeoMap[0], null) {
+      public void retrieveSuccess() {
+      }
+
+      public void retrieveErrorFor(final MapTile[] errorTiles) {
+        requestor.failed += errorTiles.length;
+      }
+    };
+
+    long storedTime = 0;
+    long packTime = 0;
+    for (int i = 0; i < screens; i++) {
+      final int left = FIRST + random.nextInt(SIDE - SCREEN_COLUMNS + 1);
+      final int top = FIRST + random.nextInt(SIDE - SCREEN_ROWS + 1);
+
+      long start = System.nanoTime();
+      new ReadStoredMapTileTask(search, screen(storedMap, requestor, left, top), storedMap, fs)
+          .execute();
+      storedTime += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      new ReadTilePackTask(search, screen(packMap, requestor, left, top), packMap, fs)
+          .execute();
+      packTime += System.nanoTime() - start;
+    }
+
+    final int tiles = screens * SCREEN_COLUMNS * SCREEN_ROWS;
+    System.out.println(screens + " screens: .mgm " + storedTime / screens / 1000
+        + " us/screen, tile pack " + packTime / screens / 1000 + " us/screen, read "
+        + requestor.retrieved + "/" + tiles * 2 + " tiles, failed " + requestor.failed);
+  }
+
+  private static MapTile[] screen(final GeoMap map, final MapTilesRequestor requestor,
+      final int left, final int top) {
+    final MapTile[] result = new MapTile[SCREEN_COLUMNS * SCREEN_ROWS];
+    for (int y = 0; y < SCREEN_ROWS; y++) {
+      for (int x = 0; x < SCREEN_COLUMNS; x++) {
+        result[y * SCREEN_COLUMNS + x] = new MapTile((left + x) * TILE_SIZE, (top + y)
+            * TILE_SIZE, ZOOM, map, requestor);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Write same tiles to .mgm files (y counted from north) and tile pack (TMS
+   * rows)
+   */
+  private static void writeTiles(final File dir, final File packFile) throws IOException {
+    final File mgmDir = new File(dir, "mgm");
+    final File zoomDir = new File(mgmDir, "bench_" + ZOOM);
+    zoomDir.mkdirs();
+    final FileOutputStream conf = new FileOutputStream(new File(mgmDir, "cache.conf"));
+    conf.write(("tiles_per_file=" + TILES_PER_FILE + "\n").getBytes());
+    conf.close();
+
+    final TilePackWriter pack = new TilePackWriter(packFile);
+    final int tpfx = 4;
+    final int tpfy = 4;
+    final byte[] data = new byte[DATA_SIZE];
+    new Random(0).nextBytes(data);
+    for (int fx = FIRST / tpfx; fx < (FIRST + SIDE) / tpfx; fx++) {
+      for (int fy = FIRST / tpfy; fy < (FIRST + SIDE) / tpfy; fy++) {
+        final DataOutputStream mgm = new DataOutputStream(new FileOutputStream(new File(
+            zoomDir, fx + "_" + fy + ".mgm")));
+        mgm.writeShort(TILES_PER_FILE);
+        int end = 6 * TILES_PER_FILE + 2;
+        for (int dy = 0; dy < tpfy; dy++) {
+          for (int dx = 0; dx < tpfx; dx++) {
+            end += DATA_SIZE;
+            mgm.writeByte(dx);
+            mgm.writeByte(dy);
+            mgm.writeInt(end);
+          }
+        }
+        for (int dy = 0; dy < tpfy; dy++) {
+          for (int dx = 0; dx < tpfx; dx++) {
+            mgm.write(data);
+            final int y = fy * tpfy + dy;
+            pack.add(ZOOM, fx * tpfx + dx, (1 << ZOOM) - 1 - y, data);
+          }
+        }
+        mgm.close();
+      }
+    }
+    pack.close();
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (int i = 0; i < children.length; i++) {
+        delete(children[i]);
+      }
+    }
+    file.delete();
+  }
+
+  private static class Requestor implements MapTilesRequestor {
+    private int retrieved;
+    private int failed;
+
+    public MapTile getRequiredTile() {
+      return null;
+    }
+
+    public MapTile[] getAllRequiredTiles() {
+      return new MapTile[0];
+    }
+
+    public void tileRetrieved(final MapTile tile) {
+      retrieved++;
+    }
+
+    public boolean requiresMoreTiles() {
+      return false;
+    }
+
+    public void updateTile(final MapTile mapTile) {
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.nutiteq.task;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import com.nutiteq.fs.AndroidFileSystem;
+import com.nutiteq.fs.FileSystem;
+import com.nutiteq.fs.FileSystemConnection;
+import com.nutiteq.maps.TilePackWriter;
+
+public class TilePackFileTest extends TestCase {
+  private File file;
+  private AndroidFileSystem fs;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("tilepack", ".ntpk");
+    fs = new AndroidFileSystem();
+  }
+
+  protected void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testWrittenTilesAreFoundInEveryBlock() throws IOException {
+    final TilePackWriter writer = new TilePackWriter(file, 4);
+    // added out of order, rows and columns with gaps
+    for (int zoom = 3; zoom >= 1; zoom--) {
+      for (int row = 7; row >= 0; row -= 2) {
+        for (int column = 0; column < 8; column += 3) {
+          writer.add(zoom, column, row, tileData(zoom, column, row));
+        }
+      }
+    }
+    writer.close();
+    assertFalse(new File(file.getPath() + ".data").exists());
+
+    final TilePackFile pack = TilePackFile.open(fs, path());
+    final long[] location = new long[2];
+    for (int zoom = 1; zoom <= 3; zoom++) {
+      for (int row = 0; row < 8; row++) {
+        for (int column = 0; column < 8; column++) {
+          final boolean stored = row % 2 == 1 && column % 3 == 0;
+          assertEquals(zoom + "/" + column + "/" + row, stored, pack.find(fs, zoom, column,
+              row, location));
+          if (stored) {
+            final byte[] data = fs.readFile(path(), location[0], (int) location[1]);
+            assertEquals(new String(tileData(zoom, column, row)), new String(data));
+          }
+        }
+      }
+    }
+    assertFalse(pack.find(fs, 4, 0, 1, location));
+  }
+
+  public void testTilesAreFoundWithoutRandomAccess() throws IOException {
+    final TilePackWriter writer = new TilePackWriter(file, 2);
+    for (int i = 0; i < 9; i++) {
+      writer.add(5, i, i, tileData(5, i, i));
+    }
+    writer.close();
+
+    final FileSystem streamOnly = new StreamFileSystem();
+    final TilePackFile pack = TilePackFile.open(streamOnly, path());
+    final long[] location = new long[2];
+    for (int i = 0; i < 9; i++) {
+      assertTrue(pack.find(streamOnly, 5, i, i, location));
+      assertEquals(tileData(5, i, i).length, location[1]);
+    }
+    assertFalse(pack.find(streamOnly, 5, 1, 2, location));
+    assertTrue(pack.isCurrent(streamOnly));
+  }
+
+  public void testDuplicateTileIsRejected() throws IOException {
+    final TilePackWriter writer = new TilePackWriter(file);
+    writer.add(1, 0, 0, tileData(1, 0, 0));
+    writer.add(1, 0, 0, tileData(1, 0, 0));
+    try {
+      writer.close();
+      fail();
+    } catch (final IOException e) {
+      // expected
+    }
+    assertFalse(file.exists());
+  }
+
+  public void testDataOffsetsAbove4GigabytesAreRead() throws IOException {
+    final long offset = 5L * 1024 * 1024 * 1024 + 17;
+    final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.writeInt(('N' << 24) | ('T' << 16) | ('P' << 8) | 'K');
+    out.writeInt(2);
+    out.writeInt(1);
+    out.writeInt(128);
+    // zoom entry
+    out.writeInt(14);
+    out.writeInt(1);
+    out.writeLong(32);
+    // block key and tile entry
+    out.writeInt(9000);
+    out.writeInt(5000);
+    out.writeInt(9000);
+    out.writeInt(5000);
+    out.writeLong(offset);
+    out.writeInt(1234);
+    out.close();
+
+    final long[] location = new long[2];
+    assertTrue(TilePackFile.open(fs, path()).find(fs, 14, 9000, 5000, location));
+    assertEquals(offset, location[0]);
+    assertEquals(1234, location[1]);
+  }
+
+  public void testReplacedFileIsNotCurrent() throws IOException {
+    TilePackWriter writer = new TilePackWriter(file);
+    writer.add(1, 0, 0, tileData(1, 0, 0));
+    writer.close();
+    final TilePackFile pack = TilePackFile.open(fs, path());
+    assertTrue(pack.isCurrent(fs));
+
+    writer = new TilePackWriter(file);
+    writer.add(1, 0, 0, tileData(1, 0, 0));
+    writer.add(1, 1, 0, tileData(1, 1, 0));
+    writer.close();
+    assertFalse(pack.isCurrent(fs));
+  }
+
+  public void testOldVersionIsRejected() throws IOException {
+    final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    out.writeInt(('N' << 24) | ('T' << 16) | ('P' << 8) | 'K');
+    out.writeInt(1);
+    out.writeInt(0);
+    out.writeInt(0);
+    out.close();
+
+    try {
+      TilePackFile.open(fs, path());
+      fail();
+    } catch (final IOException e) {
+      // expected
+    }
+  }
+
+  private String path() {
+    return file.getAbsolutePath().substring(1);
+  }
+
+  private static byte[] tileData(final int zoom, final int column, final int row) {
+    final StringBuffer result = new StringBuffer();
+    result.append(zoom).append('/').append(column).append('/').append(row);
+    for (int i = 0; i < column; i++) {
+      result.append('.');
+    }
+    return result.toString().getBytes();
+  }
+
+  /**
+   * File system without random access
+   */
+  private static class StreamFileSystem implements FileSystem {
+    private final AndroidFileSystem fs = new AndroidFileSystem();
+
+    public byte[] readFile(final String filename) throws IOException {
+      return fs.readFile(filename);
+    }
+
+    public FileSystemConnection openConnectionToFile(final String fileName) throws IOException {
+      final byte[] data = fs.readFile(fileName);
+      return new FileSystemConnection() {
+        public InputStream openInputStream() {
+          return new ByteArrayInputStream(data);
+        }
+
+        public void close() {
+        }
+      };
+    }
+
+    public boolean isDirectory(final String filename) {
+      return false;
+    }
+
+    public Vector getRoots() {
+      return null;
+    }
+
+    public Vector listFiles(final String path) {
+      return null;
+    }
+  }
+}